@@ -0,0 +1,80 @@
+package eu.dirk.haase.concurrent;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dekoriert einen {@link ExecutorService} so, dass jede Aufgabe mit einer
+ * {@link ContextSnapshot Momentaufnahme} des Threads ausgef&uuml;hrt wird,
+ * der sie &uuml;bergeben hat.
+ * <p>
+ * Die Momentaufnahme wird bei {@link #execute(Runnable)} erzeugt - und
+ * damit auch bei {@code submit}, {@code invokeAll} und {@code invokeAny},
+ * die &uuml;ber {@link AbstractExecutorService} auf {@code execute}
+ * zur&uuml;ckgef&uuml;hrt werden. Als {@link Executor} kann der Dekorierer
+ * auch an {@link java.util.concurrent.CompletableFuture} &uuml;bergeben
+ * werden:
+ * <pre><code>
+ * final ExecutorService executor = new ContextPropagatingExecutorService(pool);
+ * final CompletableFuture&lt;List&lt;Person&gt;&gt; persons = CompletableFuture.supplyAsync(() -&gt; repository.findAll(), executor);
+ * </code></pre>
+ */
+public final class ContextPropagatingExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+
+    /**
+     * Dekoriert den angegebenen {@link ExecutorService}.
+     *
+     * @param delegate der dekorierte {@code ExecutorService}.
+     */
+    public ContextPropagatingExecutorService(final ExecutorService delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "Executor-Service can not be null");
+    }
+
+    /**
+     * Dekoriert einen einfachen {@link Executor}.
+     *
+     * @param delegate der dekorierte {@code Executor}.
+     * @return ein {@code Executor} der die Momentaufnahme &uuml;bertr&auml;gt.
+     */
+    public static Executor wrap(final Executor delegate) {
+        Objects.requireNonNull(delegate, "Executor can not be null");
+        return (command) -> delegate.execute(ContextSnapshot.capture().wrap(command));
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        this.delegate.execute(ContextSnapshot.capture().wrap(command));
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return this.delegate.shutdownNow();
+    }
+
+}
@@ -0,0 +1,96 @@
+package eu.dirk.haase.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Ein {@link ForkJoinPool}, der jede von au&szlig;en &uuml;bergebene
+ * Aufgabe mit einer {@link ContextSnapshot Momentaufnahme} des Threads
+ * ausf&uuml;hrt, der sie &uuml;bergeben hat.
+ * <p>
+ * Das gilt f&uuml;r {@code execute}, {@code submit}, {@code invoke} und
+ * {@code invokeAll}. Eine {@link ForkJoinTask} wird dazu in eine neue
+ * Aufgabe verpackt, die die urspr&uuml;ngliche mit
+ * {@link ForkJoinTask#invoke()} ausf&uuml;hrt; die urspr&uuml;ngliche
+ * Aufgabe ist danach wie gewohnt abgeschlossen.
+ * <p>
+ * Teilaufgaben, die eine Aufgabe selbst mit {@link ForkJoinTask#fork()}
+ * abspaltet, laufen dagegen ohne Momentaufnahme, weil der Pool an ihnen
+ * nicht beteiligt ist. Sie sollten mit
+ * {@link ContextSnapshot#wrapCallable(Callable)} und
+ * {@link ForkJoinTask#adapt(Callable)} erzeugt werden.
+ */
+public class ContextPropagatingForkJoinPool extends ForkJoinPool {
+
+    /**
+     * Erzeugt einen Pool mit einem Thread pro Prozessor.
+     */
+    public ContextPropagatingForkJoinPool() {
+        super();
+    }
+
+    /**
+     * Erzeugt einen Pool mit der angegebenen Anzahl von Threads.
+     *
+     * @param parallelism die Anzahl der Threads.
+     */
+    public ContextPropagatingForkJoinPool(final int parallelism) {
+        super(parallelism);
+    }
+
+    private static <T> ForkJoinTask<T> wrap(final ForkJoinTask<T> task) {
+        final ContextSnapshot snapshot = ContextSnapshot.capture();
+        return ForkJoinTask.adapt(() -> snapshot.call(task::invoke));
+    }
+
+    @Override
+    public void execute(final ForkJoinTask<?> task) {
+        super.execute(wrap(task));
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        super.execute(ContextSnapshot.capture().wrap(task));
+    }
+
+    @Override
+    public <T> T invoke(final ForkJoinTask<T> task) {
+        return super.invoke(wrap(task));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) {
+        final ContextSnapshot snapshot = ContextSnapshot.capture();
+        final List<Callable<T>> wrappedTasks = new ArrayList<>(tasks.size());
+        for (final Callable<T> task : tasks) {
+            wrappedTasks.add(snapshot.wrapCallable(task));
+        }
+        return super.invokeAll(wrappedTasks);
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final Callable<T> task) {
+        return super.submit(ContextSnapshot.capture().wrapCallable(task));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final ForkJoinTask<T> task) {
+        return super.submit(wrap(task));
+    }
+
+    @Override
+    public ForkJoinTask<?> submit(final Runnable task) {
+        return super.submit(ContextSnapshot.capture().wrap(task));
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit(final Runnable task, final T result) {
+        return super.submit(ContextSnapshot.capture().wrap(task), result);
+    }
+
+}
@@ -0,0 +1,37 @@
+package eu.dirk.haase.concurrent;
+
+/**
+ * &Uuml;bertr&auml;gt einen Teil des Zustands, der an den aktuellen Thread
+ * gebunden ist, in einen anderen Thread (siehe {@link ContextSnapshot}).
+ * <p>
+ * Implementiert wird dieses Interface zum Beispiel von den Registries f&uuml;r
+ * Ressourcen und Flushables sowie vom {@code ThreadLocalImpersonator}. Diese
+ * melden sich bei ihrer Erzeugung mit
+ * {@link ContextSnapshot#register(ContextPropagator)} an.
+ *
+ * @param <S> der Typ des Zustands.
+ */
+public interface ContextPropagator<S> {
+
+    /**
+     * Liest den Zustand des aktuellen Threads.
+     * <p>
+     * Wird im Thread aufgerufen, der eine Aufgabe an einen anderen Thread
+     * &uuml;bergibt.
+     *
+     * @return der Zustand des aktuellen Threads (auch {@code null}).
+     */
+    S capture();
+
+    /**
+     * F&uuml;hrt die Operation mit dem gelesenen Zustand aus und stellt
+     * danach den vorherigen Zustand des aktuellen Threads wieder her.
+     * <p>
+     * Wird im Thread aufgerufen, der die Aufgabe ausf&uuml;hrt.
+     *
+     * @param state     der Zustand aus {@link #capture()}.
+     * @param operation die Operation.
+     */
+    void runWith(S state, Runnable operation);
+
+}
@@ -0,0 +1,181 @@
+package eu.dirk.haase.concurrent;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Momentaufnahme des Zustands, der an den aktuellen Thread gebunden ist,
+ * um ihn in einem anderen Thread wiederherzustellen.
+ * <p>
+ * Die Momentaufnahme wird mit {@link #capture()} im aufrufenden Thread
+ * erzeugt und mit {@link #run(Runnable)} (oder einer der
+ * {@code wrap}-Methoden) im ausf&uuml;hrenden Thread angewendet:
+ * <pre><code>
+ * final ContextSnapshot snapshot = ContextSnapshot.capture();
+ * executor.execute(snapshot.wrap(() -&gt; {
+ *    // Hier gilt der Zustand des aufrufenden Threads.
+ *    ...
+ * }));
+ * </code></pre>
+ * Einfacher ist es, die Aufgaben an einen
+ * {@link ContextPropagatingExecutorService} oder einen
+ * {@link ContextPropagatingForkJoinPool} zu &uuml;bergeben.
+ * <p>
+ * Was &uuml;bertragen wird, bestimmen die angemeldeten
+ * {@link ContextPropagator}en:
+ * <ul>
+ * <li>der impersonierte User eines {@code ThreadLocalImpersonator}s,</li>
+ * <li>der aktuelle {@code ResourceScope} und damit die Ressourcen einer
+ * {@code ThreadLocalResourceScopedRegistry},</li>
+ * <li>die Reihenfolge der Flushes: ausstehende Flushables werden bei
+ * {@link #capture()} abgesetzt, die Flushables einer Aufgabe an ihrem
+ * Ende.</li>
+ * </ul>
+ * Ressourcen, die an den Thread gebunden sind, werden dagegen nicht
+ * geteilt - deren Container (zum Beispiel {@link java.util.HashMap}s)
+ * sind nicht thread-safe. Jede Aufgabe bekommt eigene, leere Container, die
+ * an ihrem Ende wieder verworfen werden; so kann auch keine Ressource von
+ * einer Aufgabe zur n&auml;chsten im selben Pool-Thread gelangen.
+ * <p>
+ * Die Propagatoren werden in der Reihenfolge ihrer Anmeldung
+ * geschachtelt: der zuerst angemeldete umschlie&szlig;t alle anderen.
+ */
+public final class ContextSnapshot {
+
+    private static final List<WeakReference<ContextPropagator<?>>> PROPAGATORS = new CopyOnWriteArrayList<>();
+
+    private final ContextPropagator<Object>[] propagators;
+    private final Object[] states;
+
+    private ContextSnapshot(final ContextPropagator<Object>[] propagators, final Object[] states) {
+        this.propagators = propagators;
+        this.states = states;
+    }
+
+    /**
+     * Erzeugt eine Momentaufnahme des Zustands des aktuellen Threads.
+     *
+     * @return die Momentaufnahme.
+     */
+    @SuppressWarnings("unchecked")
+    public static ContextSnapshot capture() {
+        final List<ContextPropagator<Object>> propagatorList = new ArrayList<>(PROPAGATORS.size());
+        for (final WeakReference<ContextPropagator<?>> ref : PROPAGATORS) {
+            final ContextPropagator<?> propagator = ref.get();
+            if (propagator != null) {
+                propagatorList.add((ContextPropagator<Object>) propagator);
+            }
+        }
+        final ContextPropagator<Object>[] propagators = (ContextPropagator<Object>[]) propagatorList.toArray(new ContextPropagator<?>[0]);
+        final Object[] states = new Object[propagators.length];
+        for (int i = 0; propagators.length > i; ++i) {
+            states[i] = propagators[i].capture();
+        }
+        return new ContextSnapshot(propagators, states);
+    }
+
+    /**
+     * Meldet einen {@link ContextPropagator} an.
+     * <p>
+     * Der Propagator wird nur schwach referenziert; er bleibt angemeldet
+     * solange sein Besitzer (zum Beispiel eine Registry) erreichbar ist.
+     *
+     * @param propagator der Propagator.
+     */
+    public static void register(final ContextPropagator<?> propagator) {
+        PROPAGATORS.removeIf((ref) -> ref.get() == null);
+        PROPAGATORS.add(new WeakReference<>(propagator));
+    }
+
+    /**
+     * F&uuml;hrt die Operation mit dieser Momentaufnahme aus und liefert
+     * ihr Ergebnis.
+     *
+     * @param operation die Operation.
+     * @param <T>       der generische Typ des Ergebnisses.
+     * @return das Ergebnis der Operation.
+     * @throws Exception die Exception der Operation.
+     */
+    public <T> T call(final Callable<? extends T> operation) throws Exception {
+        final Object[] result = new Object[1];
+        final Exception[] exception = new Exception[1];
+        run(() -> {
+            try {
+                result[0] = operation.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                exception[0] = ex;
+            }
+        });
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        @SuppressWarnings("unchecked") final T value = (T) result[0];
+        return value;
+    }
+
+    /**
+     * F&uuml;hrt die Operation mit dieser Momentaufnahme aus. Danach gilt
+     * wieder der vorherige Zustand des ausf&uuml;hrenden Threads.
+     *
+     * @param operation die Operation.
+     */
+    public void run(final Runnable operation) {
+        run(0, operation);
+    }
+
+    private void run(final int index, final Runnable operation) {
+        if (this.propagators.length == index) {
+            operation.run();
+        } else {
+            this.propagators[index].runWith(this.states[index], () -> run(index + 1, operation));
+        }
+    }
+
+    /**
+     * Liefert ein {@link Runnable}, das die Operation mit dieser
+     * Momentaufnahme ausf&uuml;hrt.
+     *
+     * @param operation die Operation.
+     * @return die dekorierte Operation.
+     */
+    public Runnable wrap(final Runnable operation) {
+        return () -> run(operation);
+    }
+
+    /**
+     * Liefert ein {@link Callable}, das die Operation mit dieser
+     * Momentaufnahme ausf&uuml;hrt.
+     *
+     * @param operation die Operation.
+     * @param <T>       der generische Typ des Ergebnisses.
+     * @return die dekorierte Operation.
+     */
+    public <T> Callable<T> wrapCallable(final Callable<T> operation) {
+        return () -> call(operation);
+    }
+
+    /**
+     * Liefert einen {@link Supplier}, der die Operation mit dieser
+     * Momentaufnahme ausf&uuml;hrt (zum Beispiel f&uuml;r
+     * {@link java.util.concurrent.CompletableFuture#supplyAsync(Supplier)}).
+     *
+     * @param operation die Operation.
+     * @param <T>       der generische Typ des Ergebnisses.
+     * @return die dekorierte Operation.
+     */
+    public <T> Supplier<T> wrapSupplier(final Supplier<T> operation) {
+        return () -> {
+            final Object[] result = new Object[1];
+            run(() -> result[0] = operation.get());
+            @SuppressWarnings("unchecked") final T value = (T) result[0];
+            return value;
+        };
+    }
+
+}
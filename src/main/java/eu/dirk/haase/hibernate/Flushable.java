@@ -4,4 +4,20 @@ public interface Flushable {
 
     void flush();
 
+    /**
+     * Liefert ohne {@code flush}, ob ein {@link #flush()} &uuml;berhaupt
+     * etwas zu schreiben haben kann.
+     * <p>
+     * Die Pr&uuml;fung wird bei jedem Wechsel des Users aufgerufen und
+     * sollte daher deutlich g&uuml;nstiger sein als der {@code flush}
+     * selbst. Im Zweifel wird {@code true} geliefert; das ist auch die
+     * Standard-Implementation.
+     *
+     * @return {@code false} wenn ein {@code flush} nichts bewirken
+     * w&uuml;rde.
+     */
+    default boolean isDirty() {
+        return true;
+    }
+
 }
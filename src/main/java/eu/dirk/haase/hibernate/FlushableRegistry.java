@@ -1,15 +1,113 @@
 package eu.dirk.haase.hibernate;
 
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 public interface FlushableRegistry {
 
     static FlushableRegistry newInstance() {
         return new ThreadLocalFlushableRegistry();
     }
 
+    /**
+     * Erzeugt eine Registry, deren Flushables an die aktive
+     * Spring-Transaktion gebunden sind und mit deren Ende verworfen werden
+     * (siehe {@link ThreadLocalResourceRegistry.RefType#TRANSACTION}).
+     * Au&szlig;erhalb einer Transaktion sind sie an den Thread gebunden.
+     *
+     * @return die neue Registry.
+     */
+    static FlushableRegistry newTransactionInstance() {
+        return new ThreadLocalFlushableRegistry(ThreadLocalResourceRegistry.RefType.TRANSACTION);
+    }
+
+    /**
+     * Erzeugt eine Registry, die bei {@link #flushAllCurrent()} die
+     * unabh&auml;ngigen Gruppen von Flushables (siehe
+     * {@link #register(Flushable, Object)}) parallel flusht.
+     * <p>
+     * Die Gruppen werden in einem beschr&auml;nkten Pool mit h&ouml;chstens
+     * {@code parallelism} Threads geflusht. Sind alle Threads belegt, flusht
+     * der aufrufende Thread die Gruppe selbst.
+     *
+     * @param parallelism   die maximale Anzahl der Threads im Pool.
+     * @param flushListener erh&auml;lt die Dauer jedes Gruppen-Flushes
+     *                      (auch {@code null}).
+     * @return die neue Registry.
+     */
+    static FlushableRegistry newParallelInstance(final int parallelism, final FlushListener flushListener) {
+        return new ThreadLocalFlushableRegistry(ThreadLocalFlushableRegistry.newFlushExecutor(parallelism), flushListener);
+    }
+
+    /**
+     * Erzeugt eine Registry, die bei {@link #flushAllCurrent()} die
+     * unabh&auml;ngigen Gruppen von Flushables (siehe
+     * {@link #register(Flushable, Object)}) mit dem angegebenen
+     * {@link Executor} parallel flusht.
+     *
+     * @param executor      der Executor f&uuml;r die Gruppen-Flushes.
+     * @param flushListener erh&auml;lt die Dauer jedes Gruppen-Flushes
+     *                      (auch {@code null}).
+     * @return die neue Registry.
+     */
+    static FlushableRegistry newParallelInstance(final Executor executor, final FlushListener flushListener) {
+        return new ThreadLocalFlushableRegistry(executor, flushListener);
+    }
+
+    /**
+     * Wartet bis ein Flush aus {@link #flushAllCurrentAsync(Executor)} des
+     * aktuellen Threads beendet ist (Barriere).
+     * <p>
+     * Ist der asynchrone Flush mit einer Exception beendet worden, wird sie
+     * hier weitergeworfen. Alle anderen Methoden dieser Registry warten im
+     * aktuellen Thread ebenfalls auf den asynchronen Flush.
+     */
+    void awaitFlushCurrent();
+
     int flushAllCurrent();
 
+    /**
+     * Flusht alle Flushables des aktuellen Threads mit dem angegebenen
+     * {@link Executor}, w&auml;hrend der aktuelle Thread weiterarbeitet.
+     * <p>
+     * Die Flushables geh&ouml;ren weiterhin dem aktuellen Thread; die
+     * Sessions hinter ihnen sind nicht thread-safe. Bevor der aktuelle
+     * Thread die Sessions, ihre Entities oder ihre Connection wieder
+     * benutzt, muss er deshalb mit {@link #awaitFlushCurrent()} auf das
+     * Ende des Flushes warten.
+     *
+     * @param executor der Executor, der den Flush ausf&uuml;hrt.
+     * @return das Future mit der Anzahl der geflushten Flushables.
+     */
+    CompletableFuture<Integer> flushAllCurrentAsync(Executor executor);
+
     int register(Flushable flushable);
 
+    /**
+     * Registriert ein Flushable mit einer Affinit&auml;t (zum Beispiel der
+     * {@link javax.sql.DataSource} oder der physischen Connection, auf die
+     * das Flushable schreibt).
+     * <p>
+     * Flushables mit derselben Affinit&auml;t bilden eine Gruppe, die immer
+     * in der Reihenfolge der Registrierung geflusht wird. Die Gruppen
+     * untereinander gelten als unabh&auml;ngig und werden von einer
+     * parallelen Registry (siehe
+     * {@link #newParallelInstance(int, FlushListener)}) bei
+     * {@link #flushAllCurrent()} gleichzeitig geflusht. Flushables die mit
+     * {@link #register(Flushable)} registriert werden, bilden die Gruppe
+     * mit der Affinit&auml;t {@code null}.
+     * <p>
+     * Das Flushen einer Gruppe darf daher keine Flushables einer anderen
+     * Gruppe ausl&ouml;sen.
+     *
+     * @param flushable das Flushable.
+     * @param affinity  die Affinit&auml;t des Flushables (auch {@code null}).
+     * @return die Anzahl der dabei geflushten Flushables.
+     */
+    int register(Flushable flushable, Object affinity);
+
     void releaseAll();
 
     void releaseCurrent();
@@ -18,6 +116,35 @@ public interface FlushableRegistry {
 
     boolean isCurrentlyInFlushSequence();
 
+    /**
+     * Liefert ob eines der Flushables des aktuellen Threads etwas zu
+     * schreiben haben kann (siehe {@link Flushable#isDirty()}).
+     *
+     * @return {@code false} wenn ein {@link #flushAllCurrent()} nichts
+     * bewirken w&uuml;rde.
+     */
+    boolean isDirtyCurrent();
+
+    /**
+     * Erh&auml;lt die Dauer der Flushes einer Gruppe von Flushables
+     * derselben Affinit&auml;t bei {@link #flushAllCurrent()}.
+     * <p>
+     * Wird im Thread aufgerufen, der die Gruppe geflusht hat.
+     */
+    @FunctionalInterface
+    interface FlushListener {
+
+        /**
+         * @param affinity   die Affinit&auml;t der Gruppe (auch {@code null}).
+         * @param flushCount die Anzahl der geflushten Flushables der Gruppe.
+         * @param nanos      die Dauer des Flushes in Nanosekunden.
+         * @param isFailure  {@code true} wenn ein Flushable der Gruppe mit
+         *                   einer Exception beendet wurde.
+         */
+        void groupFlushed(Object affinity, int flushCount, long nanos, boolean isFailure);
+
+    }
+
     interface SequenceFlushable {
 
         void realFlush();
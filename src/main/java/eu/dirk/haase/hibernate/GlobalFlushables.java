@@ -3,6 +3,8 @@ package eu.dirk.haase.hibernate;
 import org.hibernate.SessionFactory;
 
 import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -31,16 +33,62 @@ public interface GlobalFlushables {
      *
      */
     interface CurrentFlusher {
+
+        /**
+         * Wartet bis ein Flush aus {@link #flushAllAsync()} des aktuellen
+         * Threads beendet ist (Barriere).
+         * <p>
+         * Die {@code HibernateConnection} ruft die Barriere selbst beim
+         * Commit, beim Rollback und vor jedem neuen Statement auf, die
+         * Session- und EntityManager-Proxies vor jedem Aufruf. Ohne
+         * ausstehenden asynchronen Flush kostet der Aufruf nur einen
+         * Lesezugriff. Ist der asynchrone Flush mit einer Exception beendet
+         * worden, wird sie hier weitergeworfen.
+         */
+        void awaitFlush();
+
         /**
          * @return
          */
         int flushAll();
 
+        /**
+         * Startet den Flush aller Flushables des aktuellen Threads in einem
+         * eigenen Executor und kehrt sofort zur&uuml;ck.
+         * <p>
+         * Bis der Flush beendet ist, wartet der aktuelle Thread mit
+         * {@link #awaitFlush()} an jedem Zugriff auf die Flushables (also
+         * auch bei {@link #flushAll()} und beim Wechsel der Impersonation),
+         * an jedem Aufruf einer Session oder eines EntityManagers
+         * &uuml;ber ihre Proxies sowie vor jedem neuen Statement, jedem
+         * Commit und jedem Rollback der {@code HibernateConnection}.
+         * <p>
+         * Nicht abgesichert sind Zugriffe an diesen Stellen vorbei: bis zur
+         * Barriere darf der Thread weder die Entities der Session
+         * &auml;ndern (etwa &uuml;ber Setter) noch Statements benutzen, die
+         * er vorher erzeugt hat.
+         *
+         * @return das Future mit der Anzahl der geflushten Flushables.
+         */
+        CompletableFuture<Integer> flushAllAsync();
+
         /**
          *
          * @return
          */
         boolean isCurrentlyInFlushSequence();
+
+        /**
+         * Liefert ob eines der Flushables des aktuellen Threads etwas zu
+         * schreiben haben kann.
+         * <p>
+         * Geeignet als Dirty-Signal f&uuml;r
+         * {@link eu.dirk.haase.security.Impersonator#newImpersonator(Runnable, java.util.function.BooleanSupplier)}.
+         *
+         * @return {@code false} wenn ein {@link #flushAll()} nichts
+         * bewirken w&uuml;rde.
+         */
+        boolean isDirty();
     }
 
     /**
@@ -81,16 +129,31 @@ public interface GlobalFlushables {
             this.registry = FlushableRegistry.newInstance();
         }
 
+        @Override
+        public void awaitFlush() {
+            this.registry.awaitFlushCurrent();
+        }
+
         @Override
         public int flushAll() {
             return this.registry.flushAllCurrent();
         }
 
+        @Override
+        public CompletableFuture<Integer> flushAllAsync() {
+            return this.registry.flushAllCurrentAsync(FlushExecutorHolder.EXECUTOR);
+        }
+
         @Override
         public boolean isCurrentlyInFlushSequence() {
             return this.registry.isCurrentlyInFlushSequence();
         }
 
+        @Override
+        public boolean isDirty() {
+            return this.registry.isDirtyCurrent();
+        }
+
         @Override
         public void initEntityManagerFactory(final EntityManagerFactory entityManagerFactory) {
             if (entityManagerFactory instanceof FlushableRegistry.FlushableRegistryAware) {
@@ -105,5 +168,15 @@ public interface GlobalFlushables {
             }
         }
 
+        /**
+         * Erzeugt den Executor f&uuml;r {@link #flushAllAsync()} erst beim
+         * ersten asynchronen Flush.
+         */
+        private static final class FlushExecutorHolder {
+
+            private static final Executor EXECUTOR = ThreadLocalFlushableRegistry.newFlushExecutor(Runtime.getRuntime().availableProcessors());
+
+        }
+
     }
 }
\ No newline at end of file
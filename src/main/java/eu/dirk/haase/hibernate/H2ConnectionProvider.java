@@ -3,17 +3,18 @@ package eu.dirk.haase.hibernate;
 import eu.dirk.haase.hibernate.jdbc.HibernateDataSource;
 import org.h2.jdbcx.JdbcDataSource;
 import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
 import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.util.PropertiesHelper;
 import org.springframework.jdbc.datasource.SmartDataSource;
 
-import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Properties;
 
 public class H2ConnectionProvider implements ConnectionProvider {
 
-    private DataSource dataSource;
+    private HibernateDataSource dataSource;
 
     public H2ConnectionProvider() {
     }
@@ -25,6 +26,8 @@ public class H2ConnectionProvider implements ConnectionProvider {
         ds.setUser("sa");
         ds.setPassword("sa");
         this.dataSource = new HibernateDataSource(ds);
+        this.dataSource.setLazyConnection(true);
+        this.dataSource.setPoolMaxSize(PropertiesHelper.getInt(Environment.POOL_SIZE, properties, 0));
     }
 
     @Override
@@ -48,6 +51,7 @@ public class H2ConnectionProvider implements ConnectionProvider {
 
     @Override
     public void close() throws HibernateException {
+        dataSource.close();
     }
 
     @Override
@@ -1,18 +1,126 @@
 package eu.dirk.haase.hibernate;
 
+import eu.dirk.haase.concurrent.ContextPropagator;
+import eu.dirk.haase.concurrent.ContextSnapshot;
 import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class ThreadLocalFlushableRegistry implements FlushableRegistry {
 
+    private final Function<ResourceType, FlushableList> newFlushableList;
+    private final Set<FlushableList> pendingFlushSet;
+    private final ContextPropagator<Void> propagator;
     private final ThreadLocalResourceRegistry<ResourceType, FlushableList> registry;
 
     public ThreadLocalFlushableRegistry() {
-        this.registry = ThreadLocalResourceRegistry.newInstance(ThreadLocalResourceRegistry.RefType.HARD);
+        this.registry = ThreadLocalResourceRegistry.newInstance(ResourceType.class);
+        this.propagator = new FlushPropagator();
+        this.pendingFlushSet = ConcurrentHashMap.newKeySet();
+        this.newFlushableList = (k) -> new FlushableList(null, null, null, this.pendingFlushSet);
+        ContextSnapshot.register(this.propagator);
+    }
+
+    /**
+     * Erzeugt eine Registry, die ihre Flushables mit der angegebenen
+     * Strenge speichert.
+     * <p>
+     * Mit {@link ThreadLocalResourceRegistry.RefType#TRANSACTION} geh&ouml;ren
+     * die Flushables zur aktiven Spring-Transaktion und werden mit deren
+     * Ende verworfen - auch wenn sie nicht geflusht wurden.
+     *
+     * @param refType die Strenge mit der die Flushables gespeichert werden.
+     */
+    public ThreadLocalFlushableRegistry(final ThreadLocalResourceRegistry.RefType refType) {
+        this.registry = ThreadLocalResourceRegistry.newInstance(refType);
+        this.propagator = new FlushPropagator();
+        this.pendingFlushSet = ConcurrentHashMap.newKeySet();
+        this.newFlushableList = (k) -> new FlushableList(null, null, null, this.pendingFlushSet);
+        ContextSnapshot.register(this.propagator);
+    }
+
+    /**
+     * Erzeugt eine Registry, die unabh&auml;ngige Gruppen von Flushables
+     * mit dem angegebenen {@link Executor} parallel flusht.
+     *
+     * @param executor      der Executor f&uuml;r die Gruppen-Flushes.
+     * @param flushListener erh&auml;lt die Dauer jedes Gruppen-Flushes
+     *                      (auch {@code null}).
+     */
+    public ThreadLocalFlushableRegistry(final Executor executor, final FlushListener flushListener) {
+        Objects.requireNonNull(executor, "Executor can not be null");
+        this.registry = ThreadLocalResourceRegistry.newInstance(ResourceType.class);
+        this.propagator = new FlushPropagator();
+        this.pendingFlushSet = ConcurrentHashMap.newKeySet();
+        // Flushables, die ein Pool-Thread beim Flushen einer Gruppe
+        // registriert, gehoeren zu dieser Gruppe:
+        final Runnable afterGroupFlush = this::flushAllCurrent;
+        this.newFlushableList = (k) -> new FlushableList(executor, flushListener, afterGroupFlush, this.pendingFlushSet);
+        ContextSnapshot.register(this.propagator);
+    }
+
+    /**
+     * Erzeugt den beschr&auml;nkten Pool f&uuml;r die Gruppen-Flushes und
+     * die asynchronen Flushes.
+     * <p>
+     * Der Pool h&auml;lt keine Warteschlange: sind alle Threads belegt,
+     * flusht der aufrufende Thread die Gruppe selbst. Unbenutzte Threads
+     * werden nach einer Minute beendet.
+     *
+     * @param parallelism die maximale Anzahl der Threads.
+     * @return der Pool.
+     */
+    static Executor newFlushExecutor(final int parallelism) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                1, TimeUnit.MINUTES,
+                new SynchronousQueue<>(),
+                (runnable) -> {
+                    final Thread thread = new Thread(runnable, "flushable-registry-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void awaitFlushCurrent() {
+        if (this.pendingFlushSet.isEmpty()) {
+            // Schneller Weg fuer jedes Statement und jeden Commit:
+            // kein Thread hat einen asynchronen Flush ausstehend.
+            return;
+        }
+        FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
+        if (flushableList != null) {
+            flushableList.awaitPendingFlush();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> flushAllCurrentAsync(final Executor executor) {
+        // Fehlgeschlagene Flushes beendeter Threads wirft niemand mehr weiter:
+        this.pendingFlushSet.removeIf((l) -> !l.ownerThread.isAlive());
+        FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
+        return (flushableList != null ? flushableList.flushAllAsync(executor) : CompletableFuture.completedFuture(0));
     }
 
     @Override
@@ -21,68 +129,301 @@ public class ThreadLocalFlushableRegistry implements FlushableRegistry {
         return (flushableList != null ? flushableList.flushAllAndRelease() : 0);
     }
 
+    /**
+     * Liefert die Anzahl der Threads, deren asynchroner Flush noch
+     * l&auml;uft oder deren fehlgeschlagener Flush noch nicht
+     * weitergeworfen wurde. Ist sie {@code 0}, kehrt
+     * {@link #awaitFlushCurrent()} sofort zur&uuml;ck.
+     *
+     * @return die Anzahl der ausstehenden asynchronen Flushes.
+     */
+    public int getPendingFlushCount() {
+        return this.pendingFlushSet.size();
+    }
+
     @Override
     public boolean isCurrentlyInFlushSequence() {
         FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
-        return (flushableList != null ? flushableList.isInFlushSequence : false);
+        return (flushableList != null ? flushableList.isInFlushSequence() : false);
+    }
+
+    @Override
+    public boolean isDirtyCurrent() {
+        FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
+        return (flushableList != null ? flushableList.isDirty() : false);
     }
 
     @Override
     public int register(Flushable flushable) {
-        FlushableList flushableList = registry.computeIfAbsent(ResourceType.FlushableList, (k) -> new FlushableList());
-        return flushableList.register(flushable);
+        return register(flushable, null);
+    }
+
+    @Override
+    public int register(Flushable flushable, Object affinity) {
+        FlushableList flushableList = registry.computeIfAbsent(ResourceType.FlushableList, this.newFlushableList);
+        return flushableList.register(flushable, affinity);
     }
 
     /**
      * Gibt alle Resourcen, unabh&auml;ngig von Threads,
      * aus dieser Registry frei.
+     * <p>
+     * Vorher wird auf alle asynchronen Flushes gewartet; der erste
+     * Fehler wird nach der Freigabe weitergeworfen (die &uuml;brigen als
+     * {@code suppressed}).
      */
     @Override
     public void releaseAll() {
-        registry.releaseAll();
+        Throwable failure = null;
+        try {
+            for (final FlushableList flushableList : this.pendingFlushSet) {
+                try {
+                    flushableList.awaitPendingFlush();
+                } catch (RuntimeException | Error ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    } else {
+                        failure.addSuppressed(ex);
+                    }
+                }
+            }
+        } finally {
+            registry.releaseAll();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
     }
 
     /**
      * Gibt alle Ressourcen des aktuellen Threads
      * aus dieser Registry frei.
+     * <p>
+     * Vorher wird auf einen asynchronen Flush gewartet; sein Fehler wird
+     * nach der Freigabe weitergeworfen.
      */
     @Override
     public void releaseCurrent() {
-        registry.releaseCurrent();
+        final FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
+        try {
+            if (flushableList != null) {
+                flushableList.awaitPendingFlush();
+            }
+        } finally {
+            registry.releaseCurrent();
+        }
     }
 
     @Override
     public int sizeCurrent() {
         FlushableList flushableList = registry.getCurrent(ResourceType.FlushableList);
-        return (flushableList != null ? flushableList.index2FlushableMap.size() : 0);
+        return (flushableList != null ? flushableList.size() : 0);
+    }
+
+    /**
+     * H&auml;lt die Reihenfolge der Flushes ein, wenn Aufgaben aus einem
+     * {@link ContextSnapshot} in anderen Threads ausgef&uuml;hrt werden.
+     * <p>
+     * Die Flushables eines Threads sind nicht thread-safe und werden
+     * deshalb nicht geteilt. Stattdessen werden die ausstehenden
+     * Flushables abgesetzt, bevor eine Aufgabe &uuml;bergeben wird, und die
+     * Flushables der Aufgabe an ihrem Ende: was vor der &Uuml;bergabe
+     * ge&auml;ndert wurde, sieht die Aufgabe, und was die Aufgabe
+     * &auml;ndert, ist geschrieben bevor ihr Ergebnis vorliegt.
+     */
+    private final class FlushPropagator implements ContextPropagator<Void> {
+
+        @Override
+        public Void capture() {
+            flushAllCurrent();
+            return null;
+        }
+
+        @Override
+        public void runWith(final Void state, final Runnable operation) {
+            operation.run();
+            flushAllCurrent();
+        }
+
     }
 
     enum ResourceType {
         FlushableList
     }
 
+    /**
+     * Die Flushables eines Threads in der Reihenfolge ihrer Registrierung.
+     * <p>
+     * Die Flushables werden immer vom Anfang her abgesetzt (bei
+     * {@link #flushAll()} alle, bei {@link #sequenceFlush(Slot)} bis
+     * einschlie&szlig;lich eines bestimmten Flushables). Die Liste ist
+     * daher eine Warteschlange in einem Array von {@link Slot}s: belegt
+     * ist der Bereich von {@link #head} bis ausschlie&szlig;lich
+     * {@link #tail}. Zus&auml;tzlich werden die Slots in einer
+     * Hash-Tabelle mit offener Adressierung gefunden (zuerst auf
+     * Identit&auml;t, dann mit {@link Object#equals(Object)}).
+     * <p>
+     * Die Slots werden wiederverwendet und sind zugleich die
+     * Sequenz-Funktion eines {@link SequenceFlushable}s. Registrieren und
+     * Flushen kommen deshalb ohne Boxing, ohne Kopien und - sobald das
+     * Array gro&szlig; genug ist - ohne Allokationen aus.
+     * <p>
+     * Mit einem {@link Executor} werden bei {@link #flushAll()} die Gruppen
+     * von Flushables mit derselben Affinit&auml;t parallel geflusht (siehe
+     * {@link #parallelFlush(int)}). Gibt es nur eine Gruppe, bleibt es beim
+     * sequentiellen Flush ohne Allokationen.
+     * <p>
+     * Bei {@link #flushAllAsync(Executor)} flusht ein anderer Thread die
+     * Liste. Bis dieser Flush beendet ist, wartet der Thread, dem die Liste
+     * geh&ouml;rt, an jedem Zugriff auf die Liste (siehe
+     * {@link #awaitPendingFlush()}). Solange der Flush l&auml;uft oder sein
+     * Fehler nicht weitergeworfen wurde, steht die Liste in der
+     * {@link #pendingFlushSet} ihrer Registry.
+     */
     static class FlushableList implements ThreadLocalResourceRegistry.ReleaseFunctionAware {
 
         final static boolean IS_PERSISTENCE_CONTEXT_EM_COUPLED = false;
-        final Map<Flushable, Integer> flushable2IndexMap;
-        final SortedMap<Integer, Flushable> index2FlushableMap;
-        int index;
+        private final static int INITIAL_CAPACITY = 8;
+        private final static int RETAINED_CAPACITY = 128;
+        final Runnable afterGroupFlush;
+        final Executor executor;
+        final FlushListener flushListener;
+        volatile Thread flushThread;
+        int head;
         boolean isInFlushSequence;
+        volatile Thread ownerThread;
+        volatile CompletableFuture<Integer> pendingFlush;
+        final Set<FlushableList> pendingFlushSet;
         Runnable releaseFunction;
+        Slot[] slots;
+        Slot[] table;
+        int tail;
 
-        FlushableList() {
+        FlushableList(final Executor executor, final FlushListener flushListener, final Runnable afterGroupFlush,
+                      final Set<FlushableList> pendingFlushSet) {
+            this.afterGroupFlush = afterGroupFlush;
+            this.executor = executor;
+            this.flushListener = flushListener;
+            this.pendingFlushSet = pendingFlushSet;
             this.isInFlushSequence = false;
-            this.index2FlushableMap = new TreeMap<>();
-            this.flushable2IndexMap = new HashMap<>();
+            this.slots = new Slot[INITIAL_CAPACITY];
+            this.table = new Slot[INITIAL_CAPACITY * 2];
+        }
+
+        private static int hash(final Flushable flushable) {
+            final int h = flushable.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        private static void flush(final Flushable flushable) {
+            if (flushable instanceof SequenceFlushable) {
+                final SequenceFlushable sequenceFlushable = (SequenceFlushable) flushable;
+                // Nach dem Flush ist das Flushable nicht mehr registriert:
+                sequenceFlushable.setSequenceFlushableFunction(null);
+                sequenceFlushable.realFlush();
+            } else {
+                flushable.flush();
+            }
+        }
+
+        private void append(final Flushable flushable, final Object affinity) {
+            if (this.slots.length == this.tail) {
+                if ((this.head > 0) && !this.isInFlushSequence) {
+                    compact();
+                } else {
+                    grow();
+                }
+            }
+            Slot slot = this.slots[this.tail];
+            if (slot == null) {
+                slot = new Slot();
+                this.slots[this.tail] = slot;
+            }
+            slot.flushable = flushable;
+            slot.affinity = affinity;
+            slot.hash = hash(flushable);
+            slot.position = this.tail++;
+            insert(slot);
+            if (flushable instanceof SequenceFlushable) {
+                ((SequenceFlushable) flushable).setSequenceFlushableFunction(slot);
+            }
+        }
+
+        /**
+         * Verschiebt die belegten Slots an den Anfang des Arrays; die
+         * freien Slots wandern ans Ende und werden wiederverwendet.
+         */
+        private void compact() {
+            final int size = this.tail - this.head;
+            for (int i = 0; size > i; ++i) {
+                final Slot slot = this.slots[this.head + i];
+                this.slots[this.head + i] = this.slots[i];
+                this.slots[i] = slot;
+                slot.position = i;
+            }
+            this.head = 0;
+            this.tail = size;
+        }
+
+        /**
+         * Wartet auf das Ende eines Flushes aus
+         * {@link #flushAllAsync(Executor)}. Ist dieser mit einer Exception
+         * beendet worden, wird sie hier (einmalig) weitergeworfen.
+         * <p>
+         * Im Thread, der den asynchronen Flush ausf&uuml;hrt, wird nicht
+         * gewartet.
+         */
+        void awaitPendingFlush() {
+            final CompletableFuture<Integer> currentFlush = this.pendingFlush;
+            if ((currentFlush != null) && (this.flushThread != Thread.currentThread())) {
+                this.pendingFlush = null;
+                try {
+                    currentFlush.join();
+                } catch (CompletionException ex) {
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    } else if (ex.getCause() instanceof Error) {
+                        throw (Error) ex.getCause();
+                    }
+                    throw ex;
+                } finally {
+                    this.pendingFlushSet.remove(this);
+                }
+            }
+        }
+
+        private Slot find(final Flushable flushable) {
+            final int h = hash(flushable);
+            final Slot[] currentTable = this.table;
+            final int mask = currentTable.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                final Slot slot = currentTable[i];
+                if (slot == null) {
+                    return null;
+                }
+                if ((slot.flushable == flushable) || ((slot.hash == h) && slot.flushable.equals(flushable))) {
+                    return slot;
+                }
+            }
         }
 
         private int flushAll() {
             if (!isInFlushSequence) {
                 try {
                     isInFlushSequence = true;
-                    final int countFlushed = this.index2FlushableMap.size();
-                    final Map<Integer, Flushable> flushableMap = new TreeMap<>(this.index2FlushableMap);
-                    flushableMap.forEach((k, f) -> flushAndRemove(k, f));
+                    // Flushables die waehrend des Flushens registriert
+                    // werden, bleiben fuer den naechsten Flush stehen:
+                    final int countFlushed = this.tail - this.head;
+                    if ((this.executor != null) && hasIndependentGroups(countFlushed)) {
+                        return parallelFlush(countFlushed);
+                    } else if ((this.flushListener != null) && (countFlushed > 0)) {
+                        return timedFlush(countFlushed);
+                    }
+                    for (int i = 0; countFlushed > i; ++i) {
+                        flushAndRemoveHead();
+                    }
                     return countFlushed;
                 } finally {
                     isInFlushSequence = false;
@@ -91,99 +432,358 @@ public class ThreadLocalFlushableRegistry implements FlushableRegistry {
             return 0;
         }
 
+        /**
+         * Flusht alle Flushables mit dem angegebenen {@link Executor}.
+         * <p>
+         * Das Future wird vor der &Uuml;bergabe an den Executor als
+         * {@link #pendingFlush} eingetragen: auch wenn der Executor den
+         * Flush sofort in einem anderen Thread beginnt, wartet jeder weitere
+         * Zugriff auf die Liste.
+         * <p>
+         * Ein erfolgreicher Flush tr&auml;gt die Liste selbst aus der
+         * {@link #pendingFlushSet} aus, bevor das Future fertig ist; ein
+         * fehlgeschlagener erst, wenn sein Fehler weitergeworfen wurde.
+         */
+        CompletableFuture<Integer> flushAllAsync(final Executor executor) {
+            awaitPendingFlush();
+            if (this.isInFlushSequence || (size() == 0)) {
+                return CompletableFuture.completedFuture(0);
+            }
+            final CompletableFuture<Integer> future = new CompletableFuture<>();
+            final Runnable flushTask = () -> {
+                this.flushThread = Thread.currentThread();
+                int countFlushed = 0;
+                Throwable failure = null;
+                try {
+                    countFlushed = flushAll();
+                } catch (Throwable ex) {
+                    failure = ex;
+                } finally {
+                    this.flushThread = null;
+                }
+                if (failure == null) {
+                    // Vor dem Ende austragen, sonst koennte der Thread schon
+                    // seinen naechsten asynchronen Flush eingetragen haben:
+                    this.pendingFlushSet.remove(this);
+                    future.complete(countFlushed);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            };
+            this.ownerThread = Thread.currentThread();
+            this.pendingFlushSet.add(this);
+            this.pendingFlush = future;
+            try {
+                executor.execute(flushTask);
+            } catch (RejectedExecutionException ex) {
+                flushTask.run();
+            }
+            return future;
+        }
+
         int flushAllAndRelease() {
+            awaitPendingFlush();
             final int countFlushed = flushAll();
-            ThreadLocalResourceRegistry.ReleaseFunctionAware.release(releaseFunction);
+            if ((this.slots.length > RETAINED_CAPACITY) && (size() == 0)) {
+                // Eine kleine, leere Liste bleibt fuer den naechsten
+                // Zyklus im Thread, eine grosse wird freigegeben:
+                ThreadLocalResourceRegistry.ReleaseFunctionAware.release(releaseFunction);
+            }
             return countFlushed;
         }
 
-        void flushAndRemove(final Integer index, final Flushable flushable) {
-            if (flushable instanceof SequenceFlushable) {
-                final SequenceFlushable sequenceFlushable = (SequenceFlushable) flushable;
-                sequenceFlushable.setSequenceFlushableFunction(() -> sequenceFlushable.realFlush());
-                sequenceFlushable.realFlush();
-            } else {
-                flushable.flush();
+        private void flushAndRemoveHead() {
+            final Slot slot = this.slots[this.head];
+            flush(slot.flushable);
+            remove(slot);
+            slot.flushable = null;
+            slot.affinity = null;
+            if (++this.head == this.tail) {
+                this.head = 0;
+                this.tail = 0;
             }
-            removeInternal(index);
         }
 
-        private int sequenceFlush(Integer untilIndex) {
-            if (!isInFlushSequence && this.index2FlushableMap.containsKey(untilIndex)) {
-                try {
-                    isInFlushSequence = true;
-                    final Map<Integer, Flushable> headMap = new TreeMap<>(this.index2FlushableMap.headMap(untilIndex));
-                    headMap.put(untilIndex, this.index2FlushableMap.get(untilIndex));
-                    headMap.forEach((k, f) -> flushAndRemove(k, f));
-                    return headMap.size();
-                } finally {
-                    isInFlushSequence = false;
-                }
-            } else {
-                return 0;
+        private void grow() {
+            this.slots = Arrays.copyOf(this.slots, this.slots.length * 2);
+            this.table = new Slot[this.slots.length * 2];
+            for (int i = this.head; this.tail > i; ++i) {
+                insert(this.slots[i]);
             }
         }
 
-        private int sequenceFlushIfKnown(final Flushable flushable) {
-            final Integer untilIndex = this.flushable2IndexMap.get(flushable);
-            final Integer lastIndex = lastIndexOverall();
-            if (isKnownButNotLastFlushable(untilIndex, lastIndex)) {
-                return sequenceFlush(untilIndex);
+        private boolean hasIndependentGroups(final int count) {
+            final Object affinity = this.slots[this.head].affinity;
+            for (int i = 1; count > i; ++i) {
+                if (!Objects.equals(affinity, this.slots[this.head + i].affinity)) {
+                    return true;
+                }
             }
-            return 0;
+            return false;
         }
 
-        private boolean isKnownButNotLastFlushable(Integer untilIndex, Integer lastIndex) {
-            return (untilIndex != null) && !untilIndex.equals(lastIndex);
+        private void insert(final Slot slot) {
+            final Slot[] currentTable = this.table;
+            final int mask = currentTable.length - 1;
+            int i = slot.hash & mask;
+            while (currentTable[i] != null) {
+                i = (i + 1) & mask;
+            }
+            currentTable[i] = slot;
         }
 
-        private boolean isLastAndKnownButNotIdentical(Flushable flushable, Integer flushableIndex, Integer
-                lastIndex) {
-            return (this.index2FlushableMap.get(flushableIndex) != flushable)
-                    && this.index2FlushableMap.get(flushableIndex).equals(flushable)
-                    && flushableIndex.equals(lastIndex);
+        /**
+         * Flusht die ersten {@code count} Flushables gruppiert nach ihrer
+         * Affinit&auml;t: die erste Gruppe im aktuellen Thread, alle
+         * weiteren mit dem {@link Executor}. Innerhalb einer Gruppe bleibt
+         * die Reihenfolge der Registrierung erhalten.
+         * <p>
+         * Eine Gruppe bricht bei der ersten Exception ab, die anderen
+         * Gruppen laufen weiter. Entfernt werden nur die erfolgreich
+         * geflushten Flushables; die erste Exception wird danach
+         * weitergeworfen (die &uuml;brigen als {@code suppressed}).
+         */
+        private int parallelFlush(final int count) {
+            final Map<Object, FlushGroup> groupMap = new LinkedHashMap<>();
+            for (int i = 0; count > i; ++i) {
+                final Slot slot = this.slots[this.head + i];
+                groupMap.computeIfAbsent(slot.affinity, FlushGroup::new).slotList.add(slot);
+            }
+            final List<FlushGroup> groupList = new ArrayList<>(groupMap.values());
+            final CountDownLatch finished = new CountDownLatch(groupList.size() - 1);
+            for (int i = 1; groupList.size() > i; ++i) {
+                final FlushGroup group = groupList.get(i);
+                group.finished = finished;
+                try {
+                    this.executor.execute(group);
+                } catch (RejectedExecutionException ex) {
+                    group.run();
+                }
+            }
+            groupList.get(0).run();
+            boolean isInterrupted = false;
+            while (finished.getCount() > 0) {
+                try {
+                    finished.await();
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+            final int countFlushed = removeFlushed();
+            Throwable failure = null;
+            for (final FlushGroup group : groupList) {
+                if (failure == null) {
+                    failure = group.failure;
+                } else if (group.failure != null) {
+                    failure.addSuppressed(group.failure);
+                }
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IllegalStateException(failure);
+            }
+            return countFlushed;
         }
 
-        private boolean isUnknownFlushable(Integer flushableIndex) {
-            return (flushableIndex == null);
+        boolean isDirty() {
+            awaitPendingFlush();
+            for (int i = this.head; this.tail > i; ++i) {
+                if (this.slots[i].flushable.isDirty()) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        private Integer lastIndexOverall() {
-            return (this.index2FlushableMap.isEmpty() ? null : this.index2FlushableMap.lastKey());
+        boolean isInFlushSequence() {
+            awaitPendingFlush();
+            return this.isInFlushSequence;
         }
 
-        int register(final Flushable flushable) {
-            int countFlushed = sequenceFlushIfKnown(flushable);
-            final Integer flushableIndex = this.flushable2IndexMap.get(flushable);
-            if (isUnknownFlushable(flushableIndex)) {
-                registerInternal(flushable);
+        int register(final Flushable flushable, final Object affinity) {
+            awaitPendingFlush();
+            int countFlushed = 0;
+            Slot slot = find(flushable);
+            if ((slot != null) && (slot.position != this.tail - 1)) {
+                // Bekannt, aber nicht das letzte Flushable:
+                countFlushed = sequenceFlush(slot);
+                slot = find(flushable);
+            }
+            if (slot == null) {
+                append(flushable, affinity);
             } else if (IS_PERSISTENCE_CONTEXT_EM_COUPLED
-                    && isLastAndKnownButNotIdentical(flushable, flushableIndex, lastIndexOverall())) {
+                    && (slot.flushable != flushable)
+                    && (slot.position == this.tail - 1)) {
                 countFlushed = flushAll();
-                registerInternal(flushable);
+                append(flushable, affinity);
             }
             return countFlushed;
         }
 
-        private void registerInternal(final Flushable flushable) {
-            final int currIndex = ++index;
-            this.index2FlushableMap.put(currIndex, flushable);
-            this.flushable2IndexMap.put(flushable, currIndex);
-            if (flushable instanceof SequenceFlushable) {
-                ((SequenceFlushable) flushable).setSequenceFlushableFunction(() -> sequenceFlush(currIndex));
+        /**
+         * Entfernt den Slot aus der Hash-Tabelle. Die nachfolgenden
+         * Eintr&auml;ge derselben Kette werden zur&uuml;ckgeschoben, damit
+         * keine L&uuml;cke in der Kette entsteht.
+         */
+        private void remove(final Slot slot) {
+            final Slot[] currentTable = this.table;
+            final int mask = currentTable.length - 1;
+            int i = slot.hash & mask;
+            while (currentTable[i] != slot) {
+                i = (i + 1) & mask;
+            }
+            currentTable[i] = null;
+            for (int j = (i + 1) & mask; currentTable[j] != null; j = (j + 1) & mask) {
+                final int k = currentTable[j].hash & mask;
+                // Bleibt stehen, wenn sein Platz k zyklisch in (i, j] liegt:
+                final boolean isInPlace = (i <= j) ? ((i < k) && (k <= j)) : ((i < k) || (k <= j));
+                if (!isInPlace) {
+                    currentTable[i] = currentTable[j];
+                    currentTable[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        /**
+         * Entfernt die von {@link #parallelFlush(int)} geflushten Slots.
+         * Die verbliebenen Slots r&uuml;cken in ihrer Reihenfolge nach vorne.
+         */
+        private int removeFlushed() {
+            int countFlushed = 0;
+            int position = this.head;
+            for (int i = this.head; this.tail > i; ++i) {
+                final Slot slot = this.slots[i];
+                if (slot.isFlushed) {
+                    remove(slot);
+                    slot.flushable = null;
+                    slot.affinity = null;
+                    slot.isFlushed = false;
+                    ++countFlushed;
+                } else {
+                    this.slots[i] = this.slots[position];
+                    this.slots[position] = slot;
+                    slot.position = position++;
+                }
             }
+            this.tail = position;
+            if (this.head == this.tail) {
+                this.head = 0;
+                this.tail = 0;
+            }
+            return countFlushed;
         }
 
-        private void removeInternal(final Integer index) {
-            final Flushable flushable = this.index2FlushableMap.get(index);
-            this.index2FlushableMap.remove(index);
-            this.flushable2IndexMap.remove(flushable);
+        private int sequenceFlush(final Slot untilSlot) {
+            awaitPendingFlush();
+            if (!isInFlushSequence && (untilSlot.flushable != null)) {
+                try {
+                    isInFlushSequence = true;
+                    final int countFlushed = untilSlot.position - this.head + 1;
+                    for (int i = 0; countFlushed > i; ++i) {
+                        flushAndRemoveHead();
+                    }
+                    return countFlushed;
+                } finally {
+                    isInFlushSequence = false;
+                }
+            } else {
+                return 0;
+            }
         }
 
         @Override
         public void setReleaseFunction(final Runnable releaseFunction) {
             this.releaseFunction = releaseFunction;
         }
+
+        int size() {
+            awaitPendingFlush();
+            return this.tail - this.head;
+        }
+
+        private int timedFlush(final int count) {
+            final Object affinity = this.slots[this.head].affinity;
+            final long startNanos = System.nanoTime();
+            int countFlushed = 0;
+            boolean isFailure = true;
+            try {
+                for (; count > countFlushed; ++countFlushed) {
+                    flushAndRemoveHead();
+                }
+                isFailure = false;
+                return countFlushed;
+            } finally {
+                this.flushListener.groupFlushed(affinity, countFlushed, System.nanoTime() - startNanos, isFailure);
+            }
+        }
+
+        /**
+         * Die Flushables einer Affinit&auml;t bei
+         * {@link #parallelFlush(int)}. Eine Gruppe ver&auml;ndert die Liste
+         * nicht, sie markiert nur ihre geflushten Slots.
+         */
+        final class FlushGroup implements Runnable {
+
+            final Object affinity;
+            final List<Slot> slotList;
+            Throwable failure;
+            CountDownLatch finished;
+
+            FlushGroup(final Object affinity) {
+                this.affinity = affinity;
+                this.slotList = new ArrayList<>();
+            }
+
+            @Override
+            public void run() {
+                final long startNanos = System.nanoTime();
+                int countFlushed = 0;
+                try {
+                    for (final Slot slot : this.slotList) {
+                        flush(slot.flushable);
+                        slot.isFlushed = true;
+                        ++countFlushed;
+                    }
+                    if (afterGroupFlush != null) {
+                        afterGroupFlush.run();
+                    }
+                } catch (Throwable ex) {
+                    this.failure = ex;
+                } finally {
+                    if (flushListener != null) {
+                        flushListener.groupFlushed(this.affinity, countFlushed, System.nanoTime() - startNanos, this.failure != null);
+                    }
+                    if (this.finished != null) {
+                        this.finished.countDown();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Ein Platz in der Liste. Als {@link Runnable} ist er die
+         * Sequenz-Funktion des Flushables, das ihn gerade belegt.
+         */
+        final class Slot implements Runnable {
+
+            Object affinity;
+            Flushable flushable;
+            int hash;
+            boolean isFlushed;
+            int position;
+
+            @Override
+            public void run() {
+                sequenceFlush(this);
+            }
+        }
     }
 
 }
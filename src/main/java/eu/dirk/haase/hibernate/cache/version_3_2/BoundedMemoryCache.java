@@ -0,0 +1,426 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheKey;
+import org.hibernate.cache.ReadWriteCache;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.cache.entry.CacheEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ein Cache f&uuml;r einen einzelnen Thread mit einer begrenzten Anzahl
+ * von Eintr&auml;gen und einer Lebensdauer pro Eintrag.
+ * <p>
+ * Die Verdr&auml;ngung folgt W-TinyLFU: neue Eintr&auml;ge kommen in ein
+ * kleines LRU-Fenster (1% der Kapazit&auml;t). Wer aus dem Fenster
+ * f&auml;llt, muss sich gegen das &auml;lteste Element der
+ * Bew&auml;hrungs-Zone des Hauptbereichs durchsetzen: es bleibt der
+ * Eintrag, auf den laut {@link FrequencySketch} h&auml;ufiger zugegriffen
+ * wurde. Ein Treffer in der Bew&auml;hrungs-Zone bef&ouml;rdert den
+ * Eintrag in die gesch&uuml;tzte Zone (80% des Hauptbereichs). So
+ * verdr&auml;ngt ein einmaliger Durchlauf vieler Keys nicht die
+ * h&auml;ufig gelesenen Eintr&auml;ge.
+ * <p>
+ * Abgelaufene Eintr&auml;ge werden beim Lesen entfernt.
+ * <p>
+ * Diese Klasse ist nicht thread-safe. Der {@link ThreadLocalMemoryCache}
+ * verwendet sie nur &uuml;ber seine
+ * {@link eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry}, also
+ * je Thread eine eigene Instanz. Der {@link SharedMemoryCache} verwendet
+ * sie als Stripe, den alle Threads teilen; jeder Zugriff darauf ist mit
+ * {@code synchronized (stripe)} gesch&uuml;tzt.
+ */
+final class BoundedMemoryCache implements Cache {
+
+    // Node + HashMap-Node + Anteil an der HashMap-Tabelle:
+    private static final int ENTRY_OVERHEAD_BYTES = 48 + 32 + 8;
+    private static final int MAX_ESTIMATE_DEPTH = 4;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+    private static final byte WINDOW = 0;
+
+    private final Map<Object, Node> nodeMap;
+    private final NodeDeque probationDeque;
+    private final NodeDeque protectedDeque;
+    private final int protectedMax;
+    private final int mainMax;
+    private final FrequencySketch sketch;
+    private final Counters counters;
+    private final int timeout;
+    private final long timeoutNanos;
+    private final NodeDeque windowDeque;
+    private final int windowMax;
+    private long weightedSize;
+
+    /**
+     * @param maxEntries    die maximale Anzahl der Eintr&auml;ge.
+     * @param timeoutMillis die Lebensdauer eines Eintrags in
+     *                      Millisekunden.
+     * @param counters      die Z&auml;hler der Region.
+     */
+    BoundedMemoryCache(final int maxEntries, final int timeoutMillis, final Counters counters) {
+        this.nodeMap = new HashMap<>();
+        this.windowMax = Math.max(1, maxEntries / 100);
+        this.mainMax = maxEntries - this.windowMax;
+        this.protectedMax = (int) (this.mainMax * 80L / 100);
+        this.windowDeque = new NodeDeque();
+        this.probationDeque = new NodeDeque();
+        this.protectedDeque = new NodeDeque();
+        this.sketch = new FrequencySketch(maxEntries);
+        this.timeout = Timestamper.ONE_MS * timeoutMillis;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.counters = counters;
+    }
+
+    /**
+     * Sch&auml;tzt den Speicherbedarf eines Keys oder Wertes in Bytes
+     * (64-Bit JVM mit komprimierten Referenzen).
+     * <p>
+     * Bekannt sind die Strukturen, die Hibernate im Second-Level-Cache
+     * ablegt ({@link CacheKey}, {@link CacheEntry},
+     * {@link ReadWriteCache.Item}), Arrays, Strings und Zahlen; alle
+     * anderen Objekte z&auml;hlen nur mit ihrem Kopf.
+     *
+     * @param object das Objekt.
+     * @param depth  die Tiefe, bis zu der verschachtelte Objekte
+     *               ber&uuml;cksichtigt werden.
+     * @return der gesch&auml;tzte Speicherbedarf.
+     */
+    static long estimateBytes(final Object object, final int depth) {
+        if (object == null) {
+            return 0;
+        } else if (object instanceof String) {
+            return 40 + 2L * ((String) object).length();
+        } else if ((object instanceof Long) || (object instanceof Double)) {
+            return 24;
+        } else if ((object instanceof Number) || (object instanceof Boolean) || (object instanceof Character)) {
+            return 16;
+        } else if (object instanceof byte[]) {
+            return 16 + ((byte[]) object).length;
+        } else if (depth <= 0) {
+            return 16;
+        } else if (object instanceof Object[]) {
+            final Object[] array = (Object[]) object;
+            long bytes = 16 + 4L * array.length;
+            for (final Object element : array) {
+                bytes += estimateBytes(element, depth - 1);
+            }
+            return bytes;
+        } else if (object instanceof CacheKey) {
+            return 32 + estimateBytes(((CacheKey) object).getKey(), depth - 1);
+        } else if (object instanceof CacheEntry) {
+            final CacheEntry cacheEntry = (CacheEntry) object;
+            return 32 + estimateBytes(cacheEntry.getDisassembledState(), depth - 1)
+                    + estimateBytes(cacheEntry.getVersion(), depth - 1);
+        } else if (object instanceof ReadWriteCache.Item) {
+            return 32 + estimateBytes(((ReadWriteCache.Item) object).getValue(), depth - 1);
+        }
+        return 16;
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        this.nodeMap.clear();
+        this.windowDeque.clear();
+        this.probationDeque.clear();
+        this.protectedDeque.clear();
+        this.weightedSize = 0;
+    }
+
+    /**
+     * Pr&uuml;ft ohne Z&auml;hlung und ohne Ablauf-Pr&uuml;fung, ob der
+     * Key einen Eintrag hat.
+     *
+     * @param key der Key.
+     * @return {@code true} wenn der Key einen Eintrag hat.
+     */
+    boolean containsKey(final Object key) {
+        return this.nodeMap.containsKey(key);
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        clear();
+    }
+
+    private void evict() {
+        while (this.windowDeque.size > this.windowMax) {
+            final Node candidate = this.windowDeque.pollFirst();
+            candidate.queue = PROBATION;
+            this.probationDeque.addLast(candidate);
+            if ((this.probationDeque.size + this.protectedDeque.size) > this.mainMax) {
+                final Node victim = this.probationDeque.first;
+                if ((victim == candidate)
+                        || (this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key))) {
+                    evict(victim);
+                } else {
+                    evict(candidate);
+                }
+            }
+        }
+    }
+
+    private void evict(final Node node) {
+        removeNode(node);
+        if (isExpired(node, System.nanoTime())) {
+            this.counters.expirationCount.increment();
+        } else {
+            this.counters.evictionCount.increment();
+        }
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        this.sketch.increment(key);
+        final Node node = this.nodeMap.get(key);
+        if (node == null) {
+            this.counters.missCount.increment();
+            return null;
+        } else if (isExpired(node, System.nanoTime())) {
+            removeNode(node);
+            this.counters.expirationCount.increment();
+            this.counters.missCount.increment();
+            return null;
+        }
+        onAccess(node);
+        this.counters.hitCount.increment();
+        return node.value;
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return this.nodeMap.size();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public String getRegionName() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getSizeInMemory() {
+        return this.weightedSize + ENTRY_OVERHEAD_BYTES * (long) this.nodeMap.size();
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    private boolean isExpired(final Node node, final long now) {
+        return (now - node.expiresAt) >= 0;
+    }
+
+    @Override
+    public void lock(final Object key) throws CacheException {
+        // Ein Cache pro Thread braucht keine Sperre
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return LockFreeTimestamper.next();
+    }
+
+    private void onAccess(final Node node) {
+        if (node.queue == WINDOW) {
+            this.windowDeque.moveToLast(node);
+        } else if (node.queue == PROTECTED) {
+            this.protectedDeque.moveToLast(node);
+        } else {
+            this.probationDeque.remove(node);
+            node.queue = PROTECTED;
+            this.protectedDeque.addLast(node);
+            if (this.protectedDeque.size > this.protectedMax) {
+                final Node demoted = this.protectedDeque.pollFirst();
+                demoted.queue = PROBATION;
+                this.probationDeque.addLast(demoted);
+            }
+        }
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        this.sketch.increment(key);
+        this.counters.putCount.increment();
+        final long weight = estimateBytes(key, MAX_ESTIMATE_DEPTH) + estimateBytes(value, MAX_ESTIMATE_DEPTH);
+        final long expiresAt = System.nanoTime() + this.timeoutNanos;
+        final Node existing = this.nodeMap.get(key);
+        if (existing != null) {
+            this.weightedSize += weight - existing.weight;
+            existing.value = value;
+            existing.weight = weight;
+            existing.expiresAt = expiresAt;
+            onAccess(existing);
+            return;
+        }
+        final Node node = new Node(key, value, weight, expiresAt);
+        this.nodeMap.put(key, node);
+        this.windowDeque.addLast(node);
+        this.weightedSize += weight;
+        evict();
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        final Node node = this.nodeMap.get(key);
+        if (node != null) {
+            removeNode(node);
+        }
+    }
+
+    private void removeNode(final Node node) {
+        this.nodeMap.remove(node.key);
+        if (node.queue == WINDOW) {
+            this.windowDeque.remove(node);
+        } else if (node.queue == PROTECTED) {
+            this.protectedDeque.remove(node);
+        } else {
+            this.probationDeque.remove(node);
+        }
+        this.weightedSize -= node.weight;
+    }
+
+    /**
+     * Liefert eine Kopie der Eintr&auml;ge, die noch nicht abgelaufen sind.
+     *
+     * @return die Kopie der Eintr&auml;ge.
+     */
+    @Override
+    public Map<Object, Object> toMap() {
+        final long now = System.nanoTime();
+        final Map<Object, Object> map = new HashMap<>();
+        for (final Node node : this.nodeMap.values()) {
+            if (!isExpired(node, now)) {
+                map.put(node.key, node.value);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        // Ein Cache pro Thread braucht keine Sperre
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+    /**
+     * Die Z&auml;hler einer Region, die sich die Caches aller Threads
+     * teilen.
+     */
+    static final class Counters {
+
+        final LongAdder evictionCount = new LongAdder();
+        final LongAdder expirationCount = new LongAdder();
+        final LongAdder hitCount = new LongAdder();
+        final LongAdder missCount = new LongAdder();
+        final LongAdder putCount = new LongAdder();
+
+        MemoryCacheStatistics snapshot(final String regionName) {
+            return new MemoryCacheStatistics(regionName,
+                    this.hitCount.sum(),
+                    this.missCount.sum(),
+                    this.putCount.sum(),
+                    this.evictionCount.sum(),
+                    this.expirationCount.sum());
+        }
+
+    }
+
+    private static final class Node {
+
+        final Object key;
+        long expiresAt;
+        Node next;
+        Node previous;
+        byte queue;
+        Object value;
+        long weight;
+
+        Node(final Object key, final Object value, final long weight, final long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    /**
+     * Eine doppelt verkettete Liste &uuml;ber die Nodes selbst: vorne der
+     * Eintrag, auf den am l&auml;ngsten nicht zugegriffen wurde.
+     */
+    private static final class NodeDeque {
+
+        Node first;
+        Node last;
+        int size;
+
+        void addLast(final Node node) {
+            node.previous = this.last;
+            node.next = null;
+            if (this.last == null) {
+                this.first = node;
+            } else {
+                this.last.next = node;
+            }
+            this.last = node;
+            ++this.size;
+        }
+
+        void clear() {
+            this.first = null;
+            this.last = null;
+            this.size = 0;
+        }
+
+        void moveToLast(final Node node) {
+            if (node != this.last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        Node pollFirst() {
+            final Node node = this.first;
+            remove(node);
+            return node;
+        }
+
+        void remove(final Node node) {
+            if (node.previous == null) {
+                this.first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                this.last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            --this.size;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+/**
+ * Sch&auml;tzt die H&auml;ufigkeit der Zugriffe auf einen Key
+ * (Count-Min-Sketch mit 4-Bit-Z&auml;hlern) f&uuml;r die
+ * Verdr&auml;ngung im {@link BoundedMemoryCache}.
+ * <p>
+ * Jeder Key wird &uuml;ber vier Hash-Funktionen auf je einen Z&auml;hler
+ * in einem {@code long} abgebildet (16 Z&auml;hler pro {@code long}); die
+ * gesch&auml;tzte H&auml;ufigkeit ist das Minimum der vier Z&auml;hler.
+ * Die Z&auml;hler bleiben bei {@code 15} stehen. Nach
+ * {@code 10 * Kapazit&auml;t} Zugriffen werden alle Z&auml;hler
+ * halbiert, damit alte H&auml;ufigkeiten verblassen.
+ * <p>
+ * Diese Klasse ist nicht thread-safe.
+ */
+final class FrequencySketch {
+
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private int additions;
+    private final int sampleSize;
+    private final long[] table;
+    private final int tableMask;
+
+    /**
+     * @param capacity die maximale Anzahl der Eintr&auml;ge des Caches.
+     */
+    FrequencySketch(final int capacity) {
+        final int length = Math.max(8, Integer.highestOneBit(Math.max(1, capacity) - 1) << 1);
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * Math.max(1, capacity);
+    }
+
+    private static int spread(final int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Liefert die gesch&auml;tzte H&auml;ufigkeit des Keys.
+     *
+     * @param key der Key.
+     * @return die H&auml;ufigkeit ({@code 0} bis {@code 15}).
+     */
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; 4 > i; ++i) {
+            final int index = indexOf(hash, i);
+            final int offset = counterOffset(hash, i);
+            frequency = Math.min(frequency, (int) ((this.table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Z&auml;hlt einen Zugriff auf den Key.
+     *
+     * @param key der Key.
+     */
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        boolean isAdded = false;
+        for (int i = 0; 4 > i; ++i) {
+            final int index = indexOf(hash, i);
+            final int offset = counterOffset(hash, i);
+            if (((this.table[index] >>> offset) & 0xfL) != 0xfL) {
+                this.table[index] += (1L << offset);
+                isAdded = true;
+            }
+        }
+        if (isAdded && (++this.additions == this.sampleSize)) {
+            reset();
+        }
+    }
+
+    private int counterOffset(final int hash, final int i) {
+        // Jede Hash-Funktion verwendet ein anderes Viertel des long:
+        return (((hash >>> (i << 3)) & 3) + (i << 2)) << 2;
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += (h >>> 32);
+        return ((int) h) & this.tableMask;
+    }
+
+    private void reset() {
+        int oddCount = 0;
+        for (int i = 0; this.table.length > i; ++i) {
+            oddCount += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions = (this.additions - (oddCount >>> 2)) >>> 1;
+    }
+
+}
@@ -0,0 +1,46 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Timestamper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liefert streng monoton steigende Zeitstempel mit derselben Bedeutung
+ * wie {@link Timestamper#next()} - Millisekunden mal
+ * {@link Timestamper#ONE_MS} (4096) plus ein Z&auml;hler - aber ohne
+ * Monitor.
+ * <p>
+ * Der letzte Zeitstempel liegt in einem {@link AtomicLong}; der
+ * n&auml;chste ist das Maximum aus der aktuellen Zeit und dem letzten
+ * Zeitstempel plus eins und wird mit Compare-and-Set gesetzt. Werden in
+ * einer Millisekunde mehr als 4096 Zeitstempel gezogen, greift der
+ * Z&auml;hler in die n&auml;chste Millisekunde vor, statt wie
+ * {@code Timestamper} denselben Wert mehrfach zu liefern; die Uhr holt
+ * ihn wieder ein. Eine zur&uuml;ckgestellte Systemuhr l&auml;sst die
+ * Zeitstempel nicht zur&uuml;ckfallen.
+ */
+public final class LockFreeTimestamper {
+
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+    private static final int SHIFT = Integer.numberOfTrailingZeros(Timestamper.ONE_MS);
+
+    private LockFreeTimestamper() {
+    }
+
+    /**
+     * Liefert den n&auml;chsten Zeitstempel.
+     *
+     * @return der n&auml;chste Zeitstempel.
+     */
+    public static long next() {
+        final long now = System.currentTimeMillis() << SHIFT;
+        for (; ; ) {
+            final long last = LAST_TIMESTAMP.get();
+            final long next = (now > last ? now : last + 1);
+            if (LAST_TIMESTAMP.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+/**
+ * Unver&auml;nderliche Momentaufnahme der Zugriffe auf eine Region des
+ * {@link ThreadLocalMemoryCache} &uuml;ber alle Threads.
+ * <p>
+ * Die Z&auml;hler werden von allen Threads gemeinsam fortgeschrieben;
+ * ohne Synchronisation mit diesen Threads sind die Werte nur ungef&auml;hr.
+ */
+public final class MemoryCacheStatistics {
+
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final String regionName;
+
+    MemoryCacheStatistics(final String regionName,
+                          final long hitCount,
+                          final long missCount,
+                          final long putCount,
+                          final long evictionCount,
+                          final long expirationCount) {
+        this.regionName = regionName;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Eintr&auml;ge, die verdr&auml;ngt wurden,
+     * weil die Region voll war.
+     *
+     * @return die Anzahl der verdr&auml;ngten Eintr&auml;ge.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Eintr&auml;ge, die entfernt wurden, weil ihre
+     * Lebensdauer ({@link ThreadLocalMemoryCache#getTimeout()}) abgelaufen
+     * war.
+     *
+     * @return die Anzahl der abgelaufenen Eintr&auml;ge.
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Lesezugriffe, die einen Eintrag gefunden haben.
+     *
+     * @return die Anzahl der Treffer.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Liefert den Anteil der Treffer an allen Lesezugriffen.
+     *
+     * @return der Anteil der Treffer ({@code 0.0} ohne Lesezugriffe).
+     */
+    public double getHitRatio() {
+        final long requestCount = hitCount + missCount;
+        return (requestCount == 0 ? 0.0 : (double) hitCount / requestCount);
+    }
+
+    /**
+     * Liefert die Anzahl der Lesezugriffe, die keinen (oder einen
+     * abgelaufenen) Eintrag gefunden haben.
+     *
+     * @return die Anzahl der Fehlzugriffe.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Schreibzugriffe.
+     *
+     * @return die Anzahl der Schreibzugriffe.
+     */
+    public long getPutCount() {
+        return putCount;
+    }
+
+    /**
+     * Liefert den Namen der Cache-Region.
+     *
+     * @return der Name der Cache-Region.
+     */
+    public String getRegionName() {
+        return regionName;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryCacheStatistics{" +
+                "regionName='" + regionName + '\'' +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", putCount=" + putCount +
+                ", evictionCount=" + evictionCount +
+                ", expirationCount=" + expirationCount +
+                '}';
+    }
+}
@@ -0,0 +1,255 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.util.SerializationHelper;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein Cache, dessen Eintr&auml;ge serialisiert au&szlig;erhalb des Heaps
+ * liegen und sich alle Threads teilen.
+ * <p>
+ * Gedacht f&uuml;r gro&szlig;e Regionen mit Stammdaten: statt
+ * Millionen kleiner Objekte (Keys, {@code CacheEntry}s mit ihrem
+ * zerlegten Zustand, Nodes der Map) liegen auf dem Heap nur die Seiten
+ * der direkten {@link java.nio.ByteBuffer}s, die der Garbage-Collector
+ * nicht durchsuchen muss. Dazu werden Key und Wert mit
+ * {@link SerializationHelper} serialisiert; beide m&uuml;ssen
+ * {@link Serializable} sein. Jeder Lesezugriff liefert eine neue Kopie
+ * des Wertes.
+ * <p>
+ * Die Eintr&auml;ge sind wie beim {@link SharedMemoryCache} auf Streifen
+ * mit eigener Sperre verteilt; jeder Streifen ist ein
+ * {@link OffHeapStore}. Kapazit&auml;t und Speicher werden
+ * gleichm&auml;&szlig;ig auf die Streifen verteilt.
+ * <p>
+ * {@link #lock(Object)} und {@link #unlock(Object)} sperren nichts: die
+ * Region ist f&uuml;r Stammdaten ({@code read-only} oder
+ * {@code nonstrict-read-write}) gedacht.
+ */
+public class OffHeapMemoryCache implements Cache {
+
+    /**
+     * Die Obergrenze f&uuml;r den Speicher der Eintr&auml;ge pro Region,
+     * wenn keine angegeben wird.
+     */
+    public final static long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private final BoundedMemoryCache.Counters counters;
+    private final String regionName;
+    private final int stripeMask;
+    private final OffHeapStore[] stripes;
+    private final int timeout;
+    private final long timeoutNanos;
+
+    public OffHeapMemoryCache(final String regionName) {
+        this(regionName, SharedMemoryCache.DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, ThreadLocalMemoryCache.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Erzeugt einen Cache mit der angegebenen Kapazit&auml;t und
+     * Lebensdauer der Eintr&auml;ge.
+     *
+     * @param regionName    der Name der Cache-Region.
+     * @param maxEntries    die maximale Anzahl der Eintr&auml;ge.
+     * @param maxBytes      die Obergrenze f&uuml;r den Speicher der
+     *                      Eintr&auml;ge au&szlig;erhalb des Heaps
+     *                      (mindestens eine Seite von 1 MiB pro Streifen).
+     * @param timeoutMillis die Lebensdauer eines Eintrags in
+     *                      Millisekunden.
+     */
+    public OffHeapMemoryCache(final String regionName, final int maxEntries, final long maxBytes, final int timeoutMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+        }
+        // Timestamper.ONE_MS * timeoutMillis muss in ein int passen:
+        if ((timeoutMillis < 1) || (timeoutMillis > Integer.MAX_VALUE / 4096)) {
+            throw new IllegalArgumentException("Timeout is out of range: " + timeoutMillis);
+        }
+        final int maxStripes = (int) Math.max(1, Math.min(maxEntries, maxBytes / SlabAllocator.PAGE_SIZE));
+        final int stripeCount = Integer.highestOneBit(Math.min(maxStripes, 4 * Runtime.getRuntime().availableProcessors()));
+        this.regionName = regionName;
+        this.counters = new BoundedMemoryCache.Counters();
+        this.timeout = Timestamper.ONE_MS * timeoutMillis;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new OffHeapStore[stripeCount];
+        for (int i = 0; stripeCount > i; ++i) {
+            this.stripes[i] = new OffHeapStore(maxEntries / stripeCount, maxBytes / stripeCount, this.counters);
+        }
+    }
+
+    private static byte[] serialize(final Object object) {
+        if (!(object instanceof Serializable)) {
+            throw new CacheException("Off-heap cache needs a serializable object: " + object);
+        }
+        return SerializationHelper.serialize((Serializable) object);
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        for (final OffHeapStore stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Gibt den Speicher au&szlig;erhalb des Heaps frei. Danach bleibt die
+     * Region leer und speichert keine Eintr&auml;ge mehr.
+     */
+    @Override
+    public void destroy() throws CacheException {
+        for (final OffHeapStore stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.destroy();
+            }
+        }
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        final byte[] keyBytes = serialize(key);
+        final OffHeapStore stripe = stripeOf(key);
+        final byte[] valueBytes;
+        synchronized (stripe) {
+            valueBytes = stripe.get(key, keyBytes);
+        }
+        return (valueBytes != null ? SerializationHelper.deserialize(valueBytes) : null);
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        long elementCount = 0;
+        for (final OffHeapStore stripe : this.stripes) {
+            synchronized (stripe) {
+                elementCount += stripe.size();
+            }
+        }
+        return elementCount;
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.regionName;
+    }
+
+    /**
+     * Liefert den Speicher au&szlig;erhalb des Heaps, den die
+     * Eintr&auml;ge und die Indizes belegen, in Bytes.
+     *
+     * @return der belegte Speicher.
+     */
+    @Override
+    public long getSizeInMemory() {
+        long sizeInMemory = 0;
+        for (final OffHeapStore stripe : this.stripes) {
+            synchronized (stripe) {
+                sizeInMemory += stripe.sizeInBytes();
+            }
+        }
+        return sizeInMemory;
+    }
+
+    /**
+     * Liefert eine Momentaufnahme der Treffer, Fehlzugriffe und
+     * Verdr&auml;ngungen dieser Region. Ein Eintrag, der nicht in den
+     * Speicher passt, z&auml;hlt als verdr&auml;ngt.
+     *
+     * @return die Momentaufnahme.
+     */
+    public MemoryCacheStatistics getStatistics() {
+        return this.counters.snapshot(this.regionName);
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    @Override
+    public void lock(final Object key) throws CacheException {
+        // Region fuer Stammdaten, siehe Klassen-Kommentar
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return LockFreeTimestamper.next();
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        final byte[] keyBytes = serialize(key);
+        final byte[] valueBytes = serialize(value);
+        final long expiresAt = System.nanoTime() + this.timeoutNanos;
+        final OffHeapStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.put(key, keyBytes, valueBytes, expiresAt);
+        }
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        final byte[] keyBytes = serialize(key);
+        final OffHeapStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.remove(key, keyBytes);
+        }
+    }
+
+    private OffHeapStore stripeOf(final Object key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return this.stripes[(h ^ (h >>> 16)) & this.stripeMask];
+    }
+
+    /**
+     * Liefert eine deserialisierte Kopie der Eintr&auml;ge, die noch
+     * nicht abgelaufen sind.
+     *
+     * @return die Kopie der Eintr&auml;ge.
+     */
+    @Override
+    public Map<Object, Object> toMap() {
+        final Map<Object, Object> map = new HashMap<>();
+        for (final OffHeapStore stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.forEach((keyBytes, valueBytes) -> map.put(SerializationHelper.deserialize(keyBytes), SerializationHelper.deserialize(valueBytes)));
+            }
+        }
+        return map;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + regionName + ')';
+    }
+
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        // Region fuer Stammdaten, siehe Klassen-Kommentar
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+}
@@ -0,0 +1,317 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+
+/**
+ * Speichert serialisierte Eintr&auml;ge au&szlig;erhalb des Heaps: ein
+ * Index mit offener Adressierung in einem direkten {@link ByteBuffer} und
+ * die Eintr&auml;ge selbst in Bl&ouml;cken des {@link SlabAllocator}s.
+ * <p>
+ * Ein Slot im Index besteht aus dem Fingerabdruck des Keys (sein
+ * Hash-Code, {@code 0} markiert einen freien Slot), einem Bit f&uuml;r den
+ * letzten Zugriff, der Adresse des Blocks und dem Ablauf-Zeitpunkt. Ein
+ * Block enth&auml;lt die L&auml;nge von Key und Wert, gefolgt von deren
+ * Bytes; Keys mit gleichem Fingerabdruck werden Byte f&uuml;r Byte
+ * verglichen. Beim Entfernen werden die nachfolgenden Slots
+ * zur&uuml;ckgeschoben, so dass der Index ohne Grabsteine auskommt.
+ * <p>
+ * Ist der Store voll, verdr&auml;ngt ein Uhrzeiger (CLOCK) den n&auml;chsten
+ * Eintrag, auf den seit dem letzten Umlauf nicht zugegriffen wurde. Fehlt
+ * nur ein Block der passenden Gr&ouml;&szlig;enklasse, verdr&auml;ngt er
+ * nur Eintr&auml;ge dieser Klasse - gibt es keine, wird der neue Eintrag
+ * nicht gespeichert.
+ * <p>
+ * Nach {@link #destroy()} verh&auml;lt sich der Store wie ein leerer
+ * Store, der keine Eintr&auml;ge mehr speichert.
+ * <p>
+ * Diese Klasse ist nicht thread-safe.
+ */
+final class OffHeapStore {
+
+    private static final int ADDRESS_OFFSET = 8;
+    private static final int ANY_SIZE_CLASS = -1;
+    private static final int EXPIRES_AT_OFFSET = 16;
+    private static final int HEADER_BYTES = 8;
+    private static final int REFERENCED_OFFSET = 4;
+    private static final int SLOT_BYTES = 24;
+
+    private final SlabAllocator allocator;
+    private int clockHand;
+    private final BoundedMemoryCache.Counters counters;
+    private ByteBuffer index;
+    private final int maxEntries;
+    private int size;
+    private final int slotMask;
+
+    /**
+     * @param maxEntries die maximale Anzahl der Eintr&auml;ge.
+     * @param maxBytes   die Obergrenze f&uuml;r den Speicher der
+     *                   Eintr&auml;ge.
+     * @param counters   die Z&auml;hler der Region.
+     */
+    OffHeapStore(final int maxEntries, final long maxBytes, final BoundedMemoryCache.Counters counters) {
+        final int slotCount = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        this.maxEntries = maxEntries;
+        this.index = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES);
+        this.slotMask = slotCount - 1;
+        this.allocator = new SlabAllocator(maxBytes);
+        this.counters = counters;
+    }
+
+    private static int fingerprintOf(final Object key) {
+        final int h = key.hashCode();
+        return (h == 0 ? 1 : h);
+    }
+
+    private static int homeOf(final int fingerprint, final int slotMask) {
+        final int h = fingerprint * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & slotMask;
+    }
+
+    private long addressAt(final int slot) {
+        return this.index.getLong(slot * SLOT_BYTES + ADDRESS_OFFSET);
+    }
+
+    /**
+     * Entfernt alle Eintr&auml;ge.
+     */
+    void clear() {
+        if (this.index == null) {
+            return;
+        }
+        for (int i = 0; this.index.capacity() > i; i += 8) {
+            this.index.putLong(i, 0L);
+        }
+        this.allocator.reset();
+        this.size = 0;
+        this.clockHand = 0;
+    }
+
+    private void copySlot(final int from, final int to) {
+        for (int i = 0; SLOT_BYTES > i; i += 8) {
+            this.index.putLong(to * SLOT_BYTES + i, this.index.getLong(from * SLOT_BYTES + i));
+        }
+    }
+
+    /**
+     * Entfernt alle Eintr&auml;ge und gibt den Speicher au&szlig;erhalb
+     * des Heaps frei: die Seiten des {@link SlabAllocator}s und den Index.
+     */
+    void destroy() {
+        this.allocator.release();
+        this.index = null;
+        this.size = 0;
+        this.clockHand = 0;
+    }
+
+    private boolean evictOne(final int sizeClass) {
+        final int slotCount = this.slotMask + 1;
+        for (int i = 0; 2 * slotCount > i; ++i) {
+            final int slot = this.clockHand;
+            this.clockHand = (slot + 1) & this.slotMask;
+            if ((fingerprintAt(slot) != 0)
+                    && ((sizeClass == ANY_SIZE_CLASS) || (this.allocator.sizeClassAt(addressAt(slot)) == sizeClass))) {
+                if (this.index.getInt(slot * SLOT_BYTES + REFERENCED_OFFSET) != 0) {
+                    this.index.putInt(slot * SLOT_BYTES + REFERENCED_OFFSET, 0);
+                } else {
+                    if (isExpired(slot, System.nanoTime())) {
+                        this.counters.expirationCount.increment();
+                    } else {
+                        this.counters.evictionCount.increment();
+                    }
+                    removeSlot(slot);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int find(final int fingerprint, final byte[] keyBytes) {
+        int slot = homeOf(fingerprint, this.slotMask);
+        for (int currentFingerprint = fingerprintAt(slot); currentFingerprint != 0; currentFingerprint = fingerprintAt(slot)) {
+            if ((currentFingerprint == fingerprint) && matches(addressAt(slot), keyBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & this.slotMask;
+        }
+        return -1 - slot;
+    }
+
+    private int fingerprintAt(final int slot) {
+        return this.index.getInt(slot * SLOT_BYTES);
+    }
+
+    /**
+     * Liefert die Bytes des Wertes zum Key.
+     *
+     * @param key      der Key (f&uuml;r den Fingerabdruck).
+     * @param keyBytes der serialisierte Key.
+     * @return die Bytes des Wertes oder {@code null}.
+     */
+    byte[] get(final Object key, final byte[] keyBytes) {
+        if (this.index == null) {
+            this.counters.missCount.increment();
+            return null;
+        }
+        final int slot = find(fingerprintOf(key), keyBytes);
+        if (slot < 0) {
+            this.counters.missCount.increment();
+            return null;
+        } else if (isExpired(slot, System.nanoTime())) {
+            removeSlot(slot);
+            this.counters.expirationCount.increment();
+            this.counters.missCount.increment();
+            return null;
+        }
+        this.index.putInt(slot * SLOT_BYTES + REFERENCED_OFFSET, 1);
+        this.counters.hitCount.increment();
+        final long address = addressAt(slot);
+        final byte[] valueBytes = new byte[this.allocator.getInt(address, 4)];
+        this.allocator.get(address, HEADER_BYTES + keyBytes.length, valueBytes);
+        return valueBytes;
+    }
+
+    /**
+     * Ruft die Funktion mit den Bytes von Key und Wert jedes Eintrags auf,
+     * der noch nicht abgelaufen ist.
+     *
+     * @param consumer erh&auml;lt die Bytes von Key und Wert.
+     */
+    void forEach(final BiConsumer<byte[], byte[]> consumer) {
+        if (this.index == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (int slot = 0; this.slotMask >= slot; ++slot) {
+            if ((fingerprintAt(slot) != 0) && !isExpired(slot, now)) {
+                final long address = addressAt(slot);
+                final byte[] keyBytes = new byte[this.allocator.getInt(address, 0)];
+                final byte[] valueBytes = new byte[this.allocator.getInt(address, 4)];
+                this.allocator.get(address, HEADER_BYTES, keyBytes);
+                this.allocator.get(address, HEADER_BYTES + keyBytes.length, valueBytes);
+                consumer.accept(keyBytes, valueBytes);
+            }
+        }
+    }
+
+    private boolean isExpired(final int slot, final long now) {
+        return (now - this.index.getLong(slot * SLOT_BYTES + EXPIRES_AT_OFFSET)) >= 0;
+    }
+
+    private boolean matches(final long address, final byte[] keyBytes) {
+        return (this.allocator.getInt(address, 0) == keyBytes.length)
+                && this.allocator.matches(address, HEADER_BYTES, keyBytes);
+    }
+
+    /**
+     * Speichert die Bytes von Key und Wert. Ist kein Block der passenden
+     * Gr&ouml;&szlig;enklasse frei, wird ein Eintrag derselben Klasse
+     * verdr&auml;ngt. Gibt es keinen, wird der Eintrag nicht gespeichert
+     * (und ein bisheriger Eintrag entfernt), ohne andere Eintr&auml;ge zu
+     * verdr&auml;ngen.
+     *
+     * @param key        der Key (f&uuml;r den Fingerabdruck).
+     * @param keyBytes   der serialisierte Key.
+     * @param valueBytes der serialisierte Wert.
+     * @param expiresAt  der Ablauf-Zeitpunkt ({@link System#nanoTime()}).
+     */
+    void put(final Object key, final byte[] keyBytes, final byte[] valueBytes, final long expiresAt) {
+        this.counters.putCount.increment();
+        if (this.index == null) {
+            return;
+        }
+        final int fingerprint = fingerprintOf(key);
+        final int existing = find(fingerprint, keyBytes);
+        if (existing >= 0) {
+            removeSlot(existing);
+        }
+        while (this.size >= this.maxEntries) {
+            evictOne(ANY_SIZE_CLASS);
+        }
+        final int entrySize = HEADER_BYTES + keyBytes.length + valueBytes.length;
+        long address = this.allocator.allocate(entrySize);
+        if ((address == SlabAllocator.NO_ADDRESS) && (entrySize <= SlabAllocator.PAGE_SIZE)) {
+            // Nur ein Eintrag derselben Klasse macht einen passenden Block frei:
+            final int sizeClass = SlabAllocator.sizeClassOf(entrySize);
+            while ((address == SlabAllocator.NO_ADDRESS) && evictOne(sizeClass)) {
+                address = this.allocator.allocate(entrySize);
+            }
+        }
+        if (address == SlabAllocator.NO_ADDRESS) {
+            this.counters.evictionCount.increment();
+            return;
+        }
+        this.allocator.putInt(address, 0, keyBytes.length);
+        this.allocator.putInt(address, 4, valueBytes.length);
+        this.allocator.put(address, HEADER_BYTES, keyBytes);
+        this.allocator.put(address, HEADER_BYTES + keyBytes.length, valueBytes);
+        // Nach dem Verdraengen hat sich der freie Slot verschoben:
+        final int slot = -1 - find(fingerprint, keyBytes);
+        final int base = slot * SLOT_BYTES;
+        this.index.putInt(base, fingerprint);
+        this.index.putInt(base + REFERENCED_OFFSET, 0);
+        this.index.putLong(base + ADDRESS_OFFSET, address);
+        this.index.putLong(base + EXPIRES_AT_OFFSET, expiresAt);
+        ++this.size;
+    }
+
+    /**
+     * Entfernt den Eintrag zum Key.
+     *
+     * @param key      der Key (f&uuml;r den Fingerabdruck).
+     * @param keyBytes der serialisierte Key.
+     */
+    void remove(final Object key, final byte[] keyBytes) {
+        if (this.index == null) {
+            return;
+        }
+        final int slot = find(fingerprintOf(key), keyBytes);
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+    }
+
+    private void removeSlot(final int slot) {
+        this.allocator.free(addressAt(slot));
+        --this.size;
+        // Nachfolgende Slots zurueckschieben, deren Heimat-Slot nicht
+        // zwischen dem freien und ihrem eigenen Slot liegt:
+        int free = slot;
+        int current = slot;
+        for (; ; ) {
+            current = (current + 1) & this.slotMask;
+            final int fingerprint = fingerprintAt(current);
+            if (fingerprint == 0) {
+                break;
+            }
+            final int home = homeOf(fingerprint, this.slotMask);
+            if (((current - home) & this.slotMask) >= ((current - free) & this.slotMask)) {
+                copySlot(current, free);
+                free = current;
+            }
+        }
+        this.index.putInt(free * SLOT_BYTES, 0);
+    }
+
+    /**
+     * Liefert die Anzahl der Eintr&auml;ge.
+     *
+     * @return die Anzahl der Eintr&auml;ge.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Liefert den Speicher au&szlig;erhalb des Heaps, den die
+     * Eintr&auml;ge und der Index belegen.
+     *
+     * @return der belegte Speicher in Bytes.
+     */
+    long sizeInBytes() {
+        return this.allocator.allocatedBytes() + (this.index != null ? this.index.capacity() : 0);
+    }
+
+}
@@ -0,0 +1,254 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Die Region f&uuml;r die Ergebnisse des Query-Caches, indiziert nach den
+ * Tabellen (Query-Spaces) der Queries.
+ * <p>
+ * Die Ergebnisse liegen in einem {@link SharedMemoryCache}. Zus&auml;tzlich
+ * merkt sich die Region f&uuml;r jede Tabelle die Keys der Queries, die
+ * sie lesen. {@link #invalidate(Object)} entfernt damit genau die
+ * betroffenen Ergebnisse - der Aufwand h&auml;ngt nur von deren Anzahl ab.
+ * Die {@link UpdateTimestampsMemoryCache Zeitstempel-Region} ruft
+ * {@code invalidate} bei jeder &Auml;nderung einer Tabelle auf.
+ * <p>
+ * Hibernate &uuml;bergibt der Region die Tabellen einer Query nicht;
+ * {@link SpaceIndexedQueryCache} meldet sie deshalb mit
+ * {@link #registerSpaces(Object, Set)} bei jedem Fehlzugriff, bevor das
+ * Ergebnis geschrieben wird. Ohne diese Meldung arbeitet die Region wie
+ * ein {@link SharedMemoryCache}; die Zeitstempel-Pr&uuml;fung des
+ * {@link org.hibernate.cache.StandardQueryCache} bleibt in jedem Fall
+ * bestehen.
+ * <p>
+ * Gemeldete Tabellen werden erst mit dem Ergebnis in den Index
+ * &uuml;bernommen; bis dahin ist der Key ausstehend.
+ * <p>
+ * Keys, deren Ergebnis verdr&auml;ngt wurde, bleiben im Index, bis ihre
+ * Tabelle ge&auml;ndert wird. Wird der Index doppelt so gro&szlig; wie die
+ * Kapazit&auml;t, werden sie entfernt; ausstehende Keys bleiben davon
+ * unber&uuml;hrt. Werden ebenso viele Keys gemeldet, ohne dass ihr
+ * Ergebnis geschrieben wird, werden die ausstehenden Keys verworfen.
+ */
+public class QueryResultsMemoryCache implements Cache {
+
+    private final LongAdder invalidationCount;
+    private final Consumer<Object> invalidationListener;
+    private final ConcurrentMap<Object, Set<Object>> keySpaceMap;
+    private final int maxIndexSize;
+    private final Function<Object, Set<Object>> newKeySet;
+    private final ConcurrentMap<Object, Set<Object>> pendingKeySpaceMap;
+    private final SharedMemoryCache resultCache;
+    private final ConcurrentMap<Object, Set<Object>> spaceKeyMap;
+
+    /**
+     * Erzeugt eine Region mit der angegebenen Kapazit&auml;t und
+     * Lebensdauer der Ergebnisse.
+     *
+     * @param regionName    der Name der Cache-Region.
+     * @param maxEntries    die maximale Anzahl der Ergebnisse.
+     * @param timeoutMillis die Lebensdauer eines Ergebnisses in
+     *                      Millisekunden.
+     */
+    public QueryResultsMemoryCache(final String regionName, final int maxEntries, final int timeoutMillis) {
+        this.resultCache = new SharedMemoryCache(regionName, maxEntries, timeoutMillis);
+        this.keySpaceMap = new ConcurrentHashMap<>();
+        this.spaceKeyMap = new ConcurrentHashMap<>();
+        this.pendingKeySpaceMap = new ConcurrentHashMap<>();
+        this.maxIndexSize = 2 * maxEntries;
+        this.invalidationCount = new LongAdder();
+        this.invalidationListener = this::invalidate;
+        this.newKeySet = (k) -> ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        this.resultCache.clear();
+        this.keySpaceMap.clear();
+        this.pendingKeySpaceMap.clear();
+        this.spaceKeyMap.clear();
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        clear();
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        return this.resultCache.get(key);
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return this.resultCache.getElementCountInMemory();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    /**
+     * Liefert die Anzahl der Ergebnisse, die entfernt wurden, weil eine
+     * ihrer Tabellen ge&auml;ndert wurde.
+     *
+     * @return die Anzahl der invalidierten Ergebnisse.
+     */
+    public long getInvalidationCount() {
+        return this.invalidationCount.sum();
+    }
+
+    /**
+     * Liefert den Listener f&uuml;r die
+     * {@link UpdateTimestampsMemoryCache Zeitstempel-Region}, der
+     * {@link #invalidate(Object)} aufruft. Es ist immer dieselbe Instanz,
+     * so dass die Region ihn nur einmal registriert.
+     *
+     * @return der Listener.
+     */
+    Consumer<Object> getInvalidationListener() {
+        return this.invalidationListener;
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.resultCache.getRegionName();
+    }
+
+    @Override
+    public long getSizeInMemory() {
+        return this.resultCache.getSizeInMemory();
+    }
+
+    /**
+     * Liefert eine Momentaufnahme der Treffer, Fehlzugriffe und
+     * Verdr&auml;ngungen dieser Region.
+     *
+     * @return die Momentaufnahme.
+     */
+    public MemoryCacheStatistics getStatistics() {
+        return this.resultCache.getStatistics();
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.resultCache.getTimeout();
+    }
+
+    /**
+     * Entfernt die Ergebnisse aller Queries, die die Tabelle lesen.
+     *
+     * @param space die Tabelle (der Query-Space).
+     */
+    public void invalidate(final Object space) {
+        final Set<Object> keySet = this.spaceKeyMap.remove(space);
+        if (keySet != null) {
+            for (final Object key : keySet) {
+                if (this.keySpaceMap.remove(key) != null) {
+                    this.resultCache.remove(key);
+                    this.invalidationCount.increment();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void lock(final Object key) throws CacheException {
+        this.resultCache.lock(key);
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return this.resultCache.nextTimestamp();
+    }
+
+    private void pruneIndex() {
+        for (final Object key : this.keySpaceMap.keySet()) {
+            if (!this.resultCache.containsKey(key)) {
+                this.keySpaceMap.remove(key);
+            }
+        }
+        for (final Set<Object> keySet : this.spaceKeyMap.values()) {
+            keySet.removeIf((key) -> !this.keySpaceMap.containsKey(key));
+        }
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        this.resultCache.put(key, value);
+        final Set<Object> pendingSpaces = this.pendingKeySpaceMap.remove(key);
+        if (pendingSpaces != null) {
+            if (this.keySpaceMap.size() >= this.maxIndexSize) {
+                pruneIndex();
+            }
+            this.keySpaceMap.put(key, pendingSpaces);
+        }
+        final Set<Object> spaces = this.keySpaceMap.get(key);
+        if (spaces != null) {
+            for (final Object space : spaces) {
+                this.spaceKeyMap.computeIfAbsent(space, this.newKeySet).add(key);
+            }
+        }
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    /**
+     * Meldet die Tabellen, die die Query zum Key liest. Muss vor dem
+     * Schreiben des Ergebnisses aufgerufen werden.
+     *
+     * @param key    der Key der Query.
+     * @param spaces die Tabellen (Query-Spaces) der Query.
+     */
+    public void registerSpaces(final Object key, final Set<?> spaces) {
+        if ((spaces == null) || spaces.isEmpty()) {
+            return;
+        }
+        if (this.pendingKeySpaceMap.size() >= this.maxIndexSize) {
+            // Abgebrochene Queries; ihr Ergebnis wird nie geschrieben:
+            this.pendingKeySpaceMap.clear();
+        }
+        this.pendingKeySpaceMap.put(key, new HashSet<>(spaces));
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        this.resultCache.remove(key);
+        this.keySpaceMap.remove(key);
+        this.pendingKeySpaceMap.remove(key);
+    }
+
+    @Override
+    public Map<Object, Object> toMap() {
+        return this.resultCache.toMap();
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getRegionName() + ')';
+    }
+
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        this.resultCache.unlock(key);
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+}
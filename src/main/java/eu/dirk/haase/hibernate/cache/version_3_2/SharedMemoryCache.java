@@ -0,0 +1,303 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.Timestamper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein Cache, dessen Eintr&auml;ge sich alle Threads teilen.
+ * <p>
+ * Die Eintr&auml;ge sind auf mehrere Streifen verteilt (vier pro
+ * Prozessor), die jeweils ein eigener {@link BoundedMemoryCache} mit
+ * eigener Sperre sind. Threads, die auf verschiedene Streifen zugreifen,
+ * behindern sich nicht. Die Kapazit&auml;t wird gleichm&auml;&szlig;ig
+ * auf die Streifen verteilt; verdr&auml;ngt wird innerhalb eines Streifens
+ * nach W-TinyLFU.
+ * <p>
+ * {@link #lock(Object)} und {@link #unlock(Object)} sind echte Sperren
+ * pro Key, wie sie {@link org.hibernate.cache.ReadWriteCache} um das
+ * Schreiben seiner Soft-Locks erwartet: ein zweiter Thread wartet bis der
+ * erste den Key wieder freigibt, h&ouml;chstens aber
+ * {@link #getTimeout()} lang. Die Sperre ist reentrant. Lesen und
+ * Schreiben von Eintr&auml;gen warten nicht auf sie.
+ */
+public class SharedMemoryCache implements Cache {
+
+    /**
+     * Die maximale Anzahl der Eintr&auml;ge pro Region, wenn keine
+     * angegeben wird.
+     */
+    public final static int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private final BoundedMemoryCache.Counters counters;
+    private final ConcurrentMap<Object, KeyLock> lockMap;
+    private final String regionName;
+    private final int stripeMask;
+    private final BoundedMemoryCache[] stripes;
+    private final long timeoutNanos;
+
+    public SharedMemoryCache(final String regionName) {
+        this(regionName, DEFAULT_MAX_ENTRIES, ThreadLocalMemoryCache.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Erzeugt einen Cache mit der angegebenen Kapazit&auml;t und
+     * Lebensdauer der Eintr&auml;ge.
+     *
+     * @param regionName    der Name der Cache-Region.
+     * @param maxEntries    die maximale Anzahl der Eintr&auml;ge.
+     * @param timeoutMillis die Lebensdauer eines Eintrags in
+     *                      Millisekunden.
+     */
+    public SharedMemoryCache(final String regionName, final int maxEntries, final int timeoutMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+        }
+        // Timestamper.ONE_MS * timeoutMillis muss in ein int passen:
+        if ((timeoutMillis < 1) || (timeoutMillis > Integer.MAX_VALUE / 4096)) {
+            throw new IllegalArgumentException("Timeout is out of range: " + timeoutMillis);
+        }
+        final int stripeCount = Integer.highestOneBit(Math.min(maxEntries, 4 * Runtime.getRuntime().availableProcessors()));
+        this.regionName = regionName;
+        this.counters = new BoundedMemoryCache.Counters();
+        this.lockMap = new ConcurrentHashMap<>();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new BoundedMemoryCache[stripeCount];
+        for (int i = 0; stripeCount > i; ++i) {
+            this.stripes[i] = new BoundedMemoryCache(maxEntries / stripeCount, timeoutMillis, this.counters);
+        }
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        for (final BoundedMemoryCache stripe : this.stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Pr&uuml;ft ohne Z&auml;hlung und ohne Ablauf-Pr&uuml;fung, ob der
+     * Key einen Eintrag hat.
+     *
+     * @param key der Key.
+     * @return {@code true} wenn der Key einen Eintrag hat.
+     */
+    boolean containsKey(final Object key) {
+        final BoundedMemoryCache stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.containsKey(key);
+        }
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        clear();
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        final BoundedMemoryCache stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        long elementCount = 0;
+        for (final BoundedMemoryCache stripe : this.stripes) {
+            synchronized (stripe) {
+                elementCount += stripe.getElementCountInMemory();
+            }
+        }
+        return elementCount;
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.regionName;
+    }
+
+    /**
+     * Liefert den gesch&auml;tzten Speicherbedarf der Eintr&auml;ge in
+     * Bytes (Keys, Werte und die Strukturen des Caches).
+     *
+     * @return der gesch&auml;tzte Speicherbedarf.
+     */
+    @Override
+    public long getSizeInMemory() {
+        long sizeInMemory = 0;
+        for (final BoundedMemoryCache stripe : this.stripes) {
+            synchronized (stripe) {
+                sizeInMemory += stripe.getSizeInMemory();
+            }
+        }
+        return sizeInMemory;
+    }
+
+    /**
+     * Liefert eine Momentaufnahme der Treffer, Fehlzugriffe und
+     * Verdr&auml;ngungen dieser Region.
+     *
+     * @return die Momentaufnahme.
+     */
+    public MemoryCacheStatistics getStatistics() {
+        return this.counters.snapshot(this.regionName);
+    }
+
+    /**
+     * Liefert die Lebensdauer eines Eintrags (in Einheiten von
+     * {@link Timestamper#ONE_MS}). So lange wartet auch
+     * {@link #lock(Object)} h&ouml;chstens.
+     *
+     * @return die Lebensdauer eines Eintrags.
+     */
+    @Override
+    public int getTimeout() {
+        return this.stripes[0].getTimeout();
+    }
+
+    /**
+     * Sperrt den Key f&uuml;r den aktuellen Thread und wartet dazu, bis
+     * ein anderer Thread ihn freigibt.
+     *
+     * @param key der Key.
+     * @throws CacheException wenn der Key nicht innerhalb von
+     *                        {@link #getTimeout()} frei wird oder der
+     *                        Thread unterbrochen wird.
+     */
+    @Override
+    public void lock(final Object key) throws CacheException {
+        final Thread currentThread = Thread.currentThread();
+        final KeyLock keyLock = new KeyLock(currentThread);
+        final long deadline = System.nanoTime() + this.timeoutNanos;
+        for (; ; ) {
+            final KeyLock existing = this.lockMap.putIfAbsent(key, keyLock);
+            if (existing == null) {
+                return;
+            } else if (existing.owner == currentThread) {
+                ++existing.holdCount;
+                return;
+            }
+            final long remainingNanos = deadline - System.nanoTime();
+            try {
+                if ((remainingNanos <= 0) || !existing.released.await(remainingNanos, TimeUnit.NANOSECONDS)) {
+                    throw new CacheException("Timeout while waiting for the lock on key " + key + " in region " + this.regionName);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CacheException(ex);
+            }
+        }
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return LockFreeTimestamper.next();
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        final BoundedMemoryCache stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        final BoundedMemoryCache stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
+    }
+
+    private BoundedMemoryCache stripeOf(final Object key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return this.stripes[(h ^ (h >>> 16)) & this.stripeMask];
+    }
+
+    /**
+     * Liefert eine Kopie der Eintr&auml;ge, die noch nicht abgelaufen sind.
+     *
+     * @return die Kopie der Eintr&auml;ge.
+     */
+    @Override
+    public Map<Object, Object> toMap() {
+        final Map<Object, Object> map = new HashMap<>();
+        for (final BoundedMemoryCache stripe : this.stripes) {
+            synchronized (stripe) {
+                map.putAll(stripe.toMap());
+            }
+        }
+        return map;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + regionName + ')';
+    }
+
+    /**
+     * Gibt den Key frei, den der aktuelle Thread mit {@link #lock(Object)}
+     * gesperrt hat.
+     *
+     * @param key der Key.
+     * @throws CacheException wenn der aktuelle Thread den Key nicht
+     *                        gesperrt hat.
+     */
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        final KeyLock keyLock = this.lockMap.get(key);
+        if ((keyLock == null) || (keyLock.owner != Thread.currentThread())) {
+            throw new CacheException("Key " + key + " is not locked by the current thread in region " + this.regionName);
+        }
+        if (--keyLock.holdCount == 0) {
+            this.lockMap.remove(key, keyLock);
+            keyLock.released.countDown();
+        }
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+    /**
+     * Die Sperre auf einen Key. Nur der besitzende Thread &auml;ndert den
+     * Z&auml;hler; wartende Threads versuchen es nach der Freigabe erneut.
+     */
+    private static final class KeyLock {
+
+        final Thread owner;
+        final CountDownLatch released;
+        int holdCount;
+
+        KeyLock(final Thread owner) {
+            this.owner = owner;
+            this.released = new CountDownLatch(1);
+            this.holdCount = 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheProvider;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Liefert Regionen ({@link SharedMemoryCache}), die sich alle Threads
+ * teilen - im Gegensatz zum {@link ThreadLocalMemoryCacheProvider}, bei
+ * dem jeder Thread seine Eintr&auml;ge selbst l&auml;dt.
+ * <p>
+ * Wird wie jeder andere Provider in der {@code hibernate.cfg.xml}
+ * eingetragen:
+ * <pre><code>
+ * &lt;property name="cache.provider_class"&gt;eu.dirk.haase.hibernate.cache.version_3_2.SharedMemoryCacheProvider&lt;/property&gt;
+ * </code></pre>
+ */
+public class SharedMemoryCacheProvider implements CacheProvider {
+
+    /**
+     * Die Property mit der maximalen Anzahl der Eintr&auml;ge pro Region
+     * (Vorgabe: {@link SharedMemoryCache#DEFAULT_MAX_ENTRIES}).
+     */
+    public final static String MAX_ENTRIES_PROPERTY = "hibernate.cache.shared.max_entries";
+    /**
+     * Die Property mit der Lebensdauer eines Eintrags in Millisekunden
+     * (Vorgabe: {@link ThreadLocalMemoryCache#DEFAULT_TIMEOUT_MILLIS}).
+     */
+    public final static String TIMEOUT_PROPERTY = "hibernate.cache.shared.timeout";
+
+    private final static Map<String, SharedMemoryCache> regionCacheMap = new ConcurrentHashMap<>();
+
+    public Cache buildCache(String regionName, Properties properties) throws CacheException {
+        final int maxEntries = Integer.parseInt(ThreadLocalMemoryCacheProvider.getProperty(properties, MAX_ENTRIES_PROPERTY, String.valueOf(SharedMemoryCache.DEFAULT_MAX_ENTRIES)));
+        final int timeoutMillis = Integer.parseInt(ThreadLocalMemoryCacheProvider.getProperty(properties, TIMEOUT_PROPERTY, String.valueOf(ThreadLocalMemoryCache.DEFAULT_TIMEOUT_MILLIS)));
+        return regionCacheMap.computeIfAbsent(regionName, (k) -> new SharedMemoryCache(regionName, maxEntries, timeoutMillis));
+    }
+
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+
+    public long nextTimestamp() {
+        return LockFreeTimestamper.next();
+    }
+
+    /**
+     * Callback to perform any necessary initialization of the underlying cache implementation
+     * during SessionFactory construction.
+     *
+     * @param properties current configuration settings.
+     */
+    public void start(Properties properties) throws CacheException {
+    }
+
+    /**
+     * Callback to perform any necessary cleanup of the underlying cache implementation
+     * during SessionFactory.close().
+     */
+    public void stop() {
+    }
+
+}
@@ -0,0 +1,293 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vergibt Speicherbl&ouml;cke au&szlig;erhalb des Heaps f&uuml;r den
+ * {@link OffHeapMemoryCache}.
+ * <p>
+ * Der Speicher besteht aus Seiten ({@link #PAGE_SIZE}) in direkten
+ * {@link ByteBuffer}n, die erst bei Bedarf und nur bis zur
+ * angegebenen Obergrenze angelegt werden. Jede Seite geh&ouml;rt zu einer
+ * Gr&ouml;&szlig;enklasse (Zweierpotenzen von {@link #MIN_CHUNK_SIZE} bis
+ * {@link #PAGE_SIZE}) und wird in Bl&ouml;cke dieser Gr&ouml;&szlig;e
+ * zerlegt. Freigegebene Bl&ouml;cke kommen in eine Frei-Liste pro Klasse,
+ * deren Verkettung in den Bl&ouml;cken selbst steht - auf dem Heap liegen
+ * nur die Seiten und ein paar Z&auml;hler.
+ * <p>
+ * Darf keine Seite mehr angelegt werden, bekommt eine Klasse ohne freien
+ * Block eine Seite einer anderen Klasse, in der kein Block mehr vergeben
+ * ist. Deren Bl&ouml;cke werden dazu aus der Frei-Liste ihrer bisherigen
+ * Klasse ausgekettet.
+ * <p>
+ * Eine Adresse enth&auml;lt die Nummer der Seite (obere 32 Bit) und den
+ * Offset in der Seite (untere 32 Bit).
+ * <p>
+ * Diese Klasse ist nicht thread-safe.
+ */
+final class SlabAllocator {
+
+    static final int MIN_CHUNK_SIZE = 64;
+    static final long NO_ADDRESS = -1L;
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(PAGE_SIZE) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE) + 1;
+
+    private long allocatedBytes;
+    private final long[] bumpAddresses;
+    private final long[] freeHeads;
+    private final int maxPages;
+    private final List<ByteBuffer> pages;
+    private byte[] pageClasses;
+    private int[] pageUsedChunks;
+
+    /**
+     * @param maxBytes die Obergrenze f&uuml;r den Speicher aller Seiten.
+     */
+    SlabAllocator(final long maxBytes) {
+        this.maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / PAGE_SIZE));
+        this.pages = new ArrayList<>();
+        this.pageClasses = new byte[16];
+        this.pageUsedChunks = new int[16];
+        this.freeHeads = new long[CLASS_COUNT];
+        this.bumpAddresses = new long[CLASS_COUNT];
+        Arrays.fill(this.freeHeads, NO_ADDRESS);
+        Arrays.fill(this.bumpAddresses, NO_ADDRESS);
+    }
+
+    private static int chunkSize(final int sizeClass) {
+        return MIN_CHUNK_SIZE << sizeClass;
+    }
+
+    private static int offsetOf(final long address) {
+        return (int) address;
+    }
+
+    private static int pageOf(final long address) {
+        return (int) (address >>> 32);
+    }
+
+    /**
+     * Liefert die Gr&ouml;&szlig;enklasse f&uuml;r Bl&ouml;cke mit
+     * mindestens der angegebenen Gr&ouml;&szlig;e.
+     *
+     * @param size die ben&ouml;tigte Gr&ouml;&szlig;e in Bytes.
+     * @return die Gr&ouml;&szlig;enklasse.
+     */
+    static int sizeClassOf(final int size) {
+        if (size <= MIN_CHUNK_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Vergibt einen Block mit mindestens der angegebenen Gr&ouml;&szlig;e.
+     *
+     * @param size die ben&ouml;tigte Gr&ouml;&szlig;e in Bytes.
+     * @return die Adresse des Blocks oder {@link #NO_ADDRESS}, wenn kein
+     * Block dieser Klasse mehr frei ist, keine Seite mehr angelegt werden
+     * darf und auch keine leere Seite einer anderen Klasse &uuml;brig ist
+     * (oder der Block gr&ouml;&szlig;er als eine Seite w&auml;re).
+     */
+    long allocate(final int size) {
+        if (size > PAGE_SIZE) {
+            return NO_ADDRESS;
+        }
+        final int sizeClass = sizeClassOf(size);
+        final long freeHead = this.freeHeads[sizeClass];
+        if (freeHead != NO_ADDRESS) {
+            this.freeHeads[sizeClass] = page(freeHead).getLong(offsetOf(freeHead));
+            return used(freeHead, sizeClass);
+        }
+        long address = this.bumpAddresses[sizeClass];
+        if (address == NO_ADDRESS) {
+            if (this.pages.size() < this.maxPages) {
+                address = newPage(sizeClass);
+            } else {
+                address = reassignEmptyPage(sizeClass);
+                if (address == NO_ADDRESS) {
+                    return NO_ADDRESS;
+                }
+            }
+        }
+        final int nextOffset = offsetOf(address) + chunkSize(sizeClass);
+        this.bumpAddresses[sizeClass] = (nextOffset < PAGE_SIZE ? address + chunkSize(sizeClass) : NO_ADDRESS);
+        return used(address, sizeClass);
+    }
+
+    /**
+     * Liefert die Anzahl der Bytes in vergebenen Bl&ouml;cken.
+     *
+     * @return die Anzahl der vergebenen Bytes.
+     */
+    long allocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * Gibt einen Block frei.
+     *
+     * @param address die Adresse des Blocks.
+     */
+    void free(final long address) {
+        final int sizeClass = this.pageClasses[pageOf(address)];
+        page(address).putLong(offsetOf(address), this.freeHeads[sizeClass]);
+        this.freeHeads[sizeClass] = address;
+        --this.pageUsedChunks[pageOf(address)];
+        this.allocatedBytes -= chunkSize(sizeClass);
+    }
+
+    /**
+     * Liest Bytes aus einem Block.
+     *
+     * @param address die Adresse des Blocks.
+     * @param offset  der Offset im Block.
+     * @param target  das Ziel; es wird vollst&auml;ndig gef&uuml;llt.
+     */
+    void get(final long address, final int offset, final byte[] target) {
+        final ByteBuffer page = page(address);
+        page.position(offsetOf(address) + offset);
+        page.get(target);
+    }
+
+    int getInt(final long address, final int offset) {
+        return page(address).getInt(offsetOf(address) + offset);
+    }
+
+    /**
+     * Vergleicht Bytes in einem Block mit den angegebenen.
+     *
+     * @param address die Adresse des Blocks.
+     * @param offset  der Offset im Block.
+     * @param bytes   die erwarteten Bytes.
+     * @return {@code true} wenn alle Bytes gleich sind.
+     */
+    boolean matches(final long address, final int offset, final byte[] bytes) {
+        final ByteBuffer page = page(address);
+        final int start = offsetOf(address) + offset;
+        for (int i = 0; bytes.length > i; ++i) {
+            if (page.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long newPage(final int sizeClass) {
+        final int pageIndex = this.pages.size();
+        this.pages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+        if (pageIndex == this.pageClasses.length) {
+            this.pageClasses = Arrays.copyOf(this.pageClasses, pageIndex * 2);
+            this.pageUsedChunks = Arrays.copyOf(this.pageUsedChunks, pageIndex * 2);
+        }
+        this.pageClasses[pageIndex] = (byte) sizeClass;
+        return ((long) pageIndex) << 32;
+    }
+
+    private ByteBuffer page(final long address) {
+        return this.pages.get(pageOf(address));
+    }
+
+    /**
+     * Gibt alle Bl&ouml;cke und Seiten frei. Die direkten
+     * {@link ByteBuffer}s werden nicht mehr referenziert, so dass der
+     * Garbage-Collector ihren Speicher zur&uuml;ckgeben kann.
+     */
+    void release() {
+        Arrays.fill(this.freeHeads, NO_ADDRESS);
+        Arrays.fill(this.bumpAddresses, NO_ADDRESS);
+        Arrays.fill(this.pageUsedChunks, 0);
+        this.pages.clear();
+        this.allocatedBytes = 0;
+    }
+
+    private long reassignEmptyPage(final int sizeClass) {
+        for (int pageIndex = 0; this.pages.size() > pageIndex; ++pageIndex) {
+            final int oldClass = this.pageClasses[pageIndex];
+            if ((oldClass != sizeClass) && (this.pageUsedChunks[pageIndex] == 0)) {
+                unlinkFreeChunks(oldClass, pageIndex);
+                if ((this.bumpAddresses[oldClass] != NO_ADDRESS) && (pageOf(this.bumpAddresses[oldClass]) == pageIndex)) {
+                    this.bumpAddresses[oldClass] = NO_ADDRESS;
+                }
+                this.pageClasses[pageIndex] = (byte) sizeClass;
+                return ((long) pageIndex) << 32;
+            }
+        }
+        return NO_ADDRESS;
+    }
+
+    /**
+     * Liefert die Anzahl der Bytes in allen Seiten.
+     *
+     * @return die Anzahl der reservierten Bytes.
+     */
+    long reservedBytes() {
+        return (long) this.pages.size() * PAGE_SIZE;
+    }
+
+    void put(final long address, final int offset, final byte[] source) {
+        final ByteBuffer page = page(address);
+        page.position(offsetOf(address) + offset);
+        page.put(source);
+    }
+
+    void putInt(final long address, final int offset, final int value) {
+        page(address).putInt(offsetOf(address) + offset, value);
+    }
+
+    /**
+     * Gibt alle Bl&ouml;cke frei, beh&auml;lt aber die Seiten.
+     */
+    void reset() {
+        Arrays.fill(this.freeHeads, NO_ADDRESS);
+        Arrays.fill(this.bumpAddresses, NO_ADDRESS);
+        // Die Seiten werden ihrer bisherigen Klasse neu zugeteilt:
+        for (int pageIndex = 0; this.pages.size() > pageIndex; ++pageIndex) {
+            final int sizeClass = this.pageClasses[pageIndex];
+            for (int offset = 0; PAGE_SIZE > offset; offset += chunkSize(sizeClass)) {
+                free((((long) pageIndex) << 32) | offset);
+            }
+        }
+        Arrays.fill(this.pageUsedChunks, 0);
+        this.allocatedBytes = 0;
+    }
+
+    /**
+     * Liefert die Gr&ouml;&szlig;enklasse eines vergebenen Blocks.
+     *
+     * @param address die Adresse des Blocks.
+     * @return die Gr&ouml;&szlig;enklasse.
+     */
+    int sizeClassAt(final long address) {
+        return this.pageClasses[pageOf(address)];
+    }
+
+    private void unlinkFreeChunks(final int sizeClass, final int pageIndex) {
+        // Die Frei-Liste ohne die Bloecke der Seite neu verketten:
+        long previous = NO_ADDRESS;
+        long address = this.freeHeads[sizeClass];
+        while (address != NO_ADDRESS) {
+            final long next = page(address).getLong(offsetOf(address));
+            if (pageOf(address) == pageIndex) {
+                if (previous == NO_ADDRESS) {
+                    this.freeHeads[sizeClass] = next;
+                } else {
+                    page(previous).putLong(offsetOf(previous), next);
+                }
+            } else {
+                previous = address;
+            }
+            address = next;
+        }
+    }
+
+    private long used(final long address, final int sizeClass) {
+        ++this.pageUsedChunks[pageOf(address)];
+        this.allocatedBytes += chunkSize(sizeClass);
+        return address;
+    }
+
+}
@@ -0,0 +1,67 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.QueryKey;
+import org.hibernate.cache.StandardQueryCache;
+import org.hibernate.cache.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.type.Type;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Ein {@link StandardQueryCache}, der einer {@link QueryResultsMemoryCache
+ * Ergebnis-Region} die Tabellen jeder Query meldet und sie bei der
+ * {@link UpdateTimestampsMemoryCache Zeitstempel-Region} registriert.
+ * <p>
+ * Hibernate kennt die Tabellen einer Query nur beim Lesen aus dem Cache.
+ * Weil auf jedes Schreiben eines Ergebnisses ein Fehlzugriff mit demselben
+ * Key folgt, werden die Tabellen bei einem Fehlzugriff gemeldet.
+ * <p>
+ * Die Regionen &uuml;berleben das Schlie&szlig;en einer SessionFactory;
+ * jede weitere SessionFactory registriert deshalb denselben Listener, der
+ * nur einmal aufgerufen wird.
+ * <p>
+ * Verwenden andere Provider die beiden Regionen, verh&auml;lt sich dieser
+ * Cache wie der {@link StandardQueryCache}.
+ */
+public class SpaceIndexedQueryCache extends StandardQueryCache {
+
+    private final QueryResultsMemoryCache queryResultsCache;
+
+    public SpaceIndexedQueryCache(final Settings settings,
+                                  final Properties properties,
+                                  final UpdateTimestampsCache updateTimestampsCache,
+                                  final String regionName) throws HibernateException {
+        super(settings, properties, updateTimestampsCache, regionName);
+        final Cache queryResultsCache = ThreadLocalMemoryCacheProvider.getRegionCache(getRegion().getName());
+        final Cache timestampsCache = ThreadLocalMemoryCacheProvider.getRegionCache(updateTimestampsCache.getRegion().getName());
+        if (queryResultsCache instanceof QueryResultsMemoryCache) {
+            this.queryResultsCache = (QueryResultsMemoryCache) queryResultsCache;
+            if (timestampsCache instanceof UpdateTimestampsMemoryCache) {
+                ((UpdateTimestampsMemoryCache) timestampsCache).addInvalidationListener(this.queryResultsCache.getInvalidationListener());
+            }
+        } else {
+            this.queryResultsCache = null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List<?> get(final QueryKey key,
+                       final Type[] returnTypes,
+                       final boolean isNaturalKeyLookup,
+                       final Set spaces,
+                       final SessionImplementor session) throws HibernateException {
+        final List<?> result = super.get(key, returnTypes, isNaturalKeyLookup, spaces, session);
+        if ((result == null) && (this.queryResultsCache != null)) {
+            this.queryResultsCache.registerSpaces(key, spaces);
+        }
+        return result;
+    }
+
+}
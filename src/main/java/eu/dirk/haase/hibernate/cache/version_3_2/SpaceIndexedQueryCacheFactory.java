@@ -0,0 +1,36 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.QueryCache;
+import org.hibernate.cache.QueryCacheFactory;
+import org.hibernate.cache.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+
+import java.util.Properties;
+
+/**
+ * Erzeugt {@link SpaceIndexedQueryCache}s. Wird zusammen mit dem
+ * {@link ThreadLocalMemoryCacheProvider} in der {@code hibernate.cfg.xml}
+ * eingetragen:
+ * <pre><code>
+ * &lt;property name="cache.use_query_cache"&gt;true&lt;/property&gt;
+ * &lt;property name="cache.query_cache_factory"&gt;eu.dirk.haase.hibernate.cache.version_3_2.SpaceIndexedQueryCacheFactory&lt;/property&gt;
+ * </code></pre>
+ * Die Regionen benannter Query-Caches ({@code Query.setCacheRegion})
+ * werden dadurch ebenfalls als {@link QueryResultsMemoryCache} angelegt.
+ */
+public class SpaceIndexedQueryCacheFactory implements QueryCacheFactory {
+
+    public QueryCache getQueryCache(final String regionName,
+                                    final UpdateTimestampsCache updateTimestampsCache,
+                                    final Settings settings,
+                                    final Properties properties) throws HibernateException {
+        final Properties queryProperties = new Properties();
+        if (properties != null) {
+            queryProperties.putAll(properties);
+        }
+        queryProperties.setProperty(ThreadLocalMemoryCacheProvider.QUERY_RESULTS_REGION_PROPERTY, "true");
+        return new SpaceIndexedQueryCache(settings, queryProperties, updateTimestampsCache, regionName);
+    }
+
+}
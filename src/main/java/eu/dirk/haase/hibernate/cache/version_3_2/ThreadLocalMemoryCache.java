@@ -3,50 +3,134 @@ package eu.dirk.haase.hibernate.cache.version_3_2;
 import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
 import org.hibernate.cache.Cache;
 import org.hibernate.cache.CacheException;
-import org.hibernate.cache.Timestamper;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
-
+import java.util.function.Function;
+
+/**
+ * Ein Cache, der f&uuml;r jeden Thread (oder jede Transaktion) eigene
+ * Eintr&auml;ge verwaltet.
+ * <p>
+ * Die Eintr&auml;ge eines Threads sind pro Region auf
+ * {@link #DEFAULT_MAX_ENTRIES} (oder die angegebene Anzahl) begrenzt und
+ * werden nach W-TinyLFU verdr&auml;ngt; nach {@link #getTimeout()} laufen
+ * sie ab. Die Zugriffe aller Threads werden in
+ * {@link #getStatistics()} gez&auml;hlt.
+ */
 public class ThreadLocalMemoryCache implements Cache {
 
+    /**
+     * Die maximale Anzahl der Eintr&auml;ge pro Thread und Region, wenn
+     * keine angegeben wird.
+     */
+    public final static int DEFAULT_MAX_ENTRIES = 10_000;
+    /**
+     * Die Lebensdauer eines Eintrags in Millisekunden, wenn keine
+     * angegeben wird.
+     */
+    public final static int DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+    private final BoundedMemoryCache.Counters counters;
+    private final Function<String, Cache> newCache;
     private final String regionName;
     private final ThreadLocalResourceRegistry<String, Cache> threadLocalCacheRegistry;
 
     public ThreadLocalMemoryCache(final String regionName) {
+        this(regionName, ThreadLocalResourceRegistry.newInstance(Collections.singleton(regionName)), DEFAULT_MAX_ENTRIES, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Erzeugt einen Cache, dessen Eintr&auml;ge mit der angegebenen
+     * Strenge gespeichert werden.
+     * <p>
+     * Mit {@link ThreadLocalResourceRegistry.RefType#TRANSACTION} hat jede
+     * Spring-Transaktion ihren eigenen Cache, der mit ihrem Ende verworfen
+     * wird.
+     *
+     * @param regionName der Name der Cache-Region.
+     * @param refType    die Strenge mit der die Eintr&auml;ge gespeichert
+     *                   werden.
+     */
+    public ThreadLocalMemoryCache(final String regionName, final ThreadLocalResourceRegistry.RefType refType) {
+        this(regionName, ThreadLocalResourceRegistry.newInstance(refType), DEFAULT_MAX_ENTRIES, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Erzeugt einen Cache mit der angegebenen Kapazit&auml;t und
+     * Lebensdauer der Eintr&auml;ge.
+     *
+     * @param regionName    der Name der Cache-Region.
+     * @param maxEntries    die maximale Anzahl der Eintr&auml;ge pro
+     *                      Thread.
+     * @param timeoutMillis die Lebensdauer eines Eintrags in
+     *                      Millisekunden.
+     */
+    public ThreadLocalMemoryCache(final String regionName, final int maxEntries, final int timeoutMillis) {
+        this(regionName, ThreadLocalResourceRegistry.newInstance(Collections.singleton(regionName)), maxEntries, timeoutMillis);
+    }
+
+    /**
+     * Erzeugt einen Cache mit der angegebenen Strenge, Kapazit&auml;t und
+     * Lebensdauer der Eintr&auml;ge.
+     *
+     * @param regionName    der Name der Cache-Region.
+     * @param refType       die Strenge mit der die Eintr&auml;ge
+     *                      gespeichert werden.
+     * @param maxEntries    die maximale Anzahl der Eintr&auml;ge pro
+     *                      Thread (oder Transaktion).
+     * @param timeoutMillis die Lebensdauer eines Eintrags in
+     *                      Millisekunden.
+     */
+    public ThreadLocalMemoryCache(final String regionName, final ThreadLocalResourceRegistry.RefType refType, final int maxEntries, final int timeoutMillis) {
+        this(regionName, ThreadLocalResourceRegistry.newInstance(refType), maxEntries, timeoutMillis);
+    }
+
+    private ThreadLocalMemoryCache(final String regionName,
+                                   final ThreadLocalResourceRegistry<String, Cache> threadLocalCacheRegistry,
+                                   final int maxEntries,
+                                   final int timeoutMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+        }
+        // Timestamper.ONE_MS * timeoutMillis muss in ein int passen:
+        if ((timeoutMillis < 1) || (timeoutMillis > Integer.MAX_VALUE / 4096)) {
+            throw new IllegalArgumentException("Timeout is out of range: " + timeoutMillis);
+        }
+        final BoundedMemoryCache.Counters counters = new BoundedMemoryCache.Counters();
         this.regionName = regionName;
-        this.threadLocalCacheRegistry = ThreadLocalResourceRegistry.newInstance(ThreadLocalResourceRegistry.RefType.HARD);
+        this.threadLocalCacheRegistry = threadLocalCacheRegistry;
+        this.counters = counters;
+        this.newCache = (k) -> new BoundedMemoryCache(maxEntries, timeoutMillis, counters);
     }
 
     @Override
     public void clear() throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.clear();
+        currentCache().clear();
+    }
+
+    private Cache currentCache() {
+        return threadLocalCacheRegistry.computeIfAbsent(regionName, newCache);
     }
 
     @Override
     public void destroy() throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.destroy();
+        currentCache().destroy();
     }
 
     @Override
     public Object get(Object key) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.get(key);
+        return currentCache().get(key);
     }
 
     @Override
     public long getElementCountInMemory() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.getElementCountInMemory();
+        return currentCache().getElementCountInMemory();
     }
 
     @Override
     public long getElementCountOnDisk() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.getElementCountOnDisk();
+        return currentCache().getElementCountOnDisk();
     }
 
     @Override
@@ -54,52 +138,67 @@ public class ThreadLocalMemoryCache implements Cache {
         return regionName;
     }
 
+    /**
+     * Liefert den gesch&auml;tzten Speicherbedarf der Eintr&auml;ge des
+     * aktuellen Threads in Bytes (Keys, Werte und die Strukturen des
+     * Caches).
+     *
+     * @return der gesch&auml;tzte Speicherbedarf.
+     */
     @Override
     public long getSizeInMemory() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.getSizeInMemory();
+        return currentCache().getSizeInMemory();
     }
 
+    /**
+     * Liefert eine Momentaufnahme der Treffer, Fehlzugriffe und
+     * Verdr&auml;ngungen dieser Region &uuml;ber alle Threads.
+     *
+     * @return die Momentaufnahme.
+     */
+    public MemoryCacheStatistics getStatistics() {
+        return counters.snapshot(regionName);
+    }
+
+    /**
+     * Liefert die Lebensdauer eines Eintrags (in Einheiten von
+     * {@link org.hibernate.cache.Timestamper#ONE_MS}).
+     *
+     * @return die Lebensdauer eines Eintrags.
+     */
     @Override
     public int getTimeout() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.getTimeout();
+        return currentCache().getTimeout();
     }
 
     @Override
     public void lock(Object key) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.lock(key);
+        currentCache().lock(key);
     }
 
     @Override
     public long nextTimestamp() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.nextTimestamp();
+        return currentCache().nextTimestamp();
     }
 
     @Override
     public void put(Object key, Object value) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.put(key, value);
+        currentCache().put(key, value);
     }
 
     @Override
     public Object read(Object key) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.read(key);
+        return currentCache().read(key);
     }
 
     @Override
     public void remove(Object key) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.remove(key);
+        currentCache().remove(key);
     }
 
     @Override
     public Map toMap() {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        return cache.toMap();
+        return currentCache().toMap();
     }
 
     public String toString() {
@@ -108,96 +207,12 @@ public class ThreadLocalMemoryCache implements Cache {
 
     @Override
     public void unlock(Object key) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.unlock(key);
+        currentCache().unlock(key);
     }
 
     @Override
     public void update(Object key, Object value) throws CacheException {
-        final Cache cache = threadLocalCacheRegistry.computeIfAbsent(regionName, (k) -> new HashMapCache());
-        cache.update(key, value);
+        currentCache().update(key, value);
     }
 
-    /**
-     * A lightweight implementation of the <tt>Cache</tt> interface
-     *
-     * @author Gavin King
-     */
-    static class HashMapCache implements Cache {
-
-        final Map<Object, Object> backstoreMap;
-        final Map<Object, Object> unmodifiableBackstoreMap;
-
-        HashMapCache() {
-            this.backstoreMap = new HashMap<>();
-            this.unmodifiableBackstoreMap = Collections.unmodifiableMap(backstoreMap);
-        }
-
-        public void clear() throws CacheException {
-            backstoreMap.clear();
-        }
-
-        public void destroy() throws CacheException {
-
-        }
-
-        public Object get(Object key) throws CacheException {
-            return backstoreMap.get(key);
-        }
-
-        public long getElementCountInMemory() {
-            return backstoreMap.size();
-        }
-
-        public long getElementCountOnDisk() {
-            return 0;
-        }
-
-        @Override
-        public String getRegionName() {
-            throw new UnsupportedOperationException();
-        }
-
-        public long getSizeInMemory() {
-            return -1;
-        }
-
-        public int getTimeout() {
-            return Timestamper.ONE_MS * 60000; //ie. 60 seconds
-        }
-
-        public void lock(Object key) throws CacheException {
-            // local cache, so we use synchronization
-        }
-
-        public long nextTimestamp() {
-            return Timestamper.next();
-        }
-
-        public void put(Object key, Object value) throws CacheException {
-            backstoreMap.put(key, value);
-        }
-
-        public Object read(Object key) throws CacheException {
-            return backstoreMap.get(key);
-        }
-
-        public void remove(Object key) throws CacheException {
-            backstoreMap.remove(key);
-        }
-
-        public Map<Object, Object> toMap() {
-            return this.unmodifiableBackstoreMap;
-        }
-
-        public void unlock(Object key) throws CacheException {
-            // local cache, so we use synchronization
-        }
-
-        public void update(Object key, Object value) throws CacheException {
-            put(key, value);
-        }
-
-
-    }
 }
@@ -1,9 +1,11 @@
 package eu.dirk.haase.hibernate.cache.version_3_2;
 
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
 import org.hibernate.cache.Cache;
 import org.hibernate.cache.CacheException;
 import org.hibernate.cache.CacheProvider;
-import org.hibernate.cache.Timestamper;
+import org.hibernate.cache.StandardQueryCache;
+import org.hibernate.cache.UpdateTimestampsCache;
 
 import java.util.Map;
 import java.util.Properties;
@@ -11,18 +13,117 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class ThreadLocalMemoryCacheProvider implements CacheProvider {
 
-    private final static Map<String, ThreadLocalMemoryCache> regionCacheMap = new ConcurrentHashMap<>();
+    /**
+     * Die Property mit der die Strenge der Cache-Eintr&auml;ge gew&auml;hlt
+     * wird ({@code HARD} oder {@code TRANSACTION}, siehe
+     * {@link ThreadLocalResourceRegistry.RefType}). Ohne diese Property
+     * werden die Eintr&auml;ge pro Thread gespeichert.
+     */
+    public final static String REF_TYPE_PROPERTY = "hibernate.cache.thread_local.ref_type";
+    /**
+     * Die Property mit der maximalen Anzahl der Eintr&auml;ge pro Thread
+     * und Region (Vorgabe: {@link ThreadLocalMemoryCache#DEFAULT_MAX_ENTRIES}).
+     */
+    public final static String MAX_ENTRIES_PROPERTY = "hibernate.cache.thread_local.max_entries";
+    /**
+     * Die Property mit der Lebensdauer eines Eintrags in Millisekunden
+     * (Vorgabe: {@link ThreadLocalMemoryCache#DEFAULT_TIMEOUT_MILLIS}).
+     */
+    public final static String TIMEOUT_PROPERTY = "hibernate.cache.thread_local.timeout";
+    /**
+     * Die Property mit der ({@code true}) der Cache jedes Threads als
+     * Near-Cache vor einen gemeinsamen {@link SharedMemoryCache} gestellt
+     * wird (siehe {@link TwoTierMemoryCache}). Dessen Kapazit&auml;t wird
+     * mit {@link SharedMemoryCacheProvider#MAX_ENTRIES_PROPERTY}
+     * gew&auml;hlt.
+     */
+    public final static String TWO_TIER_PROPERTY = "hibernate.cache.thread_local.two_tier";
+    /**
+     * Die Property mit den Namen der Regionen (durch Komma getrennt), deren
+     * Eintr&auml;ge serialisiert au&szlig;erhalb des Heaps gespeichert
+     * werden (siehe {@link OffHeapMemoryCache}). Diese Regionen teilen
+     * sich alle Threads; ihre Kapazit&auml;t wird mit
+     * {@link SharedMemoryCacheProvider#MAX_ENTRIES_PROPERTY} und
+     * {@link #OFF_HEAP_MAX_BYTES_PROPERTY} gew&auml;hlt.
+     */
+    public final static String OFF_HEAP_REGIONS_PROPERTY = "hibernate.cache.thread_local.off_heap_regions";
+    /**
+     * Die Property mit der Obergrenze f&uuml;r den Speicher einer Region
+     * au&szlig;erhalb des Heaps in Bytes (Vorgabe:
+     * {@link OffHeapMemoryCache#DEFAULT_MAX_BYTES}).
+     */
+    public final static String OFF_HEAP_MAX_BYTES_PROPERTY = "hibernate.cache.thread_local.off_heap_max_bytes";
+
+    /**
+     * Die Property, mit der die {@link SpaceIndexedQueryCacheFactory} eine
+     * Region als Region f&uuml;r Query-Ergebnisse kennzeichnet.
+     */
+    final static String QUERY_RESULTS_REGION_PROPERTY = "hibernate.cache.thread_local.query_results_region";
+
+    private final static Map<String, Cache> regionCacheMap = new ConcurrentHashMap<>();
 
     public Cache buildCache(String regionName, Properties properties) throws CacheException {
-        return regionCacheMap.computeIfAbsent(regionName, (k)->new ThreadLocalMemoryCache(regionName));
+        return regionCacheMap.computeIfAbsent(regionName, (k) -> newCache(regionName, properties));
+    }
+
+    /**
+     * Liefert die Region mit dem angegebenen Namen, falls dieser Provider
+     * sie angelegt hat.
+     *
+     * @param regionName der Name der Region.
+     * @return die Region oder {@code null}.
+     */
+    static Cache getRegionCache(final String regionName) {
+        return regionCacheMap.get(regionName);
+    }
+
+    static String getProperty(final Properties properties, final String name, final String defaultValue) {
+        final String value = (properties != null ? properties.getProperty(name) : null);
+        return (value != null ? value.trim() : defaultValue);
     }
 
     public boolean isMinimalPutsEnabledByDefault() {
         return false;
     }
 
+    private static boolean isOffHeapRegion(final String regionName, final Properties properties) {
+        for (final String offHeapRegionName : getProperty(properties, OFF_HEAP_REGIONS_PROPERTY, "").split(",")) {
+            if (offHeapRegionName.trim().equals(regionName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Cache newCache(final String regionName, final Properties properties) {
+        final String refType = getProperty(properties, REF_TYPE_PROPERTY, null);
+        final int maxEntries = Integer.parseInt(getProperty(properties, MAX_ENTRIES_PROPERTY, String.valueOf(ThreadLocalMemoryCache.DEFAULT_MAX_ENTRIES)));
+        final int timeoutMillis = Integer.parseInt(getProperty(properties, TIMEOUT_PROPERTY, String.valueOf(ThreadLocalMemoryCache.DEFAULT_TIMEOUT_MILLIS)));
+        final int sharedMaxEntries = Integer.parseInt(getProperty(properties, SharedMemoryCacheProvider.MAX_ENTRIES_PROPERTY, String.valueOf(SharedMemoryCache.DEFAULT_MAX_ENTRIES)));
+        // Diese beiden Regionen teilen sich alle Threads:
+        if (regionName.endsWith(UpdateTimestampsCache.REGION_NAME)) {
+            return new UpdateTimestampsMemoryCache(regionName);
+        } else if (regionName.endsWith(StandardQueryCache.class.getName())
+                || Boolean.parseBoolean(getProperty(properties, QUERY_RESULTS_REGION_PROPERTY, "false"))) {
+            return new QueryResultsMemoryCache(regionName, sharedMaxEntries, timeoutMillis);
+        } else if (isOffHeapRegion(regionName, properties)) {
+            final long maxBytes = Long.parseLong(getProperty(properties, OFF_HEAP_MAX_BYTES_PROPERTY, String.valueOf(OffHeapMemoryCache.DEFAULT_MAX_BYTES)));
+            return new OffHeapMemoryCache(regionName, sharedMaxEntries, maxBytes, timeoutMillis);
+        }
+        final ThreadLocalMemoryCache cache;
+        if (refType == null) {
+            cache = new ThreadLocalMemoryCache(regionName, maxEntries, timeoutMillis);
+        } else {
+            cache = new ThreadLocalMemoryCache(regionName, ThreadLocalResourceRegistry.RefType.valueOf(refType), maxEntries, timeoutMillis);
+        }
+        if (!Boolean.parseBoolean(getProperty(properties, TWO_TIER_PROPERTY, "false"))) {
+            return cache;
+        }
+        return new TwoTierMemoryCache(cache, new SharedMemoryCache(regionName, sharedMaxEntries, timeoutMillis));
+    }
+
     public long nextTimestamp() {
-        return Timestamper.next();
+        return LockFreeTimestamper.next();
     }
 
     /**
@@ -39,6 +140,14 @@ public class ThreadLocalMemoryCacheProvider implements CacheProvider {
      * during SessionFactory.close().
      */
     public void stop() {
+        // Der Speicher ausserhalb des Heaps wird sonst nie freigegeben:
+        regionCacheMap.values().removeIf((cache) -> {
+            if (cache instanceof OffHeapMemoryCache) {
+                cache.destroy();
+                return true;
+            }
+            return false;
+        });
     }
 
 }
@@ -0,0 +1,242 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ein Cache aus zwei Stufen: ein {@link ThreadLocalMemoryCache} als
+ * Near-Cache (L1) vor einem {@link SharedMemoryCache} (L2), den sich alle
+ * Threads teilen.
+ * <p>
+ * Jeder Eintrag im L1 tr&auml;gt den {@link #nextTimestamp() Zeitstempel}
+ * von dem Moment, bevor er aus dem L2 gelesen wurde. Ein Schreiben
+ * entfernt den Key aus dem L1 des schreibenden Threads; erst das
+ * n&auml;chste Lesen f&uuml;llt ihn wieder aus dem L2.
+ * Wer einen Key im L2 &auml;ndert oder entfernt, ver&ouml;ffentlicht
+ * danach einen neuen Zeitstempel f&uuml;r den Key. Ein Eintrag im L1 gilt
+ * nur, solange er j&uuml;nger ist als dieser Invalidierungs-Zeitstempel;
+ * die Pr&uuml;fung kostet einen einzigen volatilen Lesezugriff.
+ * <p>
+ * Die Invalidierungs-Zeitstempel liegen in einer festen Anzahl von
+ * Slots, auf die die Keys &uuml;ber ihren Hash-Code verteilt werden. Keys
+ * im selben Slot invalidieren sich gegenseitig; das kostet nur einen
+ * zus&auml;tzlichen Zugriff auf den L2. {@link #clear()} invalidiert alle
+ * Slots.
+ * <p>
+ * Zwischen dem Schreiben in den L2 und dem Ver&ouml;ffentlichen des
+ * Zeitstempels kann ein anderer Thread noch den alten Eintrag aus seinem
+ * L1 lesen - danach nicht mehr.
+ */
+public class TwoTierMemoryCache implements Cache {
+
+    /**
+     * Die Anzahl der Slots f&uuml;r die Invalidierungs-Zeitstempel, wenn
+     * keine angegeben wird.
+     */
+    public final static int DEFAULT_INVALIDATION_SLOTS = 4096;
+
+    private final AtomicLongArray invalidationTimestamps;
+    private final ThreadLocalMemoryCache nearCache;
+    private final SharedMemoryCache sharedCache;
+    private final int slotMask;
+
+    /**
+     * Erzeugt einen Cache aus den beiden Stufen.
+     *
+     * @param nearCache   der Near-Cache (L1).
+     * @param sharedCache der gemeinsame Cache (L2).
+     */
+    public TwoTierMemoryCache(final ThreadLocalMemoryCache nearCache, final SharedMemoryCache sharedCache) {
+        this(nearCache, sharedCache, DEFAULT_INVALIDATION_SLOTS);
+    }
+
+    /**
+     * Erzeugt einen Cache aus den beiden Stufen.
+     *
+     * @param nearCache         der Near-Cache (L1).
+     * @param sharedCache       der gemeinsame Cache (L2).
+     * @param invalidationSlots die Anzahl der Slots f&uuml;r die
+     *                          Invalidierungs-Zeitstempel (wird auf eine
+     *                          Zweierpotenz aufgerundet).
+     */
+    public TwoTierMemoryCache(final ThreadLocalMemoryCache nearCache, final SharedMemoryCache sharedCache, final int invalidationSlots) {
+        if (invalidationSlots < 1) {
+            throw new IllegalArgumentException("Invalidation slots must be positive: " + invalidationSlots);
+        }
+        final int slotCount = (invalidationSlots == 1 ? 1 : Integer.highestOneBit(invalidationSlots - 1) << 1);
+        this.nearCache = nearCache;
+        this.sharedCache = sharedCache;
+        this.invalidationTimestamps = new AtomicLongArray(slotCount);
+        this.slotMask = slotCount - 1;
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        this.sharedCache.clear();
+        final long timestamp = this.sharedCache.nextTimestamp();
+        for (int i = 0; this.invalidationTimestamps.length() > i; ++i) {
+            publish(i, timestamp);
+        }
+        this.nearCache.clear();
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        this.nearCache.destroy();
+        this.sharedCache.destroy();
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        final int slot = slotOf(key);
+        final NearEntry nearEntry = (NearEntry) this.nearCache.get(key);
+        if ((nearEntry != null) && (nearEntry.timestamp > this.invalidationTimestamps.get(slot))) {
+            return nearEntry.value;
+        }
+        // Der Zeitstempel muss vor dem Lesen aus dem L2 gezogen werden,
+        // damit ein gleichzeitiges Schreiben ihn invalidiert:
+        final long timestamp = this.sharedCache.nextTimestamp();
+        final Object value = this.sharedCache.get(key);
+        if (value != null) {
+            this.nearCache.put(key, new NearEntry(value, timestamp));
+        } else if (nearEntry != null) {
+            this.nearCache.remove(key);
+        }
+        return value;
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return this.sharedCache.getElementCountInMemory();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    /**
+     * Liefert die Statistiken des Near-Caches (L1). Ein Eintrag, der dort
+     * gefunden wird aber invalidiert ist, z&auml;hlt als Treffer im L1 und
+     * als Zugriff auf den L2.
+     *
+     * @return die Statistiken des Near-Caches.
+     */
+    public MemoryCacheStatistics getNearStatistics() {
+        return this.nearCache.getStatistics();
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.sharedCache.getRegionName();
+    }
+
+    /**
+     * Liefert die Statistiken des gemeinsamen Caches (L2).
+     *
+     * @return die Statistiken des gemeinsamen Caches.
+     */
+    public MemoryCacheStatistics getSharedStatistics() {
+        return this.sharedCache.getStatistics();
+    }
+
+    /**
+     * Liefert den gesch&auml;tzten Speicherbedarf des gemeinsamen Caches
+     * und des Near-Caches des aktuellen Threads in Bytes.
+     *
+     * @return der gesch&auml;tzte Speicherbedarf.
+     */
+    @Override
+    public long getSizeInMemory() {
+        return this.sharedCache.getSizeInMemory() + this.nearCache.getSizeInMemory();
+    }
+
+    @Override
+    public int getTimeout() {
+        return this.sharedCache.getTimeout();
+    }
+
+    @Override
+    public void lock(final Object key) throws CacheException {
+        this.sharedCache.lock(key);
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return this.sharedCache.nextTimestamp();
+    }
+
+    private void publish(final int slot, final long timestamp) {
+        long current = this.invalidationTimestamps.get(slot);
+        while ((current < timestamp) && !this.invalidationTimestamps.compareAndSet(slot, current, timestamp)) {
+            current = this.invalidationTimestamps.get(slot);
+        }
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        this.sharedCache.put(key, value);
+        // Erst nach dem Schreiben in den L2 invalidieren, sonst kann ein
+        // anderer Thread den alten Wert mit neuerem Zeitstempel laden:
+        publish(slotOf(key), this.sharedCache.nextTimestamp());
+        // Den eigenen Wert nicht in den L1 legen: ein anderer Thread kann
+        // den Key zwischen dem Schreiben und dem Ver&ouml;ffentlichen schon
+        // wieder ge&auml;ndert haben. Das n&auml;chste get() liest den L2.
+        this.nearCache.remove(key);
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        this.sharedCache.remove(key);
+        publish(slotOf(key), this.sharedCache.nextTimestamp());
+        this.nearCache.remove(key);
+    }
+
+    private int slotOf(final Object key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & this.slotMask;
+    }
+
+    @Override
+    public Map<Object, Object> toMap() {
+        return this.sharedCache.toMap();
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getRegionName() + ')';
+    }
+
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        this.sharedCache.unlock(key);
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+    /**
+     * Ein Eintrag im Near-Cache mit dem Zeitstempel, ab dem er gilt.
+     */
+    private static final class NearEntry {
+
+        final long timestamp;
+        final Object value;
+
+        NearEntry(final Object value, final long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+    }
+
+}
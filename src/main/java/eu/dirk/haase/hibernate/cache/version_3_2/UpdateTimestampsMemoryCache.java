@@ -0,0 +1,151 @@
+package eu.dirk.haase.hibernate.cache.version_3_2;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.Timestamper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Die Region f&uuml;r den {@link org.hibernate.cache.UpdateTimestampsCache}:
+ * der Zeitstempel der letzten &Auml;nderung pro Tabelle (Query-Space).
+ * <p>
+ * Die Region teilen sich alle Threads - sonst s&auml;he ein Thread die
+ * &Auml;nderungen der anderen nicht. Sie liegt in einer
+ * {@link ConcurrentHashMap}, so dass die Pr&uuml;fung jeder gecachten
+ * Query ohne Sperre auskommt. Da es nur so viele Eintr&auml;ge wie
+ * Tabellen gibt, wird weder verdr&auml;ngt noch l&auml;uft ein Eintrag ab.
+ * <p>
+ * Bei jedem neuen Zeitstempel werden die registrierten
+ * {@link #addInvalidationListener(Consumer) Listener} mit der Tabelle
+ * aufgerufen; so entfernt {@link QueryResultsMemoryCache} die betroffenen
+ * Query-Ergebnisse sofort.
+ */
+public class UpdateTimestampsMemoryCache implements Cache {
+
+    private final CopyOnWriteArrayList<Consumer<Object>> invalidationListeners;
+    private final String regionName;
+    private final ConcurrentMap<Object, Object> timestampMap;
+
+    public UpdateTimestampsMemoryCache(final String regionName) {
+        this.regionName = regionName;
+        this.timestampMap = new ConcurrentHashMap<>();
+        this.invalidationListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registriert einen Listener, der mit jeder Tabelle aufgerufen wird,
+     * die einen neuen Zeitstempel bekommt. Ist der Listener schon
+     * registriert, wird er nicht ein zweites Mal registriert.
+     *
+     * @param invalidationListener der Listener.
+     */
+    public void addInvalidationListener(final Consumer<Object> invalidationListener) {
+        this.invalidationListeners.addIfAbsent(invalidationListener);
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        this.timestampMap.clear();
+    }
+
+    @Override
+    public void destroy() throws CacheException {
+        clear();
+        this.invalidationListeners.clear();
+    }
+
+    @Override
+    public Object get(final Object key) throws CacheException {
+        return this.timestampMap.get(key);
+    }
+
+    @Override
+    public long getElementCountInMemory() {
+        return this.timestampMap.size();
+    }
+
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.regionName;
+    }
+
+    @Override
+    public long getSizeInMemory() {
+        long sizeInMemory = 0;
+        for (final Map.Entry<Object, Object> entry : this.timestampMap.entrySet()) {
+            sizeInMemory += 48 + BoundedMemoryCache.estimateBytes(entry.getKey(), 1) + BoundedMemoryCache.estimateBytes(entry.getValue(), 1);
+        }
+        return sizeInMemory;
+    }
+
+    /**
+     * Liefert die Zeit, die der {@link org.hibernate.cache.UpdateTimestampsCache}
+     * einer Tabelle vor dem Ende ihrer &Auml;nderung voraus gibt (in
+     * Einheiten von {@link Timestamper#ONE_MS}).
+     *
+     * @return die Zeit.
+     */
+    @Override
+    public int getTimeout() {
+        return Timestamper.ONE_MS * ThreadLocalMemoryCache.DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public void lock(final Object key) throws CacheException {
+        // Die Map braucht keine Sperre
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return LockFreeTimestamper.next();
+    }
+
+    @Override
+    public void put(final Object key, final Object value) throws CacheException {
+        this.timestampMap.put(key, value);
+        for (final Consumer<Object> invalidationListener : this.invalidationListeners) {
+            invalidationListener.accept(key);
+        }
+    }
+
+    @Override
+    public Object read(final Object key) throws CacheException {
+        return get(key);
+    }
+
+    @Override
+    public void remove(final Object key) throws CacheException {
+        this.timestampMap.remove(key);
+    }
+
+    @Override
+    public Map<Object, Object> toMap() {
+        return new HashMap<>(this.timestampMap);
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "(" + regionName + ')';
+    }
+
+    @Override
+    public void unlock(final Object key) throws CacheException {
+        // Die Map braucht keine Sperre
+    }
+
+    @Override
+    public void update(final Object key, final Object value) throws CacheException {
+        put(key, value);
+    }
+
+}
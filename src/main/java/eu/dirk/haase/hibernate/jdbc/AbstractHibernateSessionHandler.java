@@ -1,16 +1,16 @@
 package eu.dirk.haase.hibernate.jdbc;
 
+import eu.dirk.haase.hibernate.GlobalFlushables;
 import org.hibernate.HibernateException;
 import org.hibernate.classic.Session;
 import org.hibernate.jdbc.Work;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
-import java.lang.reflect.InvocationHandler;
 import java.sql.Connection;
 import java.sql.SQLException;
 
-abstract class AbstractHibernateSessionHandler<T> implements InvocationHandler, HibernateSessionLinker {
+abstract class AbstractHibernateSessionHandler<T> implements HibernateSessionLinker {
 
 
     final T delegate;
@@ -18,39 +18,87 @@ abstract class AbstractHibernateSessionHandler<T> implements InvocationHandler,
     Reference<T> hibernateReference;
     boolean isClosed;
     boolean isHibernateConnection;
-    Reference<HibernateSessionLinker> linker;
+    private final Reference<HibernateSessionLinker> linker;
+    private final int slot;
 
-    AbstractHibernateSessionHandler(final T delegate) {
+    AbstractHibernateSessionHandler(final T delegate, final int slot) {
         this.isClosed = false;
         this.delegate = delegate;
-        this.linker = refreshLinker();
+        this.slot = slot;
+        // Die Referenz wird nie geleert, so dass ein Wechsel zwischen
+        // Sessions keine neuen Referenzen erzeugt:
+        this.linker = new WeakReference<>(this);
         doWork(this.delegate, (c) -> determineHibernateConnection(c));
     }
 
-    Reference<HibernateSessionLinker> refreshLinker() {
-        if ((this.linker == null) || (this.linker.get() == null)) {
-            return new WeakReference<>(this);
-        } else {
-            return this.linker;
-        }
+    /**
+     * Wartet auf einen asynchronen Flush des aktuellen Threads (siehe
+     * {@link GlobalFlushables.CurrentFlusher#flushAllAsync()}). Wird vor
+     * jedem Aufruf des Delegates aufgerufen, denn ein Pool-Thread kann die
+     * Session gerade flushen.
+     */
+    void awaitFlush() {
+        GlobalFlushables.current().awaitFlush();
     }
 
-    void becomeCurrentLinker(final ThreadLocal<Reference<HibernateSessionLinker>> threadLocalSession) {
-        final Reference<HibernateSessionLinker> lastLinker = threadLocalSession.get();
-        if (lastLinker != this.linker) {
-            becomeObsoleteLinker(this.linker);
-            becomeObsoleteLinker(lastLinker);
-        }
-        this.linker = refreshLinker();
-        threadLocalSession.set(this.linker);
+    /**
+     * Wird vor dem Schlie&szlig;en des Delegates aufgerufen.
+     */
+    void beforeClose() {
+        this.isClosed = true;
+        becomeObsoleteLinker();
+        unlinkHibernate();
+    }
+
+    /**
+     * Wird vor dem Trennen ({@code disconnect}) oder dem erneuten Verbinden
+     * ({@code reconnect}) des Delegates mit seiner {@link Connection}
+     * aufgerufen.
+     */
+    void beforeDisconnect() {
+        becomeObsoleteLinker();
+        unlinkHibernate();
     }
 
-    void becomeObsoleteLinker(final Reference<HibernateSessionLinker> lastLinker) {
-        if (lastLinker != null) {
-            lastLinker.clear();
+    /**
+     * Macht diesen Linker zum aktuellen Linker seines Slots. Wird vor jedem
+     * Aufruf des Delegates aufgerufen, der Statements ausl&ouml;sen kann.
+     * <p>
+     * Ist dieser Linker bereits der aktuelle Linker, kostet der Aufruf nur
+     * einen Zugriff auf den {@link ThreadLocal} und einen Vergleich der
+     * Referenzen. Erst ein Wechsel der Session erh&ouml;ht die Generation
+     * der {@link CurrentLinkers} - dabei wird nichts angelegt.
+     */
+    void becomeCurrentLinker() {
+        final CurrentLinkers currentLinkers = CurrentLinkers.current();
+        if (currentLinkers.get(this.slot) != this.linker) {
+            currentLinkers.set(this.slot, this.linker);
         }
     }
 
+    /**
+     * Entfernt diesen Linker aus seinem Slot, falls er im aktuellen Thread
+     * gerade der aktuelle Linker ist.
+     */
+    void becomeObsoleteLinker() {
+        CurrentLinkers.current().remove(this.slot, this.linker);
+    }
+
+    /**
+     * Liefert {@code true} wenn dieser Linker bereits mit der angegebenen
+     * {@link IHibernateConnection} verbunden ist und die Verbindung nicht
+     * von einer der beiden Seiten aufgehoben wurde.
+     *
+     * @param hibernateConnection die {@link IHibernateConnection}.
+     * @return {@code true} wenn nicht erneut verbunden werden muss.
+     */
+    boolean isLinkedWith(final IHibernateConnection hibernateConnection) {
+        return (this.connectionReference != null)
+                && (this.hibernateReference != null)
+                && (this.connectionReference.get() == hibernateConnection)
+                && (this.hibernateReference.get() != null);
+    }
+
     private void determineHibernateConnection(final Connection connection) {
         try {
             this.isHibernateConnection = connection.isWrapperFor(HibernateConnection.class);
@@ -63,6 +111,12 @@ abstract class AbstractHibernateSessionHandler<T> implements InvocationHandler,
 
     abstract void doWork(final T delegate, final Work work) throws HibernateException;
 
+    boolean isWrapperFor(final Object proxy, final Class<?> iface) {
+        return iface.isInstance(proxy);
+    }
+
+    abstract Object unwrap(final Object proxy, final Class<?> iface);
+
     void unlinkHibernate() {
         if (this.isHibernateConnection) {
             if (this.connectionReference != null) {
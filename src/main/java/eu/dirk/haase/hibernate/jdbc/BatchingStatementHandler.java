@@ -0,0 +1,125 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Statement das {@code executeUpdate()} eines einzeiligen
+ * {@code INSERT ... VALUES} in den {@link WriteBatch} der {@link Connection}
+ * aufnimmt, anstatt es sofort auszuf&uuml;hren.
+ * <p>
+ * Vor allen anderen Ausf&uuml;hrungen (insbesondere lesenden Statements)
+ * wird der {@link WriteBatch} ausgef&uuml;hrt, damit die Reihenfolge der
+ * Datenbank-Zugriffe erhalten bleibt. Bei {@code close()} &uuml;bernimmt
+ * der {@link WriteBatch} ein Statement f&uuml;r das noch gesammelt wird.
+ */
+final class BatchingStatementHandler implements InvocationHandler {
+
+    private final Connection connection;
+    private final Statement delegate;
+    private final boolean isBatchable;
+    private boolean isClosed;
+    private final String sql;
+    private final WriteBatch writeBatch;
+
+    /**
+     * Erzeugt ein neues sammelndes Statement.
+     *
+     * @param writeBatch der {@link WriteBatch} der {@link Connection}.
+     * @param delegate   das physische Statement.
+     * @param sql        das SQL-Statement oder {@code null} wenn das
+     *                   Statement nicht gesammelt werden kann.
+     * @param connection die {@link Connection} die das Statement mit
+     *                   {@link Statement#getConnection()} liefern soll.
+     */
+    BatchingStatementHandler(final WriteBatch writeBatch,
+                             final Statement delegate,
+                             final String sql,
+                             final Connection connection) {
+        this.writeBatch = writeBatch;
+        this.delegate = delegate;
+        this.sql = sql;
+        this.connection = connection;
+        this.isBatchable = (sql != null)
+                && (delegate instanceof PreparedStatement)
+                && WriteBatch.isBatchable(sql);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "isWrapperFor":
+                final Class<?> iface1 = (Class<?>) args[0];
+                return iface1.isInstance(proxy) || this.delegate.isWrapperFor(iface1);
+            case "unwrap":
+                final Class<?> iface2 = (Class<?>) args[0];
+                return (iface2.isInstance(proxy) ? proxy : this.delegate.unwrap(iface2));
+            case "getConnection":
+                return this.connection;
+            case "isClosed":
+                return this.isClosed || this.delegate.isClosed();
+            case "executeUpdate":
+                if (isBatchableNow(args)) {
+                    return this.writeBatch.add((PreparedStatement) this.delegate, this.sql);
+                }
+                this.writeBatch.drain();
+                return invokeDelegate(method, args);
+            case "executeLargeUpdate":
+                if (isBatchableNow(args)) {
+                    return (long) this.writeBatch.add((PreparedStatement) this.delegate, this.sql);
+                }
+                this.writeBatch.drain();
+                return invokeDelegate(method, args);
+            case "close":
+                if (!this.isClosed) {
+                    this.isClosed = true;
+                    if (!this.writeBatch.release(this.delegate)) {
+                        this.delegate.close();
+                    }
+                }
+                return null;
+            case "addBatch":
+            case "clearBatch":
+            case "execute":
+            case "executeBatch":
+            case "executeLargeBatch":
+            case "executeQuery":
+            case "getGeneratedKeys":
+                this.writeBatch.drain();
+                return invokeDelegate(method, args);
+            case "toString":
+                return "BatchingStatement{" + this.delegate + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return invokeDelegate(method, args);
+        }
+    }
+
+    private Object invokeDelegate(final Method method, final Object[] args) throws Throwable {
+        if (this.isClosed) {
+            throw new SQLException("Statement is already closed");
+        }
+        try {
+            return method.invoke(this.delegate, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        }
+    }
+
+    private boolean isBatchableNow(final Object[] args) throws SQLException {
+        // Nur executeUpdate() ohne Argumente gehoert zum PreparedStatement,
+        // und nur innerhalb einer Transaktion darf verzoegert werden:
+        return this.isBatchable
+                && ((args == null) || (args.length == 0))
+                && !this.connection.getAutoCommit();
+    }
+
+}
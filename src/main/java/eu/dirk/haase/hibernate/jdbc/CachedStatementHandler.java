@@ -0,0 +1,136 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Logisches Statement um ein physisches Statement aus dem
+ * {@link StatementCache}.
+ * <p>
+ * Mit {@code close()} wird das physische Statement nicht geschlossen
+ * sondern in den {@link StatementCache} zur&uuml;ckgegeben. Wurde
+ * das Statement mit einer Einstellung ver&auml;ndert, die beim
+ * n&auml;chsten Benutzer noch wirken w&uuml;rde (zum Beispiel
+ * {@code setMaxRows(int)}), dann wird das physische Statement
+ * geschlossen.
+ */
+final class CachedStatementHandler implements InvocationHandler {
+
+    private final StatementCache cache;
+    private final Connection connection;
+    private final PreparedStatement delegate;
+    private final int generation;
+    private final StatementCache.StatementKey key;
+    private boolean hasBatch;
+    private boolean isClosed;
+    private boolean isReusable;
+
+    CachedStatementHandler(final StatementCache cache,
+                           final StatementCache.StatementKey key,
+                           final PreparedStatement delegate,
+                           final Connection connection,
+                           final int generation) {
+        this.cache = cache;
+        this.generation = generation;
+        this.key = key;
+        this.delegate = delegate;
+        this.connection = connection;
+        this.hasBatch = false;
+        this.isClosed = false;
+        this.isReusable = true;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.isClosed) {
+            throw new SQLException("Statement is already closed: " + this.key);
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "isWrapperFor":
+                final Class<?> iface1 = (Class<?>) args[0];
+                return iface1.isInstance(proxy) || this.delegate.isWrapperFor(iface1);
+            case "unwrap":
+                final Class<?> iface2 = (Class<?>) args[0];
+                return (iface2.isInstance(proxy) ? proxy : this.delegate.unwrap(iface2));
+            case "close":
+                if (!this.isClosed) {
+                    this.isClosed = true;
+                    recycle();
+                }
+                return null;
+            case "isClosed":
+                return this.isClosed || this.delegate.isClosed();
+            case "getConnection":
+                checkOpen();
+                return this.connection;
+            case "addBatch":
+                this.hasBatch = true;
+                return invokeDelegate(method, args);
+            case "closeOnCompletion":
+            case "setCursorName":
+            case "setEscapeProcessing":
+            case "setFetchDirection":
+            case "setFetchSize":
+            case "setLargeMaxRows":
+            case "setMaxFieldSize":
+            case "setMaxRows":
+            case "setPoolable":
+            case "setQueryTimeout":
+                // Diese Einstellungen wuerden auch noch beim
+                // naechsten Benutzer des Statements wirken:
+                this.isReusable = false;
+                return invokeDelegate(method, args);
+            case "toString":
+                return "CachedStatement{" + this.delegate + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return invokeDelegate(method, args);
+        }
+    }
+
+    private Object invokeDelegate(final Method method, final Object[] args) throws Throwable {
+        checkOpen();
+        try {
+            return method.invoke(this.delegate, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        }
+    }
+
+    private void recycle() throws SQLException {
+        if (this.isReusable && reset()) {
+            this.cache.recycle(this.key, this.delegate, this.generation);
+        } else {
+            this.delegate.close();
+        }
+    }
+
+    private boolean reset() {
+        try {
+            final ResultSet resultSet = this.delegate.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            this.delegate.clearParameters();
+            this.delegate.clearWarnings();
+            if (this.hasBatch) {
+                this.delegate.clearBatch();
+            }
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+}
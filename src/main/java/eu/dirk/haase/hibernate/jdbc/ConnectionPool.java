@@ -0,0 +1,463 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool f&uuml;r physische {@link Connection}s einer {@link DataSource}.
+ * <p>
+ * Beim Ausleihen wird zuerst die {@link Connection} gepr&uuml;ft, die der
+ * aktuelle Thread zuletzt benutzt hat (thread-affines Ausleihen). Ist diese
+ * gerade von einem anderen Thread belegt, werden alle {@link Connection}s
+ * des Pools durchsucht. Der Zustand jeder {@link Connection} wird dabei nur
+ * mit Compare-And-Set ge&auml;ndert, es gibt keine Sperren.
+ * <p>
+ * Ist der Pool ersch&ouml;pft, wartet der Thread bis eine andere
+ * {@link Connection} zur&uuml;ckgegeben wird. Die Zeit bis dahin wird in
+ * den Warte-Metriken erfasst. Die R&uuml;ckgabe versucht genau eine
+ * Direkt-&Uuml;bergabe und kehrt sofort zur&uuml;ck; ein wartender Thread
+ * durchsucht den Pool daher nach sp&auml;testens einer Millisekunde
+ * erneut.
+ * <p>
+ * Eine {@link Connection} die l&auml;nger als die angegebene Zeit unbenutzt
+ * war, wird vor dem Ausleihen mit {@link Connection#isValid(int)}
+ * gepr&uuml;ft.
+ * <p>
+ * Die ausgeliehenen {@link Connection}s geben sich bei {@code close()} an
+ * den Pool zur&uuml;ck, dabei werden Auto-Commit, Read-Only und
+ * Isolation-Level wieder auf die urspr&uuml;nglichen Werte gesetzt.
+ */
+public final class ConnectionPool {
+
+    private static final long WAITER_RESCAN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource dataSource;
+    private final LongAdder borrowCount;
+    private final LongAdder createdCount;
+    private final List<PooledConnection> entryList;
+    private final SynchronousQueue<PooledConnection> handoffQueue;
+    private final ThreadLocal<PooledConnection> lastUsedThreadLocal;
+    private final long maxWaitNanos;
+    private final int maxSize;
+    private final AtomicLong maxWaitTimeNanos;
+    private final int minSize;
+    private final LongAdder threadLocalHitCount;
+    private final LongAdder timeoutCount;
+    private final int statementCacheSize;
+    private final AtomicInteger totalCount;
+    private final long validationIdleNanos;
+    private final LongAdder validationFailureCount;
+    private final LongAdder waitCount;
+    private final LongAdder waitTimeNanos;
+    private final AtomicInteger waiterCount;
+    private volatile boolean isClosed;
+
+    /**
+     * Erzeugt einen neuen (leeren) Pool.
+     *
+     * @param dataSource           liefert die physischen {@link Connection}s.
+     * @param minSize              die Anzahl der {@link Connection}s die
+     *                             beim ersten Ausleihen ge&ouml;ffnet werden.
+     * @param maxSize              die maximale Anzahl der {@link Connection}s.
+     * @param maxWaitMillis        die maximale Wartezeit beim Ausleihen.
+     * @param validationIdleMillis die Zeit nach der eine unbenutzte
+     *                             {@link Connection} vor dem Ausleihen
+     *                             gepr&uuml;ft wird.
+     */
+    public ConnectionPool(final DataSource dataSource,
+                          final int minSize,
+                          final int maxSize,
+                          final long maxWaitMillis,
+                          final long validationIdleMillis) {
+        this(dataSource, minSize, maxSize, maxWaitMillis, validationIdleMillis, HibernateConnection.DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Erzeugt einen neuen (leeren) Pool.
+     *
+     * @param dataSource           liefert die physischen {@link Connection}s.
+     * @param minSize              die Anzahl der {@link Connection}s die
+     *                             beim ersten Ausleihen ge&ouml;ffnet werden.
+     * @param maxSize              die maximale Anzahl der {@link Connection}s.
+     * @param maxWaitMillis        die maximale Wartezeit beim Ausleihen.
+     * @param validationIdleMillis die Zeit nach der eine unbenutzte
+     *                             {@link Connection} vor dem Ausleihen
+     *                             gepr&uuml;ft wird.
+     * @param statementCacheSize   die Gr&ouml;&szlig;e des
+     *                             {@link StatementCache} den jede physische
+     *                             {@link Connection} &uuml;ber alle
+     *                             Ausleihen hinweg beh&auml;lt.
+     */
+    public ConnectionPool(final DataSource dataSource,
+                          final int minSize,
+                          final int maxSize,
+                          final long maxWaitMillis,
+                          final long validationIdleMillis,
+                          final int statementCacheSize) {
+        if ((minSize < 0) || (maxSize <= 0) || (minSize > maxSize)) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("Statement cache size can not be negative: " + statementCacheSize);
+        }
+        this.dataSource = dataSource;
+        this.statementCacheSize = statementCacheSize;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.validationIdleNanos = TimeUnit.MILLISECONDS.toNanos(validationIdleMillis);
+        this.entryList = new CopyOnWriteArrayList<>();
+        this.handoffQueue = new SynchronousQueue<>(true);
+        this.lastUsedThreadLocal = new ThreadLocal<>();
+        this.totalCount = new AtomicInteger();
+        this.waiterCount = new AtomicInteger();
+        this.borrowCount = new LongAdder();
+        this.createdCount = new LongAdder();
+        this.threadLocalHitCount = new LongAdder();
+        this.timeoutCount = new LongAdder();
+        this.validationFailureCount = new LongAdder();
+        this.waitCount = new LongAdder();
+        this.waitTimeNanos = new LongAdder();
+        this.maxWaitTimeNanos = new AtomicLong();
+        this.isClosed = false;
+    }
+
+    /**
+     * Leiht eine {@link Connection} aus dem Pool aus.
+     *
+     * @return die ausgeliehene {@link Connection}; {@code close()} gibt
+     * sie an den Pool zur&uuml;ck.
+     * @throws SQLTransientConnectionException wenn innerhalb der maximalen
+     *                                         Wartezeit keine
+     *                                         {@link Connection} frei wurde.
+     * @throws SQLException                    wenn keine neue physische
+     *                                         {@link Connection} ge&ouml;ffnet
+     *                                         werden kann.
+     */
+    public Connection borrow() throws SQLException {
+        checkOpen();
+        this.borrowCount.increment();
+        if (this.minSize > this.totalCount.get()) {
+            fill();
+        }
+        // 1. Schnellster Weg: die zuletzt vom Thread benutzte Connection
+        final PooledConnection lastUsed = this.lastUsedThreadLocal.get();
+        if ((lastUsed != null) && lastUsed.tryAcquire()) {
+            if (validate(lastUsed)) {
+                this.threadLocalHitCount.increment();
+                return lastUsed.newProxy();
+            }
+        }
+        // 2. Eine beliebige freie Connection
+        for (final PooledConnection entry : this.entryList) {
+            if (entry.tryAcquire() && validate(entry)) {
+                this.lastUsedThreadLocal.set(entry);
+                return entry.newProxy();
+            }
+        }
+        // 3. Eine neue Connection
+        final PooledConnection newEntry = tryCreate();
+        if (newEntry != null) {
+            this.lastUsedThreadLocal.set(newEntry);
+            return newEntry.newProxy();
+        }
+        // 4. Auf eine zurueckgegebene Connection warten
+        return awaitHandoff().newProxy();
+    }
+
+    /**
+     * Schlie&szlig;t den Pool und alle freien {@link Connection}s.
+     * Ausgeliehene {@link Connection}s werden bei ihrer R&uuml;ckgabe
+     * geschlossen.
+     */
+    public void close() {
+        this.isClosed = true;
+        for (final PooledConnection entry : this.entryList) {
+            if (entry.tryAcquire()) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der gerade ausgeliehenen {@link Connection}s.
+     *
+     * @return die Anzahl der ausgeliehenen {@link Connection}s.
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (final PooledConnection entry : this.entryList) {
+            if (entry.isInUse()) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Liefert die Anzahl aller Ausleihen.
+     *
+     * @return die Anzahl aller Ausleihen.
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der ge&ouml;ffneten physischen {@link Connection}s.
+     *
+     * @return die Anzahl der ge&ouml;ffneten physischen {@link Connection}s.
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der gerade freien {@link Connection}s.
+     *
+     * @return die Anzahl der freien {@link Connection}s.
+     */
+    public int getIdleCount() {
+        return getTotalCount() - getActiveCount();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Liefert die l&auml;ngste Wartezeit beim Ausleihen in Nanosekunden.
+     *
+     * @return die l&auml;ngste Wartezeit.
+     */
+    public long getMaxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Liefert die Anzahl der Ausleihen die die zuletzt vom selben Thread
+     * benutzte {@link Connection} erhalten haben.
+     *
+     * @return die Anzahl der thread-affinen Ausleihen.
+     */
+    public long getThreadLocalHitCount() {
+        return threadLocalHitCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der Ausleihen die wegen &Uuml;berschreitung der
+     * maximalen Wartezeit abgebrochen wurden.
+     *
+     * @return die Anzahl der abgebrochenen Ausleihen.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der {@link Connection}s im Pool (freie und
+     * ausgeliehene).
+     *
+     * @return die Anzahl der {@link Connection}s im Pool.
+     */
+    public int getTotalCount() {
+        return this.entryList.size();
+    }
+
+    /**
+     * Liefert die Anzahl der {@link Connection}s die beim Pr&uuml;fen
+     * ung&uuml;ltig waren und daher geschlossen wurden.
+     *
+     * @return die Anzahl der ung&uuml;ltigen {@link Connection}s.
+     */
+    public long getValidationFailureCount() {
+        return validationFailureCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der Ausleihen die auf eine zur&uuml;ckgegebene
+     * {@link Connection} warten mussten.
+     *
+     * @return die Anzahl der wartenden Ausleihen.
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * Liefert die Summe aller Wartezeiten beim Ausleihen in Nanosekunden.
+     *
+     * @return die Summe aller Wartezeiten.
+     */
+    public long getWaitTimeNanos() {
+        return waitTimeNanos.sum();
+    }
+
+    /**
+     * Gibt eine ausgeliehene {@link Connection} an den Pool zur&uuml;ck.
+     *
+     * @param entry die {@link Connection}.
+     */
+    void release(final PooledConnection entry) {
+        if (this.isClosed || !entry.reset()) {
+            remove(entry);
+            return;
+        }
+        entry.release();
+        if (this.waiterCount.get() > 0) {
+            // Lock-freie Uebergabe an einen gerade wartenden Thread: der
+            // Empfaenger muss die Connection selbst mit tryAcquire()
+            // belegen. Gelingt die Uebergabe nicht, findet ein Wartender
+            // die freie Connection bei seiner naechsten Suche:
+            this.handoffQueue.offer(entry);
+        }
+    }
+
+    /**
+     * Entfernt eine {@link Connection} aus dem Pool und schlie&szlig;t sie.
+     *
+     * @param entry die {@link Connection}.
+     */
+    void remove(final PooledConnection entry) {
+        if (entry.markRemoved()) {
+            this.entryList.remove(entry);
+            this.totalCount.decrementAndGet();
+            entry.closePhysical();
+        }
+    }
+
+    private PooledConnection awaitHandoff() throws SQLException {
+        this.waitCount.increment();
+        final long startNanos = System.nanoTime();
+        final long deadlineNanos = startNanos + this.maxWaitNanos;
+        this.waiterCount.incrementAndGet();
+        try {
+            long remainingNanos = this.maxWaitNanos;
+            while (remainingNanos > 0) {
+                for (final PooledConnection idleEntry : this.entryList) {
+                    if (idleEntry.tryAcquire() && validate(idleEntry)) {
+                        recordWait(startNanos);
+                        this.lastUsedThreadLocal.set(idleEntry);
+                        return idleEntry;
+                    }
+                }
+                final long pollNanos = Math.min(remainingNanos, WAITER_RESCAN_NANOS);
+                final PooledConnection entry = this.handoffQueue.poll(pollNanos, TimeUnit.NANOSECONDS);
+                if ((entry != null) && entry.tryAcquire() && validate(entry)) {
+                    recordWait(startNanos);
+                    this.lastUsedThreadLocal.set(entry);
+                    return entry;
+                }
+                // Eine Connection wurde entfernt oder zurueckgegeben
+                // ohne dass die Uebergabe geklappt hat:
+                final PooledConnection newEntry = tryCreate();
+                if (newEntry != null) {
+                    recordWait(startNanos);
+                    this.lastUsedThreadLocal.set(newEntry);
+                    return newEntry;
+                }
+                checkOpen();
+                remainingNanos = deadlineNanos - System.nanoTime();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", ex);
+        } finally {
+            this.waiterCount.decrementAndGet();
+        }
+        recordWait(startNanos);
+        this.timeoutCount.increment();
+        throw new SQLTransientConnectionException("No connection available within "
+                + TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos) + "ms: " + this);
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.isClosed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    private void fill() throws SQLException {
+        while (this.minSize > this.totalCount.get()) {
+            final PooledConnection entry = tryCreate();
+            if (entry == null) {
+                return;
+            }
+            release(entry);
+        }
+    }
+
+    private void recordWait(final long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        this.waitTimeNanos.add(nanos);
+        long currMax = this.maxWaitTimeNanos.get();
+        while ((nanos > currMax) && !this.maxWaitTimeNanos.compareAndSet(currMax, nanos)) {
+            currMax = this.maxWaitTimeNanos.get();
+        }
+    }
+
+    /**
+     * Er&ouml;ffnet eine neue {@link Connection}, sofern die maximale
+     * Gr&ouml;&szlig;e noch nicht erreicht ist.
+     *
+     * @return die neue (bereits belegte) {@link Connection} oder
+     * {@code null} wenn der Pool voll ist.
+     */
+    private PooledConnection tryCreate() throws SQLException {
+        int currTotal = this.totalCount.get();
+        while (this.maxSize > currTotal) {
+            if (this.totalCount.compareAndSet(currTotal, currTotal + 1)) {
+                final Connection physicalConnection;
+                try {
+                    physicalConnection = this.dataSource.getConnection();
+                } catch (SQLException | RuntimeException ex) {
+                    this.totalCount.decrementAndGet();
+                    throw ex;
+                }
+                this.createdCount.increment();
+                final PooledConnection entry = new PooledConnection(this, physicalConnection, this.statementCacheSize);
+                this.entryList.add(entry);
+                return entry;
+            }
+            currTotal = this.totalCount.get();
+        }
+        return null;
+    }
+
+    private boolean validate(final PooledConnection entry) {
+        if (entry.getIdleNanos() < this.validationIdleNanos) {
+            return true;
+        }
+        if (entry.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            return true;
+        }
+        this.validationFailureCount.increment();
+        remove(entry);
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "total=" + getTotalCount() +
+                ", active=" + getActiveCount() +
+                ", minSize=" + minSize +
+                ", maxSize=" + maxSize +
+                ", waitCount=" + getWaitCount() +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * {@link ResultSet} das die gelesenen Zeilen z&auml;hlt.
+ * <p>
+ * Die Anzahl wird in das {@link SqlLatencyHistogram} aufgenommen, sobald
+ * {@code next()} das Ende meldet oder das {@link ResultSet} geschlossen
+ * wird - je nachdem was zuerst geschieht.
+ */
+final class CountingResultSetHandler implements InvocationHandler {
+
+    private final ResultSet delegate;
+    private final SqlLatencyHistogram histogram;
+    private final Statement statement;
+    private boolean isRecorded;
+    private long rowCount;
+
+    CountingResultSetHandler(final SqlLatencyHistogram histogram,
+                             final ResultSet delegate,
+                             final Statement statement) {
+        this.histogram = histogram;
+        this.delegate = delegate;
+        this.statement = statement;
+        this.isRecorded = false;
+        this.rowCount = 0;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "next":
+                if (this.delegate.next()) {
+                    ++this.rowCount;
+                    return Boolean.TRUE;
+                }
+                recordRows();
+                return Boolean.FALSE;
+            case "close":
+                recordRows();
+                this.delegate.close();
+                return null;
+            case "getStatement":
+                return this.statement;
+            case "isWrapperFor":
+                final Class<?> iface1 = (Class<?>) args[0];
+                return iface1.isInstance(proxy) || this.delegate.isWrapperFor(iface1);
+            case "unwrap":
+                final Class<?> iface2 = (Class<?>) args[0];
+                return (iface2.isInstance(proxy) ? proxy : this.delegate.unwrap(iface2));
+            case "toString":
+                return "CountingResultSet{" + this.delegate + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                try {
+                    return method.invoke(this.delegate, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getTargetException();
+                }
+        }
+    }
+
+    private void recordRows() {
+        if (!this.isRecorded) {
+            this.isRecorded = true;
+            this.histogram.recordRows(this.rowCount);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+
+/**
+ * Die {@link HibernateSessionLinker} (Hibernate-Session und
+ * Hibernate-EntityManager) die im aktuellen Thread gerade aktiv sind.
+ * <p>
+ * Alle Linker eines Threads liegen in einem einzigen Objekt, damit eine
+ * {@link HibernateConnection} mit nur einem Zugriff auf den {@link ThreadLocal}
+ * pr&uuml;fen kann, ob sie bereits mit den aktuellen Linkern verbunden ist.
+ * <p>
+ * Jede &Auml;nderung an den Linkern erh&ouml;ht die Generation. Solange
+ * sich die Generation nicht ge&auml;ndert hat und die zuletzt verbundene
+ * {@link Connection} dieselbe ist, muss nicht erneut verbunden werden
+ * (siehe {@link #isLinked(Connection)}).
+ * <p>
+ * Die zuletzt verbundene {@link Connection} wird - wie die Linker - nur
+ * schwach referenziert, damit ein Thread aus einem Pool eine geschlossene
+ * {@link Connection} samt Session nicht erreichbar h&auml;lt, auch wenn
+ * {@link #forget(Connection)} in einem anderen Thread aufgerufen wird.
+ */
+final class CurrentLinkers {
+
+    static final int ENTITY_MANAGER = 1;
+    static final int SESSION = 0;
+    private static final ThreadLocal<CurrentLinkers> threadLocalLinkers = ThreadLocal.withInitial(CurrentLinkers::new);
+
+    private final Reference<HibernateSessionLinker>[] linkers;
+    private int generation;
+    private Reference<Connection> linkedConnection;
+    private int linkedGeneration;
+
+    @SuppressWarnings("unchecked")
+    private CurrentLinkers() {
+        this.linkers = (Reference<HibernateSessionLinker>[]) new Reference<?>[2];
+        this.generation = 0;
+        this.linkedGeneration = -1;
+    }
+
+    /**
+     * Liefert die Linker des aktuellen Threads.
+     *
+     * @return die Linker des aktuellen Threads.
+     */
+    static CurrentLinkers current() {
+        return threadLocalLinkers.get();
+    }
+
+    /**
+     * Vergisst die zuletzt verbundene {@link Connection}, damit eine
+     * geschlossene {@link Connection} nicht vom Thread aus erreichbar
+     * bleibt.
+     *
+     * @param connection die geschlossene {@link Connection}.
+     */
+    void forget(final Connection connection) {
+        if (isLinkedConnection(connection)) {
+            this.linkedConnection = null;
+        }
+    }
+
+    /**
+     * Liefert den Linker im angegebenen Slot.
+     *
+     * @param slot entweder {@link #SESSION} oder {@link #ENTITY_MANAGER}.
+     * @return die Referenz auf den Linker oder {@code null}.
+     */
+    Reference<HibernateSessionLinker> get(final int slot) {
+        return this.linkers[slot];
+    }
+
+    /**
+     * Liefert {@code true} wenn die angegebene {@link Connection} bereits
+     * mit den aktuellen Linkern verbunden ist.
+     *
+     * @param connection die {@link Connection} die gepr&uuml;ft werden soll.
+     * @return {@code true} wenn nicht erneut verbunden werden muss.
+     */
+    boolean isLinked(final Connection connection) {
+        return (this.linkedGeneration == this.generation) && isLinkedConnection(connection);
+    }
+
+    private boolean isLinkedConnection(final Connection connection) {
+        final Reference<Connection> connectionRef = this.linkedConnection;
+        return (connectionRef != null) && (connectionRef.get() == connection);
+    }
+
+    /**
+     * Verbindet alle aktuellen Linker mit der angegebenen {@link Connection}.
+     *
+     * @param connection die {@link Connection} die verbunden werden soll.
+     */
+    void linkHibernate(final Connection connection) {
+        // Schon vor dem Verbinden als verbunden markieren, denn beim
+        // Verbinden kann ein Flush ausgeloest werden, der wiederum
+        // Statements auf dieser Connection erzeugt:
+        if (!isLinkedConnection(connection)) {
+            this.linkedConnection = new WeakReference<>(connection);
+        }
+        this.linkedGeneration = this.generation;
+        try {
+            for (int slot = 0; this.linkers.length > slot; ++slot) {
+                final Reference<HibernateSessionLinker> linkerRef = this.linkers[slot];
+                final HibernateSessionLinker linker = (linkerRef != null ? linkerRef.get() : null);
+                if (linker != null) {
+                    linker.linkHibernate(connection);
+                }
+            }
+        } catch (RuntimeException ex) {
+            this.linkedConnection = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * Entfernt den Linker aus dem angegebenen Slot, falls er dort
+     * gesetzt ist, und erh&ouml;ht in diesem Fall die Generation.
+     *
+     * @param slot   entweder {@link #SESSION} oder {@link #ENTITY_MANAGER}.
+     * @param linker die Referenz auf den Linker.
+     */
+    void remove(final int slot, final Reference<HibernateSessionLinker> linker) {
+        if (this.linkers[slot] == linker) {
+            this.linkers[slot] = null;
+            ++this.generation;
+        }
+    }
+
+    /**
+     * Setzt den Linker im angegebenen Slot und erh&ouml;ht die Generation
+     * falls sich der Linker ge&auml;ndert hat.
+     *
+     * @param slot   entweder {@link #SESSION} oder {@link #ENTITY_MANAGER}.
+     * @param linker die Referenz auf den Linker.
+     */
+    void set(final int slot, final Reference<HibernateSessionLinker> linker) {
+        if (this.linkers[slot] != linker) {
+            this.linkers[slot] = linker;
+            ++this.generation;
+        }
+    }
+
+}
@@ -1,29 +1,73 @@
 package eu.dirk.haase.hibernate.jdbc;
 
+import eu.dirk.haase.hibernate.GlobalFlushables;
+import org.hibernate.HibernateException;
 import org.hibernate.classic.Session;
+import org.hibernate.collection.PersistentCollection;
+import org.hibernate.engine.EntityEntry;
+import org.hibernate.engine.PersistenceContext;
+import org.hibernate.engine.Status;
+import org.hibernate.event.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.util.IdentityMap;
 
 import javax.persistence.EntityManager;
 import java.lang.ref.Reference;
 import java.sql.*;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 
+import static eu.dirk.haase.hibernate.jdbc.StatementCache.StatementKey.UNSPECIFIED;
+
 public class HibernateConnection implements Connection, IHibernateConnection {
 
+    /**
+     * Die Standard-Gr&ouml;&szlig;e des {@link StatementCache}.
+     */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
     private final Connection delegate;
+    private final int statementCacheSize;
+    private boolean isOwnStatementCache;
+    private StatementCache statementCache;
     private HibernateReference<EntityManager> entityManagerReference;
     private HibernateReference<Session> sessionReference;
+    private long flushCount;
+    private long skippedFlushCount;
+    private SqlStatistics sqlStatistics;
+    private WriteBatch writeBatch;
 
     public HibernateConnection(final Connection delegate) {
+        this(delegate, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Erzeugt eine neue {@code HibernateConnection}.
+     *
+     * @param delegate           die physische {@link Connection}.
+     * @param statementCacheSize die maximale Anzahl der {@link PreparedStatement}s
+     *                           und {@link CallableStatement}s die diese
+     *                           {@link Connection} zur Wiederverwendung
+     *                           zwischenspeichert ({@code 0} schaltet den
+     *                           {@link StatementCache} ab). Stammt die
+     *                           {@link Connection} aus dem
+     *                           {@link ConnectionPool}, dann wird
+     *                           stattdessen deren {@link StatementCache}
+     *                           benutzt.
+     */
+    public HibernateConnection(final Connection delegate, final int statementCacheSize) {
         this.delegate = delegate;
+        this.statementCacheSize = statementCacheSize;
     }
 
     @Override
     public void abort(Executor executor) throws SQLException {
         unlink();
+        CurrentLinkers.current().forget(this);
+        discardWriteBatch();
+        closeStatementCache();
         delegate.abort(executor);
     }
 
@@ -36,11 +80,16 @@ public class HibernateConnection implements Connection, IHibernateConnection {
     public void close() throws SQLException {
         System.out.println("++++++++++++++++++++++++++++++ close ++++++++++++++++++++++++++++++++++");
         unlink();
+        CurrentLinkers.current().forget(this);
+        discardWriteBatch();
+        closeStatementCache();
         delegate.close();
     }
 
     @Override
     public void commit() throws SQLException {
+        GlobalFlushables.current().awaitFlush();
+        drainWriteBatch();
         delegate.commit();
     }
 
@@ -72,19 +121,22 @@ public class HibernateConnection implements Connection, IHibernateConnection {
     @Override
     public Statement createStatement() throws SQLException {
         ensureLinkedHibernate();
-        return delegate.createStatement();
+        drainWriteBatch();
+        return wrap(Statement.class, delegate.createStatement(), null, false);
     }
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.createStatement(resultSetType, resultSetConcurrency);
+        drainWriteBatch();
+        return wrap(Statement.class, delegate.createStatement(resultSetType, resultSetConcurrency), null, false);
     }
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        drainWriteBatch();
+        return wrap(Statement.class, delegate.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability), null, false);
     }
 
     @Override
@@ -92,32 +144,82 @@ public class HibernateConnection implements Connection, IHibernateConnection {
         return delegate.createStruct(typeName, attributes);
     }
 
-    private void ensureLinkedEntityManager() {
-        final Optional<HibernateSessionLinker> linker = HibernateEntityManagerHandler.currentLinker();
-        if (linker.isPresent()) {
-            linker.get().linkHibernate(this);
+    private <T extends Statement> T wrap(final Class<T> apiInterface, final T statement, final String sql, final boolean isBatchable) throws SQLException {
+        T wrappedStatement = statement;
+        if (this.sqlStatistics != null) {
+            // Innen, damit auch die Round-Trips des WriteBatch
+            // gemessen werden:
+            wrappedStatement = JdbcProxies.newProxy(apiInterface, new MeasuringStatementHandler(this.sqlStatistics, wrappedStatement, sql, this));
+        }
+        if (this.writeBatch != null) {
+            wrappedStatement = JdbcProxies.newProxy(apiInterface, new BatchingStatementHandler(this.writeBatch, wrappedStatement, (isBatchable ? sql : null), this));
         }
+        return wrappedStatement;
     }
 
-    private void ensureLinkedHibernate() {
-        ensureLinkedSession();
-        ensureLinkedEntityManager();
+    private void discardWriteBatch() {
+        if (this.writeBatch != null) {
+            this.writeBatch.discard();
+        }
+    }
+
+    private void drainWriteBatch() throws SQLException {
+        if (this.writeBatch != null) {
+            this.writeBatch.drain();
+        }
+    }
+
+    private void drainWriteBatchUnlessPendingFor(final String sql) throws SQLException {
+        if ((this.writeBatch != null) && !this.writeBatch.isPendingFor(sql)) {
+            this.writeBatch.drain();
+        }
+    }
+
+    private <T> HibernateReference<T> exchange(final HibernateReference<T> currReference,
+                                               final Reference<T> nextHibernateReference,
+                                               final Reference<IHibernateConnection> nextConnectionReference) {
+        if (currReference.isSame(nextHibernateReference, nextConnectionReference)) {
+            return currReference;
+        } else {
+            flush(currReference);
+            currReference.unlink();
+            return new HibernateReference<>(nextHibernateReference, nextConnectionReference);
+        }
+    }
+
+    private void flush(final HibernateReference<?> reference) {
+        if (reference.isLinked()) {
+            if (reference.flush()) {
+                ++this.flushCount;
+            } else {
+                ++this.skippedFlushCount;
+            }
+        }
     }
 
-    private void ensureLinkedSession() {
-        final Optional<HibernateSessionLinker> linker = HibernateSessionHandler.currentLinker();
-        if (linker.isPresent()) {
-            linker.get().linkHibernate(this);
+    private void ensureLinkedHibernate() {
+        // Barriere fuer GlobalFlushables.CurrentFlusher.flushAllAsync():
+        // vor dem ersten Zugriff auf die physische Connection, also noch
+        // vor dem Erzeugen des Statements:
+        GlobalFlushables.current().awaitFlush();
+        final CurrentLinkers currentLinkers = CurrentLinkers.current();
+        if (!currentLinkers.isLinked(this)) {
+            currentLinkers.linkHibernate(this);
         }
     }
 
     @Override
     public void flush() {
         if (this.sessionReference != null) {
-            this.sessionReference.flush();
+            flush(this.sessionReference);
         }
         if (this.entityManagerReference != null) {
-            this.entityManagerReference.flush();
+            flush(this.entityManagerReference);
+        }
+        try {
+            drainWriteBatch();
+        } catch (SQLException ex) {
+            throw new HibernateException(ex.toString(), ex);
         }
     }
 
@@ -128,6 +230,11 @@ public class HibernateConnection implements Connection, IHibernateConnection {
 
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (autoCommit) {
+            // Das Einschalten von Auto-Commit beendet die
+            // aktuelle Transaktion:
+            drainWriteBatch();
+        }
         delegate.setAutoCommit(autoCommit);
     }
 
@@ -176,6 +283,148 @@ public class HibernateConnection implements Connection, IHibernateConnection {
         return delegate.getNetworkTimeout();
     }
 
+    /**
+     * Liefert den {@link StatementCache} dieser {@link Connection}
+     * mit seinen Z&auml;hlern f&uuml;r Treffer, Fehlgriffe und
+     * Verdr&auml;ngungen.
+     * <p>
+     * Stammt die physische {@link Connection} aus dem
+     * {@link ConnectionPool}, dann ist es deren {@link StatementCache},
+     * der &uuml;ber alle Ausleihen hinweg erhalten bleibt. Eine
+     * Lazy-{@link Connection} besorgt daf&uuml;r ihre physische
+     * {@link Connection}.
+     *
+     * @return der {@link StatementCache} dieser {@link Connection}.
+     * @throws SQLException wenn die physische {@link Connection} nicht
+     *                      besorgt werden kann.
+     */
+    public StatementCache getStatementCache() throws SQLException {
+        return statementCache();
+    }
+
+    private StatementCache statementCache() throws SQLException {
+        StatementCache cache = this.statementCache;
+        if (cache == null) {
+            if (delegate.isWrapperFor(StatementCache.class)) {
+                cache = delegate.unwrap(StatementCache.class);
+                this.isOwnStatementCache = false;
+            } else {
+                cache = new StatementCache(statementCacheSize);
+                this.isOwnStatementCache = true;
+            }
+            this.statementCache = cache;
+        }
+        return cache;
+    }
+
+    private void closeStatementCache() {
+        // Der StatementCache einer Connection aus dem Pool
+        // gehoert zur physischen Connection:
+        if ((this.statementCache != null) && this.isOwnStatementCache) {
+            this.statementCache.close();
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der {@code flush}-Aufrufe an der verbundenen
+     * Hibernate-Session und dem Hibernate-EntityManager.
+     *
+     * @return die Anzahl der ausgef&uuml;hrten {@code flush}-Aufrufe.
+     * @see #getSkippedFlushCount()
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Liefert die Anzahl der {@code flush}-Aufrufe die ausgelassen wurden,
+     * weil die verbundene Hibernate-Session oder der Hibernate-EntityManager
+     * nichts zu schreiben haben konnte.
+     *
+     * @return die Anzahl der ausgelassenen {@code flush}-Aufrufe.
+     * @see HibernateReference#getDirtyState(Session)
+     */
+    public long getSkippedFlushCount() {
+        return skippedFlushCount;
+    }
+
+    /**
+     * Liefert die {@link SqlStatistics} in die diese {@link Connection} die
+     * Ausf&uuml;hrungszeiten ihrer Statements aufnimmt.
+     *
+     * @return die {@link SqlStatistics} oder {@code null} wenn keine
+     * Ausf&uuml;hrungszeiten gemessen werden.
+     */
+    public SqlStatistics getSqlStatistics() {
+        return sqlStatistics;
+    }
+
+    /**
+     * Setzt die {@link SqlStatistics} in die diese {@link Connection} die
+     * Ausf&uuml;hrungszeiten ihrer Statements aufnimmt.
+     * <p>
+     * Die {@link SqlStatistics} k&ouml;nnen von beliebig vielen
+     * {@link Connection}s gemeinsam benutzt werden.
+     *
+     * @param sqlStatistics die {@link SqlStatistics} oder {@code null}
+     *                      um die Messung abzuschalten.
+     */
+    public void setSqlStatistics(final SqlStatistics sqlStatistics) {
+        this.sqlStatistics = sqlStatistics;
+    }
+
+    /**
+     * Liefert die Anzahl der JDBC-Batches die im Write-Batching-Modus
+     * ausgef&uuml;hrt wurden (also die Anzahl der Round-Trips).
+     *
+     * @return die Anzahl der ausgef&uuml;hrten JDBC-Batches.
+     * @see #setWriteBatchSize(int)
+     */
+    public long getWriteBatchDrainCount() {
+        return (this.writeBatch == null ? 0 : this.writeBatch.getDrainCount());
+    }
+
+    /**
+     * Liefert die maximale Anzahl der {@code executeUpdate()}-Aufrufe die
+     * zu einem JDBC-Batch zusammengefasst werden.
+     *
+     * @return die maximale Batch-Gr&ouml;&szlig;e, {@code 0} wenn der
+     * Write-Batching-Modus abgeschaltet ist.
+     * @see #setWriteBatchSize(int)
+     */
+    public int getWriteBatchSize() {
+        return (this.writeBatch == null ? 0 : this.writeBatch.getBatchSize());
+    }
+
+    /**
+     * Schaltet den Write-Batching-Modus ein oder ab.
+     * <p>
+     * Im Write-Batching-Modus werden die {@code executeUpdate()}-Aufrufe
+     * eines einzeiligen {@code INSERT ... VALUES} Statements innerhalb einer
+     * Transaktion gesammelt und gemeinsam als JDBC-Batch ausgef&uuml;hrt.
+     * Als Update-Count wird sofort {@code 1} geliefert; beim Ausf&uuml;hren
+     * des Batches wird gepr&uuml;ft, ob die Datenbank dies best&auml;tigt.
+     * <p>
+     * Der Batch wird ausgef&uuml;hrt, wenn die Batch-Gr&ouml;&szlig;e
+     * erreicht ist, bei {@link #commit()}, bei {@link #flush()} und bevor
+     * irgendein anderes Statement ausgef&uuml;hrt wird. Bei einem
+     * {@link #rollback()} wird der Batch verworfen.
+     *
+     * @param writeBatchSize die maximale Batch-Gr&ouml;&szlig;e,
+     *                       {@code 0} schaltet den Modus ab.
+     * @throws SQLException wenn ein noch ausstehender Batch nicht
+     *                      ausgef&uuml;hrt werden kann.
+     */
+    public void setWriteBatchSize(final int writeBatchSize) throws SQLException {
+        if (writeBatchSize < 0) {
+            throw new IllegalArgumentException("Write batch size can not be negative: " + writeBatchSize);
+        }
+        if (writeBatchSize != getWriteBatchSize()) {
+            drainWriteBatch();
+            this.writeBatch = (writeBatchSize > 0 ? new WriteBatch(writeBatchSize) : null);
+        }
+    }
+
     @Override
     public String getSchema() throws SQLException {
         return delegate.getSchema();
@@ -252,7 +501,7 @@ public class HibernateConnection implements Connection, IHibernateConnection {
         if (this.entityManagerReference == null) {
             this.entityManagerReference = new HibernateReference<>(entityManagerReference, connectionReference);
         } else if (connectionReference.get() == this) {
-            this.entityManagerReference = this.entityManagerReference.exchange(entityManagerReference, connectionReference);
+            this.entityManagerReference = exchange(this.entityManagerReference, entityManagerReference, connectionReference);
         } else {
             // Diese Situation kann eigentlich nicht auftreten,
             // aber unter dem Tisch fallen moechte ich nun auch nicht.
@@ -266,7 +515,7 @@ public class HibernateConnection implements Connection, IHibernateConnection {
         if (this.sessionReference == null) {
             this.sessionReference = new HibernateReference<>(sessionReference, connectionReference);
         } else if (connectionReference.get() == this) {
-            this.sessionReference = this.sessionReference.exchange(sessionReference, connectionReference);
+            this.sessionReference = exchange(this.sessionReference, sessionReference, connectionReference);
         } else {
             // Diese Situation kann eigentlich nicht auftreten,
             // aber unter dem Tisch fallen moechte ich nun auch nicht.
@@ -284,55 +533,79 @@ public class HibernateConnection implements Connection, IHibernateConnection {
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareCall(sql);
+        drainWriteBatch();
+        final StatementCache.StatementKey key = StatementCache.StatementKey.callable(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED);
+        return wrap(CallableStatement.class, statementCache().prepare(key, CallableStatement.class, this, () -> delegate.prepareCall(sql)), sql, false);
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareCall(sql, resultSetType, resultSetConcurrency);
+        drainWriteBatch();
+        final StatementCache.StatementKey key = StatementCache.StatementKey.callable(sql, resultSetType, resultSetConcurrency, UNSPECIFIED);
+        return wrap(CallableStatement.class, statementCache().prepare(key, CallableStatement.class, this, () -> delegate.prepareCall(sql, resultSetType, resultSetConcurrency)), sql, false);
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        drainWriteBatch();
+        final StatementCache.StatementKey key = StatementCache.StatementKey.callable(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return wrap(CallableStatement.class, statementCache().prepare(key, CallableStatement.class, this, () -> delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql, false);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql);
+        if (this.writeBatch != null) {
+            // Ein bereits geschlossenes Statement fuer das noch
+            // gesammelt wird, kann gleich weiter sammeln:
+            final PreparedStatement batchStatement = this.writeBatch.reuse(sql);
+            if (batchStatement != null) {
+                return JdbcProxies.newProxy(PreparedStatement.class, new BatchingStatementHandler(this.writeBatch, batchStatement, sql, this));
+            }
+        }
+        drainWriteBatchUnlessPendingFor(sql);
+        final StatementCache.StatementKey key = StatementCache.StatementKey.prepared(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED);
+        return wrap(PreparedStatement.class, statementCache().prepare(key, PreparedStatement.class, this, () -> delegate.prepareStatement(sql)), sql, true);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        drainWriteBatchUnlessPendingFor(sql);
+        final StatementCache.StatementKey key = StatementCache.StatementKey.prepared(sql, resultSetType, resultSetConcurrency, UNSPECIFIED);
+        return wrap(PreparedStatement.class, statementCache().prepare(key, PreparedStatement.class, this, () -> delegate.prepareStatement(sql, resultSetType, resultSetConcurrency)), sql, true);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        drainWriteBatchUnlessPendingFor(sql);
+        final StatementCache.StatementKey key = StatementCache.StatementKey.prepared(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return wrap(PreparedStatement.class, statementCache().prepare(key, PreparedStatement.class, this, () -> delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql, true);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql, autoGeneratedKeys);
+        drainWriteBatchUnlessPendingFor(sql);
+        final StatementCache.StatementKey key = StatementCache.StatementKey.prepared(sql, autoGeneratedKeys);
+        return wrap(PreparedStatement.class, statementCache().prepare(key, PreparedStatement.class, this, () -> delegate.prepareStatement(sql, autoGeneratedKeys)), sql, (autoGeneratedKeys == Statement.NO_GENERATED_KEYS));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql, columnIndexes);
+        drainWriteBatchUnlessPendingFor(sql);
+        return wrap(PreparedStatement.class, delegate.prepareStatement(sql, columnIndexes), sql, false);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
         ensureLinkedHibernate();
-        return delegate.prepareStatement(sql, columnNames);
+        drainWriteBatchUnlessPendingFor(sql);
+        return wrap(PreparedStatement.class, delegate.prepareStatement(sql, columnNames), sql, false);
     }
 
     @Override
@@ -342,11 +615,21 @@ public class HibernateConnection implements Connection, IHibernateConnection {
 
     @Override
     public void rollback() throws SQLException {
-        delegate.rollback();
+        try {
+            // Der asynchrone Flush darf die Connection nicht mehr benutzen;
+            // sein Fehler wird erst nach dem Rollback weitergeworfen:
+            GlobalFlushables.current().awaitFlush();
+        } finally {
+            discardWriteBatch();
+            delegate.rollback();
+        }
     }
 
     @Override
     public void rollback(Savepoint savepoint) throws SQLException {
+        // Der Batch wurde bei setSavepoint() ausgefuehrt, alle
+        // gesammelten Statements liegen daher hinter dem Savepoint:
+        discardWriteBatch();
         delegate.rollback(savepoint);
     }
 
@@ -362,11 +645,13 @@ public class HibernateConnection implements Connection, IHibernateConnection {
 
     @Override
     public Savepoint setSavepoint() throws SQLException {
+        drainWriteBatch();
         return delegate.setSavepoint();
     }
 
     @Override
     public Savepoint setSavepoint(String name) throws SQLException {
+        drainWriteBatch();
         return delegate.setSavepoint(name);
     }
 
@@ -379,6 +664,13 @@ public class HibernateConnection implements Connection, IHibernateConnection {
         }
     }
 
+    @Override
+    public boolean isDirty() {
+        return ((this.sessionReference != null) && this.sessionReference.isDirty())
+                || ((this.entityManagerReference != null) && this.entityManagerReference.isDirty())
+                || ((this.writeBatch != null) && this.writeBatch.isPending());
+    }
+
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
         if (iface.isInstance(this)) {
@@ -388,6 +680,12 @@ public class HibernateConnection implements Connection, IHibernateConnection {
     }
 
     static class HibernateReference<T> {
+        /**
+         * Obergrenze f&uuml;r die Anzahl der Entities und Collections,
+         * die {@link #isFlushRequired(Session)} pr&uuml;ft.
+         */
+        static final int MAX_DIRTY_CHECKED_ENTRIES = 64;
+
         final Reference<IHibernateConnection> connectionReference;
         final Reference<T> hibernateReference;
 
@@ -398,24 +696,160 @@ public class HibernateConnection implements Connection, IHibernateConnection {
             this.connectionReference = connectionReference;
         }
 
-        HibernateReference<T> exchange(final Reference<T> nextHibernateReference, final Reference<IHibernateConnection> nextConnectionReference) {
-            final boolean isSameHibernate = this.hibernateReference.get() == nextHibernateReference.get();
-            final boolean isSameConnection = this.connectionReference.get() == nextConnectionReference.get();
-            if (isSameHibernate && isSameConnection) {
-                return this;
-            } else {
-                flush();
-                unlink();
-                return new HibernateReference(nextHibernateReference, nextConnectionReference);
+        /**
+         * Liefert ohne Dirty-Check eine g&uuml;nstige Einsch&auml;tzung, ob
+         * die Hibernate-Session etwas zu schreiben hat.
+         * <p>
+         * Anstehende Aktionen (Insert, Update, Delete) ergeben
+         * {@link DirtyState#DIRTY}. Enth&auml;lt die Session weder
+         * beschreibbare Entities noch Collections, ergibt sich
+         * {@link DirtyState#CLEAN}. Ver&auml;nderungen &uuml;ber Setter
+         * lassen sich ohne Dirty-Check nicht erkennen, daher ergibt sich
+         * in allen anderen F&auml;llen {@link DirtyState#POSSIBLY_DIRTY}.
+         *
+         * @param session die Hibernate-Session.
+         * @return die Einsch&auml;tzung ohne Dirty-Check.
+         */
+        static DirtyState getDirtyState(final Session session) {
+            if (!(session instanceof EventSource)) {
+                return DirtyState.POSSIBLY_DIRTY;
+            }
+            final EventSource eventSource = (EventSource) session;
+            if (eventSource.getActionQueue().hasAnyQueuedActions()) {
+                return DirtyState.DIRTY;
+            }
+            final PersistenceContext persistenceContext = eventSource.getPersistenceContext();
+            final boolean hasWritableEntities = !persistenceContext.getEntityEntries().isEmpty()
+                    && persistenceContext.hasNonReadOnlyEntities();
+            if (!hasWritableEntities && persistenceContext.getCollectionEntries().isEmpty()) {
+                return DirtyState.CLEAN;
+            }
+            return DirtyState.POSSIBLY_DIRTY;
+        }
+
+        /**
+         * Pr&uuml;ft ohne vollst&auml;ndigen {@code flush}, ob die
+         * Hibernate-Session seit dem letzten {@code flush} etwas zu
+         * schreiben bekommen hat.
+         * <p>
+         * Wird nur aufgerufen, wenn {@link #getDirtyState(Session)} keine
+         * Entscheidung liefert. Ver&auml;nderte Entities werden wie von
+         * Hibernate selbst durch den Vergleich mit dem geladenen Zustand
+         * erkannt, aber ohne Events, Kaskaden und Action-Queue. Read-only
+         * Entities werden &uuml;bersprungen. Enth&auml;lt die Session mehr
+         * als {@value #MAX_DIRTY_CHECKED_ENTRIES} Entities und Collections,
+         * wird ohne Pr&uuml;fung {@code true} geliefert: der Dirty-Check
+         * w&auml;re dann kaum g&uuml;nstiger als der {@code flush} selbst.
+         *
+         * @param session die Hibernate-Session.
+         * @return {@code false} wenn ein {@code flush} nichts bewirken
+         * w&uuml;rde.
+         */
+        static boolean isFlushRequired(final Session session) {
+            if (!(session instanceof EventSource)) {
+                return true;
+            }
+            final EventSource eventSource = (EventSource) session;
+            final PersistenceContext persistenceContext = eventSource.getPersistenceContext();
+            // So iteriert auch Hibernate selbst ueber Entities und
+            // Collections (IdentityMap unterstuetzt kein keySet()):
+            final Map<?, ?> entityEntries = persistenceContext.getEntityEntries();
+            final Map<?, ?> collectionEntries = persistenceContext.getCollectionEntries();
+            if ((entityEntries.size() + collectionEntries.size()) > MAX_DIRTY_CHECKED_ENTRIES) {
+                return true;
+            }
+            if (!entityEntries.isEmpty() && persistenceContext.hasNonReadOnlyEntities()) {
+                for (final Map.Entry<?, ?> entry : IdentityMap.concurrentEntries(entityEntries)) {
+                    if (isModified(entry.getKey(), (EntityEntry) entry.getValue(), eventSource)) {
+                        return true;
+                    }
+                }
+            }
+            if (!collectionEntries.isEmpty()) {
+                for (final Map.Entry<?, ?> entry : IdentityMap.concurrentEntries(collectionEntries)) {
+                    if (((PersistentCollection) entry.getKey()).isDirty()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean isModified(final Object entity, final EntityEntry entityEntry, final EventSource eventSource) {
+            if (!entityEntry.requiresDirtyCheck(entity)) {
+                // Read-only oder unveraenderlich:
+                return false;
+            }
+            final Object[] loadedState = entityEntry.getLoadedState();
+            if ((entityEntry.getStatus() != Status.MANAGED) || (loadedState == null)) {
+                return true;
+            }
+            final EntityPersister persister = entityEntry.getPersister();
+            final Object[] currentState = persister.getPropertyValues(entity, eventSource.getEntityMode());
+            return persister.findDirty(currentState, loadedState, entity, eventSource) != null;
+        }
+
+        /**
+         * F&uuml;hrt ein {@code flush} an der Hibernate-Session oder dem
+         * Hibernate-EntityManager aus, sofern dieser etwas zu schreiben
+         * haben kann.
+         * <p>
+         * Ausgelassen wird der {@code flush} nur bei
+         * {@link DirtyState#CLEAN}. Ein eigener Dirty-Check findet vorher
+         * nicht statt, denn der {@code flush} pr&uuml;ft selbst noch einmal
+         * alle Entities.
+         *
+         * @return {@code true} wenn {@code flush} ausgef&uuml;hrt wurde.
+         * @see #getDirtyState(Session)
+         */
+        boolean flush() {
+            final T hibernate = hibernateReference.get();
+            if (hibernate instanceof Session) {
+                final Session session = (Session) hibernate;
+                if (getDirtyState(session) != DirtyState.CLEAN) {
+                    session.flush();
+                    return true;
+                }
+            } else if (hibernate instanceof EntityManager) {
+                final EntityManager entityManager = (EntityManager) hibernate;
+                if (getDirtyState(entityManager.unwrap(Session.class)) != DirtyState.CLEAN) {
+                    entityManager.flush();
+                    return true;
+                }
             }
+            return false;
         }
 
-        void flush() {
+        /**
+         * Pr&uuml;ft ohne vollst&auml;ndigen {@code flush}, ob die
+         * Hibernate-Session oder der Hibernate-EntityManager etwas zu
+         * schreiben haben kann.
+         * <p>
+         * Der Dirty-Check wird nur bei {@link DirtyState#POSSIBLY_DIRTY}
+         * ausgef&uuml;hrt.
+         *
+         * @return {@code true} wenn {@link #flush()} etwas bewirken kann.
+         * @see #getDirtyState(Session)
+         * @see #isFlushRequired(Session)
+         */
+        boolean isDirty() {
             final T hibernate = hibernateReference.get();
             if (hibernate instanceof Session) {
-                ((Session) hibernate).flush();
+                return isDirty((Session) hibernate);
             } else if (hibernate instanceof EntityManager) {
-                ((EntityManager) hibernate).flush();
+                return isDirty(((EntityManager) hibernate).unwrap(Session.class));
+            }
+            return false;
+        }
+
+        private static boolean isDirty(final Session session) {
+            switch (getDirtyState(session)) {
+                case CLEAN:
+                    return false;
+                case DIRTY:
+                    return true;
+                default:
+                    return isFlushRequired(session);
             }
         }
 
@@ -423,6 +857,12 @@ public class HibernateConnection implements Connection, IHibernateConnection {
             return hibernateReference.get() != null;
         }
 
+        boolean isSame(final Reference<T> nextHibernateReference, final Reference<IHibernateConnection> nextConnectionReference) {
+            final boolean isSameHibernate = this.hibernateReference.get() == nextHibernateReference.get();
+            final boolean isSameConnection = this.connectionReference.get() == nextConnectionReference.get();
+            return isSameHibernate && isSameConnection;
+        }
+
         @Override
         public String toString() {
             return "HibernateReference{" +
@@ -434,6 +874,27 @@ public class HibernateConnection implements Connection, IHibernateConnection {
             connectionReference.clear();
             hibernateReference.clear();
         }
+
+        /**
+         * G&uuml;nstige Einsch&auml;tzung, ob eine Hibernate-Session etwas
+         * zu schreiben hat.
+         *
+         * @see #getDirtyState(Session)
+         */
+        enum DirtyState {
+            /**
+             * Die Session hat nichts zu schreiben.
+             */
+            CLEAN,
+            /**
+             * Die Session hat anstehende Aktionen.
+             */
+            DIRTY,
+            /**
+             * Ohne Dirty-Check nicht entscheidbar.
+             */
+            POSSIBLY_DIRTY
+        }
     }
 
 }
@@ -11,20 +11,120 @@ import java.util.logging.Logger;
 
 public class HibernateDataSource implements DataSource, SmartDataSource {
 
+    /**
+     * Die Standard-Wartezeit beim Ausleihen aus dem {@link ConnectionPool}.
+     */
+    public static final long DEFAULT_POOL_MAX_WAIT_MILLIS = 30_000;
+    /**
+     * Die Standard-Zeit nach der eine unbenutzte {@link Connection} im
+     * {@link ConnectionPool} vor dem Ausleihen gepr&uuml;ft wird.
+     */
+    public static final long DEFAULT_POOL_VALIDATION_IDLE_MILLIS = 30_000;
+
     private final DataSource delegate;
+    private final LazyConnectionHandler.Defaults lazyConnectionDefaults;
+    private final Object poolMonitor;
+    private volatile ConnectionPool connectionPool;
+    private boolean isLazyConnection;
+    private long poolMaxWaitMillis;
+    private int poolMaxSize;
+    private int poolMinSize;
+    private long poolValidationIdleMillis;
+    private SqlStatistics sqlStatistics;
+    private int statementCacheSize;
+    private int writeBatchSize;
 
     public HibernateDataSource(final DataSource delegate) {
         this.delegate = delegate;
+        this.statementCacheSize = HibernateConnection.DEFAULT_STATEMENT_CACHE_SIZE;
+        this.writeBatchSize = 0;
+        this.sqlStatistics = null;
+        this.poolMonitor = new Object();
+        this.lazyConnectionDefaults = new LazyConnectionHandler.Defaults();
+        this.isLazyConnection = false;
+        this.poolMaxSize = 0;
+        this.poolMinSize = 0;
+        this.poolMaxWaitMillis = DEFAULT_POOL_MAX_WAIT_MILLIS;
+        this.poolValidationIdleMillis = DEFAULT_POOL_VALIDATION_IDLE_MILLIS;
+    }
+
+    /**
+     * Schlie&szlig;t den {@link ConnectionPool}, sofern er schon erzeugt
+     * wurde. Ein weiteres {@link #getConnection()} erzeugt einen neuen
+     * {@link ConnectionPool}.
+     */
+    public void close() {
+        synchronized (poolMonitor) {
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
+        }
     }
 
+    /**
+     * Liefert eine neue {@link HibernateConnection}.
+     * <p>
+     * Ist der Pooling-Modus eingeschaltet (siehe {@link #setPoolMaxSize(int)}),
+     * dann wird die physische {@link Connection} aus dem {@link ConnectionPool}
+     * ausgeliehen und mit {@link Connection#close()} wieder
+     * zur&uuml;ckgegeben. Die {@link HibernateConnection} selbst ist stets
+     * neu, ihre Verbindung zu Session und EntityManager beginnt daher
+     * bei jeder Ausleihe von vorne.
+     * <p>
+     * Ist der Lazy-Modus eingeschaltet (siehe {@link #setLazyConnection(boolean)}),
+     * dann wird die physische {@link Connection} erst beim ersten Statement
+     * besorgt.
+     *
+     * @return die neue {@link HibernateConnection}.
+     * @throws SQLException wenn keine physische {@link Connection}
+     *                      verf&uuml;gbar ist.
+     */
     @Override
     public Connection getConnection() throws SQLException {
-        return new HibernateConnection(delegate.getConnection());
+        if (isLazyConnection) {
+            final LazyConnectionHandler handler = new LazyConnectionHandler(this::getPhysicalConnection, lazyConnectionDefaults);
+            return newHibernateConnection(JdbcProxies.newConnectionProxy(handler));
+        }
+        return newHibernateConnection(getPhysicalConnection());
     }
 
+    /**
+     * Liefert eine neue {@link HibernateConnection} f&uuml;r einen anderen
+     * Benutzer. Diese wird niemals aus dem {@link ConnectionPool}
+     * geliefert.
+     *
+     * @param username der Benutzer.
+     * @param password das Passwort.
+     * @return die neue {@link HibernateConnection}.
+     * @throws SQLException wenn keine physische {@link Connection}
+     *                      ge&ouml;ffnet werden kann.
+     */
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        return new HibernateConnection(delegate.getConnection(username, password));
+        return newHibernateConnection(delegate.getConnection(username, password));
+    }
+
+    /**
+     * Liefert den {@link ConnectionPool} mit seinen Metriken und erzeugt ihn
+     * bei Bedarf.
+     *
+     * @return der {@link ConnectionPool} oder {@code null} wenn der
+     * Pooling-Modus abgeschaltet ist.
+     */
+    public ConnectionPool getConnectionPool() {
+        // Eine Variante von Double Checked Locking.
+        ConnectionPool pool = connectionPool;
+        if ((pool == null) && (poolMaxSize > 0)) {
+            synchronized (poolMonitor) {
+                pool = connectionPool;
+                if (pool == null) {
+                    pool = new ConnectionPool(delegate, poolMinSize, poolMaxSize, poolMaxWaitMillis, poolValidationIdleMillis, statementCacheSize);
+                    connectionPool = pool;
+                }
+            }
+        }
+        return pool;
     }
 
     @Override
@@ -37,6 +137,220 @@ public class HibernateDataSource implements DataSource, SmartDataSource {
         delegate.setLogWriter(out);
     }
 
+    public long getPoolMaxWaitMillis() {
+        return poolMaxWaitMillis;
+    }
+
+    /**
+     * Setzt die maximale Wartezeit beim Ausleihen aus dem
+     * {@link ConnectionPool}. Muss vor dem ersten {@link #getConnection()}
+     * gesetzt werden.
+     *
+     * @param poolMaxWaitMillis die maximale Wartezeit in Millisekunden.
+     */
+    public void setPoolMaxWaitMillis(long poolMaxWaitMillis) {
+        if (poolMaxWaitMillis < 0) {
+            throw new IllegalArgumentException("Pool max wait can not be negative: " + poolMaxWaitMillis);
+        }
+        this.poolMaxWaitMillis = poolMaxWaitMillis;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * Setzt die maximale Anzahl der physischen {@link Connection}s im
+     * {@link ConnectionPool}. Muss vor dem ersten {@link #getConnection()}
+     * gesetzt werden.
+     *
+     * @param poolMaxSize die maximale Anzahl der {@link Connection}s,
+     *                    {@code 0} schaltet den Pooling-Modus ab.
+     */
+    public void setPoolMaxSize(int poolMaxSize) {
+        if (poolMaxSize < 0) {
+            throw new IllegalArgumentException("Pool max size can not be negative: " + poolMaxSize);
+        }
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    /**
+     * Setzt die Anzahl der physischen {@link Connection}s die der
+     * {@link ConnectionPool} mindestens offen h&auml;lt. Muss vor dem
+     * ersten {@link #getConnection()} gesetzt werden.
+     *
+     * @param poolMinSize die minimale Anzahl der {@link Connection}s.
+     */
+    public void setPoolMinSize(int poolMinSize) {
+        if (poolMinSize < 0) {
+            throw new IllegalArgumentException("Pool min size can not be negative: " + poolMinSize);
+        }
+        this.poolMinSize = poolMinSize;
+    }
+
+    public long getPoolValidationIdleMillis() {
+        return poolValidationIdleMillis;
+    }
+
+    /**
+     * Setzt die Zeit nach der eine unbenutzte {@link Connection} im
+     * {@link ConnectionPool} vor dem Ausleihen gepr&uuml;ft wird. Muss vor
+     * dem ersten {@link #getConnection()} gesetzt werden.
+     *
+     * @param poolValidationIdleMillis die Zeit in Millisekunden.
+     */
+    public void setPoolValidationIdleMillis(long poolValidationIdleMillis) {
+        if (poolValidationIdleMillis < 0) {
+            throw new IllegalArgumentException("Pool validation idle time can not be negative: " + poolValidationIdleMillis);
+        }
+        this.poolValidationIdleMillis = poolValidationIdleMillis;
+    }
+
+    /**
+     * Liefert die {@link SqlStatistics} die alle {@link HibernateConnection}s
+     * dieser {@link DataSource} gemeinsam benutzen.
+     *
+     * @return die {@link SqlStatistics} oder {@code null} wenn keine
+     * Ausf&uuml;hrungszeiten gemessen werden (Voreinstellung).
+     */
+    public SqlStatistics getSqlStatistics() {
+        return sqlStatistics;
+    }
+
+    /**
+     * Setzt die {@link SqlStatistics} die alle danach erzeugten
+     * {@link HibernateConnection}s gemeinsam benutzen.
+     * <p>
+     * Die Messung ist abgeschaltet bis hier {@link SqlStatistics} gesetzt
+     * werden, denn sie kostet bei jeder Statement-Ausf&uuml;hrung einen
+     * zus&auml;tzlichen Proxy und zwei {@code System.nanoTime()}-Aufrufe.
+     *
+     * @param sqlStatistics die {@link SqlStatistics} oder {@code null}
+     *                      um die Messung abzuschalten.
+     */
+    public void setSqlStatistics(SqlStatistics sqlStatistics) {
+        this.sqlStatistics = sqlStatistics;
+    }
+
+    /**
+     * Liefert die maximale Anzahl der Statements die jede
+     * {@link HibernateConnection} zur Wiederverwendung
+     * zwischenspeichert.
+     *
+     * @return die Gr&ouml;&szlig;e des {@link StatementCache}.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Setzt die maximale Anzahl der Statements die jede
+     * {@link HibernateConnection} zur Wiederverwendung
+     * zwischenspeichert.
+     * <p>
+     * Im Pooling-Modus geh&ouml;rt der {@link StatementCache} zur
+     * physischen {@link Connection} im {@link ConnectionPool} und bleibt
+     * &uuml;ber alle Ausleihen hinweg erhalten. Die Gr&ouml;&szlig;e muss
+     * dann vor der Erzeugung des {@link ConnectionPool}s gesetzt werden.
+     *
+     * @param statementCacheSize die Gr&ouml;&szlig;e des {@link StatementCache},
+     *                           {@code 0} schaltet den Cache ab.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("Statement cache size can not be negative: " + statementCacheSize);
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Liefert die maximale Batch-Gr&ouml;&szlig;e des Write-Batching-Modus
+     * jeder {@link HibernateConnection}.
+     *
+     * @return die maximale Batch-Gr&ouml;&szlig;e, {@code 0} wenn der
+     * Write-Batching-Modus abgeschaltet ist.
+     * @see HibernateConnection#setWriteBatchSize(int)
+     */
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Setzt die maximale Batch-Gr&ouml;&szlig;e des Write-Batching-Modus
+     * jeder {@link HibernateConnection}.
+     *
+     * @param writeBatchSize die maximale Batch-Gr&ouml;&szlig;e,
+     *                       {@code 0} schaltet den Modus ab.
+     * @see HibernateConnection#setWriteBatchSize(int)
+     */
+    public void setWriteBatchSize(int writeBatchSize) {
+        if (writeBatchSize < 0) {
+            throw new IllegalArgumentException("Write batch size can not be negative: " + writeBatchSize);
+        }
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * Liefert die Anzahl der logischen {@link Connection}s im Lazy-Modus,
+     * die eine physische {@link Connection} besorgt haben.
+     *
+     * @return die Anzahl der besorgten physischen {@link Connection}s.
+     */
+    public long getLazyAcquiredCount() {
+        return lazyConnectionDefaults.acquiredCount.sum();
+    }
+
+    /**
+     * Liefert die Anzahl der logischen {@link Connection}s im Lazy-Modus,
+     * die geschlossen wurden ohne eine physische {@link Connection} zu
+     * besorgen.
+     *
+     * @return die Anzahl der vermiedenen physischen {@link Connection}s.
+     */
+    public long getLazyAvoidedCount() {
+        return lazyConnectionDefaults.avoidedCount.sum();
+    }
+
+    public boolean isLazyConnection() {
+        return isLazyConnection;
+    }
+
+    /**
+     * Schaltet den Lazy-Modus ein oder ab.
+     * <p>
+     * Im Lazy-Modus liefert {@link #getConnection()} eine
+     * {@link HibernateConnection} deren physische {@link Connection} erst
+     * beim ersten Statement (oder einem anderen Zugriff der die Datenbank
+     * ben&ouml;tigt) besorgt wird. {@code setAutoCommit},
+     * {@code setReadOnly} und {@code setTransactionIsolation} werden bis
+     * dahin nur gespeichert. Wird kein Statement erzeugt, dann wird auch
+     * keine physische {@link Connection} besorgt.
+     *
+     * @param isLazyConnection {@code true} schaltet den Lazy-Modus ein.
+     */
+    public void setLazyConnection(boolean isLazyConnection) {
+        this.isLazyConnection = isLazyConnection;
+    }
+
+    private Connection getPhysicalConnection() throws SQLException {
+        final ConnectionPool pool = getConnectionPool();
+        if (pool != null) {
+            return pool.borrow();
+        }
+        return delegate.getConnection();
+    }
+
+    private Connection newHibernateConnection(final Connection physicalConnection) throws SQLException {
+        final HibernateConnection hibernateConnection = new HibernateConnection(physicalConnection, statementCacheSize);
+        hibernateConnection.setSqlStatistics(sqlStatistics);
+        hibernateConnection.setWriteBatchSize(writeBatchSize);
+        return hibernateConnection;
+    }
+
     @Override
     public int getLoginTimeout() throws SQLException {
         return delegate.getLoginTimeout();
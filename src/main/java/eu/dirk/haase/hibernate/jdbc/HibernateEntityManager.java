@@ -3,7 +3,6 @@ package eu.dirk.haase.hibernate.jdbc;
 import org.hibernate.classic.Session;
 
 import javax.persistence.EntityManager;
-import java.lang.reflect.Proxy;
 
 public interface HibernateEntityManager extends Wrapper {
 
@@ -11,9 +10,7 @@ public interface HibernateEntityManager extends Wrapper {
         if ((entityManager instanceof Wrapper) && ((Wrapper) entityManager).isWrapperFor(HibernateEntityManager.class)) {
             return entityManager;
         } else {
-            final Class<?>[] interfaces = {Session.class, HibernateEntityManager.class};
-            final ClassLoader loader = HibernateEntityManager.class.getClassLoader();
-            return (EntityManager) Proxy.newProxyInstance(loader, interfaces, new HibernateEntityManagerHandler(entityManager));
+            return HibernateProxies.newEntityManagerProxy(entityManager);
         }
     }
 
@@ -7,21 +7,18 @@ import org.hibernate.jdbc.Work;
 import javax.persistence.EntityManager;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Optional;
 
 public class HibernateEntityManagerHandler extends AbstractHibernateSessionHandler<EntityManager> {
 
-    private static final ThreadLocal<Reference<HibernateSessionLinker>> threadLocalSession = new ThreadLocal<>();
-
     public HibernateEntityManagerHandler(final EntityManager delegate) {
-        super(delegate);
+        super(delegate, CurrentLinkers.ENTITY_MANAGER);
     }
 
     public static Optional<HibernateSessionLinker> currentLinker() {
-        final Reference<HibernateSessionLinker> linker = threadLocalSession.get();
+        final Reference<HibernateSessionLinker> linker = CurrentLinkers.current().get(CurrentLinkers.ENTITY_MANAGER);
         return Optional.ofNullable(linker != null ? linker.get() : null);
     }
 
@@ -32,38 +29,16 @@ public class HibernateEntityManagerHandler extends AbstractHibernateSessionHandl
     }
 
 
-    @Override
-    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
-        switch (method.getName()) {
-            case "isWrapperFor":
-                final Class<?> iface1 = (Class<?>) args[0];
-                return iface1.isInstance(proxy);
-            case "unwrap":
-                final Class<?> iface2 = (Class<?>) args[0];
-                if (iface2.isInstance(proxy)) {
-                    return proxy;
-                } else {
-                    final Object innerObject = method.invoke(this.delegate, args);
-                    return (innerObject instanceof Session
-                            ? HibernateSession.proxySession((Session) innerObject)
-                            : innerObject);
-                }
-            case "close":
-                becomeObsoleteLinker(this.linker);
-                this.isClosed = true;
-                unlinkHibernate();
-                return method.invoke(this.delegate, args);
-            default:
-                becomeCurrentLinker(threadLocalSession);
-                return method.invoke(this.delegate, args);
-        }
-    }
-
     @Override
     public void linkHibernate(final Connection connection) {
         if (this.isHibernateConnection && !this.isClosed) {
             try {
                 final IHibernateConnection hibernateConnection = connection.unwrap(IHibernateConnection.class);
+                if (isLinkedWith(hibernateConnection)) {
+                    // Bereits verbunden - es muessen keine neuen
+                    // Referenzen erzeugt werden:
+                    return;
+                }
                 this.connectionReference = new WeakReference<>(hibernateConnection);
                 this.hibernateReference = new WeakReference<>(this.delegate);
                 hibernateConnection.linkEntityManager(this.hibernateReference, connectionReference);
@@ -73,4 +48,16 @@ public class HibernateEntityManagerHandler extends AbstractHibernateSessionHandl
         }
     }
 
+    @Override
+    Object unwrap(final Object proxy, final Class<?> iface) {
+        if (iface.isInstance(proxy)) {
+            return proxy;
+        } else {
+            final Object innerObject = this.delegate.unwrap(iface);
+            return (innerObject instanceof Session
+                    ? HibernateSession.proxySession((Session) innerObject)
+                    : innerObject);
+        }
+    }
+
 }
@@ -0,0 +1,191 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.modifier.FieldManifestation;
+import net.bytebuddy.description.modifier.TypeManifestation;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.loading.ClassInjector;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy;
+import net.bytebuddy.implementation.FieldAccessor;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.MethodCall;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.hibernate.HibernateException;
+import org.hibernate.classic.Session;
+
+import javax.persistence.EntityManager;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.isHashCode;
+import static net.bytebuddy.matcher.ElementMatchers.isToString;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.none;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Erzeugt Proxies f&uuml;r Hibernate-{@link Session}s und
+ * {@link EntityManager}s.
+ * <p>
+ * Anders als ein {@link java.lang.reflect.Proxy} ruft der Proxy den
+ * Delegate direkt auf (ohne {@link java.lang.reflect.Method#invoke} und
+ * ohne {@code Object[]} f&uuml;r die Argumente). Die Verbindung zur
+ * {@link HibernateConnection} wird nur bei den Methoden hergestellt, die
+ * Statements ausl&ouml;sen k&ouml;nnen - reine Abfragen des Zustands
+ * (wie {@code isOpen} oder {@code getFlushMode}) gehen ohne Umweg an den
+ * Delegate.
+ * <p>
+ * Jeder Aufruf des Delegates (au&szlig;er {@code hashCode} und
+ * {@code toString}) wartet zuerst auf einen asynchronen Flush des
+ * aktuellen Threads (siehe
+ * {@link eu.dirk.haase.hibernate.GlobalFlushables.CurrentFlusher#flushAllAsync()}).
+ * Ohne ausstehenden Flush kostet das nur einen Lesezugriff.
+ * <p>
+ * Die Proxy-Klassen werden mit ByteBuddy einmal pro Klasse des Delegates
+ * erzeugt. Dadurch hat jede Proxy-Klasse eigene Aufrufstellen, die der
+ * JIT-Compiler f&uuml;r genau eine Delegate-Klasse optimieren kann.
+ */
+final class HibernateProxies {
+
+    private static final String DELEGATE_FIELD = "delegate";
+    private static final ConcurrentMap<Class<?>, Constructor<?>> ENTITY_MANAGER_PROXY_CONSTRUCTOR_MAP = new ConcurrentHashMap<>();
+    private static final String[] ENTITY_MANAGER_UNLINKED_METHODS = {
+            "getCriteriaBuilder", "getDelegate", "getEntityManagerFactory", "getFlushMode",
+            "getMetamodel", "getProperties", "isOpen", "setFlushMode", "setProperty"};
+    private static final String HANDLER_FIELD = "handler";
+    private static final AtomicInteger PROXY_CLASS_COUNTER = new AtomicInteger();
+    private static final ConcurrentMap<Class<?>, Constructor<?>> SESSION_PROXY_CONSTRUCTOR_MAP = new ConcurrentHashMap<>();
+    private static final String[] SESSION_UNLINKED_METHODS = {
+            "disableFilter", "getCacheMode", "getEnabledFilter", "getEntityMode", "getFlushMode",
+            "getSessionFactory", "getStatistics", "isConnected", "isDefaultReadOnly", "isOpen",
+            "setCacheMode", "setDefaultReadOnly", "setFlushMode"};
+
+    private HibernateProxies() {
+    }
+
+    /**
+     * Erzeugt einen Proxy der die Interfaces {@link EntityManager} und
+     * {@link HibernateEntityManager} implementiert.
+     *
+     * @param entityManager der {@link EntityManager} der aufgerufen werden
+     *                      soll.
+     * @return der neue Proxy.
+     * @throws HibernateException wenn der Proxy nicht erzeugt werden kann.
+     */
+    static EntityManager newEntityManagerProxy(final EntityManager entityManager) throws HibernateException {
+        final Constructor<?> constructor = ENTITY_MANAGER_PROXY_CONSTRUCTOR_MAP.computeIfAbsent(entityManager.getClass(),
+                (c) -> proxyConstructor(c, EntityManager.class, HibernateEntityManager.class,
+                        HibernateEntityManagerHandler.class, ENTITY_MANAGER_UNLINKED_METHODS));
+        return (EntityManager) newInstance(constructor, new HibernateEntityManagerHandler(entityManager), entityManager);
+    }
+
+    private static ElementMatcher.Junction<MethodDescription> namedOneOf(final String... names) {
+        ElementMatcher.Junction<MethodDescription> matcher = none();
+        for (final String name : names) {
+            matcher = matcher.or(named(name));
+        }
+        return matcher;
+    }
+
+    private static Object newInstance(final Constructor<?> constructor, final Object handler, final Object delegate) {
+        try {
+            return constructor.newInstance(handler, delegate);
+        } catch (ReflectiveOperationException ex) {
+            throw new HibernateException(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Erzeugt einen Proxy der die Interfaces {@link Session} und
+     * {@link HibernateSession} implementiert.
+     *
+     * @param session die {@link Session} die aufgerufen werden soll.
+     * @return der neue Proxy.
+     * @throws HibernateException wenn der Proxy nicht erzeugt werden kann.
+     */
+    static Session newSessionProxy(final Session session) throws HibernateException {
+        final Constructor<?> constructor = SESSION_PROXY_CONSTRUCTOR_MAP.computeIfAbsent(session.getClass(),
+                (c) -> proxyConstructor(c, Session.class, HibernateSession.class,
+                        HibernateSessionHandler.class, SESSION_UNLINKED_METHODS)
+        );
+        return (Session) newInstance(constructor, new HibernateSessionHandler(session), session);
+    }
+
+    private static Constructor<?> proxyConstructor(final Class<?> delegateClass,
+                                                   final Class<?> apiInterface,
+                                                   final Class<? extends Wrapper> wrapperInterface,
+                                                   final Class<? extends AbstractHibernateSessionHandler<?>> handlerClass,
+                                                   final String[] unlinkedMethods) {
+        try {
+            final MethodCall callDelegate = MethodCall.invokeSelf().onField(DELEGATE_FIELD).withAllArguments();
+            final MethodCall callAwaitFlush = MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("awaitFlush"))
+                    .onField(HANDLER_FIELD);
+            final Implementation callUnlinked = callAwaitFlush.andThen(callDelegate);
+            final Implementation callLinked = callAwaitFlush
+                    .andThen(MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("becomeCurrentLinker"))
+                            .onField(HANDLER_FIELD))
+                    .andThen(callDelegate);
+            final Implementation callClosing = callAwaitFlush
+                    .andThen(MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("beforeClose"))
+                            .onField(HANDLER_FIELD))
+                    .andThen(callDelegate);
+            final Implementation callDisconnecting = callAwaitFlush
+                    .andThen(MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("beforeDisconnect"))
+                            .onField(HANDLER_FIELD))
+                    .andThen(callDelegate);
+            final Implementation callIsWrapperFor = MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("isWrapperFor", Object.class, Class.class))
+                    .onField(HANDLER_FIELD)
+                    .withThis()
+                    .withArgument(0);
+            final Implementation callUnwrap = callAwaitFlush
+                    .andThen(MethodCall.invoke(AbstractHibernateSessionHandler.class.getDeclaredMethod("unwrap", Object.class, Class.class))
+                            .onField(HANDLER_FIELD)
+                            .withThis()
+                            .withArgument(0));
+            final Implementation constructor = MethodCall.invoke(Object.class.getConstructor())
+                    .andThen(FieldAccessor.ofField(HANDLER_FIELD).setsArgumentAt(0))
+                    .andThen(FieldAccessor.ofField(DELEGATE_FIELD).setsArgumentAt(1));
+            // Bei mehreren passenden Regeln gewinnt die zuletzt angegebene:
+            final Class<?> proxyClass = new ByteBuddy()
+                    .subclass(Object.class, ConstructorStrategy.Default.NO_CONSTRUCTORS)
+                    .name(wrapperInterface.getName() + "$Proxy$" + delegateClass.getSimpleName() + "$" + PROXY_CLASS_COUNTER.incrementAndGet())
+                    .modifiers(Visibility.PUBLIC, TypeManifestation.FINAL)
+                    .implement(apiInterface, wrapperInterface)
+                    .defineField(HANDLER_FIELD, handlerClass, Visibility.PRIVATE, FieldManifestation.FINAL)
+                    .defineField(DELEGATE_FIELD, apiInterface, Visibility.PRIVATE, FieldManifestation.FINAL)
+                    .defineConstructor(Visibility.PUBLIC)
+                    .withParameters(handlerClass, apiInterface)
+                    .intercept(constructor)
+                    .method(isAbstract()).intercept(callLinked)
+                    .method(isAbstract().and(namedOneOf(unlinkedMethods))).intercept(callUnlinked)
+                    .method(isAbstract().and(namedOneOf("disconnect", "reconnect"))).intercept(callDisconnecting)
+                    .method(isAbstract().and(named("close"))).intercept(callClosing)
+                    .method(isAbstract().and(named("isWrapperFor")).and(takesArguments(Class.class))).intercept(callIsWrapperFor)
+                    .method(isAbstract().and(named("unwrap")).and(takesArguments(Class.class))).intercept(callUnwrap)
+                    .method(isHashCode().or(isToString())).intercept(callDelegate)
+                    .make()
+                    .load(HibernateProxies.class.getClassLoader(), classLoadingStrategy())
+                    .getLoaded();
+            return proxyClass.getConstructor(handlerClass, apiInterface);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex.toString(), ex);
+        }
+    }
+
+    private static ClassLoadingStrategy<ClassLoader> classLoadingStrategy() {
+        // Die Proxy-Klasse muss im selben Package liegen, damit sie die
+        // Package-privaten Methoden des Handlers aufrufen kann:
+        if (ClassInjector.UsingLookup.isAvailable()) {
+            return ClassLoadingStrategy.UsingLookup.of(MethodHandles.lookup());
+        } else {
+            return ClassLoadingStrategy.Default.INJECTION;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package eu.dirk.haase.hibernate.jdbc;
 
+import eu.dirk.haase.hibernate.Flushable;
 import org.hibernate.classic.Session;
 
 import javax.persistence.EntityManager;
@@ -23,7 +24,7 @@ import java.sql.Connection;
  * Diese Beschr&auml;nkung besteht aus Vereinfachungsgr&uuml;nden, es gibt
  * keine harten technischen Gr&uuml;nde daf&uuml;r.
  */
-public interface IHibernateConnection {
+public interface IHibernateConnection extends Flushable {
 
     /**
      * F&uuml;hrt ein {@code flush} an den dieser {@link Connection} registierten
@@ -32,8 +33,27 @@ public interface IHibernateConnection {
      * @see org.hibernate.Session#flush()
      * @see EntityManager#flush()
      */
+    @Override
     void flush();
 
+    /**
+     * Liefert ohne {@code flush}, ob die dieser {@link Connection}
+     * registrierte Hibernate-Session oder der Hibernate-EntityManager etwas
+     * zu schreiben haben kann oder noch Statements im Write-Batch warten.
+     * <p>
+     * Entschieden wird zuerst anhand g&uuml;nstiger Merkmale: anstehende
+     * Aktionen oder ein wartender Write-Batch ergeben {@code true}, eine
+     * Session ohne beschreibbare Entities und Collections ergibt
+     * {@code false}. Nur sonst wird ein Dirty-Check ausgef&uuml;hrt; bei
+     * gro&szlig;en Sessions entf&auml;llt auch dieser und es wird
+     * {@code true} geliefert.
+     *
+     * @return {@code false} wenn ein {@link #flush()} nichts bewirken
+     * w&uuml;rde.
+     */
+    @Override
+    boolean isDirty();
+
     /**
      * Verbindet diese {@link Connection} mit einem Hibernate-EntityManager.
      *
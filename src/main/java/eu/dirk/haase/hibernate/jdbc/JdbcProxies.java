@@ -0,0 +1,106 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Erzeugt Proxies f&uuml;r {@link Connection}s, {@link Statement}s,
+ * {@link PreparedStatement}s, {@link CallableStatement}s und
+ * {@link ResultSet}s.
+ * <p>
+ * {@link Proxy#newProxyInstance(ClassLoader, Class[], InvocationHandler)}
+ * sucht die Proxy-Klasse bei jedem Aufruf erneut - die Konstruktoren
+ * werden daher nur einmal ermittelt, und zwar an einem Proxy, der dazu
+ * mit {@code newProxyInstance} erzeugt wird (statt mit dem veralteten
+ * {@code Proxy.getProxyClass}).
+ */
+final class JdbcProxies {
+
+    private static final Constructor<?> CONNECTION_PROXY_CONSTRUCTOR = proxyConstructor(Connection.class);
+    private static final Constructor<?> CALLABLE_PROXY_CONSTRUCTOR = proxyConstructor(CallableStatement.class);
+    private static final Constructor<?> PREPARED_PROXY_CONSTRUCTOR = proxyConstructor(PreparedStatement.class);
+    private static final Constructor<?> RESULT_SET_PROXY_CONSTRUCTOR = proxyConstructor(ResultSet.class);
+    private static final Constructor<?> STATEMENT_PROXY_CONSTRUCTOR = proxyConstructor(Statement.class);
+
+    private JdbcProxies() {
+    }
+
+    /**
+     * Erzeugt einen Proxy der das angegebene Statement-Interface
+     * implementiert.
+     *
+     * @param apiInterface entweder {@link Statement}, {@link PreparedStatement}
+     *                     oder {@link CallableStatement}.
+     * @param handler      der {@link InvocationHandler} des Proxies.
+     * @param <T>          der generische Typ des Statements.
+     * @return der neue Proxy.
+     * @throws SQLException wenn der Proxy nicht erzeugt werden kann.
+     */
+    static <T extends Statement> T newProxy(final Class<T> apiInterface, final InvocationHandler handler) throws SQLException {
+        final Constructor<?> constructor;
+        if (apiInterface == CallableStatement.class) {
+            constructor = CALLABLE_PROXY_CONSTRUCTOR;
+        } else if (apiInterface == PreparedStatement.class) {
+            constructor = PREPARED_PROXY_CONSTRUCTOR;
+        } else if (apiInterface == Statement.class) {
+            constructor = STATEMENT_PROXY_CONSTRUCTOR;
+        } else {
+            throw new IllegalArgumentException("Unknown statement interface: " + apiInterface);
+        }
+        try {
+            return apiInterface.cast(constructor.newInstance(handler));
+        } catch (ReflectiveOperationException ex) {
+            throw new SQLException(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Erzeugt einen Proxy der das Interface {@link Connection} implementiert.
+     *
+     * @param handler der {@link InvocationHandler} des Proxies.
+     * @return der neue Proxy.
+     * @throws SQLException wenn der Proxy nicht erzeugt werden kann.
+     */
+    static Connection newConnectionProxy(final InvocationHandler handler) throws SQLException {
+        try {
+            return (Connection) CONNECTION_PROXY_CONSTRUCTOR.newInstance(handler);
+        } catch (ReflectiveOperationException ex) {
+            throw new SQLException(ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Erzeugt einen Proxy der das Interface {@link ResultSet} implementiert.
+     *
+     * @param handler der {@link InvocationHandler} des Proxies.
+     * @return der neue Proxy.
+     * @throws SQLException wenn der Proxy nicht erzeugt werden kann.
+     */
+    static ResultSet newResultSetProxy(final InvocationHandler handler) throws SQLException {
+        try {
+            return (ResultSet) RESULT_SET_PROXY_CONSTRUCTOR.newInstance(handler);
+        } catch (ReflectiveOperationException ex) {
+            throw new SQLException(ex.toString(), ex);
+        }
+    }
+
+    private static Constructor<?> proxyConstructor(final Class<?> apiInterface) {
+        final ClassLoader loader = JdbcProxies.class.getClassLoader();
+        try {
+            final InvocationHandler unusedHandler = (proxy, method, args) -> {
+                throw new UnsupportedOperationException(method.toString());
+            };
+            return Proxy.newProxyInstance(loader, new Class<?>[]{apiInterface}, unusedHandler).getClass().getConstructor(InvocationHandler.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex.toString(), ex);
+        }
+    }
+
+}
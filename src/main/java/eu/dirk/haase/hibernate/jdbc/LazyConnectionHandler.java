@@ -0,0 +1,215 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logische {@link Connection} die die physische {@link Connection} erst
+ * beim ersten Zugriff besorgt, der ohne sie nicht beantwortet werden kann
+ * (zum Beispiel beim Erzeugen eines Statements).
+ * <p>
+ * Bis dahin werden {@code setAutoCommit}, {@code setReadOnly} und
+ * {@code setTransactionIsolation} nur gespeichert und beim Besorgen der
+ * physischen {@link Connection} &uuml;bertragen. {@code commit},
+ * {@code rollback} und {@code close} sind bis dahin ohne Wirkung.
+ * Nach {@code close} oder {@code abort} wird die physische
+ * {@link Connection} nicht mehr gehalten und jeder weitere Zugriff
+ * liefert eine {@link SQLException}.
+ * <p>
+ * Die Standardwerte der physischen {@link Connection}s werden einmalig
+ * ermittelt und in den {@link Defaults} f&uuml;r alle logischen
+ * {@link Connection}s derselben {@link javax.sql.DataSource}
+ * zwischengespeichert.
+ */
+final class LazyConnectionHandler implements InvocationHandler {
+
+    private final Defaults defaults;
+    private final PhysicalConnectionSupplier supplier;
+    private Boolean autoCommit;
+    private boolean isClosed;
+    private Connection physicalConnection;
+    private Boolean readOnly;
+    private Integer transactionIsolation;
+
+    LazyConnectionHandler(final PhysicalConnectionSupplier supplier, final Defaults defaults) {
+        this.supplier = supplier;
+        this.defaults = defaults;
+        this.isClosed = false;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.isClosed) {
+            throw new SQLException("Connection is already closed");
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "toString":
+                return "LazyConnection{" + this.physicalConnection + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "isClosed":
+                return this.isClosed;
+            case "abort":
+            case "close":
+                if (!this.isClosed) {
+                    this.isClosed = true;
+                    final Connection connection = this.physicalConnection;
+                    // Danach liefert jeder Zugriff eine SQLException,
+                    // anstatt die physische Connection zu benutzen:
+                    this.physicalConnection = null;
+                    if (connection == null) {
+                        this.defaults.avoidedCount.increment();
+                    } else {
+                        try {
+                            method.invoke(connection, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getTargetException();
+                        }
+                    }
+                }
+                return null;
+        }
+        if (this.physicalConnection == null) {
+            switch (method.getName()) {
+                case "isValid":
+                    return !this.isClosed;
+                case "commit":
+                case "rollback":
+                    if ((args == null) || (args.length == 0)) {
+                        // Ohne physische Connection gibt es
+                        // nichts abzuschliessen:
+                        checkOpen();
+                        return null;
+                    }
+                    break;
+                case "clearWarnings":
+                    checkOpen();
+                    return null;
+                case "getWarnings":
+                    checkOpen();
+                    return null;
+                case "getAutoCommit":
+                    checkOpen();
+                    if (this.autoCommit != null) {
+                        return this.autoCommit;
+                    } else if (this.defaults.autoCommit != null) {
+                        return this.defaults.autoCommit;
+                    }
+                    break;
+                case "setAutoCommit":
+                    checkOpen();
+                    this.autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    checkOpen();
+                    if (this.readOnly != null) {
+                        return this.readOnly;
+                    } else if (this.defaults.readOnly != null) {
+                        return this.defaults.readOnly;
+                    }
+                    break;
+                case "setReadOnly":
+                    checkOpen();
+                    this.readOnly = (Boolean) args[0];
+                    return null;
+                case "getTransactionIsolation":
+                    checkOpen();
+                    if (this.transactionIsolation != null) {
+                        return this.transactionIsolation;
+                    } else if (this.defaults.transactionIsolation != null) {
+                        return this.defaults.transactionIsolation;
+                    }
+                    break;
+                case "setTransactionIsolation":
+                    checkOpen();
+                    this.transactionIsolation = (Integer) args[0];
+                    return null;
+            }
+        }
+        try {
+            return method.invoke(physicalConnection(), args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        }
+    }
+
+    /**
+     * Liefert {@code true} wenn die physische {@link Connection} bereits
+     * besorgt wurde.
+     *
+     * @return {@code true} wenn die physische {@link Connection} bereits
+     * besorgt wurde.
+     */
+    boolean isAcquired() {
+        return this.physicalConnection != null;
+    }
+
+    private Connection physicalConnection() throws SQLException {
+        if (this.physicalConnection == null) {
+            checkOpen();
+            final Connection connection = this.supplier.get();
+            try {
+                this.defaults.init(connection);
+                if ((this.autoCommit != null) && (this.autoCommit != connection.getAutoCommit())) {
+                    connection.setAutoCommit(this.autoCommit);
+                }
+                if ((this.readOnly != null) && (this.readOnly != connection.isReadOnly())) {
+                    connection.setReadOnly(this.readOnly);
+                }
+                if ((this.transactionIsolation != null) && (this.transactionIsolation != connection.getTransactionIsolation())) {
+                    connection.setTransactionIsolation(this.transactionIsolation);
+                }
+            } catch (SQLException | RuntimeException ex) {
+                connection.close();
+                throw ex;
+            }
+            this.defaults.acquiredCount.increment();
+            this.physicalConnection = connection;
+        }
+        return this.physicalConnection;
+    }
+
+    /**
+     * Liefert eine physische {@link Connection}.
+     */
+    interface PhysicalConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+
+    /**
+     * Die Standardwerte der physischen {@link Connection}s einer
+     * {@link javax.sql.DataSource} und die Z&auml;hler wie oft eine
+     * physische {@link Connection} besorgt oder vermieden wurde.
+     * <p>
+     * Diese Klasse ist thread-sicher.
+     */
+    static final class Defaults {
+
+        final LongAdder acquiredCount = new LongAdder();
+        final LongAdder avoidedCount = new LongAdder();
+        volatile Boolean autoCommit;
+        volatile Boolean readOnly;
+        volatile Integer transactionIsolation;
+
+        void init(final Connection connection) throws SQLException {
+            if (this.autoCommit == null) {
+                // Jede Connection liefert dieselben Standardwerte,
+                // ein gleichzeitiges Setzen ist also unschaedlich:
+                this.readOnly = connection.isReadOnly();
+                this.transactionIsolation = connection.getTransactionIsolation();
+                this.autoCommit = connection.getAutoCommit();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Statement das die Ausf&uuml;hrungszeiten in die {@link SqlStatistics}
+ * aufnimmt.
+ * <p>
+ * Gemessen werden {@code execute}, {@code executeQuery},
+ * {@code executeUpdate}, {@code executeLargeUpdate}, {@code executeBatch}
+ * und {@code executeLargeBatch}. Die gelieferten {@link ResultSet}s
+ * z&auml;hlen die gelesenen Zeilen.
+ * <p>
+ * Bei einem {@link java.sql.PreparedStatement} wird das Histogramm nur
+ * einmal bei der Erzeugung ermittelt; bei einem einfachen
+ * {@link Statement} bei jeder Ausf&uuml;hrung anhand des &uuml;bergebenen
+ * SQL-Statements.
+ */
+final class MeasuringStatementHandler implements InvocationHandler {
+
+    private final Connection connection;
+    private final Statement delegate;
+    private final SqlLatencyHistogram histogram;
+    private final SqlStatistics statistics;
+    private String batchSql;
+    private SqlLatencyHistogram currentHistogram;
+    private ResultSet currentResultSet;
+    private ResultSet currentResultSetProxy;
+
+    /**
+     * Erzeugt ein neues messendes Statement.
+     *
+     * @param statistics die {@link SqlStatistics}.
+     * @param delegate   das physische Statement.
+     * @param sql        das SQL-Statement eines
+     *                   {@link java.sql.PreparedStatement}s oder
+     *                   {@code null} bei einem einfachen {@link Statement}.
+     * @param connection die {@link Connection} die das Statement mit
+     *                   {@link Statement#getConnection()} liefern soll.
+     */
+    MeasuringStatementHandler(final SqlStatistics statistics,
+                              final Statement delegate,
+                              final String sql,
+                              final Connection connection) {
+        this.statistics = statistics;
+        this.delegate = delegate;
+        this.connection = connection;
+        this.histogram = (sql != null ? statistics.getHistogram(sql) : null);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "isWrapperFor":
+                final Class<?> iface1 = (Class<?>) args[0];
+                return iface1.isInstance(proxy) || this.delegate.isWrapperFor(iface1);
+            case "unwrap":
+                final Class<?> iface2 = (Class<?>) args[0];
+                return (iface2.isInstance(proxy) ? proxy : this.delegate.unwrap(iface2));
+            case "getConnection":
+                return this.connection;
+            case "addBatch":
+                if ((this.batchSql == null) && (args != null) && (args.length > 0)) {
+                    this.batchSql = (String) args[0];
+                }
+                return invokeDelegate(method, args);
+            case "clearBatch":
+                this.batchSql = null;
+                return invokeDelegate(method, args);
+            case "executeBatch":
+            case "executeLargeBatch":
+                final String sql = this.batchSql;
+                this.batchSql = null;
+                return invokeMeasured(proxy, (sql != null ? this.statistics.getHistogram(sql) : this.histogram), method, args);
+            case "execute":
+            case "executeQuery":
+            case "executeUpdate":
+            case "executeLargeUpdate":
+                final SqlLatencyHistogram executeHistogram = ((args != null) && (args.length > 0)
+                        ? this.statistics.getHistogram((String) args[0])
+                        : this.histogram);
+                return invokeMeasured(proxy, executeHistogram, method, args);
+            case "getResultSet":
+                return countingResultSet(proxy, (ResultSet) invokeDelegate(method, args));
+            case "toString":
+                return "MeasuringStatement{" + this.delegate + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return invokeDelegate(method, args);
+        }
+    }
+
+    private ResultSet countingResultSet(final Object proxy, final ResultSet resultSet) throws Exception {
+        if ((resultSet == null) || (this.currentHistogram == null)) {
+            return resultSet;
+        }
+        if (resultSet != this.currentResultSet) {
+            final CountingResultSetHandler handler = new CountingResultSetHandler(this.currentHistogram, resultSet, (Statement) proxy);
+            this.currentResultSet = resultSet;
+            this.currentResultSetProxy = JdbcProxies.newResultSetProxy(handler);
+        }
+        return this.currentResultSetProxy;
+    }
+
+    private Object invokeDelegate(final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(this.delegate, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getTargetException();
+        }
+    }
+
+    private Object invokeMeasured(final Object proxy,
+                                  final SqlLatencyHistogram histogram,
+                                  final Method method,
+                                  final Object[] args) throws Throwable {
+        if (histogram == null) {
+            return invokeDelegate(method, args);
+        }
+        this.currentHistogram = histogram;
+        final long startNanos = System.nanoTime();
+        final Object result;
+        try {
+            result = method.invoke(this.delegate, args);
+        } catch (InvocationTargetException ex) {
+            histogram.record(System.nanoTime() - startNanos, true);
+            throw ex.getTargetException();
+        }
+        histogram.record(System.nanoTime() - startNanos, false);
+        if (result instanceof ResultSet) {
+            return countingResultSet(proxy, (ResultSet) result);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,149 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Eine physische {@link Connection} im {@link ConnectionPool}.
+ * <p>
+ * Der Zustand ({@code IDLE}, {@code IN_USE} oder {@code REMOVED}) wird nur
+ * mit Compare-And-Set ge&auml;ndert.
+ * <p>
+ * Der {@link StatementCache} geh&ouml;rt zur physischen {@link Connection}
+ * und &uuml;berdauert daher alle Ausleihen; die logischen
+ * {@link Connection}s liefern ihn mit {@code unwrap(StatementCache.class)}.
+ */
+final class PooledConnection {
+
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+
+    private final boolean defaultAutoCommit;
+    private final boolean defaultReadOnly;
+    private final int defaultTransactionIsolation;
+    private final Connection physicalConnection;
+    private final ConnectionPool pool;
+    private final AtomicInteger state;
+    private final StatementCache statementCache;
+    private volatile long lastReleasedNanos;
+
+    /**
+     * Erzeugt eine neue (bereits belegte) {@link Connection} im Pool.
+     *
+     * @param pool               der {@link ConnectionPool}.
+     * @param physicalConnection die physische {@link Connection}.
+     * @param statementCacheSize die Gr&ouml;&szlig;e des {@link StatementCache}.
+     * @throws SQLException wenn die Standardwerte der {@link Connection}
+     *                      nicht ermittelt werden k&ouml;nnen.
+     */
+    PooledConnection(final ConnectionPool pool, final Connection physicalConnection, final int statementCacheSize) throws SQLException {
+        this.pool = pool;
+        this.physicalConnection = physicalConnection;
+        this.statementCache = new StatementCache(statementCacheSize);
+        this.defaultAutoCommit = physicalConnection.getAutoCommit();
+        this.defaultReadOnly = physicalConnection.isReadOnly();
+        this.defaultTransactionIsolation = physicalConnection.getTransactionIsolation();
+        this.state = new AtomicInteger(IN_USE);
+        this.lastReleasedNanos = System.nanoTime();
+    }
+
+    void closePhysical() {
+        this.statementCache.close();
+        try {
+            this.physicalConnection.close();
+        } catch (SQLException ex) {
+            // Eine Connection die sich nicht schliessen
+            // laesst wird verworfen:
+        }
+    }
+
+    StatementCache getStatementCache() {
+        return this.statementCache;
+    }
+
+    long getIdleNanos() {
+        return System.nanoTime() - this.lastReleasedNanos;
+    }
+
+    boolean isInUse() {
+        return this.state.get() == IN_USE;
+    }
+
+    boolean isValid(final int timeoutSeconds) {
+        try {
+            return this.physicalConnection.isValid(timeoutSeconds);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    boolean markRemoved() {
+        return this.state.getAndSet(REMOVED) != REMOVED;
+    }
+
+    /**
+     * Liefert eine neue logische {@link Connection} zu dieser physischen
+     * {@link Connection}. Deren {@code close()} gibt die physische
+     * {@link Connection} an den Pool zur&uuml;ck.
+     *
+     * @return die logische {@link Connection}.
+     * @throws SQLException wenn der Proxy nicht erzeugt werden kann.
+     */
+    Connection newProxy() throws SQLException {
+        return JdbcProxies.newConnectionProxy(new PooledConnectionHandler(this.pool, this, this.physicalConnection));
+    }
+
+    void release() {
+        // Noch offene Statements der letzten Ausleihe duerfen nicht
+        // mehr in den Cache zurueckkehren:
+        this.statementCache.nextGeneration();
+        this.lastReleasedNanos = System.nanoTime();
+        this.state.compareAndSet(IN_USE, IDLE);
+    }
+
+    /**
+     * Setzt die physische {@link Connection} auf ihre Standardwerte
+     * zur&uuml;ck. Eine offene Transaktion wird zur&uuml;ckgerollt.
+     *
+     * @return {@code false} wenn die {@link Connection} nicht
+     * zur&uuml;ckgesetzt werden kann und daher aus dem Pool entfernt
+     * werden muss.
+     */
+    boolean reset() {
+        try {
+            if (this.physicalConnection.isClosed()) {
+                return false;
+            }
+            if (!this.physicalConnection.getAutoCommit()) {
+                this.physicalConnection.rollback();
+            }
+            if (this.physicalConnection.getAutoCommit() != this.defaultAutoCommit) {
+                this.physicalConnection.setAutoCommit(this.defaultAutoCommit);
+            }
+            if (this.physicalConnection.isReadOnly() != this.defaultReadOnly) {
+                this.physicalConnection.setReadOnly(this.defaultReadOnly);
+            }
+            if (this.physicalConnection.getTransactionIsolation() != this.defaultTransactionIsolation) {
+                this.physicalConnection.setTransactionIsolation(this.defaultTransactionIsolation);
+            }
+            this.physicalConnection.clearWarnings();
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    boolean tryAcquire() {
+        return this.state.compareAndSet(IDLE, IN_USE);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledConnection{" +
+                "state=" + state +
+                ", physicalConnection=" + physicalConnection +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Logische {@link Connection} um eine physische {@link Connection} aus dem
+ * {@link ConnectionPool}.
+ * <p>
+ * Mit {@code close()} wird die physische {@link Connection} nicht
+ * geschlossen sondern an den {@link ConnectionPool} zur&uuml;ckgegeben.
+ * Mit {@code abort(Executor)} wird sie aus dem Pool entfernt.
+ * {@code unwrap(StatementCache.class)} liefert den {@link StatementCache}
+ * der physischen {@link Connection}.
+ */
+final class PooledConnectionHandler implements InvocationHandler {
+
+    private final Connection delegate;
+    private final PooledConnection entry;
+    private final ConnectionPool pool;
+    private boolean isClosed;
+
+    PooledConnectionHandler(final ConnectionPool pool,
+                            final PooledConnection entry,
+                            final Connection delegate) {
+        this.pool = pool;
+        this.entry = entry;
+        this.delegate = delegate;
+        this.isClosed = false;
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.isClosed) {
+            throw new SQLException("Connection is already closed");
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "isWrapperFor":
+                final Class<?> iface1 = (Class<?>) args[0];
+                return iface1.isInstance(proxy) || (iface1 == StatementCache.class) || this.delegate.isWrapperFor(iface1);
+            case "unwrap":
+                final Class<?> iface2 = (Class<?>) args[0];
+                if (iface2 == StatementCache.class) {
+                    checkOpen();
+                    return this.entry.getStatementCache();
+                }
+                return (iface2.isInstance(proxy) ? proxy : this.delegate.unwrap(iface2));
+            case "close":
+                if (!this.isClosed) {
+                    this.isClosed = true;
+                    this.pool.release(this.entry);
+                }
+                return null;
+            case "abort":
+                if (!this.isClosed) {
+                    this.isClosed = true;
+                    this.pool.remove(this.entry);
+                }
+                return null;
+            case "isClosed":
+                return this.isClosed;
+            case "isValid":
+                return !this.isClosed && this.delegate.isValid((Integer) args[0]);
+            case "toString":
+                return "PooledConnection{" + this.delegate + "}";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                checkOpen();
+                try {
+                    return method.invoke(this.delegate, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getTargetException();
+                }
+        }
+    }
+
+}
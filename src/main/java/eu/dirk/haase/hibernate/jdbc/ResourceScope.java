@@ -0,0 +1,202 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import eu.dirk.haase.concurrent.ContextPropagator;
+import eu.dirk.haase.concurrent.ContextSnapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Ein strukturierter G&uuml;ltigkeitsbereich f&uuml;r die Ressourcen einer
+ * {@link ThreadLocalResourceScopedRegistry}.
+ * <p>
+ * Ein Scope wird mit {@link #run(Runnable)} oder {@link #call(Callable)}
+ * ge&ouml;ffnet, ist nur w&auml;hrend der Ausf&uuml;hrung der &uuml;bergebenen
+ * Operation g&uuml;ltig und gibt beim Verlassen alle Ressourcen frei, die
+ * in ihm gespeichert wurden. Die Ressourcen h&auml;ngen also am Ablauf
+ * (zum Beispiel an einer Anfrage) und nicht am Thread, der ihn
+ * ausf&uuml;hrt - bei virtuellen Threads entsteht daf&uuml;r weder ein
+ * Eintrag in der {@code ThreadLocalMap} noch eine Map pro Thread.
+ * <p>
+ * Ab Java 21 wird der Scope mit einem {@code java.lang.ScopedValue}
+ * gebunden (siehe {@code META-INF/versions/21} im Multi-Release-JAR) und
+ * damit auch an die Subtasks eines {@code StructuredTaskScope}
+ * vererbt; vorher mit einem einzigen {@link ThreadLocal}, das von allen
+ * Registries gemeinsam genutzt wird.
+ * <p>
+ * Scopes k&ouml;nnen verschachtelt werden: der innere Scope verdeckt den
+ * &auml;u&szlig;eren bis zu seinem Ende.
+ * <p>
+ * Die Container der Registries liegen in einem kleinen Array im Scope
+ * selbst (abwechselnd Key und Container). Gelesen wird es ohne Sperre;
+ * nur das Hinzuf&uuml;gen und Entfernen eines Containers kopiert das
+ * Array unter der Sperre des Scopes.
+ * <p>
+ * Ein {@link ContextSnapshot} &uuml;bertr&auml;gt den aktuellen Scope in
+ * den Thread, der eine Aufgabe ausf&uuml;hrt. Die Aufgaben sollten
+ * beendet sein, bevor der Scope endet.
+ */
+public final class ResourceScope {
+
+    private static final Object[] NO_CONTAINERS = new Object[0];
+    private static final ContextPropagator<ResourceScope> PROPAGATOR = new ScopePropagator();
+
+    static {
+        ContextSnapshot.register(PROPAGATOR);
+    }
+
+    private volatile Object[] containers;
+
+    private ResourceScope() {
+        this.containers = NO_CONTAINERS;
+    }
+
+    /**
+     * F&uuml;hrt die Operation in einem neuen Scope aus und liefert ihr
+     * Ergebnis.
+     *
+     * @param operation die Operation.
+     * @param <T>       der generische Typ des Ergebnisses.
+     * @return das Ergebnis der Operation.
+     * @throws Exception die Exception der Operation.
+     */
+    public static <T> T call(final Callable<? extends T> operation) throws Exception {
+        final Object[] result = new Object[1];
+        final Exception[] exception = new Exception[1];
+        run(() -> {
+            try {
+                result[0] = operation.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                exception[0] = ex;
+            }
+        });
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        @SuppressWarnings("unchecked") final T value = (T) result[0];
+        return value;
+    }
+
+    /**
+     * Liefert den Scope der aktuellen Operation.
+     *
+     * @return der aktuelle Scope oder {@code null} wenn keiner
+     * ge&ouml;ffnet ist.
+     */
+    static ResourceScope current() {
+        return ResourceScopeBinding.current();
+    }
+
+    /**
+     * Liefert {@code true} wenn die aktuelle Operation in einem Scope
+     * ausgef&uuml;hrt wird.
+     *
+     * @return {@code true} wenn ein Scope ge&ouml;ffnet ist.
+     */
+    public static boolean isOpen() {
+        return current() != null;
+    }
+
+    /**
+     * F&uuml;hrt die Operation in einem neuen Scope aus.
+     *
+     * @param operation die Operation.
+     */
+    public static void run(final Runnable operation) {
+        final ResourceScope scope = new ResourceScope();
+        try {
+            ResourceScopeBinding.runWhere(scope, operation);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private void close() {
+        final Object[] oldContainers;
+        synchronized (this) {
+            oldContainers = this.containers;
+            this.containers = NO_CONTAINERS;
+        }
+        for (int i = 0; oldContainers.length > i; i += 2) {
+            ((ThreadLocalContainers.ScopeKey) oldContainers[i]).removed();
+        }
+    }
+
+    /**
+     * Liefert den Container der unter dem Key gespeichert ist.
+     *
+     * @param key der Key einer Registry.
+     * @return der Container oder {@code null}.
+     */
+    Object getContainer(final ThreadLocalContainers.ScopeKey key) {
+        final Object[] currentContainers = this.containers;
+        for (int i = 0; currentContainers.length > i; i += 2) {
+            if (currentContainers[i] == key) {
+                return currentContainers[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Speichert den Container unter dem Key, wenn noch keiner
+     * gespeichert ist.
+     *
+     * @param key       der Key einer Registry.
+     * @param container der neue Container.
+     * @return der bereits gespeicherte Container oder {@code null}.
+     */
+    synchronized Object putContainerIfAbsent(final ThreadLocalContainers.ScopeKey key, final Object container) {
+        final Object existing = getContainer(key);
+        if (existing != null) {
+            return existing;
+        }
+        final Object[] oldContainers = this.containers;
+        final Object[] newContainers = Arrays.copyOf(oldContainers, oldContainers.length + 2);
+        newContainers[oldContainers.length] = key;
+        newContainers[oldContainers.length + 1] = container;
+        this.containers = newContainers;
+        key.added();
+        return null;
+    }
+
+    /**
+     * Entfernt den Container der unter dem Key gespeichert ist.
+     *
+     * @param key der Key einer Registry.
+     */
+    synchronized void removeContainer(final ThreadLocalContainers.ScopeKey key) {
+        final Object[] oldContainers = this.containers;
+        for (int i = 0; oldContainers.length > i; i += 2) {
+            if (oldContainers[i] == key) {
+                final Object[] newContainers = new Object[oldContainers.length - 2];
+                System.arraycopy(oldContainers, 0, newContainers, 0, i);
+                System.arraycopy(oldContainers, i + 2, newContainers, i, oldContainers.length - i - 2);
+                this.containers = newContainers;
+                key.removed();
+                return;
+            }
+        }
+    }
+
+    private static final class ScopePropagator implements ContextPropagator<ResourceScope> {
+
+        @Override
+        public ResourceScope capture() {
+            return current();
+        }
+
+        @Override
+        public void runWith(final ResourceScope scope, final Runnable operation) {
+            if (scope == null) {
+                operation.run();
+            } else {
+                ResourceScopeBinding.runWhere(scope, operation);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+/**
+ * Bindet den aktuellen {@link ResourceScope} an die laufende Operation.
+ * <p>
+ * Bis Java 20 mit einem einzigen {@link ThreadLocal} f&uuml;r alle
+ * Registries. Ab Java 21 ersetzt das Multi-Release-JAR diese Klasse
+ * durch eine Variante mit {@code java.lang.ScopedValue}.
+ */
+final class ResourceScopeBinding {
+
+    private static final ThreadLocal<ResourceScope> CURRENT_SCOPE = new ThreadLocal<>();
+
+    private ResourceScopeBinding() {
+    }
+
+    static ResourceScope current() {
+        return CURRENT_SCOPE.get();
+    }
+
+    static void runWhere(final ResourceScope scope, final Runnable operation) {
+        final ResourceScope previous = CURRENT_SCOPE.get();
+        CURRENT_SCOPE.set(scope);
+        try {
+            operation.run();
+        } finally {
+            if (previous == null) {
+                CURRENT_SCOPE.remove();
+            } else {
+                CURRENT_SCOPE.set(previous);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramm der Ausf&uuml;hrungszeiten eines (normalisierten)
+ * SQL-Statements.
+ * <p>
+ * Die Ausf&uuml;hrungszeiten werden in logarithmische Buckets
+ * (Zweierpotenzen von Nanosekunden) einsortiert: der Bucket {@code i}
+ * enth&auml;lt alle Zeiten {@code t} mit {@code 2^(i-1) <= t < 2^i}.
+ * <p>
+ * Alle Methoden sind thread-sicher und kommen ohne Sperren aus.
+ */
+public final class SqlLatencyHistogram {
+
+    /**
+     * Die Anzahl der Buckets (ein Bucket f&uuml;r {@code 0} und je ein
+     * Bucket pro Bit eines {@code long}).
+     */
+    public static final int BUCKET_COUNT = 65;
+
+    private final AtomicLongArray bucketCounts;
+    private final LongAdder errorCount;
+    private final AtomicLong maxNanos;
+    private final LongAdder resultSetCount;
+    private final LongAdder rowCount;
+    private final String sql;
+    private final LongAdder totalNanos;
+
+    SqlLatencyHistogram(final String sql) {
+        this.sql = sql;
+        this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.errorCount = new LongAdder();
+        this.maxNanos = new AtomicLong();
+        this.resultSetCount = new LongAdder();
+        this.rowCount = new LongAdder();
+        this.totalNanos = new LongAdder();
+    }
+
+    /**
+     * Liefert den Index des Buckets f&uuml;r die angegebene Zeit.
+     *
+     * @param nanos die Zeit in Nanosekunden.
+     * @return der Index des Buckets.
+     */
+    static int bucketIndex(final long nanos) {
+        return (nanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Liefert die obere (exklusive) Grenze des Buckets in Nanosekunden.
+     *
+     * @param bucketIndex der Index des Buckets.
+     * @return die obere Grenze des Buckets.
+     */
+    static long bucketUpperBound(final int bucketIndex) {
+        return (bucketIndex >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << bucketIndex);
+    }
+
+    /**
+     * Liefert das normalisierte SQL-Statement dieses Histogramms.
+     *
+     * @return das normalisierte SQL-Statement.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Nimmt eine Ausf&uuml;hrung in das Histogramm auf.
+     *
+     * @param nanos     die Ausf&uuml;hrungszeit in Nanosekunden.
+     * @param isFailure {@code true} wenn die Ausf&uuml;hrung mit einer
+     *                  Exception beendet wurde.
+     */
+    void record(final long nanos, final boolean isFailure) {
+        this.bucketCounts.incrementAndGet(bucketIndex(nanos));
+        this.totalNanos.add(nanos);
+        if (isFailure) {
+            this.errorCount.increment();
+        }
+        long currMax = this.maxNanos.get();
+        while ((nanos > currMax) && !this.maxNanos.compareAndSet(currMax, nanos)) {
+            currMax = this.maxNanos.get();
+        }
+    }
+
+    /**
+     * Nimmt die Anzahl der gelesenen Zeilen eines {@link java.sql.ResultSet}s
+     * auf.
+     *
+     * @param rows die Anzahl der gelesenen Zeilen.
+     */
+    void recordRows(final long rows) {
+        this.resultSetCount.increment();
+        this.rowCount.add(rows);
+    }
+
+    /**
+     * Setzt alle Z&auml;hler auf {@code 0} zur&uuml;ck.
+     * <p>
+     * Das Zur&uuml;cksetzen ist nicht atomar: parallel aufgenommene
+     * Ausf&uuml;hrungen k&ouml;nnen teilweise erhalten bleiben.
+     */
+    void reset() {
+        for (int i = 0; BUCKET_COUNT > i; ++i) {
+            this.bucketCounts.set(i, 0);
+        }
+        this.errorCount.reset();
+        this.maxNanos.set(0);
+        this.resultSetCount.reset();
+        this.rowCount.reset();
+        this.totalNanos.reset();
+    }
+
+    /**
+     * Liefert eine unver&auml;nderliche Momentaufnahme dieses Histogramms.
+     *
+     * @return die Momentaufnahme.
+     */
+    public SqlLatencySnapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; BUCKET_COUNT > i; ++i) {
+            counts[i] = this.bucketCounts.get(i);
+        }
+        return new SqlLatencySnapshot(this.sql,
+                counts,
+                this.totalNanos.sum(),
+                this.maxNanos.get(),
+                this.errorCount.sum(),
+                this.resultSetCount.sum(),
+                this.rowCount.sum());
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
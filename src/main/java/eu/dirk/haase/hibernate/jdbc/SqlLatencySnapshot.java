@@ -0,0 +1,175 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unver&auml;nderliche Momentaufnahme eines {@link SqlLatencyHistogram}s.
+ * <p>
+ * Die Perzentile werden aus den logarithmischen Buckets ermittelt und
+ * liefern daher die obere Grenze des Buckets, in dem das Perzentil liegt
+ * (also h&ouml;chstens das Doppelte des tats&auml;chlichen Werts).
+ */
+public final class SqlLatencySnapshot {
+
+    private final long[] bucketCounts;
+    private final long errorCount;
+    private final long executionCount;
+    private final long maxNanos;
+    private final long resultSetCount;
+    private final long rowCount;
+    private final String sql;
+    private final long totalNanos;
+
+    SqlLatencySnapshot(final String sql,
+                       final long[] bucketCounts,
+                       final long totalNanos,
+                       final long maxNanos,
+                       final long errorCount,
+                       final long resultSetCount,
+                       final long rowCount) {
+        this.sql = sql;
+        this.bucketCounts = bucketCounts;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.errorCount = errorCount;
+        this.resultSetCount = resultSetCount;
+        this.rowCount = rowCount;
+        long count = 0;
+        for (final long bucketCount : bucketCounts) {
+            count += bucketCount;
+        }
+        this.executionCount = count;
+    }
+
+    /**
+     * Liefert die Anzahl der Ausf&uuml;hrungen pro Bucket.
+     *
+     * @return die Anzahl der Ausf&uuml;hrungen pro Bucket.
+     * @see SqlLatencyHistogram#BUCKET_COUNT
+     */
+    public long[] getBucketCounts() {
+        return bucketCounts.clone();
+    }
+
+    /**
+     * Liefert die Anzahl der Ausf&uuml;hrungen die mit einer Exception
+     * beendet wurden.
+     *
+     * @return die Anzahl der fehlgeschlagenen Ausf&uuml;hrungen.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Ausf&uuml;hrungen.
+     *
+     * @return die Anzahl der Ausf&uuml;hrungen.
+     */
+    public long getExecutionCount() {
+        return executionCount;
+    }
+
+    /**
+     * Liefert die l&auml;ngste Ausf&uuml;hrungszeit in Nanosekunden.
+     *
+     * @return die l&auml;ngste Ausf&uuml;hrungszeit.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Liefert die durchschnittliche Ausf&uuml;hrungszeit in Nanosekunden.
+     *
+     * @return die durchschnittliche Ausf&uuml;hrungszeit.
+     */
+    public long getMeanNanos() {
+        return (executionCount == 0 ? 0 : totalNanos / executionCount);
+    }
+
+    public long getP50Nanos() {
+        return getPercentileNanos(50.0);
+    }
+
+    public long getP90Nanos() {
+        return getPercentileNanos(90.0);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(99.0);
+    }
+
+    /**
+     * Liefert die obere Grenze des Buckets in dem das angegebene Perzentil
+     * liegt.
+     *
+     * @param percentile das Perzentil (zwischen {@code 0} und {@code 100}).
+     * @return die Ausf&uuml;hrungszeit des Perzentils in Nanosekunden.
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (executionCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(executionCount * percentile / 100.0));
+        long count = 0;
+        for (int i = 0; bucketCounts.length > i; ++i) {
+            count += bucketCounts[i];
+            if (count >= rank) {
+                return Math.min(SqlLatencyHistogram.bucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Liefert die Anzahl der {@link java.sql.ResultSet}s deren Zeilen
+     * gez&auml;hlt wurden.
+     *
+     * @return die Anzahl der {@link java.sql.ResultSet}s.
+     */
+    public long getResultSetCount() {
+        return resultSetCount;
+    }
+
+    /**
+     * Liefert die Anzahl der gelesenen Zeilen &uuml;ber alle
+     * {@link java.sql.ResultSet}s.
+     *
+     * @return die Anzahl der gelesenen Zeilen.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Liefert das normalisierte SQL-Statement.
+     *
+     * @return das normalisierte SQL-Statement.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Liefert die Summe aller Ausf&uuml;hrungszeiten in Nanosekunden.
+     *
+     * @return die Summe aller Ausf&uuml;hrungszeiten.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlLatencySnapshot{" +
+                "sql='" + sql + '\'' +
+                ", executionCount=" + executionCount +
+                ", errorCount=" + errorCount +
+                ", meanMicros=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) +
+                ", p99Micros=" + TimeUnit.NANOSECONDS.toMicros(getP99Nanos()) +
+                ", maxMicros=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) +
+                ", rowCount=" + rowCount +
+                '}';
+    }
+}
@@ -0,0 +1,230 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sammelt die Ausf&uuml;hrungszeiten der Statements aller
+ * {@link HibernateConnection}s die mit dieser Instanz verbunden sind.
+ * <p>
+ * Pro normalisiertem SQL-Statement (siehe {@link #normalize(String)}) wird
+ * ein {@link SqlLatencyHistogram} gef&uuml;hrt. Die Anzahl der Histogramme
+ * ist beschr&auml;nkt: alle weiteren SQL-Statements werden im Histogramm
+ * {@link #OVERFLOW_SQL} zusammengefasst.
+ * <p>
+ * Alle Methoden sind thread-sicher. Die Statistik kann mit
+ * {@link #registerMBean(MBeanServer, String)} per JMX ver&ouml;ffentlicht
+ * werden.
+ */
+public final class SqlStatistics implements SqlStatisticsMXBean {
+
+    /**
+     * Die maximale Anzahl der Histogramme.
+     */
+    public static final int MAX_SQL_COUNT = 1024;
+
+    /**
+     * Das SQL-Statement des Histogramms in dem alle SQL-Statements
+     * zusammengefasst werden, f&uuml;r die kein eigenes Histogramm mehr
+     * angelegt werden kann.
+     */
+    public static final String OVERFLOW_SQL = "<other>";
+
+    private static final int MAX_RAW_SQL_COUNT = 4 * MAX_SQL_COUNT;
+
+    private final ConcurrentMap<String, SqlLatencyHistogram> histogramMap;
+    private final SqlLatencyHistogram overflowHistogram;
+    private final ConcurrentMap<String, SqlLatencyHistogram> rawSqlMap;
+
+    public SqlStatistics() {
+        this.histogramMap = new ConcurrentHashMap<>();
+        this.rawSqlMap = new ConcurrentHashMap<>();
+        this.overflowHistogram = new SqlLatencyHistogram(OVERFLOW_SQL);
+    }
+
+    /**
+     * Normalisiert ein SQL-Statement, damit Statements die sich nur in
+     * ihren Literalen unterscheiden im selben Histogramm erfasst werden.
+     * <p>
+     * Leerraum wird zu einem einzelnen Leerzeichen zusammengefasst,
+     * Zeichenketten- und Zahlen-Literale werden durch {@code ?} ersetzt und
+     * Listen von Parametern (wie in {@code IN (?, ?, ?)}) werden zu einem
+     * einzelnen {@code ?} zusammengefasst.
+     *
+     * @param sql das SQL-Statement.
+     * @return das normalisierte SQL-Statement.
+     */
+    public static String normalize(final String sql) {
+        final int length = sql.length();
+        final StringBuilder builder = new StringBuilder(length);
+        int i = 0;
+        while (length > i) {
+            final char ch = sql.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                while ((length > i) && Character.isWhitespace(sql.charAt(i))) {
+                    ++i;
+                }
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+            } else if (ch == '\'') {
+                ++i;
+                while (length > i) {
+                    if (sql.charAt(i++) == '\'') {
+                        if ((length > i) && (sql.charAt(i) == '\'')) {
+                            ++i;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+                appendParameter(builder);
+            } else if (Character.isDigit(ch) && !isIdentifierPart(builder)) {
+                while ((length > i) && (Character.isLetterOrDigit(sql.charAt(i)) || (sql.charAt(i) == '.'))) {
+                    ++i;
+                }
+                appendParameter(builder);
+            } else if (ch == '?') {
+                ++i;
+                appendParameter(builder);
+            } else {
+                builder.append(ch);
+                ++i;
+            }
+        }
+        final int lastIndex = builder.length() - 1;
+        if ((lastIndex >= 0) && (builder.charAt(lastIndex) == ' ')) {
+            builder.setLength(lastIndex);
+        }
+        return builder.toString();
+    }
+
+    private static void appendParameter(final StringBuilder builder) {
+        // Aus "?, ?" wird "?":
+        int index = builder.length() - 1;
+        if ((index >= 0) && (builder.charAt(index) == ' ')) {
+            --index;
+        }
+        if ((index >= 0) && (builder.charAt(index) == ',')) {
+            int prevIndex = index - 1;
+            if ((prevIndex >= 0) && (builder.charAt(prevIndex) == ' ')) {
+                --prevIndex;
+            }
+            if ((prevIndex >= 0) && (builder.charAt(prevIndex) == '?')) {
+                builder.setLength(prevIndex + 1);
+                return;
+            }
+        }
+        builder.append('?');
+    }
+
+    private static boolean isIdentifierPart(final StringBuilder builder) {
+        final int length = builder.length();
+        if (length == 0) {
+            return false;
+        }
+        final char ch = builder.charAt(length - 1);
+        return Character.isLetterOrDigit(ch) || (ch == '_') || (ch == '$');
+    }
+
+    @Override
+    public long getExecutionCount() {
+        long count = 0;
+        for (final SqlLatencySnapshot snapshot : getSnapshots()) {
+            count += snapshot.getExecutionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Liefert das Histogramm zum angegebenen (nicht normalisierten)
+     * SQL-Statement und legt es bei Bedarf an.
+     *
+     * @param sql das SQL-Statement wie es an die {@link java.sql.Connection}
+     *            &uuml;bergeben wurde.
+     * @return das Histogramm des normalisierten SQL-Statements.
+     */
+    public SqlLatencyHistogram getHistogram(final String sql) {
+        // Die Normalisierung wird fuer jedes SQL-Statement
+        // nur einmal durchgefuehrt:
+        final SqlLatencyHistogram histogram = this.rawSqlMap.get(sql);
+        if (histogram != null) {
+            return histogram;
+        }
+        final SqlLatencyHistogram newHistogram = getNormalizedHistogram(normalize(sql));
+        if (MAX_RAW_SQL_COUNT > this.rawSqlMap.size()) {
+            this.rawSqlMap.putIfAbsent(sql, newHistogram);
+        }
+        return newHistogram;
+    }
+
+    private SqlLatencyHistogram getNormalizedHistogram(final String normalizedSql) {
+        final SqlLatencyHistogram histogram = this.histogramMap.get(normalizedSql);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (this.histogramMap.size() >= MAX_SQL_COUNT) {
+            return this.overflowHistogram;
+        }
+        return this.histogramMap.computeIfAbsent(normalizedSql, SqlLatencyHistogram::new);
+    }
+
+    @Override
+    public int getSqlCount() {
+        return this.histogramMap.size();
+    }
+
+    @Override
+    public List<SqlLatencySnapshot> getSnapshots() {
+        final List<SqlLatencySnapshot> snapshots = new ArrayList<>(this.histogramMap.size() + 1);
+        for (final SqlLatencyHistogram histogram : this.histogramMap.values()) {
+            snapshots.add(histogram.snapshot());
+        }
+        final SqlLatencySnapshot overflowSnapshot = this.overflowHistogram.snapshot();
+        if (overflowSnapshot.getExecutionCount() > 0) {
+            snapshots.add(overflowSnapshot);
+        }
+        snapshots.sort(Comparator.comparingLong(SqlLatencySnapshot::getTotalNanos).reversed());
+        return snapshots;
+    }
+
+    /**
+     * Ver&ouml;ffentlicht diese Statistik als MXBean.
+     *
+     * @param mBeanServer der {@link MBeanServer}.
+     * @param name        der Name der Statistik (zum Beispiel der Name
+     *                    der {@link javax.sql.DataSource}).
+     * @return der {@link ObjectName} unter dem die Statistik
+     * ver&ouml;ffentlicht wurde.
+     * @throws JMException wenn die Statistik nicht ver&ouml;ffentlicht
+     *                     werden kann.
+     */
+    public ObjectName registerMBean(final MBeanServer mBeanServer, final String name) throws JMException {
+        final ObjectName objectName = new ObjectName(getClass().getPackage().getName()
+                + ":type=" + getClass().getSimpleName()
+                + ",name=" + ObjectName.quote(name));
+        mBeanServer.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public void reset() {
+        for (final SqlLatencyHistogram histogram : this.histogramMap.values()) {
+            histogram.reset();
+        }
+        this.overflowHistogram.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStatistics{" +
+                "sqlCount=" + getSqlCount() +
+                '}';
+    }
+}
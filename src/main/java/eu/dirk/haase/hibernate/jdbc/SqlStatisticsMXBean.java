@@ -0,0 +1,38 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.util.List;
+
+/**
+ * JMX-Schnittstelle der {@link SqlStatistics}.
+ */
+public interface SqlStatisticsMXBean {
+
+    /**
+     * Liefert die Anzahl aller erfassten Ausf&uuml;hrungen.
+     *
+     * @return die Anzahl aller erfassten Ausf&uuml;hrungen.
+     */
+    long getExecutionCount();
+
+    /**
+     * Liefert die Anzahl der unterschiedlichen (normalisierten)
+     * SQL-Statements.
+     *
+     * @return die Anzahl der unterschiedlichen SQL-Statements.
+     */
+    int getSqlCount();
+
+    /**
+     * Liefert die Momentaufnahmen aller Histogramme, absteigend sortiert
+     * nach der Summe der Ausf&uuml;hrungszeiten.
+     *
+     * @return die Momentaufnahmen aller Histogramme.
+     */
+    List<SqlLatencySnapshot> getSnapshots();
+
+    /**
+     * Setzt alle Histogramme zur&uuml;ck.
+     */
+    void reset();
+
+}
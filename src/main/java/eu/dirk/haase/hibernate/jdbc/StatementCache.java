@@ -0,0 +1,318 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache f&uuml;r {@link PreparedStatement}s und {@link CallableStatement}s
+ * einer einzelnen physischen {@link Connection}.
+ * <p>
+ * Eine {@link Connection} aus dem {@link ConnectionPool} beh&auml;lt ihren
+ * Cache &uuml;ber alle Ausleihen hinweg. Logische Statements einer
+ * fr&uuml;heren Ausleihe (siehe {@link #nextGeneration()}) kehren nicht
+ * mehr in den Cache zur&uuml;ck.
+ * <p>
+ * Im Cache werden nur die gerade nicht benutzten (physischen) Statements
+ * gehalten. Ausgegeben werden stets logische Statements, deren
+ * {@code close()} das physische Statement wieder in den Cache
+ * zur&uuml;ckgibt, anstatt es zu schlie&szlig;en.
+ * <p>
+ * Der Cache ist beschr&auml;nkt: wird die maximale Gr&ouml;&szlig;e
+ * &uuml;berschritten, dann wird das am l&auml;ngsten nicht mehr benutzte
+ * Statement geschlossen und aus dem Cache entfernt (LRU). Ein Fehler
+ * beim Schlie&szlig;en wird an den Aufrufer weitergegeben.
+ * <p>
+ * Genauso wie die {@link Connection} selbst ist dieser Cache nicht
+ * thread-sicher.
+ */
+public final class StatementCache {
+
+    private final Map<StatementKey, PreparedStatement> idleStatementMap;
+    private final int maxSize;
+    private long evictionCount;
+    private int generation;
+    private long hitCount;
+    private boolean isClosed;
+    private long missCount;
+
+    StatementCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.isClosed = false;
+        this.idleStatementMap = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    static void closeQuietly(final PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            // Ein Statement das sich nicht schliessen
+            // laesst wird verworfen:
+        }
+    }
+
+    /**
+     * Schlie&szlig;t den Cache und alle im Cache gehaltenen Statements.
+     * <p>
+     * Logische Statements die danach geschlossen werden, schlie&szlig;en auch
+     * ihr physisches Statement.
+     */
+    void close() {
+        this.isClosed = true;
+        clear();
+    }
+
+    /**
+     * Beginnt eine neue Generation, zum Beispiel bei der R&uuml;ckgabe
+     * der {@link Connection} an den {@link ConnectionPool}. Logische
+     * Statements die vorher ausgegeben und noch nicht geschlossen wurden,
+     * schlie&szlig;en ab jetzt ihr physisches Statement.
+     */
+    void nextGeneration() {
+        ++this.generation;
+    }
+
+    /**
+     * Schlie&szlig;t alle im Cache gehaltenen Statements und leert den Cache.
+     */
+    void clear() {
+        final Iterator<PreparedStatement> iterator = this.idleStatementMap.values().iterator();
+        while (iterator.hasNext()) {
+            closeQuietly(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der Statements die aus dem Cache entfernt wurden,
+     * weil die maximale Gr&ouml;&szlig;e &uuml;berschritten war.
+     *
+     * @return die Anzahl der verdr&auml;ngten Statements.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Liefert die Anzahl der Statements die aus dem Cache geliefert
+     * werden konnten.
+     *
+     * @return die Anzahl der Cache-Treffer.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Liefert die maximale Anzahl der Statements in diesem Cache.
+     *
+     * @return die maximale Anzahl der Statements in diesem Cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Liefert die Anzahl der Statements die nicht aus dem Cache
+     * geliefert werden konnten und daher neu erzeugt wurden.
+     *
+     * @return die Anzahl der Cache-Fehlgriffe.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    boolean isEnabled() {
+        return (this.maxSize > 0) && !this.isClosed;
+    }
+
+    /**
+     * Liefert ein logisches Statement zum angegebenen Key.
+     * <p>
+     * Ist ein passendes physisches Statement im Cache vorhanden wird dieses
+     * verwendet, andernfalls wird mit der {@code statementFactory} ein neues
+     * physisches Statement erzeugt.
+     *
+     * @param key              der Key des Statements.
+     * @param apiInterface     das Interface des logischen Statements.
+     * @param connection       die Connection die das logische Statement
+     *                         mit {@link PreparedStatement#getConnection()}
+     *                         liefern soll.
+     * @param statementFactory erzeugt ein neues physisches Statement.
+     * @param <T>              der generische Typ des Statements.
+     * @return das logische Statement.
+     * @throws SQLException wenn kein physisches Statement erzeugt werden kann.
+     */
+    <T extends PreparedStatement> T prepare(final StatementKey key,
+                                            final Class<T> apiInterface,
+                                            final Connection connection,
+                                            final StatementFactory<T> statementFactory) throws SQLException {
+        if (!isEnabled()) {
+            return statementFactory.create();
+        }
+        final PreparedStatement idleStatement = this.idleStatementMap.remove(key);
+        final PreparedStatement physicalStatement;
+        if (idleStatement != null) {
+            ++hitCount;
+            physicalStatement = idleStatement;
+        } else {
+            ++missCount;
+            physicalStatement = statementFactory.create();
+        }
+        final CachedStatementHandler handler = new CachedStatementHandler(this, key, physicalStatement, connection, this.generation);
+        return JdbcProxies.newProxy(apiInterface, handler);
+    }
+
+    /**
+     * Gibt ein physisches Statement in den Cache zur&uuml;ck.
+     * <p>
+     * Ist der Cache bereits geschlossen oder ist zu dem Key schon ein
+     * Statement im Cache vorhanden, dann wird das Statement geschlossen.
+     * Wird die maximale Gr&ouml;&szlig;e &uuml;berschritten, dann wird
+     * das am l&auml;ngsten nicht mehr benutzte Statement geschlossen.
+     *
+     * @param key               der Key des Statements.
+     * @param physicalStatement das physische Statement.
+     * @param generation        die Generation in der das logische
+     *                          Statement ausgegeben wurde.
+     * @throws SQLException wenn das physische Statement nicht geschlossen
+     *                      werden kann.
+     */
+    void recycle(final StatementKey key, final PreparedStatement physicalStatement, final int generation) throws SQLException {
+        if (!isEnabled() || (generation != this.generation) || this.idleStatementMap.containsKey(key)) {
+            physicalStatement.close();
+        } else {
+            this.idleStatementMap.put(key, physicalStatement);
+            if (size() > this.maxSize) {
+                evictEldest();
+            }
+        }
+    }
+
+    private void evictEldest() throws SQLException {
+        final Iterator<PreparedStatement> iterator = this.idleStatementMap.values().iterator();
+        final PreparedStatement eldestStatement = iterator.next();
+        iterator.remove();
+        ++evictionCount;
+        eldestStatement.close();
+    }
+
+    /**
+     * Liefert die Anzahl der Statements die aktuell im Cache gehalten
+     * werden.
+     *
+     * @return die Anzahl der Statements im Cache.
+     */
+    public int size() {
+        return this.idleStatementMap.size();
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache{" +
+                "size=" + size() +
+                ", maxSize=" + maxSize +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+
+    /**
+     * Erzeugt ein neues physisches Statement.
+     *
+     * @param <T> der generische Typ des Statements.
+     */
+    interface StatementFactory<T extends PreparedStatement> {
+        T create() throws SQLException;
+    }
+
+    /**
+     * Key unter dem ein Statement im Cache abgelegt wird.
+     * <p>
+     * Neben dem SQL-Text geh&ouml;ren auch alle Parameter dazu, die bei der
+     * Erzeugung des Statements angegeben werden k&ouml;nnen.
+     */
+    static final class StatementKey {
+
+        static final int UNSPECIFIED = -1;
+
+        final int autoGeneratedKeys;
+        final int hashCode;
+        final boolean isCallable;
+        final int resultSetConcurrency;
+        final int resultSetHoldability;
+        final int resultSetType;
+        final String sql;
+
+        StatementKey(final String sql,
+                     final boolean isCallable,
+                     final int resultSetType,
+                     final int resultSetConcurrency,
+                     final int resultSetHoldability,
+                     final int autoGeneratedKeys) {
+            this.sql = sql;
+            this.isCallable = isCallable;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            this.resultSetHoldability = resultSetHoldability;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.hashCode = computeHashCode();
+        }
+
+        static StatementKey callable(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) {
+            return new StatementKey(sql, true, resultSetType, resultSetConcurrency, resultSetHoldability, UNSPECIFIED);
+        }
+
+        static StatementKey prepared(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) {
+            return new StatementKey(sql, false, resultSetType, resultSetConcurrency, resultSetHoldability, UNSPECIFIED);
+        }
+
+        static StatementKey prepared(final String sql, final int autoGeneratedKeys) {
+            return new StatementKey(sql, false, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, autoGeneratedKeys);
+        }
+
+        private int computeHashCode() {
+            int result = sql.hashCode();
+            result = 31 * result + (isCallable ? 1 : 0);
+            result = 31 * result + resultSetType;
+            result = 31 * result + resultSetConcurrency;
+            result = 31 * result + resultSetHoldability;
+            result = 31 * result + autoGeneratedKeys;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            StatementKey that = (StatementKey) o;
+
+            return hashCode == that.hashCode
+                    && isCallable == that.isCallable
+                    && resultSetType == that.resultSetType
+                    && resultSetConcurrency == that.resultSetConcurrency
+                    && resultSetHoldability == that.resultSetHoldability
+                    && autoGeneratedKeys == that.autoGeneratedKeys
+                    && sql.equals(that.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return "StatementKey{" +
+                    "sql='" + sql + '\'' +
+                    ", isCallable=" + isCallable +
+                    '}';
+        }
+    }
+}
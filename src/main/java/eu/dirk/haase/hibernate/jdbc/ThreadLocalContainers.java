@@ -0,0 +1,337 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import eu.dirk.haase.concurrent.ContextPropagator;
+import eu.dirk.haase.concurrent.ContextSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Verwaltet die Container (zum Beispiel die Maps) einer
+ * {@link ThreadLocalResourceRegistry} f&uuml;r alle Threads.
+ * <p>
+ * Die Container werden nicht nur im {@link ThreadLocal} gespeichert,
+ * sondern zus&auml;tzlich in einer Map mit schwachen Referenzen auf ihre
+ * Threads. Dadurch kann {@link #releaseAll()} die Container aller Threads
+ * sofort leeren - ohne diese Map bliebe der Container eines Threads bis
+ * zu dessen Ende von seiner {@code ThreadLocalMap} aus erreichbar.
+ * <p>
+ * Der Zugriff auf den Container des aktuellen Threads ({@link #get()})
+ * kommt ohne Sperre aus; nur das Anlegen eines Containers und die
+ * Methoden die alle Threads betreffen sind synchronisiert.
+ * <p>
+ * Zus&auml;tzlich k&ouml;nnen Container an einen {@link ResourceScope}
+ * statt an einen Thread gebunden werden ({@link #get(ResourceScope)}).
+ * Sie werden im Scope selbst gespeichert - ohne eine Struktur, die alle
+ * Threads gemeinsam &auml;ndern - und mit dem Ende des Scopes
+ * freigegeben. Von ihnen wird deshalb nur die Anzahl gez&auml;hlt.
+ * <p>
+ * Als {@link ContextPropagator} sorgt diese Klasse daf&uuml;r, dass eine
+ * Aufgabe aus einem {@link ContextSnapshot} die Container des
+ * &uuml;bergebenden Threads nicht teilt: sie bekommt eigene Container,
+ * die an ihrem Ende verworfen werden.
+ *
+ * @param <C> der Typ der Container.
+ */
+final class ThreadLocalContainers<C> implements ContextPropagator<Object> {
+
+    private static final Set<ThreadLocalContainers<?>> ALL_CONTAINERS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final Consumer<C> clearFunction;
+    private final Map<Thread, C> containerMap;
+    private final String name;
+    private final Supplier<C> newContainer;
+    private final ToLongFunction<C> retainedBytesFunction;
+    private final ToIntFunction<C> sizeFunction;
+    private volatile ScopeKey scopeKey;
+    private volatile ThreadLocal<C> threadLocal;
+
+    /**
+     * Erzeugt eine neue Verwaltung f&uuml;r Container.
+     *
+     * @param name                  der Name der Registry.
+     * @param newContainer          erzeugt einen neuen, leeren Container.
+     * @param sizeFunction          liefert die Anzahl der Eintr&auml;ge
+     *                              eines Containers.
+     * @param retainedBytesFunction sch&auml;tzt den Speicherbedarf eines
+     *                              Containers in Bytes (ohne die
+     *                              Ressourcen selbst).
+     * @param clearFunction         leert einen Container.
+     */
+    ThreadLocalContainers(final String name,
+                          final Supplier<C> newContainer,
+                          final ToIntFunction<C> sizeFunction,
+                          final ToLongFunction<C> retainedBytesFunction,
+                          final Consumer<C> clearFunction) {
+        this.name = name;
+        this.newContainer = newContainer;
+        this.sizeFunction = sizeFunction;
+        this.retainedBytesFunction = retainedBytesFunction;
+        this.clearFunction = clearFunction;
+        this.containerMap = new WeakHashMap<>();
+        this.threadLocal = new ThreadLocal<>();
+        this.scopeKey = new ScopeKey();
+        ALL_CONTAINERS.add(this);
+        ContextSnapshot.register(this);
+    }
+
+    /**
+     * Liefert die Statistiken aller {@link ThreadLocalResourceRegistry}s
+     * die noch erreichbar sind.
+     *
+     * @return die Statistiken aller Registries.
+     */
+    static List<ThreadLocalResourceStatistics> allStatistics() {
+        final List<ThreadLocalContainers<?>> containersList;
+        synchronized (ALL_CONTAINERS) {
+            containersList = new ArrayList<>(ALL_CONTAINERS);
+        }
+        final List<ThreadLocalResourceStatistics> statisticsList = new ArrayList<>(containersList.size());
+        for (final ThreadLocalContainers<?> containers : containersList) {
+            statisticsList.add(containers.statistics());
+        }
+        return statisticsList;
+    }
+
+    /**
+     * Sch&auml;tzt den Speicherbedarf einer {@link java.util.HashMap} mit
+     * der angegebenen Anzahl von Eintr&auml;gen (64-Bit JVM mit
+     * komprimierten Referenzen).
+     *
+     * @param size die Anzahl der Eintr&auml;ge.
+     * @return der gesch&auml;tzte Speicherbedarf in Bytes.
+     */
+    static long hashMapBytes(final int size) {
+        int tableLength = 16;
+        while (size > tableLength * 3 / 4) {
+            tableLength <<= 1;
+        }
+        // HashMap + Tabelle + ein Node pro Eintrag:
+        return 48 + (16 + 4L * tableLength) + 32L * size;
+    }
+
+    /**
+     * Liefert den Container des aktuellen Threads und legt ihn bei Bedarf an.
+     *
+     * @return der Container des aktuellen Threads.
+     */
+    C get() {
+        final ThreadLocal<C> owner = this.threadLocal;
+        final C container = owner.get();
+        return (container != null ? container : newContainer(owner));
+    }
+
+    @Override
+    public Object capture() {
+        return null;
+    }
+
+    @Override
+    public void runWith(final Object state, final Runnable operation) {
+        final ThreadLocal<C> owner = this.threadLocal;
+        final C previous = owner.get();
+        if (previous != null) {
+            owner.remove();
+        }
+        try {
+            operation.run();
+        } finally {
+            final C container = owner.get();
+            if ((container != null) || (previous != null)) {
+                restore(owner, previous);
+            }
+        }
+    }
+
+    private void restore(final ThreadLocal<C> owner, final C previous) {
+        synchronized (this.containerMap) {
+            if (this.threadLocal == owner) {
+                if (previous != null) {
+                    this.containerMap.put(Thread.currentThread(), previous);
+                } else {
+                    this.containerMap.remove(Thread.currentThread());
+                }
+            }
+        }
+        if (previous != null) {
+            owner.set(previous);
+        } else {
+            owner.remove();
+        }
+    }
+
+    /**
+     * Liefert den Container des angegebenen Scopes und legt ihn bei
+     * Bedarf an.
+     *
+     * @param scope der Scope.
+     * @return der Container des Scopes.
+     */
+    @SuppressWarnings("unchecked")
+    C get(final ResourceScope scope) {
+        final ScopeKey key = this.scopeKey;
+        final C container = (C) scope.getContainer(key);
+        return (container != null ? container : newContainer(scope, key));
+    }
+
+    @SuppressWarnings("unchecked")
+    private C newContainer(final ResourceScope scope, final ScopeKey key) {
+        final C container = this.newContainer.get();
+        final C existing = (C) scope.putContainerIfAbsent(key, container);
+        return (existing != null ? existing : container);
+    }
+
+    /**
+     * Legt einen Container an, der weder an einen Thread noch an einen
+     * {@link ResourceScope} gebunden ist (zum Beispiel an eine
+     * Transaktion), und z&auml;hlt ihn unter dem aktuellen Key.
+     * <p>
+     * Der Besitzer des Containers meldet dessen Ende mit
+     * {@link ScopeKey#removed()} an dem Key, der hier geliefert wird.
+     *
+     * @param keyConsumer erh&auml;lt den Key unter dem der Container
+     *                    gez&auml;hlt wird.
+     * @return der neue Container.
+     */
+    C newDetachedContainer(final Consumer<ScopeKey> keyConsumer) {
+        final ScopeKey key = this.scopeKey;
+        key.added();
+        keyConsumer.accept(key);
+        return this.newContainer.get();
+    }
+
+    private C newContainer(final ThreadLocal<C> owner) {
+        final C container = this.newContainer.get();
+        synchronized (this.containerMap) {
+            // Ein Container der waehrend releaseAll() fuer den
+            // alten ThreadLocal angelegt wird, wird nicht verwaltet:
+            if (this.threadLocal == owner) {
+                this.containerMap.put(Thread.currentThread(), container);
+            }
+        }
+        owner.set(container);
+        return container;
+    }
+
+    /**
+     * Leert die Container aller Threads und entfernt sie aus dieser
+     * Verwaltung.
+     * <p>
+     * Jeder Thread bekommt beim n&auml;chsten Zugriff einen neuen
+     * Container. Eine Operation die ein anderer Thread gleichzeitig auf
+     * seinem alten Container ausf&uuml;hrt, kann verloren gehen.
+     * <p>
+     * Die Container offener Scopes werden nicht geleert, sondern nur
+     * verworfen: jeder Scope bekommt beim n&auml;chsten Zugriff einen
+     * neuen Container, der alte wird mit dem Ende des Scopes
+     * unerreichbar. Dasselbe gilt f&uuml;r die Container aus
+     * {@link #newDetachedContainer(Consumer)}, deren Besitzer am
+     * ge&auml;nderten {@link #scopeKey()} erkennt, dass er einen neuen
+     * Container anlegen muss.
+     */
+    void releaseAll() {
+        final List<C> containers;
+        synchronized (this.containerMap) {
+            this.threadLocal = new ThreadLocal<>();
+            this.scopeKey = new ScopeKey();
+            containers = new ArrayList<>(this.containerMap.values());
+            this.containerMap.clear();
+        }
+        for (final C container : containers) {
+            this.clearFunction.accept(container);
+        }
+    }
+
+    /**
+     * Liefert den aktuellen Key der Container, die nicht an einen Thread
+     * gebunden sind. {@link #releaseAll()} tauscht ihn aus.
+     *
+     * @return der aktuelle Key.
+     */
+    ScopeKey scopeKey() {
+        return this.scopeKey;
+    }
+
+    /**
+     * Entfernt den Container des aktuellen Threads.
+     */
+    void releaseCurrent() {
+        this.threadLocal.remove();
+        synchronized (this.containerMap) {
+            this.containerMap.remove(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Entfernt den Container des angegebenen Scopes.
+     *
+     * @param scope der Scope.
+     */
+    void releaseCurrent(final ResourceScope scope) {
+        scope.removeContainer(this.scopeKey);
+    }
+
+    /**
+     * Liefert eine Momentaufnahme der Anzahl der Threads, der Eintr&auml;ge
+     * und des gesch&auml;tzten Speicherbedarfs &uuml;ber alle Threads.
+     * <p>
+     * Die Container beendeter Threads werden dabei entfernt. Die
+     * Container offener Scopes (und offener Transaktionen) z&auml;hlen wie
+     * Threads, ihre
+     * Eintr&auml;ge und ihr Speicherbedarf sind nicht enthalten.
+     *
+     * @return die Momentaufnahme.
+     */
+    ThreadLocalResourceStatistics statistics() {
+        final List<C> containers;
+        synchronized (this.containerMap) {
+            final Iterator<Thread> threadIterator = this.containerMap.keySet().iterator();
+            while (threadIterator.hasNext()) {
+                if (!threadIterator.next().isAlive()) {
+                    threadIterator.remove();
+                }
+            }
+            containers = new ArrayList<>(this.containerMap.values());
+        }
+        long entryCount = 0;
+        long retainedBytes = 0;
+        for (final C container : containers) {
+            // Ohne Synchronisation mit dem Thread des Containers
+            // sind die Werte nur ungefaehr:
+            entryCount += this.sizeFunction.applyAsInt(container);
+            retainedBytes += this.retainedBytesFunction.applyAsLong(container);
+        }
+        final int threadCount = containers.size() + (int) this.scopeKey.containerCount.sum();
+        return new ThreadLocalResourceStatistics(this.name, threadCount, entryCount, retainedBytes);
+    }
+
+    /**
+     * Der Key unter dem die Container in einem {@link ResourceScope}
+     * gespeichert werden. {@link #releaseAll()} tauscht den Key aus, so
+     * wie den {@link ThreadLocal}.
+     */
+    static final class ScopeKey {
+
+        private final LongAdder containerCount = new LongAdder();
+
+        void added() {
+            this.containerCount.increment();
+        }
+
+        void removed() {
+            this.containerCount.decrement();
+        }
+
+    }
+
+}
@@ -2,7 +2,6 @@ package eu.dirk.haase.hibernate.jdbc;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -19,10 +18,15 @@ import java.util.function.Function;
  */
 public final class ThreadLocalResourceHardRegistry<K, V1> implements ThreadLocalResourceRegistry<K, V1> {
 
-    private final AtomicReference<ThreadLocal<Map<K, V1>>> threadLocalRef;
+    private final ThreadLocalContainers<Map<K, V1>> containers;
 
     public ThreadLocalResourceHardRegistry() {
-        this.threadLocalRef = new AtomicReference<>(ThreadLocal.withInitial(HashMap::new));
+        this.containers = new ThreadLocalContainers<>(
+                getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this)),
+                HashMap::new,
+                Map::size,
+                (m) -> ThreadLocalContainers.hashMapBytes(m.size()),
+                Map::clear);
     }
 
     @Override
@@ -47,8 +51,12 @@ public final class ThreadLocalResourceHardRegistry<K, V1> implements ThreadLocal
     }
 
     private Map<K, V1> getLocalMap() {
-        final ThreadLocal<Map<K, V1>> threadLocal = this.threadLocalRef.get();
-        return threadLocal.get();
+        return this.containers.get();
+    }
+
+    @Override
+    public ThreadLocalResourceStatistics getStatistics() {
+        return this.containers.statistics();
     }
 
     private V1 initReference(K key, V1 value) {
@@ -65,13 +73,12 @@ public final class ThreadLocalResourceHardRegistry<K, V1> implements ThreadLocal
 
     @Override
     public void releaseAll() {
-        this.threadLocalRef.set(ThreadLocal.withInitial(HashMap::new));
+        this.containers.releaseAll();
     }
 
     @Override
     public void releaseCurrent() {
-        final ThreadLocal<Map<K, V1>> threadLocal = this.threadLocalRef.get();
-        threadLocal.remove();
+        this.containers.releaseCurrent();
     }
 
     @Override
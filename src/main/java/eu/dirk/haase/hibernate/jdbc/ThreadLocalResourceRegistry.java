@@ -2,6 +2,9 @@ package eu.dirk.haase.hibernate.jdbc;
 
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.function.Function;
 
 
@@ -30,11 +33,45 @@ public interface ThreadLocalResourceRegistry<K1, V1> {
                 return new ThreadLocalResourceWeakRegistry<>(refType);
             case HARD:
                 return new ThreadLocalResourceHardRegistry<>();
+            case TRANSACTION:
+                return new ThreadLocalResourceTransactionRegistry<>();
             default:
                 throw new IllegalArgumentException("Unknown Referenz-Type: " + refType);
         }
     }
 
+    /**
+     * Erzeugt eine neue Instanz dieser Registry f&uuml;r eine feste Menge
+     * von Keys.
+     * <p>
+     * Die Ressourcen werden als Hardreferenz (siehe {@link RefType#HARD})
+     * in einem Array pro Thread gespeichert, dessen Slots bereits bei der
+     * Erzeugung den Keys zugeordnet werden (siehe
+     * {@link ThreadLocalResourceSlotRegistry}).
+     *
+     * @param keys alle Keys unter denen Ressourcen gespeichert werden
+     *             k&ouml;nnen.
+     * @param <K2> der generische Typ der Keys.
+     * @param <V2> der generische Typ dieser Resource.
+     * @return eine neue Instanz dieser Registry.
+     */
+    static <K2, V2> ThreadLocalResourceRegistry<K2, V2> newInstance(final Collection<? extends K2> keys) {
+        return new ThreadLocalResourceSlotRegistry<>(keys);
+    }
+
+    /**
+     * Erzeugt eine neue Instanz dieser Registry mit allen Konstanten des
+     * angegebenen Enums als Keys (siehe {@link #newInstance(Collection)}).
+     *
+     * @param keyType der Typ der Keys.
+     * @param <E>     der generische Typ der Keys.
+     * @param <V2>    der generische Typ dieser Resource.
+     * @return eine neue Instanz dieser Registry.
+     */
+    static <E extends Enum<E>, V2> ThreadLocalResourceRegistry<E, V2> newInstance(final Class<E> keyType) {
+        return newInstance(EnumSet.allOf(keyType));
+    }
+
     /**
      * Erzeugt eine neue Instanz dieser Registry f&uuml;r Ressourcen
      * die als {@link WeakReference} gespeichert werden sollen.
@@ -47,6 +84,30 @@ public interface ThreadLocalResourceRegistry<K1, V1> {
         return newInstance(RefType.WEAK);
     }
 
+    /**
+     * Erzeugt eine neue Instanz dieser Registry, die ihre Ressourcen
+     * innerhalb eines {@link ResourceScope} an den Scope statt an den
+     * Thread bindet (siehe {@link ThreadLocalResourceScopedRegistry}).
+     * <p>
+     * Die Ressourcen werden als Hardreferenz gespeichert.
+     *
+     * @param <K2> der generische Typ der Keys.
+     * @param <V2> der generische Typ dieser Resource.
+     * @return eine neue Instanz dieser Registry.
+     */
+    static <K2, V2> ThreadLocalResourceRegistry<K2, V2> newScopedInstance() {
+        return new ThreadLocalResourceScopedRegistry<>();
+    }
+
+    /**
+     * Liefert die Statistiken aller Registries die noch erreichbar sind.
+     *
+     * @return die Statistiken aller Registries.
+     */
+    static List<ThreadLocalResourceStatistics> getAllStatistics() {
+        return ThreadLocalContainers.allStatistics();
+    }
+
     /**
      * Liefert die gespeicherte Ressource des aktuellen Threads.
      *
@@ -56,6 +117,15 @@ public interface ThreadLocalResourceRegistry<K1, V1> {
      */
     <V2> V2 getCurrent(K1 key);
 
+    /**
+     * Liefert eine Momentaufnahme der Anzahl der Threads, der Eintr&auml;ge
+     * und des gesch&auml;tzten Speicherbedarfs dieser Registry &uuml;ber
+     * alle Threads.
+     *
+     * @return die Momentaufnahme.
+     */
+    ThreadLocalResourceStatistics getStatistics();
+
     /**
      * Liefert {@code true} wenn die Ressource f&uuml;r den aktuellen
      * Thread gespeichert ist.
@@ -79,6 +149,9 @@ public interface ThreadLocalResourceRegistry<K1, V1> {
     /**
      * Gibt alle Resourcen, unabh&auml;ngig von Threads,
      * aus dieser Registry frei.
+     * <p>
+     * Die Container aller Threads werden dabei sofort geleert und nicht
+     * erst mit dem Ende des jeweiligen Threads freigegeben.
      */
     void releaseAll();
 
@@ -165,7 +238,16 @@ public interface ThreadLocalResourceRegistry<K1, V1> {
          * Diese Ressourcen solange in der Registry gespeichert bis diese
          * freigegeben werden.
          */
-        HARD;
+        HARD,
+        /**
+         * Ressourcen werden als Hardreferenz an die aktive
+         * Spring-Transaktion gebunden und mit deren Ende automatisch
+         * freigegeben (siehe {@link ThreadLocalResourceTransactionRegistry}).
+         * <p>
+         * Au&szlig;erhalb einer Transaktion werden die Ressourcen wie bei
+         * {@link #HARD} an den Thread gebunden.
+         */
+        TRANSACTION;
     }
 }
 
@@ -0,0 +1,107 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+/**
+ * Registry um Ressourcen f&uuml;r den jeweils aktuellen
+ * {@link ResourceScope} zu speichern und auszugeben.
+ * <p>
+ * Innerhalb eines Scopes ({@link ResourceScope#run(Runnable)}) werden die
+ * Ressourcen nicht an den Thread, sondern an den Scope gebunden und mit
+ * dessen Ende freigegeben. Bei vielen kurzlebigen (virtuellen) Threads
+ * entsteht so keine Map pro Thread, und ein Ablauf der seine Arbeit auf
+ * mehrere Threads verteilt (zum Beispiel mit einem
+ * {@code StructuredTaskScope} ab Java 21) sieht in allen Threads dieselben
+ * Ressourcen. Die Container sind deshalb {@link ConcurrentHashMap}s.
+ * <p>
+ * Au&szlig;erhalb eines Scopes verh&auml;lt sich die Registry wie
+ * {@link ThreadLocalResourceHardRegistry}.
+ * <p>
+ * Die Ressourcen werden als Hardreferenz gespeichert.
+ *
+ * @param <K>  der generische Typ der Keys.
+ * @param <V1> der generische Typ dieser Ressource.
+ */
+public final class ThreadLocalResourceScopedRegistry<K, V1> implements ThreadLocalResourceRegistry<K, V1> {
+
+    private final ThreadLocalContainers<Map<K, V1>> containers;
+
+    public ThreadLocalResourceScopedRegistry() {
+        this.containers = new ThreadLocalContainers<>(
+                getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this)),
+                () -> new ConcurrentHashMap<>(4),
+                Map::size,
+                (m) -> ThreadLocalContainers.hashMapBytes(m.size()),
+                Map::clear);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 computeIfAbsent(final K key, final Function<? super K, ? extends V1> newInstance) {
+        final Map<K, V1> localMap = getLocalMap();
+        final V1 value = localMap.get(key);
+        if (value != null) {
+            return (V2) value;
+        }
+        return (V2) localMap.computeIfAbsent(key, (k) -> initReference(localMap, k, newInstance.apply(k)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 getCurrent(final K key) {
+        return (V2) getLocalMap().get(key);
+    }
+
+    private Map<K, V1> getLocalMap() {
+        final ResourceScope scope = ResourceScope.current();
+        return (scope != null ? this.containers.get(scope) : this.containers.get());
+    }
+
+    @Override
+    public ThreadLocalResourceStatistics getStatistics() {
+        return this.containers.statistics();
+    }
+
+    private V1 initReference(final Map<K, V1> localMap, final K key, final V1 value) {
+        if (value instanceof ThreadLocalResourceRegistry.ReleaseFunctionAware) {
+            final Runnable releaseFunction = () -> localMap.remove(key);
+            ((ReleaseFunctionAware) value).setReleaseFunction(releaseFunction);
+        }
+        return value;
+    }
+
+    public boolean isCurrentExisting(final K key) {
+        return getCurrent(key) != null;
+    }
+
+    @Override
+    public void releaseAll() {
+        this.containers.releaseAll();
+    }
+
+    @Override
+    public void releaseCurrent() {
+        final ResourceScope scope = ResourceScope.current();
+        if (scope != null) {
+            this.containers.releaseCurrent(scope);
+        } else {
+            this.containers.releaseCurrent();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 releaseCurrent(final K key) {
+        return (V2) getLocalMap().remove(key);
+    }
+
+    @Override
+    public Runnable releaseFunction(K key) {
+        final Map<K, V1> localMap = getLocalMap();
+        return () -> localMap.remove(key);
+    }
+
+}
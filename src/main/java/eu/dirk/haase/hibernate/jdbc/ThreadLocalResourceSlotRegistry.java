@@ -0,0 +1,193 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.function.Function;
+
+
+/**
+ * Registry um Ressourcen f&uuml;r den jeweils aktuellen Thread zu speichern
+ * und auszugeben.
+ * <p>
+ * Die Keys dieser Registry stehen bereits bei der Erzeugung fest und
+ * werden dabei auf fortlaufende Slots abgebildet. Pro Thread werden die
+ * Ressourcen daher in einem einfachen {@code Object[]} gespeichert: ein
+ * Zugriff kommt ohne Hashing, ohne Boxing und ohne das Anlegen von
+ * Lambdas aus.
+ * <p>
+ * Bei einem {@link Enum} als Key ist der Slot die
+ * {@link Enum#ordinal() Ordinalzahl}, andere Keys werden zuerst auf
+ * Identit&auml;t und dann mit {@link Object#equals(Object)} gesucht (was
+ * bei wenigen Keys schneller ist als eine {@link java.util.HashMap}).
+ * <p>
+ * Die Ressourcen werden, wie bei {@link ThreadLocalResourceHardRegistry},
+ * als Hardreferenz gespeichert.
+ *
+ * @param <K>  der generische Typ der Keys.
+ * @param <V1> der generische Typ dieser Ressource.
+ */
+public final class ThreadLocalResourceSlotRegistry<K, V1> implements ThreadLocalResourceRegistry<K, V1> {
+
+    private final ThreadLocalContainers<Object[]> containers;
+    private final Object[] keys;
+
+    /**
+     * Erzeugt eine neue Registry f&uuml;r die angegebenen Keys.
+     *
+     * @param keys alle Keys unter denen Ressourcen gespeichert werden
+     *             k&ouml;nnen.
+     */
+    public ThreadLocalResourceSlotRegistry(final Collection<? extends K> keys) {
+        this.keys = slotKeys(keys);
+        final int slotCount = this.keys.length;
+        this.containers = new ThreadLocalContainers<>(
+                getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this)),
+                () -> new Object[slotCount],
+                ThreadLocalResourceSlotRegistry::countSlots,
+                (slots) -> 16 + 4L * slots.length,
+                (slots) -> Arrays.fill(slots, null));
+    }
+
+    private static Object[] slotKeys(final Collection<?> allKeys) {
+        final Collection<?> keys = new LinkedHashSet<>(allKeys);
+        int enumCount = 0;
+        int maxOrdinal = -1;
+        for (final Object key : keys) {
+            if (key instanceof Enum) {
+                ++enumCount;
+                maxOrdinal = Math.max(maxOrdinal, ((Enum<?>) key).ordinal());
+            }
+        }
+        if ((enumCount == keys.size()) && (maxOrdinal < enumCount)) {
+            // Alle Konstanten eines Enums: der Slot ist
+            // die Ordinalzahl der Konstante:
+            final Object[] slotKeys = new Object[enumCount];
+            for (final Object key : keys) {
+                final int ordinal = ((Enum<?>) key).ordinal();
+                if (slotKeys[ordinal] != null) {
+                    // Konstanten verschiedener Enums:
+                    return keys.toArray();
+                }
+                slotKeys[ordinal] = key;
+            }
+            return slotKeys;
+        }
+        return keys.toArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 computeIfAbsent(final K key, final Function<? super K, ? extends V1> newInstance) {
+        final Object[] slots = getSlots();
+        final int slot = requireSlotOf(key);
+        Object value = slots[slot];
+        if (value == null) {
+            value = initReference(key, newInstance.apply(key));
+            slots[slot] = value;
+        }
+        return (V2) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 getCurrent(final K key) {
+        final int slot = slotOf(key);
+        return (V2) (slot >= 0 ? getSlots()[slot] : null);
+    }
+
+    private static int countSlots(final Object[] slots) {
+        int count = 0;
+        for (final Object value : slots) {
+            if (value != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private Object[] getSlots() {
+        return this.containers.get();
+    }
+
+    @Override
+    public ThreadLocalResourceStatistics getStatistics() {
+        return this.containers.statistics();
+    }
+
+    private V1 initReference(K key, V1 value) {
+        if (value instanceof ThreadLocalResourceRegistry.ReleaseFunctionAware) {
+            final Runnable releaseFunction = releaseFunction(key);
+            ((ReleaseFunctionAware) value).setReleaseFunction(releaseFunction);
+        }
+        return value;
+    }
+
+    public boolean isCurrentExisting(final K key) {
+        return getCurrent(key) != null;
+    }
+
+    @Override
+    public void releaseAll() {
+        this.containers.releaseAll();
+    }
+
+    @Override
+    public void releaseCurrent() {
+        this.containers.releaseCurrent();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 releaseCurrent(final K key) {
+        final int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        final Object[] slots = getSlots();
+        final Object value = slots[slot];
+        slots[slot] = null;
+        return (V2) value;
+    }
+
+    @Override
+    public Runnable releaseFunction(K key) {
+        final Object[] slots = getSlots();
+        final int slot = requireSlotOf(key);
+        return () -> slots[slot] = null;
+    }
+
+    private int requireSlotOf(final Object key) {
+        final int slot = slotOf(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown key: " + key);
+        }
+        return slot;
+    }
+
+    /**
+     * Liefert den Slot des angegebenen Keys oder {@code -1} wenn der Key
+     * nicht zu dieser Registry geh&ouml;rt.
+     */
+    private int slotOf(final Object key) {
+        final Object[] slotKeys = this.keys;
+        if (key instanceof Enum) {
+            final int ordinal = ((Enum<?>) key).ordinal();
+            if ((slotKeys.length > ordinal) && (slotKeys[ordinal] == key)) {
+                return ordinal;
+            }
+        }
+        for (int i = 0; slotKeys.length > i; ++i) {
+            if (slotKeys[i] == key) {
+                return i;
+            }
+        }
+        for (int i = 0; slotKeys.length > i; ++i) {
+            if (slotKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,75 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+/**
+ * Unver&auml;nderliche Momentaufnahme einer
+ * {@link ThreadLocalResourceRegistry} &uuml;ber alle Threads.
+ * <p>
+ * Der Speicherbedarf ist eine Sch&auml;tzung f&uuml;r die Strukturen der
+ * Registry (Maps, Arrays und Referenzen) - die Ressourcen selbst sind
+ * darin nicht enthalten.
+ */
+public final class ThreadLocalResourceStatistics {
+
+    private final long entryCount;
+    private final String name;
+    private final long retainedBytes;
+    private final int threadCount;
+
+    ThreadLocalResourceStatistics(final String name,
+                                  final int threadCount,
+                                  final long entryCount,
+                                  final long retainedBytes) {
+        this.name = name;
+        this.threadCount = threadCount;
+        this.entryCount = entryCount;
+        this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * Liefert die Anzahl der Eintr&auml;ge &uuml;ber alle Threads.
+     *
+     * @return die Anzahl der Eintr&auml;ge.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Liefert den Namen der Registry.
+     *
+     * @return der Name der Registry.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Liefert den gesch&auml;tzten Speicherbedarf der Registry in Bytes.
+     *
+     * @return der gesch&auml;tzte Speicherbedarf.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Liefert die Anzahl der Threads die Ressourcen in der Registry
+     * gespeichert haben (bei {@link ThreadLocalResourceScopedRegistry}
+     * zuz&uuml;glich der offenen {@link ResourceScope}s).
+     *
+     * @return die Anzahl der Threads.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadLocalResourceStatistics{" +
+                "name='" + name + '\'' +
+                ", threadCount=" + threadCount +
+                ", entryCount=" + entryCount +
+                ", retainedBytes=" + retainedBytes +
+                '}';
+    }
+}
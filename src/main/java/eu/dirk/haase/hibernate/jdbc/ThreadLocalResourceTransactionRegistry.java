@@ -0,0 +1,241 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import eu.dirk.haase.concurrent.ContextPropagator;
+import eu.dirk.haase.concurrent.ContextSnapshot;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+/**
+ * Registry um Ressourcen f&uuml;r die jeweils aktuelle Spring-Transaktion
+ * zu speichern und auszugeben.
+ * <p>
+ * Solange die Transaktions-Synchronisation aktiv ist
+ * ({@link TransactionSynchronizationManager#isSynchronizationActive()}),
+ * werden die Ressourcen nicht an den Thread, sondern an die Transaktion
+ * gebunden und mit deren Ende ({@code afterCompletion}) freigegeben. Ein
+ * gepoolter Thread nimmt so keine Ressourcen von einer Transaktion in die
+ * n&auml;chste mit, und ein explizites {@link #releaseCurrent()} ist nicht
+ * n&ouml;tig. Wird die Transaktion suspendiert (zum Beispiel mit
+ * {@code REQUIRES_NEW}), bekommt die innere Transaktion eigene Ressourcen.
+ * <p>
+ * Wechselt die Transaktion den Thread &uuml;ber einen
+ * {@link ContextSnapshot} (siehe
+ * {@link eu.dirk.haase.concurrent.ContextPropagatingExecutorService}), sieht
+ * die Aufgabe dieselben Ressourcen. Die Container sind deshalb
+ * {@link ConcurrentHashMap}s.
+ * <p>
+ * Au&szlig;erhalb einer Transaktion verh&auml;lt sich die Registry wie
+ * {@link ThreadLocalResourceHardRegistry}.
+ * <p>
+ * Die Ressourcen werden als Hardreferenz gespeichert.
+ *
+ * @param <K>  der generische Typ der Keys.
+ * @param <V1> der generische Typ dieser Ressource.
+ */
+public final class ThreadLocalResourceTransactionRegistry<K, V1> implements ThreadLocalResourceRegistry<K, V1> {
+
+    private final ThreadLocalContainers<Map<K, V1>> containers;
+    private final ThreadLocal<Map<K, V1>> propagatedMap;
+    private final ContextPropagator<Map<K, V1>> propagator;
+
+    public ThreadLocalResourceTransactionRegistry() {
+        this.containers = new ThreadLocalContainers<>(
+                getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this)),
+                () -> new ConcurrentHashMap<>(4),
+                Map::size,
+                (m) -> ThreadLocalContainers.hashMapBytes(m.size()),
+                Map::clear);
+        this.propagatedMap = new ThreadLocal<>();
+        this.propagator = new TransactionPropagator();
+        ContextSnapshot.register(this.propagator);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 computeIfAbsent(final K key, final Function<? super K, ? extends V1> newInstance) {
+        final Map<K, V1> localMap = getLocalMap();
+        final V1 value = localMap.get(key);
+        if (value != null) {
+            return (V2) value;
+        }
+        return (V2) localMap.computeIfAbsent(key, (k) -> initReference(localMap, k, newInstance.apply(k)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 getCurrent(final K key) {
+        return (V2) getLocalMap().get(key);
+    }
+
+    private Map<K, V1> getLocalMap() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            return getTransactionContainer().map;
+        }
+        final Map<K, V1> map = this.propagatedMap.get();
+        return (map != null ? map : this.containers.get());
+    }
+
+    @Override
+    public ThreadLocalResourceStatistics getStatistics() {
+        return this.containers.statistics();
+    }
+
+    /**
+     * Liefert den Container der aktuellen Transaktion und legt ihn bei
+     * Bedarf an.
+     * <p>
+     * Der Container wird unter dem aktuellen {@link ThreadLocalContainers.ScopeKey}
+     * als Spring-Ressource gebunden. Ein Container, dessen Transaktion
+     * bereits beendet ist, wird dabei durch einen neuen ersetzt: das ist
+     * der Fall, wenn nach dem {@code afterCompletion} dieses Containers
+     * noch auf die Registry zugegriffen wurde.
+     */
+    @SuppressWarnings("unchecked")
+    private TransactionContainer getTransactionContainer() {
+        final ThreadLocalContainers.ScopeKey scopeKey = this.containers.scopeKey();
+        final TransactionContainer container = (TransactionContainer) TransactionSynchronizationManager.getResource(scopeKey);
+        if ((container != null) && !container.isCompleted) {
+            return container;
+        }
+        if (container != null) {
+            TransactionSynchronizationManager.unbindResource(scopeKey);
+        }
+        final TransactionContainer newContainer = new TransactionContainer();
+        TransactionSynchronizationManager.bindResource(newContainer.scopeKey, newContainer);
+        TransactionSynchronizationManager.registerSynchronization(newContainer);
+        return newContainer;
+    }
+
+    private V1 initReference(final Map<K, V1> localMap, final K key, final V1 value) {
+        if (value instanceof ThreadLocalResourceRegistry.ReleaseFunctionAware) {
+            final Runnable releaseFunction = () -> localMap.remove(key);
+            ((ReleaseFunctionAware) value).setReleaseFunction(releaseFunction);
+        }
+        return value;
+    }
+
+    public boolean isCurrentExisting(final K key) {
+        return getCurrent(key) != null;
+    }
+
+    @Override
+    public void releaseAll() {
+        this.containers.releaseAll();
+    }
+
+    @Override
+    public void releaseCurrent() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getTransactionContainer().map.clear();
+        } else if (this.propagatedMap.get() != null) {
+            this.propagatedMap.get().clear();
+        } else {
+            this.containers.releaseCurrent();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V2> V2 releaseCurrent(final K key) {
+        return (V2) getLocalMap().remove(key);
+    }
+
+    @Override
+    public Runnable releaseFunction(K key) {
+        final Map<K, V1> localMap = getLocalMap();
+        return () -> localMap.remove(key);
+    }
+
+    /**
+     * Der Container einer Transaktion. Als Synchronisation gibt er seine
+     * Ressourcen mit dem Ende der Transaktion frei und l&ouml;st sich beim
+     * Suspendieren der Transaktion vom Thread.
+     * <p>
+     * Beim Ende der Transaktion wird er vom Thread gel&ouml;st, damit ein
+     * gepoolter Thread ihn nicht beh&auml;lt. Spring ruft {@code afterCompletion}
+     * erst auf, wenn die Transaktions-Synchronisation nicht mehr aktiv ist:
+     * ein Zugriff aus einer sp&auml;teren Synchronisation derselben
+     * Transaktion legt daher keinen neuen Container an.
+     */
+    private final class TransactionContainer extends TransactionSynchronizationAdapter {
+
+        final Map<K, V1> map;
+        ThreadLocalContainers.ScopeKey scopeKey;
+        volatile boolean isCompleted;
+
+        TransactionContainer() {
+            this.map = containers.newDetachedContainer((key) -> this.scopeKey = key);
+        }
+
+        @Override
+        public void afterCompletion(final int status) {
+            if (!this.isCompleted) {
+                this.isCompleted = true;
+                this.map.clear();
+                this.scopeKey.removed();
+                TransactionSynchronizationManager.unbindResourceIfPossible(this.scopeKey);
+            }
+        }
+
+        @Override
+        public void resume() {
+            // Der beendete Container einer inneren Transaktion wird ersetzt:
+            TransactionSynchronizationManager.unbindResourceIfPossible(this.scopeKey);
+            TransactionSynchronizationManager.bindResource(this.scopeKey, this);
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(this.scopeKey);
+        }
+
+    }
+
+    /**
+     * &Uuml;bertr&auml;gt die Ressourcen der aktuellen Transaktion in den
+     * Thread, der eine Aufgabe aus einem {@link ContextSnapshot}
+     * ausf&uuml;hrt. Im ausf&uuml;hrenden Thread ist keine
+     * Transaktions-Synchronisation aktiv; die Aufgabe verwendet den
+     * Container der Transaktion direkt.
+     */
+    private final class TransactionPropagator implements ContextPropagator<Map<K, V1>> {
+
+        @Override
+        public Map<K, V1> capture() {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                return getTransactionContainer().map;
+            }
+            return propagatedMap.get();
+        }
+
+        @Override
+        public void runWith(final Map<K, V1> map, final Runnable operation) {
+            final Map<K, V1> previousMap = propagatedMap.get();
+            if ((map == null) && (previousMap == null)) {
+                operation.run();
+                return;
+            }
+            if (map == null) {
+                propagatedMap.remove();
+            } else {
+                propagatedMap.set(map);
+            }
+            try {
+                operation.run();
+            } finally {
+                if (previousMap == null) {
+                    propagatedMap.remove();
+                } else {
+                    propagatedMap.set(previousMap);
+                }
+            }
+        }
+
+    }
+
+}
@@ -1,11 +1,12 @@
 package eu.dirk.haase.hibernate.jdbc;
 
 import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -17,38 +18,54 @@ import java.util.function.Function;
  * Die Ressourcen werden, im Gegensatz zu {@link ThreadLocalResourceHardRegistry}
  * entweder als Weak- oder als Softreferenz gespeichert (siehe {@link WeakReference}
  * und {@link SoftReference}).
+ * <p>
+ * Wie bei {@link java.util.WeakHashMap} werden die Referenzen mit einer
+ * {@link ReferenceQueue} pro Thread registriert: bei jedem Zugriff werden
+ * die Eintr&auml;ge entfernt, deren Ressource inzwischen von der Garbage
+ * Collection eingesammelt wurde. Jeder Eintrag wird dabei nur einmal
+ * angefasst, der Aufwand pro Zugriff ist also amortisiert konstant und
+ * die Map eines langlebigen Threads w&auml;chst nicht unbegrenzt.
  *
  * @param <K>  der generische Typ der Keys.
  * @param <V1> der generische Typ dieser Ressource.
  */
 public final class ThreadLocalResourceWeakRegistry<K, V1> implements ThreadLocalResourceRegistry<K, V1> {
 
+    private final LongAdder expungedCount;
     private final RefType refType;
-    private final AtomicReference<ThreadLocal<Map<K, Reference<V1>>>> threadLocalRef;
+    private final ThreadLocalContainers<LocalMap<K, V1>> containers;
 
     public ThreadLocalResourceWeakRegistry() {
         this(RefType.WEAK);
     }
 
     public ThreadLocalResourceWeakRegistry(final RefType refType) {
-        this.threadLocalRef = new AtomicReference<>(ThreadLocal.withInitial(HashMap::new));
+        this.containers = new ThreadLocalContainers<>(
+                getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this)),
+                LocalMap::new,
+                (m) -> m.map.size(),
+                LocalMap::retainedBytes,
+                (m) -> m.map.clear());
         this.refType = refType;
+        this.expungedCount = new LongAdder();
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <V2> V2 computeIfAbsent(final K key, final Function<? super K, ? extends V1> newInstance) {
-        final Map<K, Reference<V1>> localMap = getLocalMap();
-        final Function<? super K, ? extends Reference<V1>> newInstanceRef = (k) -> newReference(k, newInstance.apply(k));
-        final Reference<V1> ref1 = localMap.computeIfAbsent(key, newInstanceRef);
+        final LocalMap<K, V1> localMap = getLocalMap();
+        final Function<? super K, ? extends Reference<V1>> newInstanceRef = (k) -> newReference(localMap, k, newInstance.apply(k));
+        final Reference<V1> ref1 = localMap.map.computeIfAbsent(key, newInstanceRef);
         final V2 value = (V2) ref1.get();
         if (value == null) {
             // Der Wert kann 'null' sein wenn der Garbage-Collector
-            // den Wert in der (Weak-/Soft-) Reference geloescht hat.
+            // den Wert in der (Weak-/Soft-) Reference geloescht hat,
+            // die Reference aber noch nicht in der Queue steht.
             // Der Eintrag wird aus der Map geloescht:
-            localMap.remove(key);
+            localMap.map.remove(key);
+            this.expungedCount.increment();
             // Jetzt wird ein neuer Wert erzeugt:
-            final Reference<V1> ref2 = localMap.computeIfAbsent(key, newInstanceRef);
+            final Reference<V1> ref2 = localMap.map.computeIfAbsent(key, newInstanceRef);
             return (V2) ref2.get();
         }
         return value;
@@ -56,8 +73,8 @@ public final class ThreadLocalResourceWeakRegistry<K, V1> implements ThreadLocal
 
     @SuppressWarnings("unchecked")
     private <V2> V2 get(final K key, final BiFunction<K, Map<K, Reference<V1>>, Reference<V1>> functionOnMap) {
-        final Map<K, Reference<V1>> localMap = getLocalMap();
-        final Reference<V1> ref = functionOnMap.apply(key, localMap);
+        final LocalMap<K, V1> localMap = getLocalMap();
+        final Reference<V1> ref = functionOnMap.apply(key, localMap.map);
         return (V2) (ref != null ? ref.get() : null);
     }
 
@@ -67,14 +84,33 @@ public final class ThreadLocalResourceWeakRegistry<K, V1> implements ThreadLocal
         return get(key, (k, m) -> m.get(k));
     }
 
-    private Map<K, Reference<V1>> getLocalMap() {
-        final ThreadLocal<Map<K, Reference<V1>>> threadLocal = this.threadLocalRef.get();
-        return threadLocal.get();
+    /**
+     * Liefert die Anzahl der Eintr&auml;ge die (&uuml;ber alle Threads)
+     * entfernt wurden, weil ihre Ressource von der Garbage Collection
+     * eingesammelt wurde.
+     *
+     * @return die Anzahl der entfernten Eintr&auml;ge.
+     */
+    public long getExpungedCount() {
+        return this.expungedCount.sum();
+    }
+
+    private LocalMap<K, V1> getLocalMap() {
+        final LocalMap<K, V1> localMap = this.containers.get();
+        localMap.expungeStaleEntries(this.expungedCount);
+        return localMap;
+    }
+
+    @Override
+    public ThreadLocalResourceStatistics getStatistics() {
+        return this.containers.statistics();
     }
 
-    private <V2> void initReference(K key, V2 value) {
+    private <V2> void initReference(final LocalMap<K, V1> localMap, final K key, final V2 value) {
         if (value instanceof ThreadLocalResourceRegistry.ReleaseFunctionAware) {
-            final Runnable releaseFunction = releaseFunction(key);
+            // Laeuft innerhalb von computeIfAbsent: die Map darf hier
+            // nicht strukturell veraendert (expunged) werden:
+            final Runnable releaseFunction = releaseFunction(localMap, key);
             ((ReleaseFunctionAware) value).setReleaseFunction(releaseFunction);
         }
     }
@@ -84,23 +120,27 @@ public final class ThreadLocalResourceWeakRegistry<K, V1> implements ThreadLocal
     }
 
     public <V2> Reference<V2> newReference(final K key, final V2 value) {
-        initReference(key, value);
+        return newReference(getLocalMap(), key, value);
+    }
+
+    private <V2> Reference<V2> newReference(final LocalMap<K, V1> localMap, final K key, final V2 value) {
+        initReference(localMap, key, value);
+        @SuppressWarnings("unchecked") final ReferenceQueue<V2> queue = (ReferenceQueue<V2>) localMap.queue;
         if (refType == RefType.WEAK) {
-            return new WeakReference<V2>(value);
+            return new KeyedWeakReference<>(key, value, queue);
         } else {
-            return new SoftReference<V2>(value);
+            return new KeyedSoftReference<>(key, value, queue);
         }
     }
 
     @Override
     public void releaseAll() {
-        this.threadLocalRef.set(ThreadLocal.withInitial(HashMap::new));
+        this.containers.releaseAll();
     }
 
     @Override
     public void releaseCurrent() {
-        final ThreadLocal<Map<K, Reference<V1>>> threadLocal = this.threadLocalRef.get();
-        threadLocal.remove();
+        this.containers.releaseCurrent();
     }
 
     @Override
@@ -110,9 +150,79 @@ public final class ThreadLocalResourceWeakRegistry<K, V1> implements ThreadLocal
 
     @Override
     public Runnable releaseFunction(K key) {
-        final Map<K, Reference<V1>> localMap = getLocalMap();
-        return () -> localMap.remove(key);
+        return releaseFunction(getLocalMap(), key);
+    }
+
+    private Runnable releaseFunction(final LocalMap<K, V1> localMap, final K key) {
+        final Map<K, Reference<V1>> map = localMap.map;
+        return () -> map.remove(key);
+    }
+
+    /**
+     * Eine Referenz die ihren Key kennt, damit sie nach dem Einsammeln
+     * ihrer Ressource aus der Map entfernt werden kann.
+     */
+    interface KeyedReference<K> {
+        K getKey();
+    }
+
+    static final class KeyedSoftReference<K, V> extends SoftReference<V> implements KeyedReference<K> {
+
+        private final K key;
+
+        KeyedSoftReference(final K key, final V value, final ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
     }
 
+    static final class KeyedWeakReference<K, V> extends WeakReference<V> implements KeyedReference<K> {
+
+        private final K key;
+
+        KeyedWeakReference(final K key, final V value, final ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Die Map und die {@link ReferenceQueue} eines Threads.
+     */
+    static final class LocalMap<K, V> {
+
+        final Map<K, Reference<V>> map = new HashMap<>();
+        final ReferenceQueue<V> queue = new ReferenceQueue<>();
+
+        @SuppressWarnings("unchecked")
+        void expungeStaleEntries(final LongAdder expungedCount) {
+            Reference<? extends V> ref;
+            while ((ref = this.queue.poll()) != null) {
+                final K key = ((KeyedReference<K>) ref).getKey();
+                // Nur entfernen, wenn der Key nicht inzwischen
+                // auf eine neue Referenz zeigt:
+                if (this.map.remove(key, ref)) {
+                    expungedCount.increment();
+                }
+            }
+        }
+
+        long retainedBytes() {
+            final int size = this.map.size();
+            // LocalMap + ReferenceQueue + HashMap + eine Referenz
+            // pro Eintrag:
+            return 16 + 48 + ThreadLocalContainers.hashMapBytes(size) + 40L * size;
+        }
+    }
 
 }
@@ -0,0 +1,298 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+/**
+ * Sammelt die {@code executeUpdate()}-Aufrufe eines {@link PreparedStatement}s
+ * einer {@link Connection} und f&uuml;hrt sie gemeinsam als JDBC-Batch aus.
+ * <p>
+ * Es wird stets nur f&uuml;r ein einziges {@link PreparedStatement} gesammelt.
+ * Bevor ein anderes Statement ausgef&uuml;hrt wird, muss der Batch mit
+ * {@link #drain()} ausgef&uuml;hrt werden, damit die Reihenfolge der
+ * Datenbank-&Auml;nderungen erhalten bleibt.
+ * <p>
+ * Wird das Statement geschlossen solange noch gesammelt wird, dann
+ * &uuml;bernimmt der Batch das Statement (siehe {@link #release(Statement)})
+ * und schlie&szlig;t es erst nachdem er ausgef&uuml;hrt oder verworfen
+ * wurde. Bis dahin kann es mit {@link #reuse(String)} f&uuml;r dasselbe
+ * SQL-Statement wieder ausgegeben werden.
+ * <p>
+ * Gesammelt werden nur einzeilige {@code INSERT ... VALUES} Statements:
+ * nur f&uuml;r diese steht der Update-Count ({@code 1}) schon vor der
+ * Ausf&uuml;hrung fest. Mehrzeilige {@code VALUES}-Listen sowie
+ * Statements mit {@code RETURNING}, {@code ON CONFLICT} oder
+ * {@code ON DUPLICATE KEY} werden daher nie gesammelt. Beim Ausf&uuml;hren
+ * des Batches wird gepr&uuml;ft, ob die Datenbank diese Update-Counts
+ * best&auml;tigt.
+ * <p>
+ * Genauso wie die {@link Connection} selbst ist dieser Batch nicht
+ * thread-sicher.
+ */
+final class WriteBatch {
+
+    static final int EXPECTED_UPDATE_COUNT = 1;
+
+    private final int batchSize;
+    private int batchedCount;
+    private long drainCount;
+    private boolean isReleased;
+    private String sql;
+    private PreparedStatement statement;
+
+    WriteBatch(final int batchSize) {
+        this.batchSize = batchSize;
+        this.batchedCount = 0;
+        this.drainCount = 0;
+    }
+
+    /**
+     * Liefert {@code true} wenn das SQL-Statement ein einzeiliges
+     * {@code INSERT ... VALUES} ist und daher gesammelt werden kann.
+     * <p>
+     * Im Zweifel wird {@code false} geliefert: ein nicht gesammeltes
+     * Statement wird lediglich sofort ausgef&uuml;hrt.
+     *
+     * @param sql das SQL-Statement.
+     * @return {@code true} wenn das SQL-Statement gesammelt werden kann.
+     */
+    static boolean isBatchable(final String sql) {
+        final String lowerSql = sql.trim().toLowerCase(Locale.ROOT);
+        if (!lowerSql.startsWith("insert")) {
+            return false;
+        }
+        final int valuesIndex = lowerSql.indexOf("values");
+        return (valuesIndex > 0)
+                && !lowerSql.contains("select")
+                && !lowerSql.contains("returning")
+                && !lowerSql.contains("on conflict")
+                && !lowerSql.contains("on duplicate")
+                && isSingleRow(lowerSql, valuesIndex + "values".length());
+    }
+
+    /**
+     * Liefert {@code true} wenn die {@code VALUES}-Liste ab dem angegebenen
+     * Index nur aus einer einzigen Zeile besteht, also kein Komma
+     * au&szlig;erhalb von Klammern und String-Literalen enth&auml;lt.
+     */
+    private static boolean isSingleRow(final String lowerSql, final int fromIndex) {
+        int depth = 0;
+        boolean isLiteral = false;
+        for (int i = fromIndex; lowerSql.length() > i; ++i) {
+            final char ch = lowerSql.charAt(i);
+            if (ch == '\'') {
+                isLiteral = !isLiteral;
+            } else if (!isLiteral) {
+                if (ch == '(') {
+                    ++depth;
+                } else if (ch == ')') {
+                    --depth;
+                } else if ((ch == ',') && (depth == 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nimmt den aktuellen Parametersatz des Statements in den Batch auf.
+     * <p>
+     * Wird f&uuml;r ein anderes Statement gesammelt, dann wird dieser
+     * Batch zuvor ausgef&uuml;hrt. Ist die Batch-Gr&ouml;&szlig;e erreicht,
+     * dann wird der Batch sofort ausgef&uuml;hrt.
+     *
+     * @param preparedStatement das physische Statement.
+     * @param sql               das SQL-Statement.
+     * @return der erwartete Update-Count.
+     * @throws SQLException wenn der Batch nicht ausgef&uuml;hrt werden kann.
+     */
+    int add(final PreparedStatement preparedStatement, final String sql) throws SQLException {
+        if ((this.statement != null) && (this.statement != preparedStatement)) {
+            drain();
+        }
+        preparedStatement.addBatch();
+        this.statement = preparedStatement;
+        this.sql = sql;
+        this.isReleased = false;
+        if (++this.batchedCount >= this.batchSize) {
+            drain();
+        }
+        return EXPECTED_UPDATE_COUNT;
+    }
+
+    /**
+     * Verwirft alle gesammelten Parameters&auml;tze, zum Beispiel bei
+     * einem Rollback.
+     */
+    void discard() {
+        if (this.statement != null) {
+            final PreparedStatement batchStatement = this.statement;
+            final boolean isClosePending = this.isReleased;
+            reset();
+            try {
+                batchStatement.clearBatch();
+                if (isClosePending) {
+                    batchStatement.close();
+                }
+            } catch (SQLException ex) {
+                // Das Statement wird ohnehin nicht mehr
+                // ausgefuehrt:
+            }
+        }
+    }
+
+    /**
+     * F&uuml;hrt alle gesammelten Parameters&auml;tze als einen Batch aus.
+     *
+     * @throws BatchUpdateException wenn die Datenbank einen anderen als den
+     *                              bereits gelieferten Update-Count
+     *                              meldet.
+     * @throws SQLException         wenn der Batch nicht ausgef&uuml;hrt
+     *                              werden kann.
+     */
+    void drain() throws SQLException {
+        if (this.statement != null) {
+            final PreparedStatement batchStatement = this.statement;
+            final boolean isClosePending = this.isReleased;
+            final int expectedCount = this.batchedCount;
+            reset();
+            ++this.drainCount;
+            try {
+                final int[] updateCounts = batchStatement.executeBatch();
+                verify(expectedCount, updateCounts);
+            } finally {
+                if (isClosePending) {
+                    batchStatement.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Liefert die Anzahl der gesammelten Parameters&auml;tze die noch nicht
+     * ausgef&uuml;hrt wurden.
+     *
+     * @return die Anzahl der gesammelten Parameters&auml;tze.
+     */
+    int getBatchedCount() {
+        return batchedCount;
+    }
+
+    /**
+     * Liefert die maximale Anzahl der Parameters&auml;tze pro Batch.
+     *
+     * @return die maximale Anzahl der Parameters&auml;tze pro Batch.
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Liefert die Anzahl der ausgef&uuml;hrten Batches (Round-Trips).
+     *
+     * @return die Anzahl der ausgef&uuml;hrten Batches.
+     */
+    long getDrainCount() {
+        return drainCount;
+    }
+
+    /**
+     * Liefert {@code true} wenn gerade Statements gesammelt werden.
+     *
+     * @return {@code true} wenn gerade Statements gesammelt werden.
+     */
+    boolean isPending() {
+        return (this.statement != null);
+    }
+
+    /**
+     * Liefert {@code true} wenn f&uuml;r das angegebene Statement gerade
+     * gesammelt wird.
+     *
+     * @param preparedStatement das physische Statement.
+     * @return {@code true} wenn f&uuml;r das angegebene Statement gerade
+     * gesammelt wird.
+     */
+    boolean isPendingFor(final Statement preparedStatement) {
+        return (this.statement != null) && (this.statement == preparedStatement);
+    }
+
+    /**
+     * Liefert {@code true} wenn gerade f&uuml;r das angegebene SQL-Statement
+     * gesammelt wird.
+     *
+     * @param sql das SQL-Statement.
+     * @return {@code true} wenn gerade f&uuml;r das angegebene SQL-Statement
+     * gesammelt wird.
+     */
+    boolean isPendingFor(final String sql) {
+        return (this.statement != null) && this.sql.equals(sql);
+    }
+
+    /**
+     * &Uuml;bernimmt das angegebene Statement, sofern f&uuml;r es gerade
+     * gesammelt wird. Es wird dann erst geschlossen, nachdem der Batch
+     * ausgef&uuml;hrt oder verworfen wurde.
+     *
+     * @param preparedStatement das Statement das geschlossen werden soll.
+     * @return {@code true} wenn der Batch das Statement &uuml;bernommen
+     * hat, {@code false} wenn es sofort geschlossen werden kann.
+     */
+    boolean release(final Statement preparedStatement) {
+        if (isPendingFor(preparedStatement)) {
+            this.isReleased = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Liefert das vom Batch &uuml;bernommene Statement zur&uuml;ck, sofern
+     * gerade f&uuml;r das angegebene SQL-Statement gesammelt wird.
+     *
+     * @param sql das SQL-Statement.
+     * @return das Statement oder {@code null} wenn f&uuml;r das
+     * SQL-Statement kein geschlossenes Statement gesammelt wird.
+     * @see #release(Statement)
+     */
+    PreparedStatement reuse(final String sql) {
+        if (this.isReleased && isPendingFor(sql)) {
+            this.isReleased = false;
+            return this.statement;
+        }
+        return null;
+    }
+
+    private void reset() {
+        this.isReleased = false;
+        this.statement = null;
+        this.sql = null;
+        this.batchedCount = 0;
+    }
+
+    private void verify(final int expectedCount, final int[] updateCounts) throws BatchUpdateException {
+        if (updateCounts.length != expectedCount) {
+            throw new BatchUpdateException("Expected " + expectedCount + " update counts but got " + updateCounts.length, updateCounts);
+        }
+        for (int i = 0; updateCounts.length > i; ++i) {
+            if ((updateCounts[i] != EXPECTED_UPDATE_COUNT) && (updateCounts[i] != Statement.SUCCESS_NO_INFO)) {
+                throw new BatchUpdateException("Batched statement " + i + " returned update count "
+                        + updateCounts[i] + " instead of " + EXPECTED_UPDATE_COUNT, updateCounts);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBatch{" +
+                "batchSize=" + batchSize +
+                ", batchedCount=" + batchedCount +
+                ", drainCount=" + drainCount +
+                '}';
+    }
+}
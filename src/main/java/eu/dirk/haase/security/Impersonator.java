@@ -1,5 +1,6 @@
 package eu.dirk.haase.security;
 
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 /**
@@ -74,6 +75,27 @@ public interface Impersonator {
         return new ThreadLocalImpersonator(flushAllRunnable);
     }
 
+    /**
+     * Erzeugt einen neuen {@code Impersonator} aus einer Standard-Implementation,
+     * der nur flusht, wenn es etwas zu schreiben geben kann.
+     * <p>
+     * Beispiel:
+     * <pre><code>
+     * final CurrentFlusher flusher = GlobalFlushables.current();
+     * final Impersonator impersonator = Impersonator.newImpersonator(flusher::flushAll, flusher::isDirty);
+     * </code></pre>
+     *
+     * @param flushAllRunnable die Flush-Funktion um vorgelagerte potentielle Datenbank-
+     *                         &Auml;nderungen anzuwenden bevor der User gewechselt
+     *                         wird.
+     * @param isDirtySupplier  liefert {@code false} wenn die Flush-Funktion nichts
+     *                         bewirken w&uuml;rde; der Flush wird dann ausgelassen.
+     * @return der neue {@code Impersonator}.
+     */
+    static Impersonator newImpersonator(final Runnable flushAllRunnable, final BooleanSupplier isDirtySupplier) {
+        return new ThreadLocalImpersonator(flushAllRunnable, isDirtySupplier);
+    }
+
     /**
      * L&ouml;scht den aktuellen und tempor&auml;ren User des
      * ausf&uuml;hrenden Threads.
@@ -94,6 +116,32 @@ public interface Impersonator {
      */
     Supplier<String> currentUserSupplier();
 
+    /**
+     * Liefert die Anzahl der Flushes, die beim Wechsel des Users
+     * ausgef&uuml;hrt wurden.
+     * <p>
+     * Die Standard-Implementation liefert {@code 0}.
+     *
+     * @return die Anzahl der ausgef&uuml;hrten Flushes.
+     * @see #getSkippedFlushCount()
+     */
+    default long getFlushCount() {
+        return 0;
+    }
+
+    /**
+     * Liefert die Anzahl der Flushes, die beim Wechsel des Users
+     * ausgelassen wurden, weil es nichts zu schreiben gab.
+     * <p>
+     * Die Standard-Implementation liefert {@code 0}.
+     *
+     * @return die Anzahl der ausgelassenen Flushes.
+     * @see #newImpersonator(Runnable, BooleanSupplier)
+     */
+    default long getSkippedFlushCount() {
+        return 0;
+    }
+
     /**
      * &Auml;ndert den User unter dem das angegebene Kommando
      * ausgef&uuml;hrt werden soll.
@@ -1,6 +1,11 @@
 package eu.dirk.haase.security;
 
+import eu.dirk.haase.concurrent.ContextPropagator;
+import eu.dirk.haase.concurrent.ContextSnapshot;
+
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 public final class ThreadLocalImpersonator implements Impersonator {
@@ -8,6 +13,10 @@ public final class ThreadLocalImpersonator implements Impersonator {
     private final ThreadLocal<Context> currentContextThreadLocal;
     private final ThreadLocal<String> currentUserThreadLocal;
     private final Runnable flushAllRunnable;
+    private final LongAdder flushCount;
+    private final BooleanSupplier isDirtySupplier;
+    private final ContextPropagator<String> propagator;
+    private final LongAdder skippedFlushCount;
 
     /**
      * Erzeugt einen neuen {@code Impersonator} aus einer Standard-Implementation.
@@ -17,10 +26,30 @@ public final class ThreadLocalImpersonator implements Impersonator {
      *                         wird.
      */
     public ThreadLocalImpersonator(final Runnable flushAllRunnable) {
+        this(flushAllRunnable, () -> true);
+    }
+
+    /**
+     * Erzeugt einen neuen {@code Impersonator} aus einer Standard-Implementation,
+     * der die Flush-Funktion nur aufruft, wenn es etwas zu schreiben geben kann.
+     *
+     * @param flushAllRunnable die Flush-Funktion um vorgelagerte potentielle Datenbank-
+     *                         &Auml;nderungen anzuwendeen bevor der User gewechselt
+     *                         wird.
+     * @param isDirtySupplier  liefert {@code false} wenn die Flush-Funktion nichts
+     *                         bewirken w&uuml;rde.
+     */
+    public ThreadLocalImpersonator(final Runnable flushAllRunnable, final BooleanSupplier isDirtySupplier) {
         Objects.requireNonNull(flushAllRunnable, "Flush-All function can not be null");
+        Objects.requireNonNull(isDirtySupplier, "Is-Dirty function can not be null");
         this.flushAllRunnable = flushAllRunnable;
+        this.isDirtySupplier = isDirtySupplier;
+        this.flushCount = new LongAdder();
+        this.skippedFlushCount = new LongAdder();
         this.currentUserThreadLocal = new ThreadLocal<>();
         this.currentContextThreadLocal = new ThreadLocal<>();
+        this.propagator = new UserPropagator();
+        ContextSnapshot.register(this.propagator);
     }
 
     @Override
@@ -40,6 +69,25 @@ public final class ThreadLocalImpersonator implements Impersonator {
         return this.currentUserThreadLocal::get;
     }
 
+    private void flushAllIfDirty() {
+        if (this.isDirtySupplier.getAsBoolean()) {
+            this.flushAllRunnable.run();
+            this.flushCount.increment();
+        } else {
+            this.skippedFlushCount.increment();
+        }
+    }
+
+    @Override
+    public long getFlushCount() {
+        return this.flushCount.sum();
+    }
+
+    @Override
+    public long getSkippedFlushCount() {
+        return this.skippedFlushCount.sum();
+    }
+
     @Override
     public Context impersonate(final String runAsUser) {
         return new Context(runAsUser);
@@ -54,14 +102,14 @@ public final class ThreadLocalImpersonator implements Impersonator {
     }
 
     private String init(final String runAsUser) {
-        flushAllRunnable.run();
+        flushAllIfDirty();
         final String currentUser = this.currentUserThreadLocal.get();
         this.currentUserThreadLocal.set(runAsUser);
         return currentUser;
     }
 
     private void reset(final String lastUser) {
-        flushAllRunnable.run();
+        flushAllIfDirty();
         if (lastUser == null) {
             // Oberste Ebene - keine anderer Context ist aktiv
             this.currentUserThreadLocal.remove();
@@ -152,4 +200,54 @@ public final class ThreadLocalImpersonator implements Impersonator {
         }
     }
 
+    /**
+     * &Uuml;bertr&auml;gt den impersonierten User in den Thread, der eine
+     * Aufgabe aus einem {@link ContextSnapshot} ausf&uuml;hrt.
+     * <p>
+     * Wie beim Schlie&szlig;en eines {@link ImpersonationContext} werden
+     * am Ende der Aufgabe die aufgelaufenen Datenbank-&Auml;nderungen
+     * abgesetzt, solange noch der impersonierte User aktiv ist.
+     */
+    private final class UserPropagator implements ContextPropagator<String> {
+
+        @Override
+        public String capture() {
+            return currentUserThreadLocal.get();
+        }
+
+        @Override
+        public void runWith(final String runAsUser, final Runnable operation) {
+            final String lastUser = currentUserThreadLocal.get();
+            final Context lastContext = currentContextThreadLocal.get();
+            if ((runAsUser == null) && (lastUser == null) && (lastContext == null)) {
+                operation.run();
+                return;
+            }
+            currentContextThreadLocal.remove();
+            if (runAsUser == null) {
+                currentUserThreadLocal.remove();
+            } else {
+                currentUserThreadLocal.set(runAsUser);
+            }
+            try {
+                operation.run();
+                if (runAsUser != null) {
+                    flushAllIfDirty();
+                }
+            } finally {
+                if (lastContext == null) {
+                    currentContextThreadLocal.remove();
+                } else {
+                    currentContextThreadLocal.set(lastContext);
+                }
+                if (lastUser == null) {
+                    currentUserThreadLocal.remove();
+                } else {
+                    currentUserThreadLocal.set(lastUser);
+                }
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,102 @@
+package eu.dirk.haase.hibernate.jdbc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Bindet den aktuellen {@link ResourceScope} an die laufende Operation.
+ * <p>
+ * Variante f&uuml;r Java 21 und neuer im Multi-Release-JAR: der Scope
+ * wird mit einem {@code java.lang.ScopedValue} gebunden. Damit belegt er
+ * keinen Eintrag in der {@code ThreadLocalMap} des (virtuellen) Threads
+ * und wird an die Subtasks eines {@code StructuredTaskScope} vererbt.
+ * <p>
+ * {@code ScopedValue} ist in Java 21 bis 24 noch eine Preview-API und
+ * wird deshalb &uuml;ber {@link MethodHandle}s angesprochen - so
+ * l&auml;uft diese Klasse ohne {@code --enable-preview} und auch mit
+ * der finalen API ab Java 25. Fehlt die API, wird wie bis Java 20 ein
+ * {@link ThreadLocal} verwendet.
+ */
+final class ResourceScopeBinding {
+
+    private static final ThreadLocal<ResourceScope> CURRENT_SCOPE;
+    private static final MethodHandle GET;
+    private static final MethodHandle IS_BOUND;
+    private static final MethodHandle RUN_WHERE;
+
+    static {
+        MethodHandle get = null;
+        MethodHandle isBound = null;
+        MethodHandle runWhere = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+            final Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+            final Object scopedValue = scopedValueClass.getMethod("newInstance").invoke(null);
+            get = lookup.findVirtual(scopedValueClass, "get", MethodType.methodType(Object.class))
+                    .bindTo(scopedValue)
+                    .asType(MethodType.methodType(ResourceScope.class));
+            isBound = lookup.findVirtual(scopedValueClass, "isBound", MethodType.methodType(boolean.class))
+                    .bindTo(scopedValue);
+            final MethodHandle where = lookup.findStatic(scopedValueClass, "where", MethodType.methodType(carrierClass, scopedValueClass, Object.class))
+                    .bindTo(scopedValue);
+            final MethodHandle run = lookup.findVirtual(carrierClass, "run", MethodType.methodType(void.class, Runnable.class));
+            runWhere = MethodHandles.filterArguments(run, 0, where)
+                    .asType(MethodType.methodType(void.class, ResourceScope.class, Runnable.class));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            get = null;
+            isBound = null;
+            runWhere = null;
+        }
+        GET = get;
+        IS_BOUND = isBound;
+        RUN_WHERE = runWhere;
+        CURRENT_SCOPE = (RUN_WHERE == null ? new ThreadLocal<>() : null);
+    }
+
+    private ResourceScopeBinding() {
+    }
+
+    static ResourceScope current() {
+        if (CURRENT_SCOPE != null) {
+            return CURRENT_SCOPE.get();
+        }
+        try {
+            return ((boolean) IS_BOUND.invokeExact() ? (ResourceScope) GET.invokeExact() : null);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex.toString(), ex);
+        }
+    }
+
+    static void runWhere(final ResourceScope scope, final Runnable operation) {
+        if (CURRENT_SCOPE != null) {
+            runWhereThreadLocal(scope, operation);
+            return;
+        }
+        try {
+            RUN_WHERE.invokeExact(scope, operation);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex.toString(), ex);
+        }
+    }
+
+    private static void runWhereThreadLocal(final ResourceScope scope, final Runnable operation) {
+        final ResourceScope previous = CURRENT_SCOPE.get();
+        CURRENT_SCOPE.set(scope);
+        try {
+            operation.run();
+        } finally {
+            if (previous == null) {
+                CURRENT_SCOPE.remove();
+            } else {
+                CURRENT_SCOPE.set(previous);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.ConnectionPool;
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.hibernate.jdbc.HibernateDataSource;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.jdbc.JdbcPreparedStatement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ConnectionPoolTest {
+
+    private JdbcDataSource dataSource;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        this.dataSource = new JdbcDataSource();
+        this.dataSource.setUrl("jdbc:h2:mem:connection_pool_test;DB_CLOSE_DELAY=-1");
+        this.dataSource.setUser("sa");
+        this.dataSource.setPassword("sa");
+        this.pool = new ConnectionPool(this.dataSource, 1, 2, 100, 60_000);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    @Test
+    public void test_that_thread_gets_its_last_used_connection() throws SQLException {
+        // Given
+        final Connection connection1 = this.pool.borrow();
+        final Connection physical1 = connection1.unwrap(JdbcConnection.class);
+        connection1.close();
+        // When
+        final Connection connection2 = this.pool.borrow();
+        final Connection physical2 = connection2.unwrap(JdbcConnection.class);
+        // Then
+        assertThat(connection1.isClosed()).isTrue();
+        assertThat(connection2).isNotSameAs(connection1);
+        assertThat(physical2).isSameAs(physical1);
+        assertThat(this.pool.getThreadLocalHitCount()).isEqualTo(1);
+        assertThat(this.pool.getCreatedCount()).isEqualTo(1);
+        assertThat(this.pool.getActiveCount()).isEqualTo(1);
+        // clean up
+        connection2.close();
+    }
+
+    @Test
+    public void test_that_returned_connection_is_reset() throws SQLException {
+        // Given
+        final Connection connection1 = this.pool.borrow();
+        connection1.setAutoCommit(false);
+        connection1.setReadOnly(true);
+        connection1.close();
+        // When
+        final Connection connection2 = this.pool.borrow();
+        // Then
+        assertThat(connection2.getAutoCommit()).isTrue();
+        assertThat(connection2.isReadOnly()).isFalse();
+        // clean up
+        connection2.close();
+    }
+
+    @Test
+    public void test_that_exhausted_pool_times_out() throws SQLException {
+        // Given
+        final Connection connection1 = this.pool.borrow();
+        final Connection connection2 = this.pool.borrow();
+        SQLException actualException = null;
+        // When
+        try {
+            this.pool.borrow();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        // Then
+        assertThat(actualException).isInstanceOf(SQLTransientConnectionException.class);
+        assertThat(this.pool.getTimeoutCount()).isEqualTo(1);
+        assertThat(this.pool.getWaitCount()).isEqualTo(1);
+        assertThat(this.pool.getMaxWaitTimeNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(this.pool.getTotalCount()).isEqualTo(2);
+        // clean up
+        connection1.close();
+        connection2.close();
+    }
+
+    @Test
+    public void test_that_returned_connection_is_handed_off_to_waiting_thread() throws Exception {
+        // Given
+        final ConnectionPool pool = new ConnectionPool(this.dataSource, 0, 1, 5_000, 60_000);
+        final Connection connection1 = pool.borrow();
+        final Connection physical1 = connection1.unwrap(JdbcConnection.class);
+        // When
+        final CompletableFuture<Connection> future = CompletableFuture.supplyAsync(() -> {
+            try (Connection connection2 = pool.borrow()) {
+                return connection2.unwrap(JdbcConnection.class);
+            } catch (SQLException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        while (pool.getWaitCount() == 0) {
+            Thread.sleep(1);
+        }
+        connection1.close();
+        // Then
+        assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(physical1);
+        assertThat(pool.getCreatedCount()).isEqualTo(1);
+        // clean up
+        pool.close();
+    }
+
+    @Test
+    public void test_that_invalid_idle_connection_is_replaced() throws SQLException {
+        // Given
+        final ConnectionPool pool = new ConnectionPool(this.dataSource, 0, 2, 100, 0);
+        final Connection connection1 = pool.borrow();
+        final Connection physical1 = connection1.unwrap(JdbcConnection.class);
+        connection1.close();
+        physical1.close();
+        // When
+        final Connection connection2 = pool.borrow();
+        // Then
+        assertThat(connection2.unwrap(JdbcConnection.class)).isNotSameAs(physical1);
+        assertThat(pool.getValidationFailureCount()).isEqualTo(1);
+        assertThat(pool.getCreatedCount()).isEqualTo(2);
+        assertThat(pool.getTotalCount()).isEqualTo(1);
+        // clean up
+        connection2.close();
+        pool.close();
+    }
+
+    @Test
+    public void test_that_pooled_data_source_returns_physical_connection_on_close() throws SQLException {
+        // Given
+        final HibernateDataSource hibernateDataSource = new HibernateDataSource(this.dataSource);
+        hibernateDataSource.setPoolMaxSize(2);
+        final Connection connection1 = hibernateDataSource.getConnection();
+        final Connection physical1 = connection1.unwrap(JdbcConnection.class);
+        connection1.close();
+        // When
+        final Connection connection2 = hibernateDataSource.getConnection();
+        // Then
+        assertThat(connection2).isInstanceOf(HibernateConnection.class);
+        assertThat(connection2).isNotSameAs(connection1);
+        assertThat(connection2.unwrap(JdbcConnection.class)).isSameAs(physical1);
+        assertThat(physical1.isClosed()).isFalse();
+        assertThat(hibernateDataSource.getConnectionPool().getBorrowCount()).isEqualTo(2);
+        // clean up
+        connection2.close();
+        hibernateDataSource.close();
+        assertThat(physical1.isClosed()).isTrue();
+    }
+
+    @Test
+    public void test_that_pooled_connection_keeps_its_statement_cache() throws SQLException {
+        // Given
+        final HibernateDataSource hibernateDataSource = new HibernateDataSource(this.dataSource);
+        hibernateDataSource.setPoolMaxSize(1);
+        final String sql = "select 1";
+        final HibernateConnection connection1 = (HibernateConnection) hibernateDataSource.getConnection();
+        final PreparedStatement statement1 = connection1.prepareStatement(sql);
+        final PreparedStatement physical1 = statement1.unwrap(JdbcPreparedStatement.class);
+        statement1.close();
+        connection1.close();
+        // When
+        final HibernateConnection connection2 = (HibernateConnection) hibernateDataSource.getConnection();
+        final PreparedStatement statement2 = connection2.prepareStatement(sql);
+        // Then
+        assertThat(statement2.unwrap(JdbcPreparedStatement.class)).isSameAs(physical1);
+        assertThat(physical1.isClosed()).isFalse();
+        assertThat(connection2.getStatementCache().getHitCount()).isEqualTo(1);
+        // clean up
+        statement2.close();
+        connection2.close();
+        hibernateDataSource.close();
+        assertThat(physical1.isClosed()).isTrue();
+    }
+
+}
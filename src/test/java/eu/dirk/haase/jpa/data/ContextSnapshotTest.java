@@ -0,0 +1,150 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.concurrent.ContextPropagatingExecutorService;
+import eu.dirk.haase.concurrent.ContextPropagatingForkJoinPool;
+import eu.dirk.haase.concurrent.ContextSnapshot;
+import eu.dirk.haase.hibernate.Flushable;
+import eu.dirk.haase.hibernate.FlushableRegistry;
+import eu.dirk.haase.hibernate.jdbc.ResourceScope;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import eu.dirk.haase.security.ImpersonationContext;
+import eu.dirk.haase.security.Impersonator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ContextSnapshotTest {
+
+    private ExecutorService executorService;
+    private AtomicInteger flushCount;
+    private Impersonator impersonator;
+
+    @Before
+    public void setUp() {
+        this.flushCount = new AtomicInteger();
+        this.impersonator = Impersonator.newImpersonator(() -> this.flushCount.incrementAndGet());
+        this.executorService = new ContextPropagatingExecutorService(Executors.newSingleThreadExecutor());
+    }
+
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+        this.impersonator.clear();
+    }
+
+    @Test
+    public void test_that_the_impersonated_user_is_propagated_to_the_task() throws Exception {
+        // Given
+        final List<String> userList = new ArrayList<>();
+        // When
+        try (final ImpersonationContext context = impersonator.impersonate("user-1")) {
+            userList.add(executorService.submit(() -> impersonator.currentUserSupplier().get()).get());
+            userList.add(CompletableFuture.supplyAsync(() -> impersonator.currentUserSupplier().get(), executorService).get());
+        }
+        userList.add(executorService.submit(() -> impersonator.currentUserSupplier().get()).get());
+        // Then
+        assertThat(userList.get(0)).isEqualTo("user-1");
+        assertThat(userList.get(1)).isEqualTo("user-1");
+        assertThat(userList.get(2)).isNull();
+        // impersonate + close, Ende der beiden Aufgaben:
+        assertThat(flushCount.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void test_that_the_fork_join_pool_propagates_the_impersonated_user() throws Exception {
+        // Given
+        final ForkJoinPool forkJoinPool = new ContextPropagatingForkJoinPool(2);
+        final String user1;
+        final String user2;
+        // When
+        try (final ImpersonationContext context = impersonator.impersonate("user-2")) {
+            user1 = forkJoinPool.submit(() -> impersonator.currentUserSupplier().get()).get();
+            user2 = forkJoinPool.invoke(ForkJoinTask.adapt(() -> impersonator.currentUserSupplier().get()));
+        }
+        // Then
+        assertThat(user1).isEqualTo("user-2");
+        assertThat(user2).isEqualTo("user-2");
+        // clean up
+        forkJoinPool.shutdownNow();
+    }
+
+    @Test
+    public void test_that_thread_bound_resources_are_not_shared_with_the_task() throws Exception {
+        // Given
+        final ThreadLocalResourceRegistry<String, String> registry = ThreadLocalResourceRegistry.newInstance(ThreadLocalResourceRegistry.RefType.HARD);
+        registry.computeIfAbsent("key1", (k) -> "caller");
+        // When
+        final String value1 = executorService.submit(() -> {
+            final String value = registry.getCurrent("key1");
+            registry.computeIfAbsent("key1", (k) -> "task");
+            return value;
+        }).get();
+        final String value2 = executorService.submit(() -> registry.<String>getCurrent("key1")).get();
+        // Das Future ist fertig bevor der Container der Aufgabe verworfen wird:
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+        // Then
+        assertThat(value1).isNull();
+        assertThat(value2).isNull();
+        assertThat(registry.<String>getCurrent("key1")).isEqualTo("caller");
+        assertThat(registry.getStatistics().getThreadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_the_resource_scope_is_propagated_to_the_task() throws Exception {
+        // Given
+        final ThreadLocalResourceRegistry<String, String> registry = ThreadLocalResourceRegistry.newScopedInstance();
+        // When
+        final List<String> valueList = ResourceScope.call(() -> {
+            final List<String> list = new ArrayList<>();
+            registry.computeIfAbsent("key1", (k) -> "caller");
+            list.add(executorService.submit(() -> registry.<String>getCurrent("key1")).get());
+            executorService.submit(() -> registry.computeIfAbsent("key2", (k) -> "task")).get();
+            list.add(registry.getCurrent("key2"));
+            return list;
+        });
+        // Then
+        assertThat(valueList.get(0)).isEqualTo("caller");
+        assertThat(valueList.get(1)).isEqualTo("task");
+    }
+
+    @Test
+    public void test_that_the_flushables_are_flushed_before_and_after_the_task() throws Exception {
+        // Given
+        final FlushableRegistry registry = FlushableRegistry.newInstance();
+        final List<String> flushList = new ArrayList<>();
+        registry.register(newFlushable(flushList, "caller"));
+        // When
+        final ContextSnapshot snapshot = ContextSnapshot.capture();
+        flushList.add("captured");
+        executorService.submit(snapshot.wrap(() -> registry.register(newFlushable(flushList, "task")))).get();
+        flushList.add("finished");
+        // Then
+        assertThat(flushList.size()).isEqualTo(4);
+        assertThat(flushList.get(0)).isEqualTo("caller");
+        assertThat(flushList.get(1)).isEqualTo("captured");
+        assertThat(flushList.get(2)).isEqualTo("task");
+        assertThat(flushList.get(3)).isEqualTo("finished");
+        assertThat(registry.sizeCurrent()).isEqualTo(0);
+    }
+
+    private Flushable newFlushable(final List<String> flushList, final String name) {
+        return () -> flushList.add(name);
+    }
+
+}
@@ -0,0 +1,154 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.model.Employee;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.Date;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class DirtyAwareFlushTest {
+
+    private HibernateConnection connection;
+    private Session session;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.session = HibernateUtil.getSessionFactory().openSession();
+        this.session.beginTransaction();
+        // Die Connection wird mit dem ersten Statement
+        // mit der Session verbunden:
+        this.session.createQuery("from Employee").list();
+        this.connection = this.session.connection().unwrap(HibernateConnection.class);
+        this.session.clear();
+    }
+
+    @After
+    public void tearDown() {
+        this.session.getTransaction().rollback();
+        this.session.close();
+    }
+
+    @Test
+    public void test_that_flush_is_skipped_when_session_is_clean() {
+        // Given
+        final long flushCount1 = this.connection.getFlushCount();
+        final long skippedFlushCount1 = this.connection.getSkippedFlushCount();
+        // When
+        this.connection.flush();
+        this.connection.flush();
+        // Then
+        assertThat(this.connection.getFlushCount() - flushCount1).isEqualTo(0);
+        assertThat(this.connection.getSkippedFlushCount() - skippedFlushCount1).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_unchanged_loaded_entity_is_not_dirty_but_flushed_without_dirty_check() {
+        // Given
+        final Long employeeId = (Long) this.session.save(new Employee("Ida", "Ingram", new Date(121212), "114-857-968"));
+        this.session.flush();
+        this.session.clear();
+        final Employee employee = (Employee) this.session.get(Employee.class, employeeId);
+        final long flushCount1 = this.connection.getFlushCount();
+        final long skippedFlushCount1 = this.connection.getSkippedFlushCount();
+        // When
+        final boolean isDirty = this.connection.isDirty();
+        this.connection.flush();
+        // Then
+        assertThat(employee).isNotNull();
+        assertThat(isDirty).isFalse();
+        // Setter-Aenderungen erkennt erst der flush selbst:
+        assertThat(this.connection.getFlushCount() - flushCount1).isEqualTo(1);
+        assertThat(this.connection.getSkippedFlushCount() - skippedFlushCount1).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_dirty_check_is_bounded_by_session_size() {
+        // Given
+        // Mehr Entities als der Dirty-Check hoechstens prueft:
+        for (int i = 0; i <= 64; ++i) {
+            this.session.save(new Employee("Bob", "Bulk-" + i, new Date(121212), "114-857-964"));
+        }
+        this.session.flush();
+        // When
+        final boolean isDirty = this.connection.isDirty();
+        // Then
+        assertThat(isDirty).isTrue();
+    }
+
+    @Test
+    public void test_that_flush_is_done_when_loaded_entity_is_changed() {
+        // Given
+        final Long employeeId = (Long) this.session.save(new Employee("Eva", "Epping", new Date(121212), "114-857-969"));
+        this.session.flush();
+        this.session.clear();
+        final Employee employee = (Employee) this.session.get(Employee.class, employeeId);
+        final long flushCount1 = this.connection.getFlushCount();
+        // When
+        employee.setLastname("Eppinger");
+        final boolean isDirty = this.connection.isDirty();
+        this.connection.flush();
+        // Then
+        assertThat(isDirty).isTrue();
+        assertThat(this.connection.getFlushCount() - flushCount1).isEqualTo(1);
+        assertThat(this.connection.isDirty()).isFalse();
+    }
+
+    @Test
+    public void test_that_connection_is_dirty_only_with_pending_work() {
+        // Given
+        final Employee employee = new Employee("Ute", "Lemper", new Date(121212), "114-857-967");
+        // Mit Identity-Spalte wird das Insert sofort ausgefuehrt:
+        this.session.save(employee);
+        final boolean isDirty1 = this.connection.isDirty();
+        // When
+        employee.setLastname("Lemper-Schmidt");
+        final boolean isDirty2 = this.connection.isDirty();
+        // Then
+        assertThat(isDirty1).isFalse();
+        assertThat(isDirty2).isTrue();
+    }
+
+    @Test
+    public void test_that_flush_is_done_when_session_holds_writable_entities() {
+        // Given
+        final Employee employee = new Employee("Nina", "Mayers", new Date(121212), "114-857-965");
+        this.session.save(employee);
+        final long flushCount1 = this.connection.getFlushCount();
+        final long skippedFlushCount1 = this.connection.getSkippedFlushCount();
+        // When
+        employee.setLastname("Meyers");
+        this.connection.flush();
+        // Then
+        assertThat(this.connection.getFlushCount() - flushCount1).isEqualTo(1);
+        assertThat(this.connection.getSkippedFlushCount() - skippedFlushCount1).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_flush_is_skipped_when_all_entities_are_read_only() {
+        // Given
+        final Employee employee = new Employee("Tom", "Tailor", new Date(121212), "114-857-966");
+        this.session.save(employee);
+        this.session.flush();
+        this.session.clear();
+        this.session.setDefaultReadOnly(true);
+        this.session.createQuery("from Employee").list();
+        final long flushCount1 = this.connection.getFlushCount();
+        final long skippedFlushCount1 = this.connection.getSkippedFlushCount();
+        // When
+        this.connection.flush();
+        // Then
+        assertThat(this.connection.getFlushCount() - flushCount1).isEqualTo(0);
+        assertThat(this.connection.getSkippedFlushCount() - skippedFlushCount1).isEqualTo(1);
+    }
+
+}
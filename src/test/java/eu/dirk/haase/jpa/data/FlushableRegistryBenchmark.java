@@ -0,0 +1,75 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.Flushable;
+import eu.dirk.haase.hibernate.FlushableRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst einen Zyklus aus Registrieren und Flushen der
+ * {@link FlushableRegistry} mit 1, 10 und 100 Flushables.
+ * <p>
+ * Mit {@code -prof gc} zeigt der Benchmark zus&auml;tzlich, dass ein
+ * Zyklus ohne Allokationen auskommt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FlushableRegistryBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int count;
+    private Flushable[] flushables;
+    private FlushableRegistry registry;
+    private long sum;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FlushableRegistryBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    public int registerAndFlushAll() {
+        for (final Flushable flushable : this.flushables) {
+            this.registry.register(flushable);
+        }
+        return this.registry.flushAllCurrent();
+    }
+
+    @Benchmark
+    public int registerAndSequenceFlush() {
+        for (final Flushable flushable : this.flushables) {
+            this.registry.register(flushable);
+        }
+        // Das erneute Registrieren der mittleren Flushables setzt die
+        // Sequenz bis zu ihnen ab:
+        int countFlushed = this.registry.register(this.flushables[this.count / 2]);
+        countFlushed += this.registry.flushAllCurrent();
+        return countFlushed;
+    }
+
+    @Setup
+    public void setUp() {
+        this.registry = FlushableRegistry.newInstance();
+        this.flushables = new Flushable[this.count];
+        for (int i = 0; this.count > i; ++i) {
+            final int value = i;
+            this.flushables[i] = () -> this.sum += value;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.registry.releaseAll();
+    }
+
+}
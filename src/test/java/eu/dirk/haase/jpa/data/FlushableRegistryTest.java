@@ -2,6 +2,7 @@ package eu.dirk.haase.jpa.data;
 
 import eu.dirk.haase.hibernate.Flushable;
 import eu.dirk.haase.hibernate.FlushableRegistry;
+import eu.dirk.haase.hibernate.ThreadLocalFlushableRegistry;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -10,9 +11,14 @@ import org.junit.runners.BlockJUnit4ClassRunner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 
 @RunWith(BlockJUnit4ClassRunner.class)
@@ -54,6 +60,124 @@ public class FlushableRegistryTest {
         }
     }
 
+    @Test
+    public void test_that_all_flushables_are_flushed_asynchronously() throws Exception {
+        // Given
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final CountDownLatch flushStarted = new CountDownLatch(1);
+        final CountDownLatch flushReleased = new CountDownLatch(1);
+        for (int i = 0; 10 > i; ++i) {
+            registry.register(flushableList.get(i));
+        }
+        registry.register(() -> {
+            flushStarted.countDown();
+            awaitUninterruptibly(flushReleased);
+        });
+        // When
+        final CompletableFuture<Integer> future = registry.flushAllCurrentAsync(executorService);
+        flushStarted.await();
+        final boolean isDone1 = future.isDone();
+        flushReleased.countDown();
+        // Die Barriere wartet bis der Flush beendet ist:
+        registry.awaitFlushCurrent();
+        final boolean isDone2 = future.isDone();
+        final int size = registry.sizeCurrent();
+        // Then
+        assertThat(isDone1).isFalse();
+        assertThat(isDone2).isTrue();
+        assertThat(future.get()).isEqualTo(11);
+        assertThat(size).isEqualTo(0);
+        for (int i = 0; 10 > i; ++i) {
+            final MyFlushable actual = flushableList.get(i);
+            assertThat(actual.createIndex()).isEqualTo(actual.flushIndex());
+        }
+        // clean up
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void test_that_the_barrier_rethrows_the_asynchronous_failure() {
+        // Given
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        registry.register(() -> {
+            throw new IllegalStateException("flush failed");
+        });
+        // When
+        final CompletableFuture<Integer> future = registry.flushAllCurrentAsync(executorService);
+        // Then
+        try {
+            registry.awaitFlushCurrent();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage()).isEqualTo("flush failed");
+        }
+        assertThat(future.isCompletedExceptionally()).isTrue();
+        assertThat(registry.sizeCurrent()).isEqualTo(1);
+        // clean up
+        registry.releaseCurrent();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void test_that_release_without_barrier_keeps_the_fast_path() throws Exception {
+        // Given
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final ThreadLocalFlushableRegistry threadLocalRegistry = (ThreadLocalFlushableRegistry) registry;
+        registry.register(flushableList.get(0));
+        // When
+        final CompletableFuture<Integer> future1 = registry.flushAllCurrentAsync(executorService);
+        registry.releaseCurrent();
+        final int pendingFlushCount1 = threadLocalRegistry.getPendingFlushCount();
+        registry.register(flushableList.get(1));
+        registry.register(() -> {
+            throw new IllegalStateException("flush failed");
+        });
+        final CompletableFuture<Integer> future2 = registry.flushAllCurrentAsync(executorService);
+        try {
+            registry.releaseCurrent();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage()).isEqualTo("flush failed");
+        }
+        final int pendingFlushCount2 = threadLocalRegistry.getPendingFlushCount();
+        // Then
+        assertThat(future1.get()).isEqualTo(1);
+        assertThat(future2.isCompletedExceptionally()).isTrue();
+        assertThat(pendingFlushCount1).isEqualTo(0);
+        assertThat(pendingFlushCount2).isEqualTo(0);
+        assertThat(registry.sizeCurrent()).isEqualTo(0);
+        // clean up
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void test_that_the_registry_is_dirty_when_any_flushable_is_dirty() {
+        // Given
+        final Flushable cleanFlushable = new Flushable() {
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public boolean isDirty() {
+                return false;
+            }
+        };
+        // When
+        boolean isDirty1 = registry.isDirtyCurrent();
+        registry.register(cleanFlushable);
+        boolean isDirty2 = registry.isDirtyCurrent();
+        registry.register(flushableList.get(0));
+        boolean isDirty3 = registry.isDirtyCurrent();
+        registry.flushAllCurrent();
+        boolean isDirty4 = registry.isDirtyCurrent();
+        // Then
+        assertThat(isDirty1).isFalse();
+        assertThat(isDirty2).isFalse();
+        assertThat(isDirty3).isTrue();
+        assertThat(isDirty4).isFalse();
+    }
+
     @Test
     public void test_that_head_flushables_are_flushed() {
         // Given
@@ -183,6 +307,14 @@ public class FlushableRegistryTest {
         }
     }
 
+    private void awaitUninterruptibly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
     interface MyFlushable extends Flushable {
         int createIndex();
 
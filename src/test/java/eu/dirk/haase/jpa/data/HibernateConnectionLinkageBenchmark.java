@@ -0,0 +1,99 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst den Mehraufwand einer {@link HibernateConnection} pro Statement
+ * gegen&uuml;ber einer direkten H2-{@link Connection}.
+ * <p>
+ * Die {@link HibernateConnection} ist mit einer Hibernate-Session
+ * verbunden, so dass jedes Statement den Weg &uuml;ber die Verbindung
+ * von Session und {@link Connection} nimmt.
+ * <p>
+ * Mit {@code -prof gc} zeigt JMH, dass im eingeschwungenen Zustand
+ * keine Objekte f&uuml;r die Verbindung angelegt werden.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HibernateConnectionLinkageBenchmark {
+
+    private static final String SQL = "select EMPLOYEE_ID from EMPLOYEE where EMPLOYEE_ID = ?";
+
+    private Connection hibernateConnection;
+    private Connection rawConnection;
+    private Session session;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HibernateConnectionLinkageBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Benchmark
+    public void hibernateCreateStatement() throws SQLException {
+        final Statement statement = hibernateConnection.createStatement();
+        statement.close();
+    }
+
+    @Benchmark
+    public void hibernateCreateStatementAfterSessionCall() throws SQLException {
+        session.isDirty();
+        final Statement statement = hibernateConnection.createStatement();
+        statement.close();
+    }
+
+    @Benchmark
+    public void hibernatePrepareStatement() throws SQLException {
+        final PreparedStatement statement = hibernateConnection.prepareStatement(SQL);
+        statement.close();
+    }
+
+    @Benchmark
+    public void rawCreateStatement() throws SQLException {
+        final Statement statement = rawConnection.createStatement();
+        statement.close();
+    }
+
+    @Benchmark
+    public void rawPrepareStatement() throws SQLException {
+        final PreparedStatement statement = rawConnection.prepareStatement(SQL);
+        statement.close();
+    }
+
+    @Setup
+    public void setUp() throws SQLException {
+        this.session = HibernateUtil.getSessionFactory().openSession();
+        this.session.beginTransaction();
+        this.hibernateConnection = this.session.connection().unwrap(HibernateConnection.class);
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        this.rawConnection = dataSource.getConnection();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        this.session.getTransaction().rollback();
+        this.session.close();
+        this.rawConnection.close();
+    }
+
+}
@@ -0,0 +1,80 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst den Aufwand, mit dem eine Hibernate-{@link Session} vor jedem
+ * Aufruf zum aktuellen Linker des Threads wird.
+ * <p>
+ * Jede Invocation f&uuml;hrt {@link #CALLS_PER_TRANSACTION} Aufrufe aus,
+ * wie sie in einer Transaktion vorkommen. {@code currentSession} ruft
+ * immer dieselbe Session auf, {@code alternatingSessions} wechselt bei
+ * jedem Aufruf die Session.
+ * <p>
+ * Mit {@code -prof gc} zeigt JMH, dass in beiden F&auml;llen keine
+ * Objekte angelegt werden ({@code gc.alloc.rate.norm} ist {@code 0}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HibernateSessionLinkerBenchmark {
+
+    private static final int CALLS_PER_TRANSACTION = 1000;
+
+    private Session session1;
+    private Session session2;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HibernateSessionLinkerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void alternatingSessions(final Blackhole blackhole) {
+        for (int i = 0; CALLS_PER_TRANSACTION > i; i += 2) {
+            blackhole.consume(session1.getTransaction());
+            blackhole.consume(session2.getTransaction());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void currentSession(final Blackhole blackhole) {
+        for (int i = 0; CALLS_PER_TRANSACTION > i; ++i) {
+            final Transaction transaction = session1.getTransaction();
+            blackhole.consume(transaction);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        this.session1 = HibernateUtil.getSessionFactory().openSession();
+        this.session1.beginTransaction();
+        this.session2 = HibernateUtil.getSessionFactory().openSession();
+        this.session2.beginTransaction();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.session1.getTransaction().rollback();
+        this.session1.close();
+        this.session2.getTransaction().rollback();
+        this.session2.close();
+    }
+
+}
@@ -0,0 +1,133 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.jdbc.HibernateSession;
+import eu.dirk.haase.hibernate.jdbc.Wrapper;
+import eu.dirk.haase.model.Employee;
+import org.hibernate.Query;
+import org.hibernate.classic.Session;
+import org.hibernate.impl.SessionImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht den Mehraufwand pro Aufruf einer Hibernate-{@link Session}
+ * zwischen dem generierten Proxy ({@link HibernateSession#proxySession})
+ * und einem {@link Proxy}, der jeden Aufruf reflektiv an die Session
+ * weiterreicht.
+ * <p>
+ * Die Entity liegt bereits im Persistence-Context, so dass
+ * {@code get} und {@code load} kein SQL ausf&uuml;hren und nur der
+ * Aufruf selbst gemessen wird.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HibernateSessionProxyBenchmark {
+
+    private Long employeeId;
+    private Session generatedSession;
+    private Session jdkProxySession;
+    private Session rawSession;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HibernateSessionProxyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Benchmark
+    public Query generatedCreateQuery() {
+        return generatedSession.createQuery("from Employee");
+    }
+
+    @Benchmark
+    public Object generatedGet() {
+        return generatedSession.get(Employee.class, employeeId);
+    }
+
+    @Benchmark
+    public Object generatedLoad() {
+        return generatedSession.load(Employee.class, employeeId);
+    }
+
+    @Benchmark
+    public Query jdkProxyCreateQuery() {
+        return jdkProxySession.createQuery("from Employee");
+    }
+
+    @Benchmark
+    public Object jdkProxyGet() {
+        return jdkProxySession.get(Employee.class, employeeId);
+    }
+
+    @Benchmark
+    public Object jdkProxyLoad() {
+        return jdkProxySession.load(Employee.class, employeeId);
+    }
+
+    @Benchmark
+    public Query rawCreateQuery() {
+        return rawSession.createQuery("from Employee");
+    }
+
+    @Benchmark
+    public Object rawGet() {
+        return rawSession.get(Employee.class, employeeId);
+    }
+
+    @Benchmark
+    public Object rawLoad() {
+        return rawSession.load(Employee.class, employeeId);
+    }
+
+    @Setup
+    public void setUp() {
+        this.generatedSession = (Session) HibernateUtil.getSessionFactory().openSession();
+        this.generatedSession.beginTransaction();
+        this.rawSession = ((Wrapper) this.generatedSession).unwrap(SessionImpl.class);
+        this.jdkProxySession = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class}, new ForwardingHandler(this.rawSession));
+        final Employee employee = new Employee("Bernd", "Benchmark", new Date(121212), "114-857-999");
+        this.generatedSession.save(employee);
+        this.generatedSession.flush();
+        this.employeeId = employee.getEmployeeId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.generatedSession.getTransaction().rollback();
+        this.generatedSession.close();
+    }
+
+    private static final class ForwardingHandler implements InvocationHandler {
+
+        private final Session delegate;
+
+        ForwardingHandler(final Session delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(this.delegate, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.jdbc.HibernateEntityManager;
+import eu.dirk.haase.hibernate.jdbc.HibernateSession;
+import eu.dirk.haase.hibernate.jdbc.HibernateSessionHandler;
+import eu.dirk.haase.hibernate.jdbc.HibernateSessionLinker;
+import eu.dirk.haase.hibernate.jdbc.Wrapper;
+import eu.dirk.haase.model.Employee;
+import org.hibernate.MappingException;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class HibernateSessionProxyTest {
+
+    private Session session;
+
+    @Before
+    public void setUp() {
+        this.session = HibernateUtil.getSessionFactory().openSession();
+        this.session.beginTransaction();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.session.isOpen()) {
+            this.session.getTransaction().rollback();
+            this.session.close();
+        }
+    }
+
+    @Test
+    public void test_that_session_proxy_is_generated_class() {
+        // Given
+        final Session session2 = HibernateUtil.getSessionFactory().openSession();
+        try {
+            // When
+            final boolean isJdkProxy = Proxy.isProxyClass(this.session.getClass());
+            // Then
+            assertThat(isJdkProxy).isFalse();
+            assertThat(this.session).isInstanceOf(HibernateSession.class);
+            assertThat(session2.getClass()).isSameAs(this.session.getClass());
+        } finally {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void test_that_session_proxy_unwraps_itself() {
+        // Given
+        final Wrapper wrapper = (Wrapper) this.session;
+        // When
+        final boolean isWrapperFor = wrapper.isWrapperFor(HibernateSession.class);
+        final HibernateSession hibernateSession = wrapper.unwrap(HibernateSession.class);
+        // Then
+        assertThat(isWrapperFor).isTrue();
+        assertThat(hibernateSession).isSameAs(this.session);
+        assertThat(HibernateSession.proxySession((org.hibernate.classic.Session) this.session)).isSameAs(this.session);
+    }
+
+    @Test
+    public void test_that_session_proxy_delegates_calls() {
+        // Given
+        final Employee employee = new Employee("Lisa", "Proxy", new java.sql.Date(121212), "114-857-970");
+        this.session.save(employee);
+        this.session.flush();
+        this.session.clear();
+        // When
+        final Employee loaded = (Employee) this.session.get(Employee.class, employee.getEmployeeId());
+        // Then
+        assertThat(loaded).isNotNull();
+        assertThat(loaded.getLastname()).isEqualTo("Proxy");
+        assertThat(HibernateSessionHandler.currentLinker().isPresent()).isTrue();
+    }
+
+    @Test
+    public void test_that_current_linker_changes_only_with_session() {
+        // Given
+        final Session session2 = HibernateUtil.getSessionFactory().openSession();
+        try {
+            this.session.getTransaction();
+            final HibernateSessionLinker linker1 = HibernateSessionHandler.currentLinker().get();
+            // When
+            this.session.getTransaction();
+            final HibernateSessionLinker linker2 = HibernateSessionHandler.currentLinker().get();
+            session2.getTransaction();
+            final HibernateSessionLinker linker3 = HibernateSessionHandler.currentLinker().get();
+            this.session.getTransaction();
+            final HibernateSessionLinker linker4 = HibernateSessionHandler.currentLinker().get();
+            // Then
+            assertThat(linker2).isSameAs(linker1);
+            assertThat(linker3).isNotSameAs(linker1);
+            assertThat(linker4).isSameAs(linker1);
+        } finally {
+            session2.close();
+        }
+    }
+
+    @Test
+    public void test_that_closed_session_is_no_longer_current_linker() {
+        // Given
+        this.session.getTransaction().rollback();
+        // When
+        this.session.close();
+        // Then
+        assertThat(HibernateSessionHandler.currentLinker().isPresent()).isFalse();
+    }
+
+    @Test
+    public void test_that_session_proxy_does_not_wrap_exceptions() {
+        // Given
+        final String unknownEntityName = "UnknownEntity";
+        // When
+        try {
+            this.session.get(unknownEntityName, 1L);
+            fail("MappingException expected");
+        } catch (MappingException ex) {
+            // Then
+            assertThat(ex.getMessage()).contains(unknownEntityName);
+        }
+    }
+
+    @Test
+    public void test_that_session_proxy_closes_delegate() {
+        // Given
+        this.session.getTransaction().rollback();
+        // When
+        this.session.close();
+        // Then
+        assertThat(this.session.isOpen()).isFalse();
+    }
+
+    @Test
+    public void test_that_entity_manager_proxy_wraps_unwrapped_session() {
+        // Given
+        final Session delegateSession = ((Wrapper) this.session).unwrap(org.hibernate.impl.SessionImpl.class);
+        final EntityManager entityManager = HibernateEntityManager.proxyEntityManager(stubEntityManager(delegateSession));
+        // When
+        final Session unwrappedSession = entityManager.unwrap(Session.class);
+        // Then
+        assertThat(entityManager).isInstanceOf(HibernateEntityManager.class);
+        assertThat(entityManager.isOpen()).isTrue();
+        assertThat(unwrappedSession).isInstanceOf(HibernateSession.class);
+        assertThat(entityManager.unwrap(HibernateEntityManager.class)).isSameAs(entityManager);
+    }
+
+    private EntityManager stubEntityManager(final Session delegateSession) {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{EntityManager.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "unwrap":
+                    return delegateSession;
+                case "isOpen":
+                    return delegateSession.isOpen();
+                default:
+                    try {
+                        return Session.class.getMethod(method.getName(), method.getParameterTypes()).invoke(delegateSession, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getTargetException();
+                    }
+            }
+        });
+    }
+
+}
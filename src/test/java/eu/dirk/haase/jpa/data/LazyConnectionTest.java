@@ -0,0 +1,120 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.HibernateDataSource;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class LazyConnectionTest {
+
+    private HibernateDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        final JdbcDataSource h2DataSource = new JdbcDataSource();
+        h2DataSource.setUrl("jdbc:h2:mem:lazy_connection_test;DB_CLOSE_DELAY=-1");
+        h2DataSource.setUser("sa");
+        h2DataSource.setPassword("sa");
+        this.dataSource = new HibernateDataSource(h2DataSource);
+        this.dataSource.setPoolMaxSize(2);
+        this.dataSource.setLazyConnection(true);
+    }
+
+    @After
+    public void tearDown() {
+        this.dataSource.close();
+    }
+
+    @Test
+    public void test_that_transaction_without_statement_borrows_no_connection() throws SQLException {
+        // Given
+        final Connection connection = this.dataSource.getConnection();
+        // When
+        connection.setAutoCommit(false);
+        connection.setReadOnly(true);
+        connection.commit();
+        connection.setAutoCommit(true);
+        connection.close();
+        // Then
+        assertThat(connection.isClosed()).isTrue();
+        assertThat(this.dataSource.getLazyAcquiredCount()).isEqualTo(0);
+        assertThat(this.dataSource.getLazyAvoidedCount()).isEqualTo(1);
+        assertThat(this.dataSource.getConnectionPool().getBorrowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_first_statement_borrows_connection_with_recorded_settings() throws SQLException {
+        // Given
+        final Connection connection = this.dataSource.getConnection();
+        connection.setAutoCommit(false);
+        connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        final long borrowCount1 = this.dataSource.getConnectionPool().getBorrowCount();
+        // When
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("select 1");
+        }
+        // Then
+        final Connection physicalConnection = connection.unwrap(JdbcConnection.class);
+        assertThat(borrowCount1).isEqualTo(0);
+        assertThat(this.dataSource.getConnectionPool().getBorrowCount()).isEqualTo(1);
+        assertThat(this.dataSource.getLazyAcquiredCount()).isEqualTo(1);
+        assertThat(physicalConnection.getAutoCommit()).isFalse();
+        assertThat(physicalConnection.getTransactionIsolation()).isEqualTo(Connection.TRANSACTION_SERIALIZABLE);
+        // clean up
+        connection.rollback();
+        connection.close();
+        assertThat(physicalConnection.isClosed()).isFalse();
+    }
+
+    @Test
+    public void test_that_defaults_are_read_only_once() throws SQLException {
+        // Given
+        final Connection connection1 = this.dataSource.getConnection();
+        final boolean autoCommit1 = connection1.getAutoCommit();
+        connection1.close();
+        // When
+        final Connection connection2 = this.dataSource.getConnection();
+        final boolean autoCommit2 = connection2.getAutoCommit();
+        final boolean readOnly2 = connection2.isReadOnly();
+        connection2.close();
+        // Then
+        assertThat(autoCommit1).isTrue();
+        assertThat(autoCommit2).isTrue();
+        assertThat(readOnly2).isFalse();
+        assertThat(this.dataSource.getLazyAcquiredCount()).isEqualTo(1);
+        assertThat(this.dataSource.getLazyAvoidedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_closed_connection_rejects_further_statements() throws SQLException {
+        // Given
+        final Connection connection = this.dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("select 1");
+        }
+        // When
+        connection.close();
+        SQLException actualException = null;
+        try {
+            connection.createStatement();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        // Then
+        assertThat(connection.isClosed()).isTrue();
+        assertThat(actualException).isNotNull();
+        assertThat(this.dataSource.getConnectionPool().getActiveCount()).isEqualTo(0);
+    }
+
+}
@@ -0,0 +1,64 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.LockFreeTimestamper;
+import org.hibernate.cache.Timestamper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class LockFreeTimestamperTest {
+
+    @Test
+    public void test_that_the_timestamps_count_in_units_of_one_ms() {
+        // Given
+        final long millis1 = System.currentTimeMillis();
+        // When
+        final long timestamp = LockFreeTimestamper.next();
+        final long millis2 = System.currentTimeMillis();
+        // Then
+        assertThat(timestamp / Timestamper.ONE_MS >= millis1).isTrue();
+        // Andere Tests koennen den Zaehler vorgreifen lassen:
+        assertThat(timestamp / Timestamper.ONE_MS <= millis2 + 1_000).isTrue();
+    }
+
+    @Test
+    public void test_that_the_timestamps_are_unique_and_increasing_across_threads() throws Exception {
+        // Given
+        final int threadCount = 8;
+        final long[][] timestamps = new long[threadCount][50_000];
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; threadCount > i; ++i) {
+            final long[] threadTimestamps = timestamps[i];
+            threads[i] = new Thread(() -> {
+                for (int n = 0; threadTimestamps.length > n; ++n) {
+                    threadTimestamps[n] = LockFreeTimestamper.next();
+                }
+            });
+        }
+        // When
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // Then
+        final Set<Long> timestampSet = new HashSet<>();
+        boolean isIncreasing = true;
+        for (final long[] threadTimestamps : timestamps) {
+            for (int n = 0; threadTimestamps.length > n; ++n) {
+                timestampSet.add(threadTimestamps[n]);
+                isIncreasing &= ((n == 0) || (threadTimestamps[n] > threadTimestamps[n - 1]));
+            }
+        }
+        assertThat(isIncreasing).isTrue();
+        assertThat(timestampSet.size()).isEqualTo(threadCount * 50_000);
+    }
+
+}
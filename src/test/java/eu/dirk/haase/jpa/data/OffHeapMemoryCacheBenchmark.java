@@ -0,0 +1,78 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.OffHeapMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.SharedMemoryCache;
+import org.hibernate.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht die GC-Pausen mit einer gro&szlig;en Stammdaten-Region auf
+ * dem Heap ({@link SharedMemoryCache}) und au&szlig;erhalb des Heaps
+ * ({@link OffHeapMemoryCache}).
+ * <p>
+ * Die Region enth&auml;lt eine Million Eintr&auml;ge, deren Wert wie der
+ * zerlegte Zustand einer Entity aussieht (ein {@code Object[]} mit
+ * Strings und Zahlen). {@link #fullGc()} misst die Dauer einer
+ * vollst&auml;ndigen Garbage-Collection und damit die Pause, die der
+ * lebende Heap der Region verursacht; {@link #get()} misst den Preis
+ * daf&uuml;r - das Deserialisieren bei jedem Lesezugriff.
+ * <p>
+ * Zus&auml;tzlich zeigt {@code -prof gc} die Zeit aller
+ * Garbage-Collections w&auml;hrend der Messung.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:MaxDirectMemorySize=2g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OffHeapMemoryCacheBenchmark {
+
+    private static final int ENTRY_COUNT = 1_000_000;
+
+    private Cache cache;
+    @Param({"heap", "offHeap"})
+    private String cacheType;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OffHeapMemoryCacheBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void fullGc() {
+        System.gc();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object get() {
+        return this.cache.get(ThreadLocalRandom.current().nextInt(ENTRY_COUNT));
+    }
+
+    @Setup
+    public void setUp() {
+        if ("heap".equals(this.cacheType)) {
+            this.cache = new SharedMemoryCache("benchmark", ENTRY_COUNT, 300_000);
+        } else {
+            this.cache = new OffHeapMemoryCache("benchmark", ENTRY_COUNT, 1L << 30, 300_000);
+        }
+        for (int i = 0; ENTRY_COUNT > i; ++i) {
+            this.cache.put(i, new Object[]{"first-name-" + i, "last-name-" + i, "114-857-" + i, (long) i, i % 100});
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cache.destroy();
+    }
+
+}
@@ -0,0 +1,170 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.OffHeapMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.ThreadLocalMemoryCacheProvider;
+import org.hibernate.cache.Cache;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class OffHeapMemoryCacheTest {
+
+    @Test
+    public void test_that_the_entries_are_copied_off_heap() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("copy", 1_000, 1 << 20, 60_000);
+        final Object[] state = {"Ute", "Lemper", 42L};
+        // When
+        cache.put("key", state);
+        final Object[] value = (Object[]) cache.get("key");
+        // Then
+        assertThat(value == state).isFalse();
+        assertThat(value.length).isEqualTo(3);
+        assertThat(value[0]).isEqualTo("Ute");
+        assertThat(value[1]).isEqualTo("Lemper");
+        assertThat(value[2]).isEqualTo(42L);
+        assertThat(cache.getSizeInMemory() > 0).isTrue();
+        assertThat(cache.toMap().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_the_cache_behaves_like_a_map() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("map", 100_000, 16 << 20, 60_000);
+        final Map<Integer, String> expectedMap = new HashMap<>();
+        final Random random = new Random(4711);
+        // When
+        for (int i = 0; 20_000 > i; ++i) {
+            // Wenige Keys, damit haeufig Slots zurueckgeschoben werden:
+            final Integer key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                cache.remove(key);
+                expectedMap.remove(key);
+            } else {
+                final String value = "value-" + i;
+                cache.put(key, value);
+                expectedMap.put(key, value);
+            }
+        }
+        // Then
+        assertThat(cache.getElementCountInMemory()).isEqualTo((long) expectedMap.size());
+        for (int key = 0; 2_000 > key; ++key) {
+            assertThat(cache.get(key)).isEqualTo(expectedMap.get(key));
+        }
+    }
+
+    @Test
+    public void test_that_the_region_is_bounded() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("bounded", 100, 1 << 20, 60_000);
+        // When
+        for (int i = 0; 1_000 > i; ++i) {
+            cache.put(i, "value-" + i);
+        }
+        // Then
+        assertThat(cache.getElementCountInMemory() <= 100).isTrue();
+        assertThat(cache.getStatistics().getEvictionCount() >= 900).isTrue();
+        assertThat(cache.get(999)).isEqualTo("value-999");
+    }
+
+    @Test
+    public void test_that_the_memory_is_bounded() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("memory", 10_000, 1 << 20, 60_000);
+        final char[] chars = new char[4_000];
+        // When
+        for (int i = 0; 1_000 > i; ++i) {
+            cache.put(i, new String(chars));
+        }
+        // Then
+        assertThat(cache.getSizeInMemory() <= (2 << 20)).isTrue();
+        assertThat(cache.getElementCountInMemory() < 1_000).isTrue();
+        assertThat(cache.get(999)).isEqualTo(new String(chars));
+    }
+
+    @Test
+    public void test_that_an_entry_of_another_size_does_not_evict_the_region() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("mixed", 10_000, 1 << 20, 60_000);
+        final String large = new String(new char[4_000]);
+        for (int i = 0; 100 > i; ++i) {
+            cache.put(i, "value-" + i);
+        }
+        // When
+        cache.put("large", large);
+        final Object value1 = cache.get("large");
+        final long count1 = cache.getElementCountInMemory();
+        for (int i = 0; 100 > i; ++i) {
+            cache.remove(i);
+        }
+        cache.put("large", large);
+        final Object value2 = cache.get("large");
+        // Then
+        assertThat(value1).isNull();
+        assertThat(count1).isEqualTo(100L);
+        assertThat(cache.get(99)).isNull();
+        assertThat(value2).isEqualTo(large);
+        assertThat(cache.getElementCountInMemory()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_that_entries_expire_after_the_timeout() throws Exception {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("expiry", 100, 1 << 20, 20);
+        cache.put("key", "value");
+        final Object value1 = cache.get("key");
+        // When
+        Thread.sleep(50);
+        final Object value2 = cache.get("key");
+        // Then
+        assertThat(value1).isEqualTo("value");
+        assertThat(value2).isNull();
+        assertThat(cache.getStatistics().getExpirationCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_that_destroy_releases_the_memory() {
+        // Given
+        final OffHeapMemoryCache cache = new OffHeapMemoryCache("destroy", 1_000, 1 << 20, 60_000);
+        cache.put("key1", "value1");
+        final long sizeInMemory1 = cache.getSizeInMemory();
+        // When
+        cache.destroy();
+        cache.put("key2", "value2");
+        // Then
+        assertThat(sizeInMemory1 > 0).isTrue();
+        assertThat(cache.getSizeInMemory()).isEqualTo(0L);
+        assertThat(cache.getElementCountInMemory()).isEqualTo(0L);
+        assertThat(cache.get("key1")).isNull();
+        assertThat(cache.get("key2")).isNull();
+    }
+
+    @Test
+    public void test_that_stopping_the_provider_destroys_the_off_heap_regions() {
+        // Given
+        final Properties properties = new Properties();
+        properties.setProperty(ThreadLocalMemoryCacheProvider.OFF_HEAP_REGIONS_PROPERTY, "stop");
+        properties.setProperty(ThreadLocalMemoryCacheProvider.OFF_HEAP_MAX_BYTES_PROPERTY, String.valueOf(1 << 20));
+        final ThreadLocalMemoryCacheProvider provider = new ThreadLocalMemoryCacheProvider();
+        final Cache cache1 = provider.buildCache("stop", properties);
+        cache1.put("key", "value");
+        // When
+        provider.stop();
+        final Cache cache2 = provider.buildCache("stop", properties);
+        // Then
+        assertThat(cache1).isInstanceOf(OffHeapMemoryCache.class);
+        assertThat(cache1.getSizeInMemory()).isEqualTo(0L);
+        assertThat(cache2 == cache1).isFalse();
+        // clean up
+        provider.stop();
+    }
+
+}
@@ -0,0 +1,125 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.Flushable;
+import eu.dirk.haase.hibernate.FlushableRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ParallelFlushableRegistryTest {
+
+    private ExecutorService executorService;
+    private Map<String, Integer> groupFlushCountMap;
+    private FlushableRegistry registry;
+
+    @Before
+    public void setUp() {
+        this.executorService = Executors.newFixedThreadPool(2);
+        this.groupFlushCountMap = new ConcurrentHashMap<>();
+        this.registry = FlushableRegistry.newParallelInstance(this.executorService,
+                (affinity, flushCount, nanos, isFailure) -> this.groupFlushCountMap.put(String.valueOf(affinity), flushCount));
+    }
+
+    @After
+    public void tearDown() {
+        this.registry.releaseAll();
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void test_that_independent_groups_are_flushed_concurrently_in_order() {
+        // Given
+        final List<String> flushListA = Collections.synchronizedList(new ArrayList<>());
+        final List<String> flushListB = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, Thread> threadMap = new ConcurrentHashMap<>();
+        // Beide Gruppen warten aufeinander, laufen also gleichzeitig:
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        for (int i = 0; 3 > i; ++i) {
+            registry.register(newFlushable(flushListA, "a" + i, threadMap, (i == 0 ? bothStarted : null)), "A");
+            registry.register(newFlushable(flushListB, "b" + i, threadMap, (i == 0 ? bothStarted : null)), "B");
+        }
+        // When
+        final int countFlushed = registry.flushAllCurrent();
+        // Then
+        assertThat(countFlushed).isEqualTo(6);
+        assertThat(registry.sizeCurrent()).isEqualTo(0);
+        assertThat(flushListA.toString()).isEqualTo("[a0, a1, a2]");
+        assertThat(flushListB.toString()).isEqualTo("[b0, b1, b2]");
+        assertThat(threadMap.get("a0")).isSameAs(Thread.currentThread());
+        assertThat(threadMap.get("b0")).isNotSameAs(Thread.currentThread());
+        assertThat(groupFlushCountMap.get("A")).isEqualTo(3);
+        assertThat(groupFlushCountMap.get("B")).isEqualTo(3);
+    }
+
+    @Test
+    public void test_that_a_single_group_is_flushed_in_the_current_thread() {
+        // Given
+        final List<String> flushList = new ArrayList<>();
+        final Map<String, Thread> threadMap = new ConcurrentHashMap<>();
+        for (int i = 0; 3 > i; ++i) {
+            registry.register(newFlushable(flushList, "f" + i, threadMap, null));
+        }
+        // When
+        final int countFlushed = registry.flushAllCurrent();
+        // Then
+        assertThat(countFlushed).isEqualTo(3);
+        assertThat(flushList.toString()).isEqualTo("[f0, f1, f2]");
+        assertThat(threadMap.get("f2")).isSameAs(Thread.currentThread());
+        assertThat(groupFlushCountMap.get("null")).isEqualTo(3);
+    }
+
+    @Test
+    public void test_that_a_failing_group_does_not_stop_the_other_groups() {
+        // Given
+        final List<String> flushList = Collections.synchronizedList(new ArrayList<>());
+        registry.register(() -> flushList.add("a0"), "A");
+        registry.register(() -> {
+            throw new IllegalStateException("b0");
+        }, "B");
+        registry.register(() -> flushList.add("a1"), "A");
+        registry.register(() -> flushList.add("b1"), "B");
+        // When
+        try {
+            registry.flushAllCurrent();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage()).isEqualTo("b0");
+        }
+        // Then
+        assertThat(flushList.toString()).isEqualTo("[a0, a1]");
+        assertThat(registry.sizeCurrent()).isEqualTo(2);
+        assertThat(groupFlushCountMap.get("B")).isEqualTo(0);
+    }
+
+    private Flushable newFlushable(final List<String> flushList, final String name, final Map<String, Thread> threadMap, final CountDownLatch started) {
+        return () -> {
+            threadMap.put(name, Thread.currentThread());
+            if (started != null) {
+                started.countDown();
+                try {
+                    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            flushList.add(name);
+        };
+    }
+
+}
@@ -0,0 +1,130 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.cache.version_3_2.QueryResultsMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.SpaceIndexedQueryCacheFactory;
+import eu.dirk.haase.hibernate.cache.version_3_2.ThreadLocalMemoryCacheProvider;
+import eu.dirk.haase.hibernate.cache.version_3_2.UpdateTimestampsMemoryCache;
+import eu.dirk.haase.model.Employee;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.StandardQueryCache;
+import org.hibernate.cache.UpdateTimestampsCache;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class QueryCacheRegionTest {
+
+    private QueryResultsMemoryCache queryResultsCache;
+    private SessionFactory sessionFactory;
+    private UpdateTimestampsMemoryCache timestampsCache;
+
+    @Before
+    public void setUp() {
+        // Das Schema wird von der gemeinsamen SessionFactory angelegt:
+        HibernateUtil.getSessionFactory();
+        this.sessionFactory = new Configuration()
+                .configure()
+                .setProperty("hibernate.hbm2ddl.auto", "update")
+                .setProperty("hibernate.cache.provider_class", ThreadLocalMemoryCacheProvider.class.getName())
+                .setProperty("hibernate.cache.use_query_cache", "true")
+                .setProperty("hibernate.cache.query_cache_factory", SpaceIndexedQueryCacheFactory.class.getName())
+                .buildSessionFactory();
+        final ThreadLocalMemoryCacheProvider provider = new ThreadLocalMemoryCacheProvider();
+        this.queryResultsCache = (QueryResultsMemoryCache) provider.buildCache(StandardQueryCache.class.getName(), null);
+        this.timestampsCache = (UpdateTimestampsMemoryCache) provider.buildCache(UpdateTimestampsCache.REGION_NAME, null);
+    }
+
+    @After
+    public void tearDown() {
+        this.sessionFactory.close();
+    }
+
+    @Test
+    public void test_that_a_cached_query_result_is_reused() {
+        // Given
+        final List<?> result1 = list("from Employee");
+        final long hitCount1 = this.queryResultsCache.getStatistics().getHitCount();
+        // When
+        final List<?> result2 = list("from Employee");
+        // Then
+        assertThat(result2.size()).isEqualTo(result1.size());
+        assertThat(this.queryResultsCache.getStatistics().getHitCount() - hitCount1).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_that_a_change_invalidates_only_the_affected_query_results() {
+        // Given
+        list("from Employee");
+        list("from EmployeeDetail");
+        final long elementCount1 = this.queryResultsCache.getElementCountInMemory();
+        final long invalidationCount1 = this.queryResultsCache.getInvalidationCount();
+        // When
+        final Session session = this.sessionFactory.openSession();
+        session.beginTransaction();
+        session.save(new Employee("Ute", "Lemper", new Date(121212), "114-857-967"));
+        session.getTransaction().commit();
+        session.close();
+        // Then
+        assertThat(elementCount1).isEqualTo(2L);
+        assertThat(this.queryResultsCache.getElementCountInMemory()).isEqualTo(1L);
+        assertThat(this.queryResultsCache.getInvalidationCount() - invalidationCount1).isEqualTo(1L);
+        assertThat(this.timestampsCache.get("EMPLOYEE")).isNotNull();
+    }
+
+    @Test
+    public void test_that_a_pending_query_keeps_its_spaces_when_the_index_is_pruned() {
+        // Given
+        final QueryResultsMemoryCache cache = new QueryResultsMemoryCache("pending", 100, 60_000);
+        cache.registerSpaces("pending", Collections.singleton("A"));
+        // When
+        for (int i = 0; 300 > i; ++i) {
+            cache.registerSpaces(i, Collections.singleton("B"));
+            cache.put(i, "result-" + i);
+        }
+        cache.put("pending", "result");
+        final Object result1 = cache.get("pending");
+        cache.invalidate("A");
+        final Object result2 = cache.get("pending");
+        // Then
+        assertThat(result1).isEqualTo("result");
+        assertThat(result2).isNull();
+    }
+
+    @Test
+    public void test_that_a_listener_is_registered_only_once() {
+        // Given
+        final UpdateTimestampsMemoryCache cache = new UpdateTimestampsMemoryCache("listener");
+        final List<Object> spaceList = new ArrayList<>();
+        final Consumer<Object> invalidationListener = spaceList::add;
+        // When
+        cache.addInvalidationListener(invalidationListener);
+        cache.addInvalidationListener(invalidationListener);
+        cache.put("EMPLOYEE", cache.nextTimestamp());
+        // Then
+        assertThat(spaceList.size()).isEqualTo(1);
+    }
+
+    private List<?> list(final String query) {
+        final Session session = this.sessionFactory.openSession();
+        try {
+            return session.createQuery(query).setCacheable(true).list();
+        } finally {
+            session.close();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.SharedMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.ThreadLocalMemoryCache;
+import org.hibernate.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst Lese- und Schreibzugriffe (9:1) sowie Sperren auf einen
+ * {@link SharedMemoryCache} mit 64 Threads, im Vergleich zum
+ * {@link ThreadLocalMemoryCache}, bei dem sich die Threads nichts teilen.
+ * <p>
+ * Alle Threads greifen auf dieselben 10.000 Keys zu; die Region fasst
+ * alle Keys, so dass nach dem Aufw&auml;rmen fast nur Treffer gemessen
+ * werden.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SharedMemoryCacheBenchmark {
+
+    private static final int KEY_COUNT = 10_000;
+
+    private Cache cache;
+    @Param({"shared", "threadLocal"})
+    private String cacheType;
+    private Integer[] keys;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SharedMemoryCacheBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    public Object getOrPut() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Integer key = this.keys[random.nextInt(KEY_COUNT)];
+        if (random.nextInt(10) == 0) {
+            this.cache.put(key, key);
+            return key;
+        }
+        return this.cache.get(key);
+    }
+
+    @Benchmark
+    public Object lockAndUnlock() {
+        final Integer key = this.keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+        this.cache.lock(key);
+        try {
+            return this.cache.get(key);
+        } finally {
+            this.cache.unlock(key);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        if ("shared".equals(this.cacheType)) {
+            this.cache = new SharedMemoryCache("benchmark", 2 * KEY_COUNT, 60_000);
+        } else {
+            this.cache = new ThreadLocalMemoryCache("benchmark", 2 * KEY_COUNT, 60_000);
+        }
+        this.keys = new Integer[KEY_COUNT];
+        for (int i = 0; KEY_COUNT > i; ++i) {
+            this.keys[i] = i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cache.destroy();
+    }
+
+}
@@ -0,0 +1,115 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.SharedMemoryCache;
+import org.hibernate.cache.CacheException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class SharedMemoryCacheTest {
+
+    @Test
+    public void test_that_the_entries_are_shared_by_the_threads() throws Exception {
+        // Given
+        final SharedMemoryCache cache = new SharedMemoryCache("shared", 1_000, 60_000);
+        cache.put("key", "caller");
+        final Object[] values = new Object[1];
+        // When
+        final Thread thread = new Thread(() -> values[0] = cache.get("key"));
+        thread.start();
+        thread.join();
+        // Then
+        assertThat(values[0]).isEqualTo("caller");
+        assertThat(cache.getStatistics().getHitCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_that_the_region_is_bounded() {
+        // Given
+        final SharedMemoryCache cache = new SharedMemoryCache("bounded", 1_000, 60_000);
+        // When
+        for (int i = 0; 10_000 > i; ++i) {
+            cache.put(i, "value-" + i);
+        }
+        // Then
+        assertThat(cache.getElementCountInMemory() <= 1_000).isTrue();
+        assertThat(cache.getStatistics().getEvictionCount() >= 9_000).isTrue();
+        assertThat(cache.getSizeInMemory() > 0).isTrue();
+    }
+
+    @Test
+    public void test_that_the_lock_excludes_other_threads() throws Exception {
+        // Given
+        final SharedMemoryCache cache = new SharedMemoryCache("locked", 1_000, 60_000);
+        final List<String> eventList = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch started = new CountDownLatch(1);
+        cache.lock("key");
+        // When
+        final Thread thread = new Thread(() -> {
+            started.countDown();
+            cache.lock("key");
+            eventList.add("locked by thread");
+            cache.unlock("key");
+        });
+        thread.start();
+        started.await();
+        thread.join(100);
+        eventList.add("unlocked by caller");
+        cache.unlock("key");
+        thread.join();
+        // Then
+        assertThat(eventList.size()).isEqualTo(2);
+        assertThat(eventList.get(0)).isEqualTo("unlocked by caller");
+        assertThat(eventList.get(1)).isEqualTo("locked by thread");
+    }
+
+    @Test
+    public void test_that_the_lock_is_reentrant_and_owned_by_the_thread() throws Exception {
+        // Given
+        final SharedMemoryCache cache = new SharedMemoryCache("reentrant", 1_000, 50);
+        final Throwable[] failures = new Throwable[2];
+        final long[] waitMillis = new long[1];
+        // When
+        cache.lock("key");
+        cache.lock("key");
+        cache.unlock("key");
+        final Thread thread = new Thread(() -> {
+            try {
+                cache.unlock("key");
+            } catch (CacheException ex) {
+                failures[0] = ex;
+            }
+            final long start = System.nanoTime();
+            try {
+                cache.lock("key");
+            } catch (CacheException ex) {
+                failures[1] = ex;
+            }
+            waitMillis[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        });
+        thread.start();
+        thread.join();
+        cache.unlock("key");
+        // Then
+        assertThat(failures[0]).isNotNull();
+        assertThat(failures[1]).isNotNull();
+        assertThat(waitMillis[0] >= 40).isTrue();
+        try {
+            cache.unlock("key");
+            fail("The key is no longer locked");
+        } catch (CacheException ex) {
+            // erwartet
+        }
+    }
+
+}
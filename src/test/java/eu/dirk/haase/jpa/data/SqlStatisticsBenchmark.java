@@ -0,0 +1,92 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.hibernate.jdbc.SqlStatistics;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst den Mehraufwand der {@link SqlStatistics} pro Ausf&uuml;hrung
+ * eines {@link PreparedStatement}s gegen&uuml;ber einer
+ * {@link HibernateConnection} ohne Messung.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SqlStatisticsBenchmark {
+
+    private static final String SQL = "select NAME from PERSON where ID = ?";
+
+    private Connection measuredConnection;
+    private PreparedStatement measuredStatement;
+    private Connection plainConnection;
+    private PreparedStatement plainStatement;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SqlStatisticsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    @Benchmark
+    public int measuredExecuteQuery() throws SQLException {
+        return executeQuery(this.measuredStatement);
+    }
+
+    @Benchmark
+    public int plainExecuteQuery() throws SQLException {
+        return executeQuery(this.plainStatement);
+    }
+
+    @Setup
+    public void setUp() throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:sql_statistics_benchmark;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        final HibernateConnection measuredConnection = new HibernateConnection(dataSource.getConnection());
+        measuredConnection.setSqlStatistics(new SqlStatistics());
+        this.measuredConnection = measuredConnection;
+        this.plainConnection = new HibernateConnection(dataSource.getConnection());
+        try (Statement statement = this.plainConnection.createStatement()) {
+            statement.execute("create table if not exists PERSON (ID int primary key, NAME varchar(50))");
+            statement.execute("merge into PERSON (ID, NAME) values (1, 'Nina')");
+        }
+        this.measuredStatement = this.measuredConnection.prepareStatement(SQL);
+        this.measuredStatement.setInt(1, 1);
+        this.plainStatement = this.plainConnection.prepareStatement(SQL);
+        this.plainStatement.setInt(1, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        this.measuredStatement.close();
+        this.plainStatement.close();
+        this.measuredConnection.close();
+        this.plainConnection.close();
+    }
+
+    private int executeQuery(final PreparedStatement statement) throws SQLException {
+        int rowCount = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                ++rowCount;
+            }
+        }
+        return rowCount;
+    }
+
+}
@@ -0,0 +1,160 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.hibernate.jdbc.HibernateDataSource;
+import eu.dirk.haase.hibernate.jdbc.SqlLatencySnapshot;
+import eu.dirk.haase.hibernate.jdbc.SqlStatistics;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class SqlStatisticsTest {
+
+    private HibernateConnection connection;
+    private SqlStatistics sqlStatistics;
+
+    @Before
+    public void setUp() throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:sql_statistics_test");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        this.connection = new HibernateConnection(dataSource.getConnection(), 2);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table if not exists PERSON (ID int primary key, NAME varchar(50))");
+            statement.executeUpdate("insert into PERSON (ID, NAME) values (1, 'Nina'), (2, 'Tom'), (3, 'Ida')");
+        }
+        this.sqlStatistics = new SqlStatistics();
+        this.connection.setSqlStatistics(this.sqlStatistics);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.setSqlStatistics(null);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop table PERSON");
+        }
+        this.connection.close();
+    }
+
+    @Test
+    public void test_that_data_source_does_not_measure_by_default() {
+        // Given
+        final JdbcDataSource h2DataSource = new JdbcDataSource();
+        h2DataSource.setUrl("jdbc:h2:mem:sql_statistics_test");
+        // When
+        final HibernateDataSource dataSource = new HibernateDataSource(h2DataSource);
+        // Then
+        assertThat(dataSource.getSqlStatistics()).isNull();
+    }
+
+    @Test
+    public void test_that_literals_are_normalized() {
+        // Given
+        final String sql = "select  NAME from PERSON0_\n where ID in (1, 2, ?) and NAME = 'O''Neil' ";
+        // When
+        final String normalizedSql = SqlStatistics.normalize(sql);
+        // Then
+        assertThat(normalizedSql).isEqualTo("select NAME from PERSON0_ where ID in (?) and NAME = ?");
+    }
+
+    @Test
+    public void test_that_prepared_statement_executions_are_recorded() throws SQLException {
+        // Given
+        final String sql = "select NAME from PERSON where ID = ?";
+        // When
+        for (int i = 1; 3 >= i; ++i) {
+            try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+                statement.setInt(1, i);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                }
+            }
+        }
+        // Then
+        final SqlLatencySnapshot snapshot = this.sqlStatistics.getHistogram(sql).snapshot();
+        assertThat(snapshot.getExecutionCount()).isEqualTo(3);
+        assertThat(snapshot.getErrorCount()).isEqualTo(0);
+        assertThat(snapshot.getResultSetCount()).isEqualTo(3);
+        assertThat(snapshot.getRowCount()).isEqualTo(3);
+        assertThat(snapshot.getMaxNanos()).isGreaterThan(0L);
+        assertThat(snapshot.getP99Nanos()).isLessThanOrEqualTo(snapshot.getMaxNanos());
+        assertThat(this.sqlStatistics.getSqlCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_statement_executions_are_grouped_by_normalized_sql() throws SQLException {
+        // Given
+        final String[] names = {"Nina", "Tom", "Ida"};
+        int rowCount = 0;
+        // When
+        try (Statement statement = this.connection.createStatement()) {
+            for (final String name : names) {
+                try (ResultSet resultSet = statement.executeQuery("select ID from PERSON where NAME <> '" + name + "'")) {
+                    while (resultSet.next()) {
+                        ++rowCount;
+                    }
+                }
+            }
+        }
+        // Then
+        final SqlLatencySnapshot snapshot = this.sqlStatistics.getSnapshots().get(0);
+        assertThat(snapshot.getSql()).isEqualTo("select ID from PERSON where NAME <> ?");
+        assertThat(snapshot.getExecutionCount()).isEqualTo(3);
+        assertThat(snapshot.getRowCount()).isEqualTo(rowCount);
+        assertThat(rowCount).isEqualTo(6);
+    }
+
+    @Test
+    public void test_that_failed_executions_are_recorded() throws SQLException {
+        // Given
+        final String sql = "insert into PERSON (ID, NAME) values (?, ?)";
+        SQLException actualException = null;
+        // When
+        try (PreparedStatement statement = this.connection.prepareStatement(sql)) {
+            statement.setInt(1, 1);
+            statement.setString(2, "Nina");
+            statement.executeUpdate();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        // Then
+        final SqlLatencySnapshot snapshot = this.sqlStatistics.getHistogram(sql).snapshot();
+        assertThat(actualException).isNotNull();
+        assertThat(snapshot.getExecutionCount()).isEqualTo(1);
+        assertThat(snapshot.getErrorCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_statistics_are_published_as_mbean() throws Exception {
+        // Given
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("select count(*) from PERSON");
+        }
+        // When
+        final ObjectName objectName = this.sqlStatistics.registerMBean(mBeanServer, "sql_statistics_test");
+        try {
+            // Then
+            assertThat(mBeanServer.getAttribute(objectName, "SqlCount")).isEqualTo(1);
+            assertThat(mBeanServer.getAttribute(objectName, "ExecutionCount")).isEqualTo(1L);
+        } finally {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+}
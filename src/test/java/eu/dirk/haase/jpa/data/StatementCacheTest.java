@@ -0,0 +1,143 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.hibernate.jdbc.StatementCache;
+import org.h2.jdbc.JdbcPreparedStatement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class StatementCacheTest {
+
+    private HibernateConnection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:statement_cache_test");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        this.connection = new HibernateConnection(dataSource.getConnection(), 2);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table if not exists PERSON (ID int primary key, NAME varchar(50))");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop table PERSON");
+        }
+        this.connection.close();
+    }
+
+    @Test
+    public void test_that_closed_statement_is_reused() throws SQLException {
+        // Given
+        final String sql = "select NAME from PERSON where ID = ?";
+        final StatementCache statementCache = this.connection.getStatementCache();
+        // When
+        final PreparedStatement statement1 = this.connection.prepareStatement(sql);
+        final PreparedStatement physical1 = statement1.unwrap(JdbcPreparedStatement.class);
+        statement1.close();
+        final PreparedStatement statement2 = this.connection.prepareStatement(sql);
+        final PreparedStatement physical2 = statement2.unwrap(JdbcPreparedStatement.class);
+        // Then
+        assertThat(statement1.isClosed()).isTrue();
+        assertThat(statement2.isClosed()).isFalse();
+        assertThat(statement2).isNotSameAs(statement1);
+        assertThat(physical2).isSameAs(physical1);
+        assertThat(statement2.getConnection()).isSameAs(this.connection);
+        assertThat(statementCache.getHitCount()).isEqualTo(1);
+        assertThat(statementCache.getMissCount()).isEqualTo(1);
+        assertThat(statementCache.size()).isEqualTo(0);
+        // clean up
+        statement2.close();
+    }
+
+    @Test
+    public void test_that_different_result_set_type_is_not_reused() throws SQLException {
+        // Given
+        final String sql = "select NAME from PERSON";
+        final StatementCache statementCache = this.connection.getStatementCache();
+        // When
+        this.connection.prepareStatement(sql).close();
+        this.connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+        // Then
+        assertThat(statementCache.getHitCount()).isEqualTo(0);
+        assertThat(statementCache.getMissCount()).isEqualTo(2);
+        assertThat(statementCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_least_recently_used_statement_is_evicted() throws SQLException {
+        // Given
+        final StatementCache statementCache = this.connection.getStatementCache();
+        // When
+        this.connection.prepareStatement("select ID from PERSON").close();
+        this.connection.prepareStatement("select NAME from PERSON").close();
+        this.connection.prepareStatement("select ID from PERSON").close();
+        this.connection.prepareStatement("select ID, NAME from PERSON").close();
+        this.connection.prepareStatement("select ID from PERSON").close();
+        this.connection.prepareStatement("select NAME from PERSON").close();
+        // Then
+        assertThat(statementCache.getHitCount()).isEqualTo(2);
+        assertThat(statementCache.getMissCount()).isEqualTo(4);
+        assertThat(statementCache.getEvictionCount()).isEqualTo(2);
+        assertThat(statementCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_reused_statement_has_no_parameters_left() throws SQLException {
+        // Given
+        final String sql = "insert into PERSON (ID, NAME) values (?, ?)";
+        final PreparedStatement statement1 = this.connection.prepareStatement(sql);
+        statement1.setInt(1, 1);
+        statement1.setString(2, "Nina");
+        statement1.executeUpdate();
+        statement1.setInt(1, 2);
+        statement1.close();
+        // When
+        final PreparedStatement statement2 = this.connection.prepareStatement(sql);
+        SQLException actualException = null;
+        try {
+            statement2.executeUpdate();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        statement2.close();
+        // Then
+        assertThat(actualException).isNotNull();
+        assertThat(this.connection.getStatementCache().getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_closing_the_connection_clears_the_cache() throws SQLException {
+        // Given
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:statement_cache_close_test");
+        final HibernateConnection connection = new HibernateConnection(dataSource.getConnection(), 2);
+        final PreparedStatement statement1 = connection.prepareStatement("select 1");
+        final PreparedStatement physical1 = statement1.unwrap(JdbcPreparedStatement.class);
+        statement1.close();
+        final int size1 = connection.getStatementCache().size();
+        // When
+        connection.close();
+        // Then
+        assertThat(size1).isEqualTo(1);
+        assertThat(connection.getStatementCache().size()).isEqualTo(0);
+        assertThat(physical1.isClosed()).isTrue();
+    }
+
+}
@@ -1,12 +1,18 @@
 package eu.dirk.haase.jpa.data;
 
+import eu.dirk.haase.hibernate.HibernateUtil;
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import eu.dirk.haase.model.Employee;
 import eu.dirk.haase.security.ImpersonationContext;
 import eu.dirk.haase.security.Impersonator;
 import eu.dirk.haase.security.ThreadLocalImpersonator;
+import org.hibernate.Session;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.BlockJUnit4ClassRunner;
 
+import java.sql.Date;
+import java.sql.SQLException;
 import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -54,6 +60,33 @@ public class ThreadLocalImpersonatorTest {
         assertThat(afterImpersonation3).isNull();
     }
 
+    @Test
+    public void test_that_flushes_are_skipped_when_nothing_is_dirty() throws SQLException {
+        // Given
+        final Session session = HibernateUtil.getSessionFactory().openSession();
+        session.beginTransaction();
+        final Long employeeId = (Long) session.save(new Employee("Uwe", "Ochsenknecht", new Date(121212), "114-857-970"));
+        session.flush();
+        session.clear();
+        final Employee employee = (Employee) session.get(Employee.class, employeeId);
+        final HibernateConnection connection = session.connection().unwrap(HibernateConnection.class);
+        final long flushCount1 = connection.getFlushCount();
+        Impersonator impersonator = Impersonator.newImpersonator(connection::flush, connection::isDirty);
+        // When
+        try (ImpersonationContext ctx1 = impersonator.impersonate("user-1")) {
+            try (ImpersonationContext ctx2 = impersonator.impersonate("user-2")) {
+                employee.setLastname("Ochsenknecht-" + impersonator.currentUserSupplier().get());
+            }
+        }
+        // Then
+        assertThat(connection.getFlushCount() - flushCount1).isEqualTo(1L);
+        assertThat(impersonator.getFlushCount()).isEqualTo(1L);
+        assertThat(impersonator.getSkippedFlushCount()).isEqualTo(3L);
+        // clean up
+        session.getTransaction().rollback();
+        session.close();
+    }
+
     @Test
     public void test_with_context_object_that_user_is_changed_while_context_is_active() {
         // Given
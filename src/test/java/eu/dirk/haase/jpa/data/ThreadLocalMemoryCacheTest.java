@@ -0,0 +1,116 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.MemoryCacheStatistics;
+import eu.dirk.haase.hibernate.cache.version_3_2.ThreadLocalMemoryCache;
+import org.hibernate.cache.Timestamper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ThreadLocalMemoryCacheTest {
+
+    @Test
+    public void test_that_the_region_is_bounded() {
+        // Given
+        final ThreadLocalMemoryCache cache = new ThreadLocalMemoryCache("bounded", 100, 60_000);
+        // When
+        for (int i = 0; 1_000 > i; ++i) {
+            cache.put(i, "value-" + i);
+        }
+        // Then
+        final MemoryCacheStatistics statistics = cache.getStatistics();
+        assertThat(cache.getElementCountInMemory()).isEqualTo(100L);
+        assertThat(statistics.getPutCount()).isEqualTo(1_000L);
+        assertThat(statistics.getEvictionCount()).isEqualTo(900L);
+    }
+
+    @Test
+    public void test_that_frequently_read_entries_survive_a_scan() {
+        // Given
+        final ThreadLocalMemoryCache cache = new ThreadLocalMemoryCache("frequency", 100, 60_000);
+        for (int i = 0; 50 > i; ++i) {
+            cache.put("hot-" + i, i);
+        }
+        for (int n = 0; 5 > n; ++n) {
+            for (int i = 0; 50 > i; ++i) {
+                cache.get("hot-" + i);
+            }
+        }
+        // When
+        for (int i = 0; 500 > i; ++i) {
+            cache.put("scan-" + i, i);
+        }
+        // Then
+        int hotCount = 0;
+        for (int i = 0; 50 > i; ++i) {
+            if (cache.get("hot-" + i) != null) {
+                ++hotCount;
+            }
+        }
+        assertThat(hotCount).isEqualTo(50);
+        assertThat(cache.getElementCountInMemory()).isEqualTo(100L);
+    }
+
+    @Test
+    public void test_that_entries_expire_after_the_timeout() throws Exception {
+        // Given
+        final ThreadLocalMemoryCache cache = new ThreadLocalMemoryCache("expiry", 100, 20);
+        cache.put("key", "value");
+        final Object value1 = cache.get("key");
+        // When
+        Thread.sleep(50);
+        final Object value2 = cache.get("key");
+        // Then
+        final MemoryCacheStatistics statistics = cache.getStatistics();
+        assertThat(value1).isEqualTo("value");
+        assertThat(value2).isNull();
+        assertThat(cache.getTimeout()).isEqualTo(Timestamper.ONE_MS * 20);
+        assertThat(cache.getElementCountInMemory()).isEqualTo(0L);
+        assertThat(statistics.getHitCount()).isEqualTo(1L);
+        assertThat(statistics.getMissCount()).isEqualTo(1L);
+        assertThat(statistics.getExpirationCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_that_the_size_in_memory_follows_the_entries() {
+        // Given
+        final ThreadLocalMemoryCache cache = new ThreadLocalMemoryCache("size", 100, 60_000);
+        final long size1 = cache.getSizeInMemory();
+        // When
+        cache.put("key-1", "a short value");
+        final long size2 = cache.getSizeInMemory();
+        cache.put("key-2", new Object[]{"a longer value with more characters", 42L});
+        final long size3 = cache.getSizeInMemory();
+        cache.remove("key-1");
+        cache.remove("key-2");
+        final long size4 = cache.getSizeInMemory();
+        // Then
+        assertThat(size1).isEqualTo(0L);
+        assertThat(size2 > size1).isTrue();
+        assertThat(size3 - size2 > size2).isTrue();
+        assertThat(size4).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_that_the_threads_have_separate_entries_but_shared_statistics() throws Exception {
+        // Given
+        final ThreadLocalMemoryCache cache = new ThreadLocalMemoryCache("threads", 100, 60_000);
+        cache.put("key", "caller");
+        final Object[] values = new Object[1];
+        // When
+        final Thread thread = new Thread(() -> values[0] = cache.get("key"));
+        thread.start();
+        thread.join();
+        // Then
+        final MemoryCacheStatistics statistics = cache.getStatistics();
+        assertThat(values[0]).isNull();
+        assertThat(cache.get("key")).isEqualTo("caller");
+        assertThat(statistics.getMissCount()).isEqualTo(1L);
+        assertThat(cache.getStatistics().getHitCount()).isEqualTo(1L);
+        assertThat(cache.getStatistics().getHitRatio()).isEqualTo(0.5);
+    }
+
+}
@@ -1,6 +1,7 @@
 package eu.dirk.haase.jpa.data;
 
 import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceStatistics;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -44,6 +45,30 @@ public abstract class ThreadLocalResourceRegistryTest {
         executorService.shutdownNow();
     }
 
+    @Test
+    public void test_that_releaseAll_clears_the_containers_of_all_threads() throws InterruptedException, ExecutionException {
+        // Given
+        final String key1 = "key1";
+        final String key2 = "key2";
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.submit(() -> registry.computeIfAbsent(key1, (k) -> ++this.count)).get();
+        registry.computeIfAbsent(key1, (k) -> ++this.count);
+        registry.computeIfAbsent(key2, (k) -> ++this.count);
+        ThreadLocalResourceStatistics statistics1 = registry.getStatistics();
+        // When
+        registry.releaseAll();
+        ThreadLocalResourceStatistics statistics2 = registry.getStatistics();
+        // Then
+        assertThat(statistics1.getThreadCount()).isEqualTo(2);
+        assertThat(statistics1.getEntryCount()).isEqualTo(3L);
+        assertThat(statistics1.getRetainedBytes()).isGreaterThan(0L);
+        assertThat(statistics2.getThreadCount()).isEqualTo(0);
+        assertThat(statistics2.getEntryCount()).isEqualTo(0L);
+        assertThat(ThreadLocalResourceRegistry.getAllStatistics().isEmpty()).isFalse();
+        // clean up
+        executorService.shutdownNow();
+    }
+
     @Test
     public void test_that_clearFunction_is_bound_to_the_internal_map_object() throws InterruptedException, ExecutionException {
         // Given
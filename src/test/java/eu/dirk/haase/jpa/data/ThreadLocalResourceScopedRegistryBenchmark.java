@@ -0,0 +1,115 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.ResourceScope;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht die {@link eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceScopedRegistry}
+ * mit der {@link ThreadLocalResourceRegistry.RefType#HARD HARD}-Registry,
+ * wenn {@link #THREAD_COUNT} virtuelle Threads gleichzeitig Ressourcen
+ * speichern.
+ * <p>
+ * Jeder Task legt {@link #KEY_COUNT} Ressourcen an, wartet bis alle Tasks
+ * gestartet sind, liest die Ressourcen und gibt sie wieder frei. Bei
+ * {@code HARD} braucht jeder Thread eine eigene Map und einen Eintrag in
+ * seiner {@code ThreadLocalMap}, bei {@code SCOPED} wird der Scope mit
+ * einem {@code ScopedValue} gebunden.
+ * <p>
+ * Die virtuellen Threads werden &uuml;ber Reflection erzeugt, damit der
+ * Benchmark mit Java 8 &uuml;bersetzt werden kann; er muss aber mit
+ * Java 21 oder neuer ausgef&uuml;hrt werden. Mit {@code -prof gc} zeigt
+ * JMH die Allokation pro Task ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ThreadLocalResourceScopedRegistryBenchmark {
+
+    private static final int KEY_COUNT = 4;
+    private static final int THREAD_COUNT = 100_000;
+
+    private ExecutorService executorService;
+    private String[] keys;
+    private ThreadLocalResourceRegistry<String, Object> registry;
+    @Param({"HARD", "SCOPED"})
+    private String registryType;
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThreadLocalResourceScopedRegistryBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREAD_COUNT)
+    public void virtualThreads(final Blackhole blackhole) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(THREAD_COUNT);
+        final CountDownLatch finished = new CountDownLatch(THREAD_COUNT);
+        final boolean scoped = "SCOPED".equals(this.registryType);
+        for (int i = 0; THREAD_COUNT > i; ++i) {
+            this.executorService.execute(() -> {
+                try {
+                    if (scoped) {
+                        ResourceScope.run(() -> useResources(started, blackhole));
+                    } else {
+                        useResources(started, blackhole);
+                        this.registry.releaseCurrent();
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+    }
+
+    private void useResources(final CountDownLatch started, final Blackhole blackhole) {
+        for (final String key : this.keys) {
+            blackhole.consume(this.registry.computeIfAbsent(key, (k) -> new Object()));
+        }
+        started.countDown();
+        try {
+            started.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (final String key : this.keys) {
+            blackhole.consume(this.registry.getCurrent(key));
+        }
+    }
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        this.executorService = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        this.keys = new String[KEY_COUNT];
+        for (int i = 0; KEY_COUNT > i; ++i) {
+            this.keys[i] = "key" + i;
+        }
+        if ("SCOPED".equals(this.registryType)) {
+            this.registry = ThreadLocalResourceRegistry.newScopedInstance();
+        } else {
+            this.registry = ThreadLocalResourceRegistry.newInstance(ThreadLocalResourceRegistry.RefType.HARD);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.executorService.shutdownNow();
+        this.registry.releaseAll();
+    }
+
+}
@@ -0,0 +1,74 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.ResourceScope;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ThreadLocalResourceScopedRegistryTest extends ThreadLocalResourceRegistryTest {
+
+    @Before
+    public void setUp() {
+        this.registry = ThreadLocalResourceRegistry.newScopedInstance();
+        this.count = 0;
+    }
+
+    @Test
+    public void test_that_the_values_are_bound_to_the_scope() throws Exception {
+        // Given
+        final String key1 = "key1";
+        final List<Object> list1 = new ArrayList<>();
+        Integer value1a = registry.computeIfAbsent(key1, (k) -> ++this.count);
+        // When
+        Integer value1b = ResourceScope.call(() -> {
+            list1.add(ResourceScope.isOpen());
+            list1.add(registry.getCurrent(key1));
+            list1.add(registry.computeIfAbsent(key1, (k) -> ++this.count + 100));
+            list1.add(registry.getStatistics());
+            return registry.computeIfAbsent(key1, (k) -> ++this.count + 100);
+        });
+        Integer value1c = registry.getCurrent(key1);
+        // Then
+        assertThat(value1a).isEqualTo(1);
+        assertThat(list1.get(0)).isEqualTo(true);
+        assertThat(list1.get(1)).isNull();
+        assertThat(list1.get(2)).isEqualTo(102);
+        assertThat(((ThreadLocalResourceStatistics) list1.get(3)).getThreadCount()).isEqualTo(2);
+        assertThat(value1b).isEqualTo(102);
+        assertThat(value1c).isEqualTo(1);
+        assertThat(ResourceScope.isOpen()).isFalse();
+        assertThat(registry.getStatistics().getThreadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_a_nested_scope_hides_the_outer_scope() {
+        // Given
+        final String key1 = "key1";
+        final List<Object> list1 = new ArrayList<>();
+        // When
+        ResourceScope.run(() -> {
+            list1.add(registry.computeIfAbsent(key1, (k) -> ++this.count));
+            ResourceScope.run(() -> {
+                list1.add(registry.getCurrent(key1));
+                list1.add(registry.computeIfAbsent(key1, (k) -> ++this.count + 10));
+            });
+            list1.add(registry.getCurrent(key1));
+        });
+        // Then
+        assertThat(list1.get(0)).isEqualTo(1);
+        assertThat(list1.get(1)).isNull();
+        assertThat(list1.get(2)).isEqualTo(12);
+        assertThat(list1.get(3)).isEqualTo(1);
+        assertThat(registry.getStatistics().getEntryCount()).isEqualTo(0L);
+    }
+
+}
@@ -0,0 +1,53 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ThreadLocalResourceSlotRegistryTest extends ThreadLocalResourceRegistryTest {
+
+    @Before
+    public void setUp() {
+        this.registry = ThreadLocalResourceRegistry.newInstance(Arrays.asList("key1", "key2"));
+        this.count = 0;
+    }
+
+    @Test
+    public void test_that_enum_keys_are_stored_in_their_own_slots() {
+        // Given
+        final ThreadLocalResourceRegistry<TimeUnitKey, String> enumRegistry = ThreadLocalResourceRegistry.newInstance(TimeUnitKey.class);
+        // When
+        final String value1 = enumRegistry.computeIfAbsent(TimeUnitKey.SECONDS, (k) -> k.name());
+        final String value2 = enumRegistry.computeIfAbsent(TimeUnitKey.MINUTES, (k) -> k.name());
+        final String value3 = enumRegistry.releaseCurrent(TimeUnitKey.SECONDS);
+        // Then
+        assertThat(value1).isEqualTo("SECONDS");
+        assertThat(value2).isEqualTo("MINUTES");
+        assertThat(value3).isEqualTo("SECONDS");
+        assertThat(enumRegistry.isCurrentExisting(TimeUnitKey.SECONDS)).isFalse();
+        assertThat(enumRegistry.isCurrentExisting(TimeUnitKey.MINUTES)).isTrue();
+    }
+
+    @Test
+    public void test_that_unknown_key_is_not_existing() {
+        // Given
+        final String unknownKey = "key3";
+        // When
+        final Integer value = registry.getCurrent(unknownKey);
+        // Then
+        assertThat(value).isNull();
+        assertThat(registry.isCurrentExisting(unknownKey)).isFalse();
+    }
+
+    enum TimeUnitKey {
+        SECONDS, MINUTES, HOURS
+    }
+
+}
@@ -0,0 +1,135 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.concurrent.ContextPropagatingExecutorService;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class ThreadLocalResourceTransactionRegistryTest extends ThreadLocalResourceRegistryTest {
+
+    @Before
+    public void setUp() {
+        this.registry = ThreadLocalResourceRegistry.newInstance(ThreadLocalResourceRegistry.RefType.TRANSACTION);
+        this.count = 0;
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        registry.releaseAll();
+    }
+
+    @Test
+    public void test_that_the_values_are_released_with_the_transaction() {
+        // Given
+        final String key1 = "key1";
+        final List<Object> list1 = new ArrayList<>();
+        Integer value1a = registry.computeIfAbsent(key1, (k) -> ++this.count);
+        // When
+        //     Erste Transaktion
+        TransactionSynchronizationManager.initSynchronization();
+        list1.add(registry.getCurrent(key1));
+        list1.add(registry.computeIfAbsent(key1, (k) -> ++this.count + 100));
+        list1.add(registry.getStatistics().getThreadCount());
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        //     Zweite Transaktion im selben Thread
+        TransactionSynchronizationManager.initSynchronization();
+        list1.add(registry.getCurrent(key1));
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        Integer value1b = registry.getCurrent(key1);
+        // Then
+        assertThat(value1a).isEqualTo(1);
+        assertThat(list1.get(0)).isNull();
+        assertThat(list1.get(1)).isEqualTo(102);
+        assertThat(list1.get(2)).isEqualTo(2);
+        assertThat(list1.get(3)).isNull();
+        assertThat(value1b).isEqualTo(1);
+        assertThat(registry.getStatistics().getThreadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_the_container_is_unbound_with_the_transaction() {
+        // Given
+        TransactionSynchronizationManager.initSynchronization();
+        registry.computeIfAbsent("key1", (k) -> ++this.count);
+        final int resourceCount1 = TransactionSynchronizationManager.getResourceMap().size();
+        // When
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        // Then
+        assertThat(resourceCount1).isEqualTo(1);
+        assertThat(TransactionSynchronizationManager.getResourceMap().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void test_that_a_suspended_transaction_keeps_its_values() {
+        // Given
+        final String key1 = "key1";
+        final List<Object> list1 = new ArrayList<>();
+        TransactionSynchronizationManager.initSynchronization();
+        registry.computeIfAbsent(key1, (k) -> ++this.count);
+        // When
+        //     Innere Transaktion (REQUIRES_NEW)
+        final List<TransactionSynchronization> suspended = TransactionSynchronizationManager.getSynchronizations();
+        suspended.forEach(TransactionSynchronization::suspend);
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+        list1.add(registry.getCurrent(key1));
+        list1.add(registry.computeIfAbsent(key1, (k) -> ++this.count + 10));
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        //     Aeussere Transaktion
+        TransactionSynchronizationManager.initSynchronization();
+        suspended.forEach(TransactionSynchronizationManager::registerSynchronization);
+        suspended.forEach(TransactionSynchronization::resume);
+        list1.add(registry.getCurrent(key1));
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        // Then
+        assertThat(list1.get(0)).isNull();
+        assertThat(list1.get(1)).isEqualTo(12);
+        assertThat(list1.get(2)).isEqualTo(1);
+        assertThat(registry.getStatistics().getEntryCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_that_the_values_are_propagated_to_another_thread() throws Exception {
+        // Given
+        final String key1 = "key1";
+        final ExecutorService executorService = new ContextPropagatingExecutorService(Executors.newSingleThreadExecutor());
+        TransactionSynchronizationManager.initSynchronization();
+        registry.computeIfAbsent(key1, (k) -> ++this.count);
+        // When
+        final Integer value1a = executorService.submit(() -> registry.<Integer>getCurrent(key1)).get();
+        executorService.submit(() -> registry.computeIfAbsent("key2", (k) -> ++this.count + 10)).get();
+        final Integer value2a = registry.getCurrent("key2");
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        final Integer value1b = executorService.submit(() -> registry.<Integer>getCurrent(key1)).get();
+        // Then
+        assertThat(value1a).isEqualTo(1);
+        assertThat(value2a).isEqualTo(12);
+        assertThat(value1b).isNull();
+        // clean up
+        executorService.shutdownNow();
+    }
+
+    private void completeTransaction(final int status) {
+        final List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+}
@@ -1,10 +1,14 @@
 package eu.dirk.haase.jpa.data;
 
 import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceRegistry;
+import eu.dirk.haase.hibernate.jdbc.ThreadLocalResourceWeakRegistry;
 import org.junit.Before;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.BlockJUnit4ClassRunner;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 @RunWith(BlockJUnit4ClassRunner.class)
 public class ThreadLocalResourceWeakRegistryTest extends ThreadLocalResourceRegistryTest {
 
@@ -14,4 +18,68 @@ public class ThreadLocalResourceWeakRegistryTest extends ThreadLocalResourceRegi
         this.count = 0;
     }
 
+    @Test
+    public void test_that_collected_values_are_expunged_on_access() throws InterruptedException {
+        // Given
+        final ThreadLocalResourceWeakRegistry<String, Object> weakRegistry = new ThreadLocalResourceWeakRegistry<>();
+        for (int i = 0; 100 > i; ++i) {
+            weakRegistry.computeIfAbsent("key" + i, (k) -> new Object());
+        }
+        final Object value1 = weakRegistry.computeIfAbsent("strong", (k) -> new Object());
+        // When
+        for (int i = 0; (10 > i) && (100 > weakRegistry.getExpungedCount()); ++i) {
+            System.gc();
+            Thread.sleep(10);
+            weakRegistry.getCurrent("strong");
+        }
+        // Then
+        assertThat(weakRegistry.getExpungedCount()).isEqualTo(100L);
+        assertThat(weakRegistry.getCurrent("strong")).isSameAs(value1);
+        assertThat(weakRegistry.isCurrentExisting("key1")).isFalse();
+    }
+
+    @Test
+    public void test_that_release_function_is_set_while_collected_values_are_pending() {
+        // Given
+        final ThreadLocalResourceWeakRegistry<String, Object> weakRegistry = new ThreadLocalResourceWeakRegistry<>();
+        for (int i = 0; 100 > i; ++i) {
+            weakRegistry.computeIfAbsent("key" + i, (k) -> new Object());
+        }
+        // When
+        final ReleasableResource value1 = weakRegistry.computeIfAbsent("releasable", (k) -> {
+            // Die eingesammelten Werte stehen jetzt, waehrend
+            // computeIfAbsent laeuft, in der ReferenceQueue:
+            collectGarbage();
+            return new ReleasableResource();
+        });
+        final boolean isExisting1 = weakRegistry.isCurrentExisting("releasable");
+        value1.release();
+        // Then
+        assertThat(isExisting1).isTrue();
+        assertThat(weakRegistry.isCurrentExisting("releasable")).isFalse();
+    }
+
+    private static void collectGarbage() {
+        try {
+            System.gc();
+            Thread.sleep(50);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class ReleasableResource implements ThreadLocalResourceRegistry.ReleaseFunctionAware {
+
+        private Runnable releaseFunction;
+
+        void release() {
+            ThreadLocalResourceRegistry.ReleaseFunctionAware.release(this.releaseFunction);
+        }
+
+        @Override
+        public void setReleaseFunction(final Runnable releaseFunction) {
+            this.releaseFunction = releaseFunction;
+        }
+    }
+
 }
@@ -0,0 +1,43 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.LockFreeTimestamper;
+import org.hibernate.cache.Timestamper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht den {@link LockFreeTimestamper} mit dem synchronisierten
+ * {@link Timestamper#next()} von Hibernate, wenn 64 Threads gleichzeitig
+ * Zeitstempel ziehen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(64)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TimestamperBenchmark {
+
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TimestamperBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Benchmark
+    public long hibernateTimestamper() {
+        return Timestamper.next();
+    }
+
+    @Benchmark
+    public long lockFreeTimestamper() {
+        return LockFreeTimestamper.next();
+    }
+
+}
@@ -0,0 +1,102 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.cache.version_3_2.SharedMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.ThreadLocalMemoryCache;
+import eu.dirk.haase.hibernate.cache.version_3_2.TwoTierMemoryCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class TwoTierMemoryCacheTest {
+
+    private TwoTierMemoryCache cache;
+
+    @Before
+    public void setUp() {
+        this.cache = new TwoTierMemoryCache(new ThreadLocalMemoryCache("near", 100, 60_000), new SharedMemoryCache("shared", 1_000, 60_000));
+    }
+
+    @Test
+    public void test_that_repeated_reads_are_served_by_the_near_cache() throws Exception {
+        // Given
+        runInOtherThread(() -> this.cache.put("key", "value"));
+        // When
+        final Object value1 = this.cache.get("key");
+        final Object value2 = this.cache.get("key");
+        final Object value3 = this.cache.get("key");
+        // Then
+        assertThat(value1).isEqualTo("value");
+        assertThat(value2).isEqualTo("value");
+        assertThat(value3).isEqualTo("value");
+        assertThat(this.cache.getSharedStatistics().getHitCount()).isEqualTo(1L);
+        assertThat(this.cache.getNearStatistics().getHitCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void test_that_a_write_in_another_thread_invalidates_the_near_cache() throws Exception {
+        // Given
+        this.cache.put("key", "value-1");
+        final Object value1 = this.cache.get("key");
+        // When
+        runInOtherThread(() -> this.cache.put("key", "value-2"));
+        final Object value2 = this.cache.get("key");
+        runInOtherThread(() -> this.cache.remove("key"));
+        final Object value3 = this.cache.get("key");
+        // Then
+        assertThat(value1).isEqualTo("value-1");
+        assertThat(value2).isEqualTo("value-2");
+        assertThat(value3).isNull();
+    }
+
+    @Test
+    public void test_that_clear_in_another_thread_invalidates_the_near_cache() throws Exception {
+        // Given
+        this.cache.put("key-1", "value-1");
+        this.cache.put("key-2", "value-2");
+        // When
+        runInOtherThread(() -> this.cache.clear());
+        // Then
+        assertThat(this.cache.get("key-1")).isNull();
+        assertThat(this.cache.get("key-2")).isNull();
+        assertThat(this.cache.getElementCountInMemory()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_that_a_concurrent_write_between_two_writes_is_not_hidden_by_the_near_cache() throws Exception {
+        // Given
+        final SharedMemoryCache sharedCache = new SharedMemoryCache("shared", 1_000, 60_000) {
+            @Override
+            public void put(final Object key, final Object value) {
+                super.put(key, value);
+                if ("value-1".equals(value)) {
+                    // Ein zweiter Schreiber kommt zwischen L2 und Invalidierung:
+                    try {
+                        runInOtherThread(() -> TwoTierMemoryCacheTest.this.cache.put(key, "value-2"));
+                    } catch (InterruptedException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            }
+        };
+        this.cache = new TwoTierMemoryCache(new ThreadLocalMemoryCache("near", 100, 60_000), sharedCache);
+        // When
+        this.cache.put("key", "value-1");
+        final Object value1 = this.cache.get("key");
+        final Object value2 = this.cache.get("key");
+        // Then
+        assertThat(value1).isEqualTo("value-2");
+        assertThat(value2).isEqualTo("value-2");
+        assertThat(this.cache.getNearStatistics().getHitCount()).isEqualTo(1L);
+    }
+
+    private void runInOtherThread(final Runnable runnable) throws InterruptedException {
+        final Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+    }
+
+}
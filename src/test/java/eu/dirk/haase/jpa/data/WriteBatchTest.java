@@ -0,0 +1,223 @@
+package eu.dirk.haase.jpa.data;
+
+import eu.dirk.haase.hibernate.jdbc.HibernateConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class WriteBatchTest {
+
+    private static final String INSERT_SQL = "insert into PERSON (ID, NAME) values (?, ?)";
+
+    private HibernateConnection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:write_batch_test");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        this.connection = new HibernateConnection(dataSource.getConnection(), 2);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table if not exists PERSON (ID int primary key, NAME varchar(50))");
+        }
+        this.connection.setAutoCommit(false);
+        this.connection.setWriteBatchSize(3);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.rollback();
+        this.connection.setAutoCommit(true);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop table PERSON");
+        }
+        this.connection.close();
+    }
+
+    @Test
+    public void test_that_inserts_are_sent_as_one_batch() throws SQLException {
+        // Given
+        final int[] updateCounts = new int[3];
+        // When
+        final long drainCount1;
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            updateCounts[0] = insert(statement, 1, "Nina");
+            updateCounts[1] = insert(statement, 2, "Tom");
+            drainCount1 = this.connection.getWriteBatchDrainCount();
+            updateCounts[2] = insert(statement, 3, "Ida");
+        }
+        // Then
+        assertThat(updateCounts[0]).isEqualTo(1);
+        assertThat(updateCounts[1]).isEqualTo(1);
+        assertThat(updateCounts[2]).isEqualTo(1);
+        assertThat(drainCount1).isEqualTo(0);
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(1);
+        assertThat(countPersons()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_that_query_drains_pending_inserts() throws SQLException {
+        // Given
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+            insert(statement, 2, "Tom");
+        }
+        final long drainCount1 = this.connection.getWriteBatchDrainCount();
+        // When
+        final int count = countPersons();
+        // Then
+        assertThat(drainCount1).isEqualTo(0);
+        assertThat(count).isEqualTo(2);
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_commit_drains_pending_inserts() throws SQLException {
+        // Given
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+        }
+        // When
+        this.connection.commit();
+        // Then
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(1);
+        assertThat(countPersons()).isEqualTo(1);
+        // clean up
+        try (Statement statement = this.connection.createStatement()) {
+            statement.executeUpdate("delete from PERSON");
+        }
+        this.connection.commit();
+    }
+
+    @Test
+    public void test_that_flush_drains_pending_inserts() throws SQLException {
+        // Given
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+        }
+        // When
+        this.connection.flush();
+        // Then
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_rollback_discards_pending_inserts() throws SQLException {
+        // Given
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+        }
+        // When
+        this.connection.rollback();
+        // Then
+        assertThat(countPersons()).isEqualTo(0);
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_failing_batch_reports_the_exception() throws SQLException {
+        // Given
+        SQLException actualException = null;
+        // When
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+            insert(statement, 1, "Tom");
+            countPersons();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        // Then
+        assertThat(actualException).isNotNull();
+    }
+
+    @Test
+    public void test_that_multi_row_insert_is_not_batched() throws SQLException {
+        // Given
+        final String multiRowSql = "insert into PERSON (ID, NAME) values (?, ?), (?, ?)";
+        // When
+        final int updateCount;
+        try (PreparedStatement statement = this.connection.prepareStatement(multiRowSql)) {
+            statement.setInt(1, 1);
+            statement.setString(2, "Nina");
+            statement.setInt(3, 2);
+            statement.setString(4, "Tom");
+            updateCount = statement.executeUpdate();
+        }
+        // Then
+        assertThat(updateCount).isEqualTo(2);
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_closed_statement_keeps_collecting_until_drained() throws SQLException {
+        // Given
+        final int[] updateCounts = new int[3];
+        // When
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            updateCounts[0] = insert(statement, 1, "Nina");
+        }
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            updateCounts[1] = insert(statement, 2, "Tom");
+        }
+        final long drainCount1 = this.connection.getWriteBatchDrainCount();
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            updateCounts[2] = insert(statement, 3, "Ida");
+        }
+        // Then
+        assertThat(updateCounts[2]).isEqualTo(1);
+        assertThat(drainCount1).isEqualTo(0);
+        assertThat(this.connection.getWriteBatchDrainCount()).isEqualTo(1);
+        assertThat(this.connection.getStatementCache().getMissCount()).isEqualTo(1);
+        assertThat(countPersons()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_that_closed_statement_is_not_evicted_with_pending_batch() throws SQLException {
+        // Given
+        final PreparedStatement statement1 = this.connection.prepareStatement("select NAME from PERSON where ID = ?");
+        final PreparedStatement statement2 = this.connection.prepareStatement("select ID from PERSON where NAME = ?");
+        try (PreparedStatement statement = this.connection.prepareStatement(INSERT_SQL)) {
+            insert(statement, 1, "Nina");
+            insert(statement, 1, "Tom");
+        }
+        statement1.close();
+        statement2.close();
+        SQLException actualException = null;
+        // When
+        try {
+            this.connection.commit();
+        } catch (SQLException ex) {
+            actualException = ex;
+        }
+        // Then
+        assertThat(actualException).isNotNull();
+        assertThat(this.connection.getStatementCache().getEvictionCount()).isEqualTo(1L);
+    }
+
+    private int countPersons() throws SQLException {
+        try (Statement statement = this.connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select count(*) from PERSON")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private int insert(final PreparedStatement statement, final int id, final String name) throws SQLException {
+        statement.setInt(1, id);
+        statement.setString(2, name);
+        return statement.executeUpdate();
+    }
+
+}